@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.benchmark.location;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kevinquan.android.location.CoordinateParser;
+
+/**
+ * This class compares parsing random latitudes and longitudes with {@link CoordinateParser} and with
+ * {@link Double#parseDouble(String)}, both from strings and from ranges of one character buffer as a reader would hold
+ * them.  Coordinates have between 4 and 9 decimals.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinateParserBenchmark {
+
+    protected static final int COORDINATES = 1000;
+
+    protected String[] mCoordinates;
+    protected char[] mBuffer;
+    protected int[] mOffsets;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mCoordinates = new String[COORDINATES];
+        mOffsets = new int[COORDINATES + 1];
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < COORDINATES; i++) {
+            double value = (random.nextDouble() - 0.5) * (i % 2 == 0 ? 180 : 360);
+            mCoordinates[i] = String.format(Locale.US, "%."+(4 + random.nextInt(6))+"f", value);
+            mOffsets[i] = buffer.length();
+            buffer.append(mCoordinates[i]);
+        }
+        mOffsets[COORDINATES] = buffer.length();
+        mBuffer = buffer.toString().toCharArray();
+    }
+
+    @Benchmark
+    public double parseDouble() {
+        double total = 0;
+        for (String coordinate : mCoordinates) {
+            total += Double.parseDouble(coordinate);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double coordinateParser() {
+        double total = 0;
+        for (String coordinate : mCoordinates) {
+            total += CoordinateParser.parse(coordinate);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double parseDoubleFromBuffer() {
+        double total = 0;
+        for (int i = 0; i < COORDINATES; i++) {
+            total += Double.parseDouble(new String(mBuffer, mOffsets[i], mOffsets[i + 1] - mOffsets[i]));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double coordinateParserFromBuffer() {
+        double total = 0;
+        for (int i = 0; i < COORDINATES; i++) {
+            total += CoordinateParser.parse(mBuffer, mOffsets[i], mOffsets[i + 1] - mOffsets[i]);
+        }
+        return total;
+    }
+}
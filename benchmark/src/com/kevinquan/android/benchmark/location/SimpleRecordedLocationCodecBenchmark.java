@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.benchmark.location;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.kevinquan.android.location.SimpleRecordedLocation;
+import com.kevinquan.android.location.SimpleRecordedLocationCodec;
+
+/**
+ * This class compares writing and reading recorded locations as JSON through the generated codec, the hand written
+ * conversion and reflective Gson.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleRecordedLocationCodecBenchmark {
+
+    protected static final int LOCATIONS = 200;
+
+    protected SimpleRecordedLocation[] mLocations;
+    protected String[] mJson;
+    protected String[] mGsonJson;
+    protected Gson mGson;
+
+    @Setup
+    public void setUp() throws JSONException {
+        mLocations = new SimpleRecordedLocation[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            JSONObject json = new JSONObject();
+            json.put(SimpleRecordedLocation.JSON_FIELD_LATITUDE, 43.6532 + i / 10000d);
+            json.put(SimpleRecordedLocation.JSON_FIELD_LONGITUDE, -79.3832 - i / 10000d);
+            json.put(SimpleRecordedLocation.JSON_FIELD_ACCURACY, 5 + i % 20);
+            json.put(SimpleRecordedLocation.JSON_FIELD_ALTITUDE, 76.5);
+            json.put(SimpleRecordedLocation.JSON_FIELD_BEARING, i % 360);
+            json.put(SimpleRecordedLocation.JSON_FIELD_SPEED, 1.5);
+            json.put(SimpleRecordedLocation.JSON_FIELD_RECORDED_AT, 1384347600000L + i * 1000L);
+            json.put(SimpleRecordedLocation.JSON_FIELD_PROVIDER_ID, SimpleRecordedLocation.LocationProviderType.GPS.getDbId());
+            mLocations[i] = new SimpleRecordedLocation(json);
+        }
+        mGson = new Gson();
+        mJson = new String[LOCATIONS];
+        mGsonJson = new String[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            // The codec reads the hand written format, while Gson uses the field names
+            mJson[i] = mLocations[i].asJson(false).toString();
+            mGsonJson[i] = mGson.toJson(mLocations[i]);
+        }
+    }
+
+    @Benchmark
+    public int writeHandWritten() {
+        int total = 0;
+        for (SimpleRecordedLocation location : mLocations) {
+            total += location.asJson(false).toString().length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int writeGenerated() throws IOException {
+        int total = 0;
+        for (SimpleRecordedLocation location : mLocations) {
+            StringWriter output = new StringWriter();
+            SimpleRecordedLocationCodec.write(new JsonWriter(output), location);
+            total += output.getBuffer().length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int writeGson() {
+        int total = 0;
+        for (SimpleRecordedLocation location : mLocations) {
+            total += mGson.toJson(location).length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long readHandWritten() throws JSONException {
+        long total = 0;
+        for (String json : mJson) {
+            total += new SimpleRecordedLocation(new JSONObject(json)).getRecordedAt();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long readGenerated() throws IOException {
+        long total = 0;
+        for (String json : mJson) {
+            total += SimpleRecordedLocationCodec.read(new JsonReader(new StringReader(json))).getRecordedAt();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long readGson() {
+        long total = 0;
+        for (String json : mGsonJson) {
+            total += mGson.fromJson(json, SimpleRecordedLocation.class).getRecordedAt();
+        }
+        return total;
+    }
+}
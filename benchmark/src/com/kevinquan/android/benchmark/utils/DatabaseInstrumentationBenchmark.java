@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.benchmark.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.kevinquan.android.utils.DatabaseInstrumentation;
+
+/**
+ * This class compares timing a small unit of work with {@link DatabaseInstrumentation#start()} and
+ * {@link DatabaseInstrumentation#record(String, String, long, int)}, with instrumentation disabled and enabled, against
+ * running the work alone.  The statement is the same on every call, as it is for the queries of an application.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseInstrumentationBenchmark {
+
+    protected static final String SQL = "INSERT INTO locations (latitude, longitude, recordedAt) VALUES (?, ?, ?)";
+    protected static final long WORK_TOKENS = 50;
+
+    @Param({"false", "true"})
+    public boolean mEnabled;
+
+    @Setup
+    public void setUp() {
+        DatabaseInstrumentation.reset();
+        DatabaseInstrumentation.setEnabled(mEnabled);
+    }
+
+    @TearDown
+    public void tearDown() {
+        DatabaseInstrumentation.setEnabled(false);
+        DatabaseInstrumentation.reset();
+    }
+
+    @Benchmark
+    public void baseline() {
+        Blackhole.consumeCPU(WORK_TOKENS);
+    }
+
+    @Benchmark
+    public Object instrumented() {
+        long start = DatabaseInstrumentation.start();
+        Blackhole.consumeCPU(WORK_TOKENS);
+        return DatabaseInstrumentation.record("batch", SQL, start, 1);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.benchmark.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kevinquan.android.utils.JSONAccessor;
+import com.kevinquan.android.utils.JSONUtils;
+
+/**
+ * This class compares reading every optional field of sparse objects through {@link JSONAccessor} and through the
+ * {@link JSONUtils} safeGet* methods.  One field in eight is present, one is null and one holds a string of the wrong type;
+ * the rest are absent.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONAccessorBenchmark {
+
+    protected static final int FIELDS = 40;
+    protected static final int OBJECTS = 200;
+
+    protected JSONObject[] mObjects;
+    protected String[] mKeys;
+    protected JSONAccessor mAccessor;
+
+    @Setup
+    public void setUp() throws JSONException {
+        mObjects = new JSONObject[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            mObjects[i] = new JSONObject();
+            for (int field = 0; field < FIELDS; field++) {
+                switch ((field + i) % 8) {
+                    case 0: mObjects[i].put("field"+field, field); break;
+                    case 1: mObjects[i].put("field"+field, JSONObject.NULL); break;
+                    case 2: mObjects[i].put("field"+field, "n/a"); break;
+                    default: break;
+                }
+            }
+        }
+        mKeys = new String[FIELDS];
+        for (int field = 0; field < FIELDS; field++) {
+            mKeys[field] = "field"+field;
+        }
+        mAccessor = JSONAccessor.DEFAULT;
+    }
+
+    @Benchmark
+    public long safeGetLong() {
+        long total = 0;
+        for (JSONObject obj : mObjects) {
+            for (String key : mKeys) {
+                total += JSONUtils.safeGetLong(obj, key, 0);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long accessorGetLong() {
+        long total = 0;
+        for (JSONObject obj : mObjects) {
+            for (String key : mKeys) {
+                total += mAccessor.getLong(obj, key, 0);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int safeGetString() {
+        int total = 0;
+        for (JSONObject obj : mObjects) {
+            for (String key : mKeys) {
+                String value = JSONUtils.safeGetString(obj, key);
+                total += value == null ? 0 : value.length();
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int accessorGetString() {
+        int total = 0;
+        for (JSONObject obj : mObjects) {
+            for (String key : mKeys) {
+                String value = mAccessor.getString(obj, key);
+                total += value == null ? 0 : value.length();
+            }
+        }
+        return total;
+    }
+}
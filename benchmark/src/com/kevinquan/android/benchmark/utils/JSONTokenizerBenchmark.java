@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.benchmark.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kevinquan.android.utils.JSONNode;
+import com.kevinquan.android.utils.JSONTokenizer;
+
+/**
+ * This class compares parsing a document of 100 locations with org.json, {@link JSONNode} and {@link JSONTokenizer}, both
+ * on its own and while reading the latitude of every location.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONTokenizerBenchmark {
+
+    protected static final int LOCATIONS = 100;
+
+    protected String mJson;
+    protected JSONTokenizer mTokenizer;
+
+    @Setup
+    public void setUp() {
+        StringBuilder document = new StringBuilder("{\"locations\":[");
+        for (int i = 0; i < LOCATIONS; i++) {
+            if (i > 0) {
+                document.append(',');
+            }
+            document.append("{\"latitude\":").append(43.6532 + i / 10000d).append(",\"longitude\":").append(-79.3832 - i / 10000d)
+                    .append(",\"accuracy\":").append(5 + i % 20).append(",\"recordedAt\":").append(1384347600000L + i * 1000L)
+                    .append(",\"providerId\":5,\"label\":\"location ").append(i).append("\"}");
+        }
+        mJson = document.append("]}").toString();
+        mTokenizer = new JSONTokenizer(mJson);
+    }
+
+    @Benchmark
+    public Object parseOrgJson() throws JSONException {
+        return new JSONObject(mJson);
+    }
+
+    @Benchmark
+    public Object parseTree() throws IOException {
+        return JSONNode.parse(mJson);
+    }
+
+    @Benchmark
+    public int walkTokens() throws IOException {
+        mTokenizer.reset(mJson);
+        int tokens = 0;
+        while (mTokenizer.next() != JSONTokenizer.Token.EndDocument) {
+            tokens++;
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public double readOrgJson() throws JSONException {
+        JSONArray locations = new JSONObject(mJson).getJSONArray("locations");
+        double total = 0;
+        for (int i = 0; i < locations.length(); i++) {
+            total += locations.getJSONObject(i).getDouble("latitude");
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double readTree() throws IOException {
+        JSONNode locations = JSONNode.parse(mJson).getArray("locations");
+        double total = 0;
+        for (int i = 0; i < locations.size(); i++) {
+            total += locations.get(i).getDouble("latitude", 0);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double readTokens() throws IOException {
+        mTokenizer.reset(mJson);
+        double total = 0;
+        JSONTokenizer.Token token;
+        while ((token = mTokenizer.next()) != JSONTokenizer.Token.EndDocument) {
+            if (token == JSONTokenizer.Token.Name && mTokenizer.textEquals("latitude")) {
+                total += mTokenizer.nextDouble(0);
+            }
+        }
+        return total;
+    }
+}
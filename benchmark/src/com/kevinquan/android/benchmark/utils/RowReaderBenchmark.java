@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.benchmark.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.database.MatrixCursor;
+
+import com.kevinquan.android.utils.CursorUtils;
+
+/**
+ * This class compares reading every column of every row of a wide cursor through {@link CursorUtils#safeGetDouble} and
+ * through a {@link CursorUtils.RowReader} bound once to the cursor.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowReaderBenchmark {
+
+    protected static final int ROWS = 100;
+
+    @Param({"10", "40"})
+    public int mColumnCount;
+
+    protected MatrixCursor mCursor;
+    protected String[] mColumns;
+
+    @Setup
+    public void setUp() {
+        mColumns = new String[mColumnCount];
+        for (int column = 0; column < mColumnCount; column++) {
+            mColumns[column] = "column"+column;
+        }
+        mCursor = new MatrixCursor(mColumns, ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            Object[] values = new Object[mColumnCount];
+            for (int column = 0; column < mColumnCount; column++) {
+                values[column] = row * 0.5 + column;
+            }
+            mCursor.addRow(values);
+        }
+    }
+
+    @Benchmark
+    public double safeGetDouble() {
+        double total = 0;
+        for (mCursor.moveToPosition(-1); mCursor.moveToNext();) {
+            for (String column : mColumns) {
+                total += CursorUtils.safeGetDouble(mCursor, column, 0);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double rowReader() {
+        double total = 0;
+        // A new reader per pass, as the reader is created and bound once per cursor
+        CursorUtils.RowReader reader = new CursorUtils.RowReader(mColumns).bind(mCursor);
+        for (mCursor.moveToPosition(-1); mCursor.moveToNext();) {
+            for (int slot = 0; slot < mColumnCount; slot++) {
+                total += reader.getDouble(slot, 0);
+            }
+        }
+        return total;
+    }
+}
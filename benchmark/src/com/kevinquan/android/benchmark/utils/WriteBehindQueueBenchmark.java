@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.benchmark.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.kevinquan.android.utils.ContentProviderUtils;
+import com.kevinquan.android.utils.WriteBehindQueue;
+
+/**
+ * This class compares applying 100 small inserts one batch each and through a {@link WriteBehindQueue}, waiting for the
+ * queue's barrier.  The simulated provider spins for a fixed time per transaction to stand in for the binder call and
+ * commit, plus a little per operation.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBehindQueueBenchmark {
+
+    protected static final Uri ITEMS_URI = Uri.parse("content://benchmark/items");
+    protected static final int WRITES = 100;
+    protected static final long TRANSACTION_NANOS = 200 * 1000;
+    protected static final long OPERATION_NANOS = 2 * 1000;
+
+    /**
+     * A batch applied to the simulated provider
+     */
+    protected static class SimulatedBatch extends ContentProviderUtils.ChunkedBatch {
+        public SimulatedBatch() {
+            super(null, "benchmark");
+        }
+
+        @Override protected ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) {
+            spin(TRANSACTION_NANOS + OPERATION_NANOS * operations.size());
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new ContentProviderResult(ITEMS_URI);
+            }
+            return results;
+        }
+    }
+
+    protected static class SimulatedQueue extends WriteBehindQueue {
+        public SimulatedQueue() {
+            super(null, "benchmark");
+        }
+
+        @Override protected ContentProviderUtils.ChunkedBatch createBatch() {
+            return new SimulatedBatch().setChunkSize(mChunkSize);
+        }
+    }
+
+    protected static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // Busy, as the calling thread would be blocked on the provider
+        }
+    }
+
+    protected ContentValues[] mValues;
+    protected SimulatedQueue mQueue;
+
+    @Setup
+    public void setUp() {
+        mValues = new ContentValues[WRITES];
+        for (int i = 0; i < WRITES; i++) {
+            mValues[i] = new ContentValues();
+            mValues[i].put("index", i);
+        }
+        mQueue = new SimulatedQueue();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mQueue.shutdown();
+    }
+
+    @Benchmark
+    public int singleBatches() {
+        int applied = 0;
+        for (ContentValues values : mValues) {
+            ContentProviderUtils.ChunkedBatch batch = new SimulatedBatch();
+            batch.add(ContentProviderOperation.newInsert(ITEMS_URI).withValues(values));
+            applied += batch.apply().length;
+        }
+        return applied;
+    }
+
+    @Benchmark
+    public long queued() throws InterruptedException, ExecutionException {
+        for (ContentValues values : mValues) {
+            mQueue.insert(ITEMS_URI, values);
+        }
+        mQueue.barrier().get();
+        return mQueue.getAppliedCount();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a {@link GenerateCodec} model to be encoded.  The field must be visible to its package.
+ *
+ * Supported types are primitives, strings, enums and lists of other {@link GenerateCodec} models.  Enums are stored using
+ * the value returned by {@link #toValue()} and restored with the static {@link #fromValue()} method of the enum, which must
+ * accept the same type.  Lists can only be stored in JSON and parcels.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface CodecField {
+
+    /**
+     * @return The JSON field name, or empty if the field is not stored in JSON
+     */
+    String json() default "";
+
+    /**
+     * @return The database column, or empty if the field is not stored in rows
+     */
+    String column() default "";
+
+    /**
+     * @return For enums, the name of the instance method returning the stored value
+     */
+    String toValue() default "toString";
+
+    /**
+     * @return For enums, the name of the static method converting a stored value back to the enum
+     */
+    String fromValue() default "fromValue";
+}
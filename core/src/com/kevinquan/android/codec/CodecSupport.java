@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.codec;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.kevinquan.android.utils.DoubleFormatter;
+
+/**
+ * Helpers used by generated codecs to read JSON values leniently and to write decimal values compactly.  Values are coerced the same way as the
+ * <code>safeGet*</code> methods of {@link com.kevinquan.android.utils.JSONUtils}: numbers stored as strings are parsed, and
+ * nulls or values of the wrong type leave the default value in place.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class CodecSupport {
+
+    public static boolean readBoolean(JsonReader reader, boolean defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        if (token == JsonToken.STRING) {
+            String text = reader.nextString();
+            if ("true".equalsIgnoreCase(text)) {
+                return true;
+            } else if ("false".equalsIgnoreCase(text)) {
+                return false;
+            }
+            return defaultValue;
+        }
+        reader.skipValue();
+        return defaultValue;
+    }
+
+    public static double readDouble(JsonReader reader, double defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            reader.skipValue();
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(reader.nextString());
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    public static float readFloat(JsonReader reader, float defaultValue) throws IOException {
+        return (float)readDouble(reader, defaultValue);
+    }
+
+    public static int readInt(JsonReader reader, int defaultValue) throws IOException {
+        return (int)readLong(reader, defaultValue);
+    }
+
+    public static long readLong(JsonReader reader, long defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            reader.skipValue();
+            return defaultValue;
+        }
+        String text = reader.nextString();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException nfe) {
+            // Decimal numbers are truncated, as org.json does
+        }
+        try {
+            return (long)Double.parseDouble(text);
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return The value as a string, or the default value if it is null, an object or an array
+     */
+    public static String readString(JsonReader reader, String defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return reader.nextBoolean() ? "true" : "false";
+            default:
+                reader.skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Write a double in the shortest form which reads back as the same value
+     */
+    public static void writeDouble(JsonWriter writer, double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Let the writer decide whether these are allowed
+            writer.value(value);
+            return;
+        }
+        writer.jsonValue(DoubleFormatter.toString(value));
+    }
+
+    /**
+     * Write a float in the shortest form which reads back as the same float, rather than the digits of the widened double
+     */
+    public static void writeFloat(JsonWriter writer, float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            writer.value((double)value);
+            return;
+        }
+        writer.jsonValue(DoubleFormatter.toString(value));
+    }
+
+    /**
+     * Skips a value if it is null
+     * @return True if the value was null
+     */
+    public static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a model for which a codec class named <code>&lt;Model&gt;Codec</code> is generated in the same package.  The codec
+ * converts the model's {@link CodecField} fields to and from streamed JSON, {@link android.os.Parcel}s,
+ * {@link android.content.ContentValues} and {@link android.database.Cursor} rows without reflection.
+ *
+ * The model must have a constructor without arguments that is visible to its package.  Decoding starts from an instance
+ * created with that constructor, so fields that are missing from the source keep the values set by the constructor.
+ *
+ * A model that is {@link android.os.Parcelable} should delegate its <code>writeToParcel</code> and its Parcel constructor
+ * to the codec, so that the model has a single parcel layout.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateCodec {
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock free ring buffer of fixed width records made of primitive longs.  Records are written in place, so
+ * publishing and consuming a record does not allocate.
+ *
+ * Any number of threads may publish (or a single thread when constructed with {@link ProducerType#Single}), but only
+ * one thread may consume.  Publishing never takes a lock and never performs I/O, making it safe to call from binder and
+ * main thread callbacks.  When the buffer is full the {@link OverflowPolicy} decides whether the record is dropped or the
+ * publisher spins until space is available or the wait times out.
+ *
+ * Float and double fields should be stored using {@link Float#floatToRawIntBits(float)} and
+ * {@link Double#doubleToRawLongBits(double)}.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class PrimitiveRingBuffer {
+
+    public enum ProducerType {
+        /** Only a single thread will ever publish, allowing claims without compare and set */
+        Single,
+        /** Multiple threads may publish concurrently */
+        Multi,
+    }
+
+    public enum OverflowPolicy {
+        /** Drop the record being published when the buffer is full */
+        DropNewest,
+        /** Spin (yielding) until the consumer frees space, dropping the record if the wait times out */
+        Wait,
+    }
+
+    /**
+     * Writes the fields of a record into the buffer
+     */
+    public interface RecordWriter<T> {
+        /**
+         * @param source The object being published
+         * @param data The backing array of the buffer
+         * @param offset The index of the first field of the record
+         */
+        void write(T source, long[] data, int offset);
+    }
+
+    /**
+     * Receives the records drained from the buffer.  The fields must be copied out before returning from {@link #onRecord}.
+     */
+    public interface BatchHandler {
+        void onBatchStart(int size);
+        void onRecord(long[] data, int offset);
+        /**
+         * Called once the batch has been handled, including when {@link #onRecord} threw
+         * @param successful True if every record in the batch was handled without throwing
+         */
+        void onBatchEnd(boolean successful);
+    }
+
+    protected static final long UNPUBLISHED = -1;
+
+    protected final int mRecordWidth;
+    protected final int mMask;
+    protected final long[] mData;
+    protected final AtomicLongArray mPublished;
+    protected final AtomicLong mClaimed;
+    protected final AtomicLong mConsumed;
+    protected final ProducerType mProducerType;
+    protected final OverflowPolicy mPolicy;
+    protected final long mMaxWaitNanos;
+
+    protected final AtomicLong mDropped;
+    protected final AtomicLong mOverflows;
+
+    /**
+     * @param capacity The number of records to hold, rounded up to the next power of two
+     * @param recordWidth The number of longs in each record
+     * @param producerType Whether one or many threads will publish
+     * @param policy What to do when the buffer is full
+     * @param maxWaitMillis The longest a publisher will wait for space when using {@link OverflowPolicy#Wait}
+     */
+    public PrimitiveRingBuffer(int capacity, int recordWidth, ProducerType producerType, OverflowPolicy policy, long maxWaitMillis) {
+        if (capacity < 1 || recordWidth < 1) {
+            throw new IllegalArgumentException("Capacity and record width must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mRecordWidth = recordWidth;
+        mMask = size - 1;
+        mData = new long[size * recordWidth];
+        mPublished = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mPublished.set(i, UNPUBLISHED);
+        }
+        mClaimed = new AtomicLong(0);
+        mConsumed = new AtomicLong(0);
+        mProducerType = producerType == null ? ProducerType.Multi : producerType;
+        mPolicy = policy == null ? OverflowPolicy.DropNewest : policy;
+        mMaxWaitNanos = Math.max(0, maxWaitMillis) * 1000000L;
+        mDropped = new AtomicLong(0);
+        mOverflows = new AtomicLong(0);
+    }
+
+    public PrimitiveRingBuffer(int capacity, int recordWidth) {
+        this(capacity, recordWidth, ProducerType.Multi, OverflowPolicy.DropNewest, 0);
+    }
+
+    /**
+     * Publish a record into the buffer
+     * @param source The object to publish
+     * @param writer The writer that copies the object's fields into the buffer
+     * @return True if the record was published, false if it was dropped
+     */
+    public <T> boolean publish(T source, RecordWriter<T> writer) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        int slot = (int)(sequence & mMask);
+        writer.write(source, mData, slot * mRecordWidth);
+        mPublished.lazySet(slot, sequence);
+        return true;
+    }
+
+    /**
+     * Drain up to the maximum number of published records, in order, to the handler.  Must only be called from the consumer thread.
+     * If the handler throws, the batch is still ended (unsuccessfully) and its records are released, then the exception propagates.
+     * @param handler The handler to receive the records
+     * @param maxRecords The maximum number of records to drain
+     * @return The number of records drained
+     */
+    public int drain(BatchHandler handler, int maxRecords) {
+        long start = mConsumed.get();
+        long end = start;
+        long limit = start + Math.max(1, maxRecords);
+        while (end < limit && mPublished.get((int)(end & mMask)) == end) {
+            end++;
+        }
+        int count = (int)(end - start);
+        if (count == 0) {
+            return 0;
+        }
+        handler.onBatchStart(count);
+        boolean successful = false;
+        try {
+            for (long sequence = start; sequence < end; sequence++) {
+                handler.onRecord(mData, (int)(sequence & mMask) * mRecordWidth);
+            }
+            successful = true;
+        } finally {
+            handler.onBatchEnd(successful);
+            // Release the slots even if the handler failed so that publishers are not blocked forever
+            mConsumed.lazySet(end);
+        }
+        return count;
+    }
+
+    protected long claim() {
+        long waitStart = 0;
+        boolean overflowed = false;
+        while (true) {
+            long sequence = mClaimed.get();
+            if (sequence - mConsumed.get() > mMask) {
+                if (!overflowed) {
+                    overflowed = true;
+                    mOverflows.incrementAndGet();
+                    waitStart = System.nanoTime();
+                }
+                if (mPolicy == OverflowPolicy.DropNewest || System.nanoTime() - waitStart >= mMaxWaitNanos) {
+                    mDropped.incrementAndGet();
+                    return -1;
+                }
+                Thread.yield();
+                continue;
+            }
+            if (mProducerType == ProducerType.Single) {
+                mClaimed.lazySet(sequence + 1);
+                return sequence;
+            }
+            if (mClaimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    public int getRecordWidth() {
+        return mRecordWidth;
+    }
+
+    /**
+     * @return The approximate number of records waiting to be consumed
+     */
+    public int size() {
+        return (int)Math.max(0, mClaimed.get() - mConsumed.get());
+    }
+
+    /**
+     * @return The total number of records that have been published
+     */
+    public long getPublishedCount() {
+        return mClaimed.get();
+    }
+
+    /**
+     * @return The total number of records that were dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return The number of times a publisher found the buffer full, whether or not the record was eventually published
+     */
+    public long getOverflowCount() {
+        return mOverflows.get();
+    }
+}
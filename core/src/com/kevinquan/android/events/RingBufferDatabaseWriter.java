@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.kevinquan.android.utils.DatabaseInstrumentation;
+
+/**
+ * Consumes a {@link PrimitiveRingBuffer} on a dedicated thread, inserting each drained batch of records into a database
+ * table within a single transaction.  A record that fails to insert is counted and skipped, but if binding a record throws
+ * then the whole batch is rolled back and counted as failed.
+ *
+ * The writer polls the buffer rather than being signalled by publishers so that publishing never touches a lock.  Records
+ * published within a poll interval are written together.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class RingBufferDatabaseWriter implements PrimitiveRingBuffer.BatchHandler {
+
+    /**
+     * Binds the fields of a record to the insert statement
+     */
+    public interface RecordBinder {
+        /**
+         * @return The insert statement, with one parameter per bound field
+         */
+        String getInsertStatement();
+        void bind(SQLiteStatement statement, long[] data, int offset);
+    }
+
+    protected final PrimitiveRingBuffer mBuffer;
+    protected final SQLiteDatabase mDatabase;
+    protected final RecordBinder mBinder;
+    protected final int mMaxBatchSize;
+    protected final long mPollIntervalNanos;
+
+    protected final AtomicLong mWritten;
+    protected final AtomicLong mFailed;
+    protected final AtomicLong mBatches;
+
+    protected volatile boolean mRunning;
+    protected Thread mThread;
+    protected SQLiteStatement mStatement;
+    protected long mBatchStart;
+    protected int mBatchSize;
+    protected int mBatchWritten;
+    protected int mBatchFailed;
+
+    /**
+     * @param buffer The buffer to consume
+     * @param database The database to write to
+     * @param binder The binder for the records in the buffer
+     * @param maxBatchSize The maximum number of records to write in one transaction
+     * @param pollIntervalMillis How long to wait when the buffer is empty before checking again
+     */
+    public RingBufferDatabaseWriter(PrimitiveRingBuffer buffer, SQLiteDatabase database, RecordBinder binder, int maxBatchSize, long pollIntervalMillis) {
+        if (buffer == null || database == null || binder == null) {
+            throw new IllegalArgumentException("Buffer, database and binder must be provided");
+        }
+        mBuffer = buffer;
+        mDatabase = database;
+        mBinder = binder;
+        mMaxBatchSize = Math.max(1, maxBatchSize);
+        mPollIntervalNanos = Math.max(1, pollIntervalMillis) * 1000000L;
+        mWritten = new AtomicLong(0);
+        mFailed = new AtomicLong(0);
+        mBatches = new AtomicLong(0);
+    }
+
+    /**
+     * Start the consumer thread.  Has no effect if the writer is already running.
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override public void run() {
+                consume();
+            }
+        }, TAG);
+        mThread.setPriority(Thread.NORM_PRIORITY - 1);
+        mThread.start();
+    }
+
+    /**
+     * Stop the consumer thread after writing any records remaining in the buffer
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException ie) {
+            Log.w(TAG, "Interrupted while waiting for writer to stop.", ie);
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    protected void consume() {
+        mStatement = mDatabase.compileStatement(mBinder.getInsertStatement());
+        try {
+            while (mRunning) {
+                if (drainOnce() == 0) {
+                    LockSupport.parkNanos(mPollIntervalNanos);
+                }
+            }
+            // Flush whatever was published before stopping
+            while (drainOnce() > 0);
+        } finally {
+            mStatement.close();
+            mStatement = null;
+        }
+    }
+
+    protected int drainOnce() {
+        try {
+            return mBuffer.drain(this, mMaxBatchSize);
+        } catch (RuntimeException re) {
+            Log.e(TAG, "Could not write batch of events.", re);
+            return 0;
+        }
+    }
+
+    @Override public void onBatchStart(int size) {
+        mBatchStart = DatabaseInstrumentation.start();
+        mBatchSize = size;
+        mBatchWritten = 0;
+        mBatchFailed = 0;
+        mDatabase.beginTransaction();
+    }
+
+    @Override public void onRecord(long[] data, int offset) {
+        mStatement.clearBindings();
+        mBinder.bind(mStatement, data, offset);
+        try {
+            mStatement.executeInsert();
+            mBatchWritten++;
+        } catch (RuntimeException re) {
+            Log.w(TAG, "Could not insert event.", re);
+            mBatchFailed++;
+        }
+    }
+
+    @Override public void onBatchEnd(boolean successful) {
+        boolean committed = false;
+        try {
+            try {
+                if (successful) {
+                    mDatabase.setTransactionSuccessful();
+                }
+            } finally {
+                mDatabase.endTransaction();
+            }
+            committed = successful;
+        } finally {
+            DatabaseInstrumentation.record("batch", mBinder.getInsertStatement(), mBatchStart, mBatchSize);
+            if (committed) {
+                mWritten.addAndGet(mBatchWritten);
+                mFailed.addAndGet(mBatchFailed);
+                mBatches.incrementAndGet();
+            } else {
+                // Records inserted before the failure were rolled back along with the rest of the batch
+                mFailed.addAndGet(mBatchSize);
+            }
+        }
+    }
+
+    public PrimitiveRingBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return The number of records that have been inserted
+     */
+    public long getWrittenCount() {
+        return mWritten.get();
+    }
+
+    /**
+     * @return The number of records that could not be inserted, including those in batches that were rolled back
+     */
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * @return The number of transactions that have been committed
+     */
+    public long getBatchCount() {
+        return mBatches.get();
+    }
+
+    private static final String TAG = RingBufferDatabaseWriter.class.getSimpleName();
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.location;
+
+import android.util.Log;
+
+/**
+ * Parses latitude and longitude values without allocating.  Coordinates are short plain decimals, such as "-79.3832123",
+ * so the digits are accumulated into a long and divided by a power of ten once.  As long as the digits fit in 53 bits and
+ * there are at most 22 decimals, both operands are exact doubles and the correctly rounded division gives exactly the same
+ * result as {@link Double#parseDouble(String)}.  This covers every coordinate with up to 9 decimals and up to 3 integer
+ * digits, and most other plain decimals.
+ *
+ * Anything else (exponents, more significant digits, "NaN" and so on) falls back to {@link Double#parseDouble(String)}.
+ * Values which cannot be parsed return {@link LocationUtils#NO_VALUE}.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class CoordinateParser {
+
+    private static final String TAG = CoordinateParser.class.getSimpleName();
+
+    // Doubles can hold every long up to 2^53 exactly
+    protected static final long MAX_EXACT = 1L << 53;
+    // Accumulating another digit will not overflow a long below this
+    protected static final long MAX_ACCUMULATE = (Long.MAX_VALUE - 9) / 10;
+    protected static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    /**
+     * @return The parsed value or {@link LocationUtils#NO_VALUE} if it is empty or cannot be parsed
+     */
+    public static double parse(CharSequence text) {
+        if (text == null) {
+            return LocationUtils.NO_VALUE;
+        }
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * @return The parsed value of the characters in the range, or {@link LocationUtils#NO_VALUE} if it is empty or cannot
+     * be parsed
+     */
+    public static double parse(CharSequence text, int offset, int length) {
+        if (text == null || length <= 0 || offset < 0 || offset + length > text.length()) {
+            return LocationUtils.NO_VALUE;
+        }
+        return parse(text, null, offset, offset + length);
+    }
+
+    /**
+     * @return The parsed value of the characters in the range, or {@link LocationUtils#NO_VALUE} if it is empty or cannot
+     * be parsed
+     */
+    public static double parse(char[] chars, int offset, int length) {
+        if (chars == null || length <= 0 || offset < 0 || offset + length > chars.length) {
+            return LocationUtils.NO_VALUE;
+        }
+        return parse(null, chars, offset, offset + length);
+    }
+
+    /**
+     * Parse from either a character sequence or an array, so that neither needs to be wrapped
+     */
+    protected static double parse(CharSequence text, char[] chars, int offset, int end) {
+        // Surrounding whitespace is ignored, as Double.parseDouble does
+        while (offset < end && charAt(text, chars, offset) <= ' ') {
+            offset++;
+        }
+        while (end > offset && charAt(text, chars, end - 1) <= ' ') {
+            end--;
+        }
+        if (offset == end) {
+            return fallback(text, chars, offset, end);
+        }
+        int position = offset;
+        boolean negative = false;
+        char c = charAt(text, chars, position);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            position++;
+        }
+        long digits = 0;
+        int digitCount = 0;
+        int decimals = -1;
+        for (; position < end; position++) {
+            c = charAt(text, chars, position);
+            if (c >= '0' && c <= '9') {
+                if (digits > MAX_ACCUMULATE) {
+                    return fallback(text, chars, offset, end);
+                }
+                digits = digits * 10 + (c - '0');
+                digitCount++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return fallback(text, chars, offset, end);
+            }
+        }
+        if (digitCount == 0 || digits > MAX_EXACT || decimals >= POWERS_OF_TEN.length) {
+            return fallback(text, chars, offset, end);
+        }
+        double value = decimals > 0 ? digits / POWERS_OF_TEN[decimals] : (double)digits;
+        return negative ? -value : value;
+    }
+
+    protected static char charAt(CharSequence text, char[] chars, int index) {
+        return chars != null ? chars[index] : text.charAt(index);
+    }
+
+    protected static double fallback(CharSequence text, char[] chars, int start, int end) {
+        String value = chars != null ? new String(chars, start, end - start) : text.subSequence(start, end).toString();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            Log.w(TAG, "Could not parse lat/lng value as double from "+value, nfe);
+            return LocationUtils.NO_VALUE;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.location;
+
+import android.database.sqlite.SQLiteStatement;
+import android.location.Location;
+
+import com.kevinquan.android.events.PrimitiveRingBuffer;
+import com.kevinquan.android.events.RingBufferDatabaseWriter;
+import com.kevinquan.android.location.SimpleRecordedLocation.LocationProviderType;
+
+/**
+ * Layout of a recorded location within a {@link PrimitiveRingBuffer}, so that location callbacks can hand fixes off to a
+ * {@link RingBufferDatabaseWriter} without allocating or blocking.  Rows are written using the {@link SimpleRecordedLocation} columns.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class LocationEventRecord {
+
+    public static final int FIELD_LATITUDE = 0;
+    public static final int FIELD_LONGITUDE = 1;
+    public static final int FIELD_ACCURACY = 2;
+    public static final int FIELD_ALTITUDE = 3;
+    public static final int FIELD_BEARING = 4;
+    public static final int FIELD_SPEED = 5;
+    public static final int FIELD_RECORDED_AT = 6;
+    public static final int FIELD_PROVIDER_ID = 7;
+
+    public static final int RECORD_WIDTH = 8;
+
+    /**
+     * Writes a {@link Location}, identifying its provider from the location's provider name
+     */
+    public static final PrimitiveRingBuffer.RecordWriter<Location> LOCATION_WRITER = new PrimitiveRingBuffer.RecordWriter<Location>() {
+        @Override public void write(Location source, long[] data, int offset) {
+            LocationProviderType provider = LocationProviderType.fromLiteral(source.getProvider());
+            LocationEventRecord.write(data, offset, source.getLatitude(), source.getLongitude(), source.getAccuracy(), source.getAltitude(),
+                    source.getBearing(), source.getSpeed(), source.getTime(), provider.getDbId());
+        }
+    };
+
+    public static final PrimitiveRingBuffer.RecordWriter<SimpleRecordedLocation> SIMPLE_LOCATION_WRITER = new PrimitiveRingBuffer.RecordWriter<SimpleRecordedLocation>() {
+        @Override public void write(SimpleRecordedLocation source, long[] data, int offset) {
+            LocationEventRecord.write(data, offset, source.getLatitude(), source.getLongitude(), source.getAccuracy(), source.getAltitude(),
+                    source.getBearing(), source.getSpeed(), source.getRecordedAt(), source.getProvider().getDbId());
+        }
+    };
+
+    /**
+     * Creates a binder that inserts records into the provided table
+     * @param table The table using the {@link SimpleRecordedLocation} columns
+     * @return The binder
+     */
+    public static RingBufferDatabaseWriter.RecordBinder getBinder(final String table) {
+        return new RingBufferDatabaseWriter.RecordBinder() {
+            @Override public String getInsertStatement() {
+                return "INSERT INTO "+table+" ("
+                        +SimpleRecordedLocation.COLUMN_LATITUDE+", "
+                        +SimpleRecordedLocation.COLUMN_LONGITUDE+", "
+                        +SimpleRecordedLocation.COLUMN_ACCURACY+", "
+                        +SimpleRecordedLocation.COLUMN_ALTITUDE+", "
+                        +SimpleRecordedLocation.COLUMN_BEARING+", "
+                        +SimpleRecordedLocation.COLUMN_SPEED+", "
+                        +SimpleRecordedLocation.COLUMN_RECORDED_AT+", "
+                        +SimpleRecordedLocation.COLUMN_PROVIDER_ID+") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+            }
+
+            @Override public void bind(SQLiteStatement statement, long[] data, int offset) {
+                statement.bindDouble(1, Double.longBitsToDouble(data[offset + FIELD_LATITUDE]));
+                statement.bindDouble(2, Double.longBitsToDouble(data[offset + FIELD_LONGITUDE]));
+                statement.bindDouble(3, Float.intBitsToFloat((int)data[offset + FIELD_ACCURACY]));
+                statement.bindDouble(4, Double.longBitsToDouble(data[offset + FIELD_ALTITUDE]));
+                statement.bindDouble(5, Float.intBitsToFloat((int)data[offset + FIELD_BEARING]));
+                statement.bindDouble(6, Float.intBitsToFloat((int)data[offset + FIELD_SPEED]));
+                statement.bindLong(7, data[offset + FIELD_RECORDED_AT]);
+                statement.bindLong(8, data[offset + FIELD_PROVIDER_ID]);
+            }
+        };
+    }
+
+    protected static void write(long[] data, int offset, double latitude, double longitude, float accuracy, double altitude,
+            float bearing, float speed, long recordedAt, int providerId) {
+        data[offset + FIELD_LATITUDE] = Double.doubleToRawLongBits(latitude);
+        data[offset + FIELD_LONGITUDE] = Double.doubleToRawLongBits(longitude);
+        data[offset + FIELD_ACCURACY] = Float.floatToRawIntBits(accuracy);
+        data[offset + FIELD_ALTITUDE] = Double.doubleToRawLongBits(altitude);
+        data[offset + FIELD_BEARING] = Float.floatToRawIntBits(bearing);
+        data[offset + FIELD_SPEED] = Float.floatToRawIntBits(speed);
+        data[offset + FIELD_RECORDED_AT] = recordedAt;
+        data[offset + FIELD_PROVIDER_ID] = providerId;
+    }
+}
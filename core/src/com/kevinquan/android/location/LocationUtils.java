@@ -22,9 +22,9 @@ import android.location.Location;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
-import android.util.Log;
 
 import com.kevinquan.android.utils.DeviceUtils;
+import com.kevinquan.android.utils.DoubleFormatter;
 
 /**
  * A collection of utilities for dealing with location
@@ -106,29 +106,34 @@ public class LocationUtils {
      * @return The double value from preference or the default value
      */
     public static double getValueFromPreference(SharedPreferences preferences, String preferenceKey, String defaultValue) {
-        double defaultValueAsDouble = parseLocationValueFromString(defaultValue);
         if (preferences == null || TextUtils.isEmpty(preferenceKey) || !preferences.contains(preferenceKey)) {
-            return defaultValueAsDouble;
+            // The default is only parsed when it is needed
+            return parseLocationValueFromString(defaultValue);
         }
         String currentValue = preferences.getString(preferenceKey, defaultValue);
         return parseLocationValueFromString(currentValue);
     }
     
     /**
-     * Parses a double from a string that is meant to represent a latitude or longitude value. 
+     * Parses a double from a string that is meant to represent a latitude or longitude value.  Plain decimals are parsed by
+     * {@link CoordinateParser} without allocating.
      * @param value The value to parse from
      * @return The double representing the value or {@link LocationUtils}.NO_VALUE if one cannot be parsed
      */
     public static double parseLocationValueFromString(String value) {
-        double valueAsDouble = NO_VALUE;
-        if (!TextUtils.isEmpty(value)) {
-            try {
-                valueAsDouble = Double.parseDouble(value);
-            } catch (NumberFormatException nfe) {
-                Log.w(TAG, "Could not parse lat/lng value as double from "+value, nfe);
-            }
+        if (TextUtils.isEmpty(value)) {
+            return NO_VALUE;
         }
-        return valueAsDouble;
+        return CoordinateParser.parse(value);
+    }
+    
+    /**
+     * Parses a latitude or longitude value from a range of characters, such as a buffer filled by
+     * {@link android.database.Cursor#copyStringToBuffer(int, android.database.CharArrayBuffer)}
+     * @return The double representing the value or {@link LocationUtils}.NO_VALUE if one cannot be parsed
+     */
+    public static double parseLocationValue(char[] chars, int offset, int length) {
+        return CoordinateParser.parse(chars, offset, length);
     }
     
     /**
@@ -148,8 +153,9 @@ public class LocationUtils {
             editor.commit();
             return;
         }
-        editor.putString(latitudeKey, String.valueOf(location.getLatitude()));
-        editor.putString(longitudeKey, String.valueOf(location.getLongitude()));
+        // Shortest round trip form, so the stored coordinates read back exactly
+        editor.putString(latitudeKey, DoubleFormatter.toString(location.getLatitude()));
+        editor.putString(longitudeKey, DoubleFormatter.toString(location.getLongitude()));
         editor.commit();
     }
     
@@ -16,6 +16,7 @@
 package com.kevinquan.android.location;
 
 import android.content.ContentValues;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.location.Location;
 import android.os.Parcel;
@@ -24,25 +25,43 @@ import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.kevinquan.android.codec.CodecField;
+import com.kevinquan.android.codec.GenerateCodec;
 import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.JSONKeyTable;
+import com.kevinquan.android.utils.JSONTokenizer;
 import com.kevinquan.android.utils.JSONUtils;
+import com.kevinquan.android.utils.NDJSONCodec;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.Comparator;
 
 /**
  * This class models a recorded physical location position. 
  * 
+ * A reflection free codec, {@link SimpleRecordedLocationCodec}, is generated for this class at compile time.
+ * 
  * @author Kevin Quan (kevin.quan@gmail.com)
  *
  */
+@GenerateCodec
 public class SimpleRecordedLocation implements Parcelable {
 
     public static final Parcelable.Creator<SimpleRecordedLocation> CREATOR = new Parcelable.Creator<SimpleRecordedLocation>() {
         public SimpleRecordedLocation createFromParcel(Parcel in) { return new SimpleRecordedLocation(in); }
         public SimpleRecordedLocation[] newArray(int size) { return new SimpleRecordedLocation[size]; }
     };
+
+    /** Reads and writes locations as newline delimited JSON, one location per line */
+    public static final NDJSONCodec<SimpleRecordedLocation> NDJSON_CODEC = new NDJSONCodec<SimpleRecordedLocation>() {
+        @Override public void write(JsonWriter writer, SimpleRecordedLocation value) throws IOException { SimpleRecordedLocationCodec.write(writer, value); }
+        @Override public SimpleRecordedLocation read(JsonReader reader) throws IOException { return SimpleRecordedLocationCodec.read(reader); }
+    };
 	
     public static class PositionTimestampComparator implements Comparator<SimpleRecordedLocation> {
 
@@ -150,6 +169,19 @@ public class SimpleRecordedLocation implements Parcelable {
     public static final String JSON_FIELD_RECORDED_AT = "recordedAt";
     public static final String JSON_FIELD_PROVIDER_ID = "providerId";
     
+    // Field names looked up by read(JSONTokenizer, SimpleRecordedLocation), identified by their position in the table
+    protected static final JSONKeyTable JSON_KEYS = new JSONKeyTable(JSON_FIELD_LATITUDE, JSON_FIELD_LONGITUDE,
+            JSON_FIELD_ACCURACY, JSON_FIELD_ALTITUDE, JSON_FIELD_BEARING, JSON_FIELD_SPEED, JSON_FIELD_RECORDED_AT,
+            JSON_FIELD_PROVIDER_ID);
+    protected static final int JSON_KEY_LATITUDE = 0;
+    protected static final int JSON_KEY_LONGITUDE = 1;
+    protected static final int JSON_KEY_ACCURACY = 2;
+    protected static final int JSON_KEY_ALTITUDE = 3;
+    protected static final int JSON_KEY_BEARING = 4;
+    protected static final int JSON_KEY_SPEED = 5;
+    protected static final int JSON_KEY_RECORDED_AT = 6;
+    protected static final int JSON_KEY_PROVIDER_ID = 7;
+    
     public static final String COLUMN_LATITUDE = "latitude";
     public static final String COLUMN_LONGITUDE = "longitude";
     public static final String COLUMN_ACCURACY = "accuracy";
@@ -160,21 +192,45 @@ public class SimpleRecordedLocation implements Parcelable {
     // Note: This field should actually store {@link LocationProviderType}.getDbId()
     public static final String COLUMN_PROVIDER_ID = "provider";
     
+    protected static final int COLUMN_SLOT_LATITUDE = 0;
+    protected static final int COLUMN_SLOT_LONGITUDE = 1;
+    protected static final int COLUMN_SLOT_ACCURACY = 2;
+    protected static final int COLUMN_SLOT_ALTITUDE = 3;
+    protected static final int COLUMN_SLOT_BEARING = 4;
+    protected static final int COLUMN_SLOT_SPEED = 5;
+    protected static final int COLUMN_SLOT_RECORDED_AT = 6;
+    protected static final int COLUMN_SLOT_PROVIDER_ID = 7;
+    
     public static final float UNKNOWN_ACCURACY = -1;
     public static final double UNKNOWN_ALTITUDE = -1;
     public static final float UNKNOWN_BEARING = -1;
     public static final float UNKNOWN_SPEED = -1;
     
+    @CodecField(json = JSON_FIELD_LATITUDE, column = COLUMN_LATITUDE)
     protected double mLatitude;
+    @CodecField(json = JSON_FIELD_LONGITUDE, column = COLUMN_LONGITUDE)
     protected double mLongitude;
+    @CodecField(json = JSON_FIELD_ACCURACY, column = COLUMN_ACCURACY)
     protected float mAccuracy;
+    @CodecField(json = JSON_FIELD_ALTITUDE, column = COLUMN_ALTITUDE)
     protected double mAltitude;
+    @CodecField(json = JSON_FIELD_BEARING, column = COLUMN_BEARING)
     protected float mBearing;
+    @CodecField(json = JSON_FIELD_SPEED, column = COLUMN_SPEED)
     protected float mSpeed;
+    @CodecField(json = JSON_FIELD_RECORDED_AT, column = COLUMN_RECORDED_AT)
     protected long mRecordedAt;
+    @CodecField(json = JSON_FIELD_PROVIDER_ID, column = COLUMN_PROVIDER_ID, toValue = "getDbId", fromValue = "fromDbId")
     protected LocationProviderType mProvider;
     
     protected SimpleRecordedLocation () {
+        clear();
+    }
+    
+    /**
+     * Reset every field to its unknown value
+     */
+    protected final void clear() {
         mLatitude = LocationUtils.NO_VALUE;
         mLongitude = LocationUtils.NO_VALUE;
         mAccuracy = UNKNOWN_ACCURACY;
@@ -206,31 +262,51 @@ public class SimpleRecordedLocation implements Parcelable {
     }
     
     public SimpleRecordedLocation(Cursor row) {
+        this(row == null ? null : newRowReader(row));
+    }
+    
+    /**
+     * Construct a location from the current row of a reader created by {@link #newRowReader(Cursor)}.  When reading many
+     * rows, bind one reader to the cursor and reuse it for each row so the columns are only resolved once.
+     */
+    public SimpleRecordedLocation(CursorUtils.RowReader row) {
         this();
-        if (row == null) {
+        if (row == null || row.getCursor() == null) {
             Log.w(TAG, "Cursor provided to construct position was null.");
             return;
         }
-        mLatitude = LocationUtils.parseLocationValueFromString(CursorUtils.safeGetString(row, COLUMN_LATITUDE));
-        mLongitude = LocationUtils.parseLocationValueFromString(CursorUtils.safeGetString(row, COLUMN_LONGITUDE));
-        mAccuracy = CursorUtils.safeGetFloat(row, COLUMN_ACCURACY, UNKNOWN_ACCURACY);
-        mAltitude = CursorUtils.safeGetDouble(row, COLUMN_ALTITUDE, UNKNOWN_ALTITUDE);
-        mBearing = CursorUtils.safeGetFloat(row, COLUMN_BEARING, UNKNOWN_BEARING);
-        mSpeed = CursorUtils.safeGetFloat(row, COLUMN_SPEED, UNKNOWN_SPEED);
-        mRecordedAt = CursorUtils.safeGetLong(row, COLUMN_RECORDED_AT, 0);
-        mProvider = LocationProviderType.fromDbId(CursorUtils.safeGetInt(row, COLUMN_PROVIDER_ID, LocationProviderType.Unknown.getDbId()));
+        mLatitude = readLocationValue(row, COLUMN_SLOT_LATITUDE);
+        mLongitude = readLocationValue(row, COLUMN_SLOT_LONGITUDE);
+        mAccuracy = row.getFloat(COLUMN_SLOT_ACCURACY, UNKNOWN_ACCURACY);
+        mAltitude = row.getDouble(COLUMN_SLOT_ALTITUDE, UNKNOWN_ALTITUDE);
+        mBearing = row.getFloat(COLUMN_SLOT_BEARING, UNKNOWN_BEARING);
+        mSpeed = row.getFloat(COLUMN_SLOT_SPEED, UNKNOWN_SPEED);
+        mRecordedAt = row.getLong(COLUMN_SLOT_RECORDED_AT, 0);
+        mProvider = LocationProviderType.fromDbId(row.getInt(COLUMN_SLOT_PROVIDER_ID, LocationProviderType.Unknown.getDbId()));
+    }
+    
+    /**
+     * @return A reader for the location columns, bound to the given cursor
+     */
+    public static CursorUtils.RowReader newRowReader(Cursor cursor) {
+        return new CursorUtils.RowReader(COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_ACCURACY, COLUMN_ALTITUDE,
+                COLUMN_BEARING, COLUMN_SPEED, COLUMN_RECORDED_AT, COLUMN_PROVIDER_ID).bind(cursor);
+    }
+    
+    /**
+     * Coordinates are stored as text, so they are copied into the reader's buffer and parsed without creating a string
+     */
+    protected static double readLocationValue(CursorUtils.RowReader row, int slot) {
+        CharArrayBuffer buffer = row.getChars(slot);
+        if (buffer == null || buffer.sizeCopied == 0) {
+            return LocationUtils.NO_VALUE;
+        }
+        return LocationUtils.parseLocationValue(buffer.data, 0, buffer.sizeCopied);
     }
     
     public SimpleRecordedLocation(Parcel in) {
-        this();
-        mLatitude = in.readDouble();
-        mLongitude = in.readDouble();
-        mAccuracy = in.readFloat();
-        mAltitude = in.readDouble();
-        mBearing = in.readFloat();
-        mSpeed = in.readFloat();
-        mRecordedAt = in.readLong();
-        mProvider = LocationProviderType.fromValue(in.readString());
+        // The parcel layout is the one generated in SimpleRecordedLocationCodec
+        this(SimpleRecordedLocationCodec.readFromParcel(in));
     }
     
     public SimpleRecordedLocation(JSONObject object) {
@@ -245,6 +321,45 @@ public class SimpleRecordedLocation implements Parcelable {
     	mProvider = LocationProviderType.fromDbId(JSONUtils.safeGetInt(object, JSON_FIELD_PROVIDER_ID, LocationProviderType.Unknown.getDbId()));
     }
     
+    /**
+     * Read a location from a tokenizer, accepting the same JSON as {@link #SimpleRecordedLocation(JSONObject)}.  Field names
+     * are matched from the tokenizer's buffer and numbers are read as primitives, so no strings are created; together with
+     * a reused location, reading a large import creates almost no garbage.
+     * @param tokenizer The tokenizer, positioned just before the location
+     * @param reuse A location to overwrite rather than creating a new one, or null
+     * @return The location, or null if the value was not an object
+     */
+    public static SimpleRecordedLocation read(JSONTokenizer tokenizer, SimpleRecordedLocation reuse) throws IOException {
+        if (tokenizer.next() != JSONTokenizer.Token.BeginObject) {
+            tokenizer.skipValue();
+            return null;
+        }
+        SimpleRecordedLocation location = reuse;
+        if (location == null) {
+            location = new SimpleRecordedLocation();
+        } else {
+            location.clear();
+        }
+        while (tokenizer.next() == JSONTokenizer.Token.Name) {
+            switch (JSON_KEYS.indexOf(tokenizer)) {
+                case JSON_KEY_LATITUDE: location.mLatitude = tokenizer.nextDouble(LocationUtils.NO_VALUE); break;
+                case JSON_KEY_LONGITUDE: location.mLongitude = tokenizer.nextDouble(LocationUtils.NO_VALUE); break;
+                case JSON_KEY_ACCURACY: location.mAccuracy = (float)tokenizer.nextDouble(UNKNOWN_ACCURACY); break;
+                case JSON_KEY_ALTITUDE: location.mAltitude = tokenizer.nextDouble(UNKNOWN_ALTITUDE); break;
+                case JSON_KEY_BEARING: location.mBearing = (float)tokenizer.nextDouble(UNKNOWN_BEARING); break;
+                case JSON_KEY_SPEED: location.mSpeed = (float)tokenizer.nextDouble(UNKNOWN_SPEED); break;
+                case JSON_KEY_RECORDED_AT: location.mRecordedAt = tokenizer.nextLong(0); break;
+                case JSON_KEY_PROVIDER_ID:
+                    location.mProvider = LocationProviderType.fromDbId(tokenizer.nextInt(LocationProviderType.Unknown.getDbId()));
+                    break;
+                default:
+                    tokenizer.next();
+                    tokenizer.skipValue();
+            }
+        }
+        return location;
+    }
+    
     public SimpleRecordedLocation(SimpleRecordedLocation original) {
         mLatitude = original.mLatitude;
         mLongitude = original.mLongitude;
@@ -302,14 +417,7 @@ public class SimpleRecordedLocation implements Parcelable {
     }
     
     @Override public void writeToParcel(Parcel dest, int flags) {
-        dest.writeDouble(mLatitude);
-        dest.writeDouble(mLongitude);
-        dest.writeFloat(mAccuracy);
-        dest.writeDouble(mAltitude);
-        dest.writeFloat(mBearing);
-        dest.writeFloat(mSpeed);
-        dest.writeLong(mRecordedAt);
-        dest.writeString(mProvider.toString());
+        SimpleRecordedLocationCodec.writeToParcel(this, dest);
     }
 
     @Override public int describeContents() { return 0; }
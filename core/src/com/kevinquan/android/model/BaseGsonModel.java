@@ -1,9 +1,12 @@
 package com.kevinquan.android.model;
 
-import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 
 /**
- * Basic POJO that will print out as JSON.
+ * Basic POJO that will print out as JSON.  Conversions use the shared Gson instance and cached adapters of
+ * {@link GsonRegistry}.
  *
  * @author Kevin Quan (kevin.quan@gmail.com)
  */
@@ -13,7 +16,25 @@ public abstract class BaseGsonModel {
     private static final String TAG = BaseGsonModel.class.getSimpleName();
 
     @Override public String toString() {
-        return new Gson().toJson(this);
+        return GsonRegistry.toJson(this);
+    }
+
+    /**
+     * Write this model as JSON without building a string
+     * @param writer The writer to write to.  It is flushed but not closed.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        GsonRegistry.write(this, writer);
+    }
+
+    /**
+     * Read a model from JSON
+     * @param reader The reader providing JSON.  It is not closed.
+     * @param type The model class
+     * @return The model, or null if the JSON was null
+     */
+    public static <T extends BaseGsonModel> T readFrom(Reader reader, Class<T> type) throws IOException {
+        return GsonRegistry.read(reader, type);
     }
 
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Holds the Gson instance shared by every {@link BaseGsonModel}, along with the type adapter for each model class, so that
+ * reflection is only done the first time a class is converted.
+ *
+ * Conversions to strings reuse a per thread output buffer.  Buffers that grow beyond {@link #MAX_POOLED_BUFFER} are not
+ * kept, so that one large model does not pin memory for the life of the thread.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class GsonRegistry {
+
+    public static final int MAX_POOLED_BUFFER = 16 * 1024;
+
+    protected static final int INITIAL_BUFFER = 256;
+
+    protected static volatile Gson sGson = new Gson();
+    protected static final ConcurrentMap<Class<?>, TypeAdapter<?>> sAdapters = new ConcurrentHashMap<Class<?>, TypeAdapter<?>>();
+    protected static final ThreadLocal<StringWriter> sBuffers = new ThreadLocal<StringWriter>() {
+        @Override
+        protected StringWriter initialValue() {
+            return new StringWriter(INITIAL_BUFFER);
+        }
+    };
+
+    /**
+     * Replace the shared Gson instance, for example to register type adapters or change naming policies.  Cached adapters
+     * are discarded.
+     * @param builder The builder for the new instance
+     */
+    public static void configure(GsonBuilder builder) {
+        sGson = builder == null ? new Gson() : builder.create();
+        sAdapters.clear();
+    }
+
+    /**
+     * @return The shared Gson instance
+     */
+    @NonNull
+    public static Gson getGson() {
+        return sGson;
+    }
+
+    /**
+     * @return The cached adapter for the class
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public static <T> TypeAdapter<T> getAdapter(Class<T> type) {
+        TypeAdapter<T> adapter = (TypeAdapter<T>)sAdapters.get(type);
+        if (adapter == null) {
+            adapter = sGson.getAdapter(type);
+            sAdapters.put(type, adapter);
+        }
+        return adapter;
+    }
+
+    /**
+     * Convert a value to JSON using a pooled buffer
+     * @param value The value to convert
+     * @return The JSON
+     */
+    @NonNull
+    public static String toJson(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        StringWriter buffer = sBuffers.get();
+        // Detach the buffer while in use, in case the value converts another value on this thread
+        sBuffers.set(null);
+        if (buffer == null) {
+            buffer = new StringWriter(INITIAL_BUFFER);
+        }
+        try {
+            write(value, buffer);
+            return buffer.toString();
+        } catch (IOException ioe) {
+            // A string writer does not throw
+            throw new IllegalStateException(ioe);
+        } finally {
+            if (buffer.getBuffer().capacity() <= MAX_POOLED_BUFFER) {
+                buffer.getBuffer().setLength(0);
+                sBuffers.set(buffer);
+            }
+        }
+    }
+
+    /**
+     * Write a value as JSON
+     * @param value The value to write
+     * @param writer The writer to write to.  It is flushed but not closed.
+     */
+    @SuppressWarnings("unchecked")
+    public static void write(Object value, Writer writer) throws IOException {
+        JsonWriter json = sGson.newJsonWriter(writer);
+        if (value == null) {
+            json.nullValue();
+        } else {
+            ((TypeAdapter<Object>)getAdapter(value.getClass())).write(json, value);
+        }
+        json.flush();
+    }
+
+    /**
+     * Read a value from JSON
+     * @param reader The reader providing JSON.  It is not closed.
+     * @param type The type to read
+     * @return The value, or null if the JSON was null
+     */
+    public static <T> T read(Reader reader, Class<T> type) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        // Gson reads leniently regardless of its configuration
+        json.setLenient(true);
+        return getAdapter(type).read(json);
+    }
+}
@@ -30,6 +30,7 @@ import android.util.Patterns;
 import com.kevinquan.android.utils.CursorUtils;
 import com.kevinquan.android.utils.DeviceUtils;
 import com.kevinquan.android.utils.DeviceUtils.Permissions;
+import com.kevinquan.android.utils.QueryCache;
 
 import java.util.Collection;
 import java.util.HashSet;
@@ -109,7 +110,8 @@ public class ProfileUtils {
 	}
 
 	/**
-	 * Retrieves a Cursor containing all of the user's profiles
+	 * Retrieves a Cursor containing all of the user's profiles.  The result is served from the default
+	 * {@link QueryCache} until the profile changes.
 	 * @param context The context to use
 	 * @return A cursor with all of the user's profiles
 	 */
@@ -125,7 +127,7 @@ public class ProfileUtils {
 			return null;
 		}
 		Uri uri = Uri.withAppendedPath(ContactsContract.Profile.CONTENT_URI, ContactsContract.Contacts.Data.CONTENT_DIRECTORY);
-		return context.getContentResolver().query(uri, null, null, null, ContactsContract.Contacts.Data.IS_PRIMARY + " DESC");
+		return QueryCache.getDefault(context).query(uri, null, null, null, ContactsContract.Contacts.Data.IS_PRIMARY + " DESC");
 	}
 
 	/**
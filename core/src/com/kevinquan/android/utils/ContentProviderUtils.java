@@ -17,12 +17,19 @@ package com.kevinquan.android.utils;
 
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.os.RemoteException;
+import android.os.TransactionTooLargeException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 
 /**
@@ -33,7 +40,8 @@ import java.util.ArrayList;
 public class ContentProviderUtils {
 
     /**
-     * Insert the operations into a content provider.  All operations must be applied on the same content provider
+     * Insert the operations into a content provider.  All operations must be applied on the same content provider.
+     * The operations are sent in one transaction, so use a {@link ChunkedBatch} for large imports.
      * @param context The context to use
      * @param authority The authority of the target content provider
      * @param operations The operations to apply
@@ -47,17 +55,10 @@ public class ContentProviderUtils {
         }
         if (operations != null && operations.size() > 0) {
             try {
+                long start = DatabaseInstrumentation.start();
                 results = context.getContentResolver().applyBatch(authority, operations);
-                for (int i = 0; i < results.length; i++) {
-                    ContentProviderResult r = results[i];
-                    //ContentProviderOperation operation = operations.get(i);
-                    if (r.uri != null) {
-                    	// TODO: Report inserts
-                    } else if (r.count > 0) {
-                		// TODO: Report updates
-                    } else {
-                        // What should we do about this?
-                    }
+                if (start != DatabaseInstrumentation.DISABLED) {
+                    DatabaseInstrumentation.record("applyBatch", authority, start, countRows(results));
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Could not apply batch operation.", e);
@@ -69,7 +70,8 @@ public class ContentProviderUtils {
     }
 
     /**
-     * Shorthand to apply a single {@link ContentProviderOperation} into a content provider
+     * Shorthand to apply a single {@link ContentProviderOperation} into a content provider.  Each call is a separate
+     * transaction, so use a {@link WriteBehindQueue} for many small writes.
      * @param context The context to use
      * @param authority The authority of the target content provider
      * @param operation The operation to apply
@@ -86,6 +88,379 @@ public class ContentProviderUtils {
         return results[0];
     }
 
+    /**
+     * Count the rows affected by a batch, counting each inserted row once
+     */
+    public static int countRows(ContentProviderResult[] results) {
+        int rows = 0;
+        if (results == null) {
+            return rows;
+        }
+        for (ContentProviderResult result : results) {
+            if (result == null) {
+                continue;
+            }
+            if (result.uri != null) {
+                rows++;
+            } else if (result.count != null) {
+                rows += result.count;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Receives the outcome of each chunk applied by a {@link ChunkedBatch}
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public interface ChunkListener {
+        /**
+         * @param offset The index of the first operation in the chunk
+         * @param count The number of operations in the chunk
+         * @param elapsedMillis The time taken by the successful attempt
+         * @param attempts The number of attempts, including the successful one
+         */
+        public void onChunkApplied(int offset, int count, long elapsedMillis, int attempts);
+
+        /**
+         * @param offset The index of the first operation in the chunk
+         * @param count The number of operations in the chunk
+         * @param attempts The number of attempts made
+         * @param e The exception from the last attempt
+         */
+        public void onChunkFailed(int offset, int count, int attempts, Exception e);
+    }
+
+    /**
+     * Applies a large list of operations to a content provider in chunks, so that no single transaction holds the
+     * provider's write lock for long or exceeds the binder transaction limit.
+     *
+     * Operations are added as builders so their back-references can be rewritten for the chunk they end up in.  A reference
+     * to an operation in the same chunk is re-indexed, and a reference to an operation in an earlier chunk is replaced with
+     * that operation's result (its id or count).  Chunks are cut, and yield points are placed, before an operation that
+     * doesn't reference anything earlier in its chunk whenever possible, so related operations stay in the same transaction.
+     *
+     * A chunk that is too large for the binder is split in half and retried, and a chunk that fails with a transient error
+     * (the provider dying or the database being locked) is retried with an increasing delay.  Any other failure stops the
+     * batch, leaving the results of that chunk and every later one as null.  The database being locked can only be
+     * recognized for providers in the same process, since it reaches remote callers as a plain SQLiteException.
+     *
+     * Yield points let the provider commit part of a chunk, so a retried chunk could apply those operations twice.  Yield
+     * points and retries therefore cannot be combined.  By default chunks have yield points and failures are not retried,
+     * so a failed chunk may have been partly applied.  To retry instead, call {@link #setYieldInterval(int)} with 0 before
+     * {@link #setRetries(int, long)}; each chunk is then one transaction and the chunk size alone bounds how long the
+     * provider's lock is held.
+     * <pre>
+     * ChunkedBatch batch = new ChunkedBatch(context, ContactsContract.AUTHORITY);
+     * int rawContact = batch.add(ContentProviderOperation.newInsert(RawContacts.CONTENT_URI)...);
+     * batch.add(ContentProviderOperation.newInsert(Data.CONTENT_URI)..., Data.RAW_CONTACT_ID, rawContact);
+     * ContentProviderResult[] results = batch.apply();
+     * </pre>
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class ChunkedBatch {
+
+        public static final int DEFAULT_CHUNK_SIZE = 200;
+        public static final int DEFAULT_YIELD_INTERVAL = 50;
+        public static final int DEFAULT_MAX_RETRIES = 0;
+        public static final long DEFAULT_RETRY_DELAY_MS = 100;
+
+        protected static class Entry {
+            protected final ContentProviderOperation.Builder mBuilder;
+            protected String[] mColumns = new String[0];
+            protected int[] mReferences = new int[0];
+
+            protected Entry(ContentProviderOperation.Builder builder) {
+                mBuilder = builder;
+            }
+
+            protected void addReference(String column, int reference) {
+                mColumns = Arrays.copyOf(mColumns, mColumns.length + 1);
+                mReferences = Arrays.copyOf(mReferences, mReferences.length + 1);
+                mColumns[mColumns.length - 1] = column;
+                mReferences[mReferences.length - 1] = reference;
+            }
+
+            /**
+             * @return Whether the operation refers to an operation at or after the given index
+             */
+            protected boolean refersFrom(int index) {
+                for (int reference : mReferences) {
+                    if (reference >= index) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        protected final Context mContext;
+        protected final String mAuthority;
+        protected final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+        protected int mChunkSize = DEFAULT_CHUNK_SIZE;
+        protected int mYieldInterval = DEFAULT_YIELD_INTERVAL;
+        protected int mMaxRetries = DEFAULT_MAX_RETRIES;
+        protected long mRetryDelayMs = DEFAULT_RETRY_DELAY_MS;
+        protected ChunkListener mListener;
+        protected int mAppliedCount;
+
+        /**
+         * @param context The context to use
+         * @param authority The authority of the target content provider
+         */
+        public ChunkedBatch(Context context, String authority) {
+            mContext = context;
+            mAuthority = authority;
+        }
+
+        /**
+         * @param chunkSize The most operations to send in one transaction
+         */
+        public ChunkedBatch setChunkSize(int chunkSize) {
+            mChunkSize = Math.max(1, chunkSize);
+            return this;
+        }
+
+        /**
+         * @param yieldInterval The number of operations between yield points within a chunk, or 0 to never yield
+         * @throws IllegalArgumentException If yield points are requested while retries are enabled
+         */
+        public ChunkedBatch setYieldInterval(int yieldInterval) {
+            if (yieldInterval > 0 && mMaxRetries > 0) {
+                throw new IllegalArgumentException("Yield points cannot be used with retries");
+            }
+            mYieldInterval = Math.max(0, yieldInterval);
+            return this;
+        }
+
+        /**
+         * @param maxRetries The number of times to retry a chunk after a transient failure, or 0 to never retry
+         * @param retryDelayMs The delay before the first retry, which doubles for each later retry
+         * @throws IllegalArgumentException If retries are requested while yield points are enabled
+         */
+        public ChunkedBatch setRetries(int maxRetries, long retryDelayMs) {
+            if (maxRetries > 0 && mYieldInterval > 0) {
+                throw new IllegalArgumentException("Retries cannot be used with yield points, set the yield interval to 0 first");
+            }
+            mMaxRetries = Math.max(0, maxRetries);
+            mRetryDelayMs = Math.max(0, retryDelayMs);
+            return this;
+        }
+
+        public ChunkedBatch setListener(ChunkListener listener) {
+            mListener = listener;
+            return this;
+        }
+
+        /**
+         * Add an operation.  Back-references must be added through this class rather than set on the builder.
+         * @return The index of the operation, for use as a back-reference
+         */
+        public int add(ContentProviderOperation.Builder builder) {
+            if (builder == null) {
+                throw new IllegalArgumentException("Operation must be provided");
+            }
+            mEntries.add(new Entry(builder));
+            return mEntries.size() - 1;
+        }
+
+        /**
+         * Add an operation with a value taken from the result of an earlier operation
+         * @param column The column to set
+         * @param reference The index of the earlier operation
+         * @return The index of the operation, for use as a back-reference
+         */
+        public int add(ContentProviderOperation.Builder builder, String column, int reference) {
+            int index = add(builder);
+            addBackReference(index, column, reference);
+            return index;
+        }
+
+        /**
+         * Set a value of an operation from the result of an earlier operation
+         * @param operation The index of the operation to set the value on
+         * @param column The column to set
+         * @param reference The index of the earlier operation
+         */
+        public ChunkedBatch addBackReference(int operation, String column, int reference) {
+            if (operation < 0 || operation >= mEntries.size() || reference < 0 || reference >= operation) {
+                throw new IllegalArgumentException("Operation "+operation+" cannot refer to operation "+reference);
+            }
+            mEntries.get(operation).addReference(column, reference);
+            return this;
+        }
+
+        public int size() {
+            return mEntries.size();
+        }
+
+        /**
+         * @return The number of operations applied by the last call to {@link #apply()}
+         */
+        public int getAppliedCount() {
+            return mAppliedCount;
+        }
+
+        public void clear() {
+            mEntries.clear();
+            mAppliedCount = 0;
+        }
+
+        /**
+         * Apply the operations, one chunk at a time
+         * @return The result of each operation, which is null for operations that were not applied
+         */
+        @NonNull
+        public ContentProviderResult[] apply() {
+            ContentProviderResult[] results = new ContentProviderResult[mEntries.size()];
+            mAppliedCount = 0;
+            if (mEntries.isEmpty()) {
+                Log.w(TAG, "No operations to process");
+                return results;
+            }
+            int start = 0;
+            while (start < mEntries.size()) {
+                int end = findCut(start, Math.min(mEntries.size(), start + mChunkSize));
+                if (!applyChunk(start, end, results)) {
+                    break;
+                }
+                start = end;
+            }
+            return results;
+        }
+
+        /**
+         * Find where to end a chunk, moving back from the limit to the last operation that starts a group
+         * @param start The first operation of the chunk
+         * @param limit The first operation after the largest possible chunk
+         */
+        protected int findCut(int start, int limit) {
+            if (limit >= mEntries.size()) {
+                return limit;
+            }
+            for (int cut = limit; cut > start + 1; cut--) {
+                if (!mEntries.get(cut).refersFrom(start)) {
+                    return cut;
+                }
+            }
+            return limit;
+        }
+
+        /**
+         * Build the operations of a chunk, rewriting their back-references and yield points
+         * @param results The results of the operations already applied
+         */
+        protected ArrayList<ContentProviderOperation> buildChunk(int start, int end, ContentProviderResult[] results)
+                throws OperationApplicationException {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(end - start);
+            int lastYield = start;
+            for (int i = start; i < end; i++) {
+                Entry entry = mEntries.get(i);
+                boolean yield = mYieldInterval > 0 && i - lastYield >= mYieldInterval && !entry.refersFrom(start);
+                if (yield) {
+                    lastYield = i;
+                }
+                entry.mBuilder.withYieldAllowed(yield);
+                if (entry.mReferences.length > 0) {
+                    ContentValues references = new ContentValues();
+                    for (int r = 0; r < entry.mReferences.length; r++) {
+                        int reference = entry.mReferences[r];
+                        if (reference >= start) {
+                            references.put(entry.mColumns[r], reference - start);
+                        } else {
+                            entry.mBuilder.withValue(entry.mColumns[r], getResultValue(results, reference));
+                        }
+                    }
+                    entry.mBuilder.withValueBackReferences(references);
+                }
+                operations.add(entry.mBuilder.build());
+            }
+            return operations;
+        }
+
+        /**
+         * @return The value a back-reference to the result resolves to, matching {@link ContentProviderOperation}
+         * @throws OperationApplicationException If the result has neither a uri nor a count
+         */
+        protected long getResultValue(ContentProviderResult[] results, int reference) throws OperationApplicationException {
+            ContentProviderResult result = results[reference];
+            if (result != null && result.uri != null) {
+                return ContentUris.parseId(result.uri);
+            }
+            if (result != null && result.count != null) {
+                return result.count;
+            }
+            throw new OperationApplicationException("Operation "+reference+" has no result to refer to");
+        }
+
+        /**
+         * Apply the operations from start up to end, splitting them if they are too large and retrying transient failures
+         * @return Whether every operation was applied
+         */
+        protected boolean applyChunk(int start, int end, ContentProviderResult[] results) {
+            int attempts = 0;
+            while (true) {
+                attempts++;
+                long instrumentationStart = DatabaseInstrumentation.start();
+                long started = System.nanoTime();
+                try {
+                    ContentProviderResult[] chunkResults = applyBatch(buildChunk(start, end, results));
+                    long elapsedMillis = (System.nanoTime() - started) / 1000000;
+                    System.arraycopy(chunkResults, 0, results, start, Math.min(chunkResults.length, end - start));
+                    mAppliedCount += end - start;
+                    if (instrumentationStart != DatabaseInstrumentation.DISABLED) {
+                        DatabaseInstrumentation.record("applyBatch", mAuthority, instrumentationStart, countRows(chunkResults));
+                    }
+                    if (mListener != null) {
+                        mListener.onChunkApplied(start, end - start, elapsedMillis, attempts);
+                    }
+                    return true;
+                } catch (Exception e) {
+                    if (isTooLarge(e) && end - start > 1) {
+                        int middle = findCut(start, start + (end - start) / 2);
+                        Log.w(TAG, "Chunk of "+(end - start)+" operations was too large, splitting at "+middle);
+                        return applyChunk(start, middle, results) && applyChunk(middle, end, results);
+                    }
+                    if (isTransient(e) && attempts <= mMaxRetries) {
+                        long delay = mRetryDelayMs << (attempts - 1);
+                        Log.w(TAG, "Could not apply chunk at "+start+", retrying in "+delay+"ms", e);
+                        try {
+                            Thread.sleep(delay);
+                            continue;
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    Log.e(TAG, "Could not apply chunk of "+(end - start)+" operations at "+start, e);
+                    if (mListener != null) {
+                        mListener.onChunkFailed(start, end - start, attempts, e);
+                    }
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Send the operations of one chunk to the content provider
+         */
+        protected ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws Exception {
+            return mContext.getContentResolver().applyBatch(mAuthority, operations);
+        }
+
+        protected boolean isTooLarge(Exception e) {
+            return BuildUtils.isIceCreamSandwhichOrGreater() && e instanceof TransactionTooLargeException;
+        }
+
+        protected boolean isTransient(Exception e) {
+            if (isTooLarge(e)) {
+                return false;
+            }
+            return e instanceof RemoteException || (BuildUtils.isHoneycombOrGreater() && e instanceof SQLiteDatabaseLockedException);
+        }
+    }
+
     private static final String TAG = ContentProviderUtils.class.getSimpleName();
 
 }
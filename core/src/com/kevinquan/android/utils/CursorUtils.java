@@ -15,13 +15,22 @@
  */
 package com.kevinquan.android.utils;
 
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Utilities to enable safe handling of {@link Cursor} objects
@@ -31,35 +40,847 @@ import java.util.List;
 public class CursorUtils {
 
     /**
-     * Simple structure to hold details about the index to create
+     * Simple structure to hold details about the index to create.  An index can cover several columns, and can be made
+     * partial by providing a where clause (partial indexes require SQLite 3.8.0, which is API 21 and above).
      * @author Kevin Quan (kevin.quan@gmail.com)
      *
      */
     public static class IndexInfo {
         protected String mTable;
-        protected String mColumn;
+        protected String[] mColumns;
+        protected String mWhere;
         
-        public IndexInfo(String table, String column) {
+        /**
+         * @param table The table to index
+         * @param columns The columns of the index, in order.  A column may be followed by ASC or DESC.
+         */
+        public IndexInfo(String table, String... columns) {
+            this(table, columns, null);
+        }
+        
+        /**
+         * @param table The table to index
+         * @param columns The columns of the index, in order.  A column may be followed by ASC or DESC.
+         * @param where The where clause of a partial index, or null to index every row
+         */
+        public IndexInfo(String table, String[] columns, String where) {
             this.mTable = table;
-            this.mColumn = column;
+            this.mColumns = columns.clone();
+            this.mWhere = TextUtils.isEmpty(where) ? null : where;
         }
         
         public String getTable() {
             return mTable;
         }
 
+        /**
+         * @return The first column of the index
+         */
         public String getColumn() {
-            return mColumn;
+            return mColumns[0];
+        }
+        
+        public String[] getColumns() {
+            return mColumns.clone();
+        }
+        
+        @Nullable
+        public String getWhere() {
+            return mWhere;
         }
         
+        public boolean isPartial() {
+            return mWhere != null;
+        }
+        
+        /**
+         * @return idx_[table]_[columns joined by underscores], with a hash of the where clause appended for partial indexes
+         */
         public String getDefaultIndexName() {
-            return "idx_"+mTable+"_"+mColumn;
+            StringBuilder name = new StringBuilder("idx_").append(mTable);
+            for (String column : mColumns) {
+                name.append('_').append(column.trim().replaceAll("[^A-Za-z0-9_]+", "_"));
+            }
+            if (mWhere != null) {
+                name.append("_p").append(Integer.toHexString(mWhere.hashCode()));
+            }
+            return name.toString();
         }
         
         public String getDefaultCreateQuery() {
-            return "CREATE INDEX "+getDefaultIndexName()+" ON "+mTable+"("+mColumn+")";
+            StringBuilder query = new StringBuilder("CREATE INDEX IF NOT EXISTS ").append(getDefaultIndexName())
+                    .append(" ON ").append(mTable).append("(").append(TextUtils.join(", ", mColumns)).append(")");
+            if (mWhere != null) {
+                query.append(" WHERE ").append(mWhere);
+            }
+            return query.toString();
+        }
+        
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof IndexInfo)) return false;
+            return getDefaultCreateQuery().equals(((IndexInfo)o).getDefaultCreateQuery());
+        }
+        
+        @Override public int hashCode() {
+            return getDefaultCreateQuery().hashCode();
+        }
+        
+        @Override public String toString() {
+            return getDefaultCreateQuery();
+        }
+    }
+    
+    /**
+     * Reads a fixed set of columns from each row of a cursor.  The column names are resolved to indices once per cursor
+     * rather than once per value, which matters on wide cursors as {@link Cursor#getColumnIndex(String)} is a linear,
+     * case insensitive scan in most implementations.  Values are read by slot, which is the position of the column in the
+     * names given to the constructor.
+     * 
+     * The getters behave like the <code>safeGet*</code> methods: missing columns and values which cannot be read return
+     * the default value.  A reader is not thread safe but can be rebound to each new cursor with the same columns.
+     * 
+     * <pre>
+     * RowReader reader = new RowReader(COLUMN_LATITUDE, COLUMN_LONGITUDE).bind(cursor);
+     * do {
+     *     double latitude = reader.getDouble(0, LocationUtils.NO_VALUE);
+     * } while (cursor.moveToNext());
+     * </pre>
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class RowReader {
+        protected final String[] mColumns;
+        protected final int[] mIndices;
+        protected Cursor mCursor;
+        protected CharArrayBuffer mBuffer;
+        
+        /**
+         * @param columns The columns to read, in slot order
+         */
+        public RowReader(String... columns) {
+            mColumns = columns.clone();
+            mIndices = new int[columns.length];
+            Arrays.fill(mIndices, -1);
+        }
+        
+        /**
+         * Resolve the columns against a cursor.  Binding the cursor which is already bound does nothing.
+         * @param cursor The cursor to read from
+         * @return This reader
+         */
+        public RowReader bind(Cursor cursor) {
+            if (cursor == mCursor) {
+                return this;
+            }
+            mCursor = cursor;
+            for (int slot = 0; slot < mColumns.length; slot++) {
+                mIndices[slot] = cursor == null || TextUtils.isEmpty(mColumns[slot]) ? -1 : cursor.getColumnIndex(mColumns[slot]);
+            }
+            return this;
+        }
+        
+        @Nullable
+        public Cursor getCursor() {
+            return mCursor;
+        }
+        
+        /**
+         * @return The column index for the slot, or -1 if the column is not in the cursor
+         */
+        public int getColumnIndex(int slot) {
+            return mIndices[slot];
+        }
+        
+        public boolean hasColumn(int slot) {
+            return mIndices[slot] != -1;
+        }
+        
+        /**
+         * @return True if the column is missing or its value is null
+         */
+        public boolean isNull(int slot) {
+            int index = mIndices[slot];
+            if (index == -1) return true;
+            try {
+                return mCursor.isNull(index);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not check null value for "+mColumns[slot],e);
+                return true;
+            }
+        }
+        
+        public double getDouble(int slot, double defaultValue) {
+            int index = mIndices[slot];
+            if (index == -1) return defaultValue;
+            try {
+                return mCursor.getDouble(index);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not retrieve double value for "+mColumns[slot],e);
+                return defaultValue;
+            }
+        }
+        
+        public float getFloat(int slot, float defaultValue) {
+            int index = mIndices[slot];
+            if (index == -1) return defaultValue;
+            try {
+                return mCursor.getFloat(index);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not retrieve float value for "+mColumns[slot],e);
+                return defaultValue;
+            }
+        }
+        
+        public int getInt(int slot, int defaultValue) {
+            int index = mIndices[slot];
+            if (index == -1) return defaultValue;
+            try {
+                return mCursor.getInt(index);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not retrieve integer value for "+mColumns[slot],e);
+                return defaultValue;
+            }
+        }
+        
+        /**
+         * It is expected that the provider models boolean using the values provided in {@link CursorUtils}
+         */
+        public boolean getIntBackedBoolean(int slot, boolean defaultValue) {
+            int index = mIndices[slot];
+            if (index == -1) return defaultValue;
+            try {
+                return mCursor.getInt(index) == VALUE_TRUE;
+            } catch (Exception e) {
+                Log.e(TAG, "Could not retrieve boolean (int backed) value for "+mColumns[slot],e);
+                return defaultValue;
+            }
+        }
+        
+        public long getLong(int slot, long defaultValue) {
+            int index = mIndices[slot];
+            if (index == -1) return defaultValue;
+            try {
+                return mCursor.getLong(index);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not retrieve long value for "+mColumns[slot],e);
+                return defaultValue;
+            }
+        }
+        
+        @Nullable
+        public String getString(int slot) {
+            int index = mIndices[slot];
+            if (index == -1) return null;
+            try {
+                return mCursor.getString(index);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not retrieve string value for "+mColumns[slot],e);
+                return null;
+            }
+        }
+        
+        /**
+         * Copy the text of a value into a buffer owned by this reader, without creating a string
+         * @return The buffer, which is reused by the next call, or null if the column is missing or cannot be read.  A null
+         * value copies no characters.
+         */
+        @Nullable
+        public CharArrayBuffer getChars(int slot) {
+            int index = mIndices[slot];
+            if (index == -1) return null;
+            if (mBuffer == null) {
+                mBuffer = new CharArrayBuffer(32);
+            }
+            try {
+                mCursor.copyStringToBuffer(index, mBuffer);
+                return mBuffer;
+            } catch (Exception e) {
+                Log.e(TAG, "Could not retrieve characters for "+mColumns[slot],e);
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Receives rows from a {@link KeysetPager}
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public interface RowCallback {
+        /**
+         * @param row A cursor positioned at the row, which is only valid until this method returns
+         * @return true to continue with the next row, false to stop
+         */
+        public boolean onRow(Cursor row);
+    }
+    
+    /**
+     * Reads a large query one page at a time.  Rather than skipping rows with OFFSET, which rescans every earlier row, each
+     * page continues after the key of the last row of the previous page, so every page is a search on the key's index.
+     * Each page is closed as soon as its rows have been read, so no cursor needs to hold more rows than fit in its window.
+     * 
+     * The key must be an integer column, such as a row id or timestamp, and should be indexed together with any columns in
+     * the selection.  If the key is not unique, set a unique tie breaker (usually the row id) so that rows sharing a key are
+     * not skipped at the edge of a page.  Optionally, the next page can be queried on an executor while the current page
+     * is read.
+     * 
+     * <pre>
+     * new KeysetPager(database, "locations", "recordedAt").setTieBreaker("_id").setSelection("provider = ?", args)
+     *         .forEachRow(new RowCallback() {
+     *             public boolean onRow(Cursor row) { ... return true; }
+     *         });
+     * </pre>
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class KeysetPager implements Iterable<Cursor> {
+        
+        public static final int DEFAULT_PAGE_SIZE = 500;
+        
+        protected final SQLiteDatabase mDatabase;
+        protected final String mTable;
+        protected final String mKeyColumn;
+        protected String mTieBreaker;
+        protected String[] mColumns;
+        protected String mSelection;
+        protected String[] mSelectionArgs;
+        protected boolean mDescending;
+        protected int mPageSize = DEFAULT_PAGE_SIZE;
+        protected ExecutorService mPrefetchExecutor;
+        
+        /**
+         * @param database The database to query
+         * @param table The table (or view) to page through
+         * @param keyColumn The integer column to order and page by
+         */
+        public KeysetPager(SQLiteDatabase database, String table, String keyColumn) {
+            mDatabase = database;
+            mTable = table;
+            mKeyColumn = keyColumn;
+        }
+        
+        /**
+         * @param columns The columns to return, or null for all columns.  The key and tie breaker are added if missing.
+         */
+        public KeysetPager setColumns(String... columns) {
+            mColumns = columns == null || columns.length == 0 ? null : columns.clone();
+            return this;
+        }
+        
+        /**
+         * @param selection A where clause to filter rows by, without the WHERE keyword
+         * @param selectionArgs The arguments for the selection
+         */
+        public KeysetPager setSelection(String selection, String... selectionArgs) {
+            mSelection = TextUtils.isEmpty(selection) ? null : selection;
+            mSelectionArgs = selectionArgs == null ? new String[0] : selectionArgs.clone();
+            return this;
+        }
+        
+        /**
+         * @param tieBreaker A unique integer column to order rows which share a key, or null if the key is unique
+         */
+        public KeysetPager setTieBreaker(String tieBreaker) {
+            mTieBreaker = TextUtils.isEmpty(tieBreaker) ? null : tieBreaker;
+            return this;
+        }
+        
+        public KeysetPager setDescending(boolean descending) {
+            mDescending = descending;
+            return this;
+        }
+        
+        public KeysetPager setPageSize(int pageSize) {
+            mPageSize = Math.max(1, pageSize);
+            return this;
+        }
+        
+        /**
+         * @param executor An executor to query the next page on while the current page is read, or null to query each
+         * page when it is needed
+         */
+        public KeysetPager setPrefetchExecutor(ExecutorService executor) {
+            mPrefetchExecutor = executor;
+            return this;
+        }
+        
+        /**
+         * Iterate over the rows.  The cursor returned by {@link Iterator#next()} is positioned at the row and is only 
+         * valid until the next call.  Close the iterator if it is not read to the end.
+         */
+        @Override public PageIterator iterator() {
+            return new PageIterator(this);
+        }
+        
+        /**
+         * Pass each row to the callback, closing every page once it has been read
+         * @return The number of rows passed to the callback
+         */
+        public int forEachRow(RowCallback callback) {
+            int rows = 0;
+            PageIterator iterator = iterator();
+            try {
+                while (iterator.hasNext()) {
+                    rows++;
+                    if (!callback.onRow(iterator.next())) {
+                        break;
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+            return rows;
+        }
+        
+        protected boolean isRowId(String column) {
+            return "rowid".equalsIgnoreCase(column) || "oid".equalsIgnoreCase(column) || "_rowid_".equalsIgnoreCase(column);
+        }
+        
+        /**
+         * SQLite names a selected rowid after the table's INTEGER PRIMARY KEY if it has one, so alias it to be found by name
+         */
+        protected String selectColumn(String column) {
+            return isRowId(column) ? column+" AS "+column : column;
+        }
+        
+        protected String buildQuery(boolean first) {
+            StringBuilder query = new StringBuilder("SELECT ");
+            if (mColumns == null) {
+                query.append("*");
+                if (isRowId(mKeyColumn)) query.append(", ").append(selectColumn(mKeyColumn));
+                if (mTieBreaker != null && isRowId(mTieBreaker)) query.append(", ").append(selectColumn(mTieBreaker));
+            } else {
+                query.append(TextUtils.join(", ", mColumns));
+                List<String> columns = Arrays.asList(mColumns);
+                if (!columns.contains(mKeyColumn) || isRowId(mKeyColumn)) query.append(", ").append(selectColumn(mKeyColumn));
+                if (mTieBreaker != null && (!columns.contains(mTieBreaker) || isRowId(mTieBreaker))) {
+                    query.append(", ").append(selectColumn(mTieBreaker));
+                }
+            }
+            query.append(" FROM ").append(mTable);
+            String comparison = mDescending ? " < ?" : " > ?";
+            if (mSelection != null || !first) {
+                query.append(" WHERE ");
+            }
+            if (mSelection != null) {
+                query.append("(").append(mSelection).append(")");
+                if (!first) query.append(" AND ");
+            }
+            if (!first) {
+                if (mTieBreaker == null) {
+                    query.append(mKeyColumn).append(comparison);
+                } else {
+                    query.append("(").append(mKeyColumn).append(comparison).append(" OR (").append(mKeyColumn).append(" = ? AND ")
+                            .append(mTieBreaker).append(comparison).append("))");
+                }
+            }
+            String order = mDescending ? " DESC" : "";
+            query.append(" ORDER BY ").append(mKeyColumn).append(order);
+            if (mTieBreaker != null) {
+                query.append(", ").append(mTieBreaker).append(order);
+            }
+            return query.append(" LIMIT ").append(mPageSize).toString();
+        }
+        
+        /**
+         * Query the page after a key
+         * @param after The key and tie breaker of the last row of the previous page, or null for the first page
+         */
+        protected Cursor queryPage(long[] after) {
+            List<String> args = new ArrayList<String>();
+            if (mSelectionArgs != null) {
+                args.addAll(Arrays.asList(mSelectionArgs));
+            }
+            if (after != null) {
+                args.add(String.valueOf(after[0]));
+                if (mTieBreaker != null) {
+                    args.add(String.valueOf(after[0]));
+                    args.add(String.valueOf(after[1]));
+                }
+            }
+            return DatabaseInstrumentation.rawQuery(mDatabase, buildQuery(after == null), args.toArray(new String[args.size()]));
+        }
+    }
+    
+    /**
+     * Iterates over the rows of a {@link KeysetPager}, loading one page at a time
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class PageIterator implements Iterator<Cursor>, Closeable {
+        protected final KeysetPager mPager;
+        protected final Object mLock = new Object();
+        protected Cursor mPage;
+        protected int mKeyIndex;
+        protected int mTieIndex;
+        protected boolean mLastPage;
+        protected boolean mClosed;
+        protected int mPages;
+        // Guarded by mLock
+        protected boolean mPrefetching;
+        protected Cursor mPrefetched;
+        protected RuntimeException mPrefetchError;
+        
+        protected PageIterator(KeysetPager pager) {
+            mPager = pager;
+        }
+        
+        @Override public boolean hasNext() {
+            if (mClosed) {
+                return false;
+            }
+            if (mPage == null) {
+                if (mPages > 0) {
+                    return false;
+                }
+                openPage(mPager.queryPage(null));
+            }
+            while (mPage.isLast() || mPage.getCount() == 0) {
+                if (mLastPage) {
+                    close();
+                    return false;
+                }
+                mPage.moveToLast();
+                long[] after = readKey(mPage);
+                safeClose(mPage);
+                openPage(takePrefetched(after));
+            }
+            return true;
+        }
+        
+        @Override public Cursor next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mPage.moveToNext();
+            return mPage;
+        }
+        
+        @Override public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        /**
+         * @return The number of pages queried so far
+         */
+        public int getPageCount() {
+            return mPages;
+        }
+        
+        /**
+         * Close the current page and discard any page being prefetched
+         */
+        @Override public void close() {
+            safeClose(mPage);
+            synchronized (mLock) {
+                mClosed = true;
+                safeClose(mPrefetched);
+                mPrefetched = null;
+            }
+        }
+        
+        protected void openPage(Cursor page) {
+            mPage = page;
+            mPages++;
+            mKeyIndex = page.getColumnIndexOrThrow(mPager.mKeyColumn);
+            mTieIndex = mPager.mTieBreaker == null ? -1 : page.getColumnIndexOrThrow(mPager.mTieBreaker);
+            mLastPage = page.getCount() < mPager.mPageSize;
+            if (!mLastPage && mPager.mPrefetchExecutor != null && page.moveToLast()) {
+                prefetch(readKey(page));
+            }
+            page.moveToPosition(-1);
+        }
+        
+        protected long[] readKey(Cursor page) {
+            return new long[] {page.getLong(mKeyIndex), mTieIndex == -1 ? 0 : page.getLong(mTieIndex)};
+        }
+        
+        protected void prefetch(final long[] after) {
+            synchronized (mLock) {
+                mPrefetching = true;
+            }
+            try {
+                mPager.mPrefetchExecutor.execute(new Runnable() {
+                    @Override public void run() {
+                        Cursor page = null;
+                        RuntimeException error = null;
+                        try {
+                            page = mPager.queryPage(after);
+                        } catch (RuntimeException re) {
+                            error = re;
+                        }
+                        synchronized (mLock) {
+                            if (mClosed) {
+                                safeClose(page);
+                            } else {
+                                mPrefetched = page;
+                                mPrefetchError = error;
+                            }
+                            mPrefetching = false;
+                            mLock.notifyAll();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                Log.w(TAG, "Could not prefetch the next page, it will be queried when needed.", ree);
+                synchronized (mLock) {
+                    mPrefetching = false;
+                }
+            }
+        }
+        
+        /**
+         * @return The page after the key, waiting for it to be prefetched or querying it if it was not
+         */
+        protected Cursor takePrefetched(long[] after) {
+            boolean interrupted = false;
+            Cursor page;
+            RuntimeException error;
+            synchronized (mLock) {
+                while (mPrefetching) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException ie) {
+                        // The query can't be interrupted, so wait for it to finish
+                        interrupted = true;
+                    }
+                }
+                page = mPrefetched;
+                error = mPrefetchError;
+                mPrefetched = null;
+                mPrefetchError = null;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+            return page != null ? page : mPager.queryPage(after);
+        }
+    }
+    
+    /**
+     * Decides which rows are copied by {@link CursorUtils#extractColumns(Cursor, RowFilter, PrimitiveColumn...)}
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public interface RowFilter {
+        /**
+         * @param row A cursor positioned at the row
+         * @return true to copy the row
+         */
+        public boolean accept(Cursor row);
+    }
+    
+    /**
+     * A column of a cursor copied into a primitive array.  The array grows by half as needed and is kept between
+     * extractions, so a column can be reused without reallocating.  A column missing from the cursor reads as the
+     * default value; as with the <code>safeGet*</code> methods, null values read as the cursor returns them (usually 0).
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static abstract class PrimitiveColumn {
+        protected static final int MIN_CAPACITY = 16;
+        
+        protected final String mColumn;
+        protected int mIndex = -1;
+        protected int mSize;
+        protected boolean mFailed;
+        
+        protected PrimitiveColumn(String column) {
+            mColumn = column;
+        }
+        
+        public String getColumn() {
+            return mColumn;
+        }
+        
+        /**
+         * @return The number of values copied by the last extraction
+         */
+        public int size() {
+            return mSize;
+        }
+        
+        /**
+         * @return Whether the column was in the cursor of the last extraction
+         */
+        public boolean isPresent() {
+            return mIndex != -1;
+        }
+        
+        protected void bind(Cursor cursor, int capacity) {
+            mIndex = TextUtils.isEmpty(mColumn) ? -1 : cursor.getColumnIndex(mColumn);
+            mSize = 0;
+            mFailed = false;
+            ensureCapacity(capacity);
+        }
+        
+        protected void onReadFailed(Exception e) {
+            if (!mFailed) {
+                mFailed = true;
+                Log.e(TAG, "Could not retrieve values for "+mColumn, e);
+            }
+        }
+        
+        protected static int grow(int capacity, int required) {
+            return Math.max(required, Math.max(MIN_CAPACITY, capacity + (capacity >> 1)));
+        }
+        
+        protected abstract void ensureCapacity(int capacity);
+        
+        /**
+         * Append the value in the current row
+         */
+        protected abstract void read(Cursor cursor);
+    }
+    
+    public static class LongColumn extends PrimitiveColumn {
+        protected final long mDefaultValue;
+        protected long[] mValues = new long[0];
+        
+        public LongColumn(String column, long defaultValue) {
+            super(column);
+            mDefaultValue = defaultValue;
+        }
+        
+        public long get(int row) {
+            return mValues[row];
+        }
+        
+        /**
+         * @return A copy of the values
+         */
+        public long[] getValues() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+        
+        /**
+         * @return The array the values are copied into, which is valid up to {@link #size()} and may be reused
+         */
+        public long[] getBuffer() {
+            return mValues;
+        }
+        
+        @Override protected void ensureCapacity(int capacity) {
+            if (mValues.length < capacity) {
+                mValues = Arrays.copyOf(mValues, grow(mValues.length, capacity));
+            }
+        }
+        
+        @Override protected void read(Cursor cursor) {
+            long value = mDefaultValue;
+            if (mIndex != -1) {
+                try {
+                    value = cursor.getLong(mIndex);
+                } catch (Exception e) {
+                    onReadFailed(e);
+                }
+            }
+            if (mSize == mValues.length) {
+                ensureCapacity(mSize + 1);
+            }
+            mValues[mSize++] = value;
+        }
+    }
+    
+    public static class DoubleColumn extends PrimitiveColumn {
+        protected final double mDefaultValue;
+        protected double[] mValues = new double[0];
+        
+        public DoubleColumn(String column, double defaultValue) {
+            super(column);
+            mDefaultValue = defaultValue;
+        }
+        
+        public double get(int row) {
+            return mValues[row];
+        }
+        
+        /**
+         * @return A copy of the values
+         */
+        public double[] getValues() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+        
+        /**
+         * @return The array the values are copied into, which is valid up to {@link #size()} and may be reused
+         */
+        public double[] getBuffer() {
+            return mValues;
+        }
+        
+        @Override protected void ensureCapacity(int capacity) {
+            if (mValues.length < capacity) {
+                mValues = Arrays.copyOf(mValues, grow(mValues.length, capacity));
+            }
+        }
+        
+        @Override protected void read(Cursor cursor) {
+            double value = mDefaultValue;
+            if (mIndex != -1) {
+                try {
+                    value = cursor.getDouble(mIndex);
+                } catch (Exception e) {
+                    onReadFailed(e);
+                }
+            }
+            if (mSize == mValues.length) {
+                ensureCapacity(mSize + 1);
+            }
+            mValues[mSize++] = value;
+        }
+    }
+    
+    public static class IntColumn extends PrimitiveColumn {
+        protected final int mDefaultValue;
+        protected int[] mValues = new int[0];
+        
+        public IntColumn(String column, int defaultValue) {
+            super(column);
+            mDefaultValue = defaultValue;
+        }
+        
+        public int get(int row) {
+            return mValues[row];
+        }
+        
+        /**
+         * @return A copy of the values
+         */
+        public int[] getValues() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+        
+        /**
+         * @return The array the values are copied into, which is valid up to {@link #size()} and may be reused
+         */
+        public int[] getBuffer() {
+            return mValues;
+        }
+        
+        @Override protected void ensureCapacity(int capacity) {
+            if (mValues.length < capacity) {
+                mValues = Arrays.copyOf(mValues, grow(mValues.length, capacity));
+            }
+        }
+        
+        @Override protected void read(Cursor cursor) {
+            int value = mDefaultValue;
+            if (mIndex != -1) {
+                try {
+                    value = cursor.getInt(mIndex);
+                } catch (Exception e) {
+                    onReadFailed(e);
+                }
+            }
+            if (mSize == mValues.length) {
+                ensureCapacity(mSize + 1);
+            }
+            mValues[mSize++] = value;
         }
-
     }
     
     private static final String TAG = CursorUtils.class.getSimpleName();
@@ -72,15 +893,39 @@ public class CursorUtils {
     public static final String VALUE_TRUE_LITERAL = String.valueOf(VALUE_TRUE);
     
     /**
-     * Convenience method to add an index to a table following a specific pattern.  The index will be named idx_[table name]_[column name] 
+     * Convenience method to add indexes to tables following a specific pattern.  Each index will be named 
+     * idx_[table name]_[column names] and is only created if it does not already exist, so this can be run repeatedly.
+     * Outside of a transaction the indexes are created in one of their own, and if any cannot be created, none are.  Inside
+     * a transaction (such as in {@link android.database.sqlite.SQLiteOpenHelper#onUpgrade}) the indexes are created in the
+     * caller's transaction and failures are thrown, since catching them would leave the caller's transaction to be silently
+     * rolled back.
      * @param database The database to create the index
      * @param index details about the index.
+     * @return true if all of the indexes exist
+     * @throws SQLException If an index could not be created while the database is in a transaction
      */
-    public static void addIndex(SQLiteDatabase database, List<IndexInfo> index) {
-        if (database == null || index == null) return;
-        for (IndexInfo info : index) {
-            Log.d(TAG, "Adding index: "+info.getDefaultIndexName());
-            database.execSQL(info.getDefaultCreateQuery());
+    public static boolean addIndex(SQLiteDatabase database, List<IndexInfo> index) {
+        if (database == null || index == null) return false;
+        if (database.inTransaction()) {
+            for (IndexInfo info : index) {
+                Log.d(TAG, "Adding index: "+info.getDefaultIndexName());
+                database.execSQL(info.getDefaultCreateQuery());
+            }
+            return true;
+        }
+        database.beginTransaction();
+        try {
+            for (IndexInfo info : index) {
+                Log.d(TAG, "Adding index: "+info.getDefaultIndexName());
+                database.execSQL(info.getDefaultCreateQuery());
+            }
+            database.setTransactionSuccessful();
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Could not add indexes, none were created.", e);
+            return false;
+        } finally {
+            database.endTransaction();
         }
     }
 
@@ -225,5 +1070,73 @@ public class CursorUtils {
     public static boolean hasResults(Cursor result) {
         return result != null && result.getCount() > 0 && result.moveToFirst();
     }
+    
+    /**
+     * Copy columns of every row into primitive arrays in a single pass.  Column names are resolved once, and the
+     * arrays are sized from the cursor's count unless rows are filtered.  The cursor is returned to its original position.
+     * <pre>
+     * LongColumn times = new LongColumn(Motion.COLUMN_RECORDED_AT, 0);
+     * IntColumn confidences = new IntColumn(Motion.COLUMN_CONFIDENCE, 0);
+     * int rows = CursorUtils.extractColumns(cursor, null, times, confidences);
+     * </pre>
+     * @param result The result set to copy from
+     * @param filter Decides which rows are copied, or null to copy every row
+     * @param columns The columns to copy into
+     * @return The number of rows copied, which is the size of every column
+     */
+    public static int extractColumns(Cursor result, @Nullable RowFilter filter, PrimitiveColumn... columns) {
+        if (result == null || columns == null || columns.length == 0) return 0;
+        int count = Math.max(0, result.getCount());
+        int capacity = filter == null ? count : Math.min(count, PrimitiveColumn.MIN_CAPACITY);
+        for (PrimitiveColumn column : columns) {
+            column.bind(result, capacity);
+        }
+        if (count == 0) return 0;
+        int position = result.getPosition();
+        int rows = 0;
+        try {
+            if (!result.moveToFirst()) return 0;
+            do {
+                if (filter != null && !filter.accept(result)) continue;
+                for (PrimitiveColumn column : columns) {
+                    column.read(result);
+                }
+                rows++;
+            } while (result.moveToNext());
+        } finally {
+            result.moveToPosition(position);
+        }
+        return rows;
+    }
+    
+    /**
+     * Copy a column of every row into an array
+     * @return The values, which are 0 if the column doesn't exist
+     */
+    public static long[] extractLongs(Cursor result, String columnName) {
+        LongColumn column = new LongColumn(columnName, 0);
+        extractColumns(result, null, column);
+        return column.getValues();
+    }
+    
+    /**
+     * Copy a column of every row into an array
+     * @return The values, which are 0 if the column doesn't exist
+     */
+    public static double[] extractDoubles(Cursor result, String columnName) {
+        DoubleColumn column = new DoubleColumn(columnName, 0);
+        extractColumns(result, null, column);
+        return column.getValues();
+    }
+    
+    /**
+     * Copy a column of every row into an array
+     * @return The values, which are 0 if the column doesn't exist
+     */
+    public static int[] extractInts(Cursor result, String columnName) {
+        IntColumn column = new IntColumn(columnName, 0);
+        extractColumns(result, null, column);
+        return column.getValues();
+    }
 
 }
@@ -0,0 +1,575 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Records how long database work takes, grouped by the signature of each query.  For each signature it keeps a latency
+ * histogram, the number of rows read or written, and how long cursors stay open.  Cursors which are garbage collected
+ * without being closed are counted and logged as leaks, and any call slower than a threshold is logged and kept in a
+ * short list of recent slow queries.
+ * 
+ * Instrumentation is off by default.  While it is off, the wrappers call straight through and {@link #start()} returns
+ * {@link #DISABLED}, so the only cost is reading a volatile flag.  While it is on, each call costs two clock reads and a 
+ * few atomic increments, and queries return a wrapped cursor.  Note that queries through the wrappers are counted with 
+ * {@link Cursor#getCount()}, which makes Android run the query immediately so its real cost is measured.
+ * 
+ * Signatures are the statement with literals replaced by ? and whitespace collapsed, so the same query with different
+ * values is grouped together.  Code that doesn't go through the wrappers can time itself:
+ * 
+ * <pre>
+ * long start = DatabaseInstrumentation.start();
+ * int rows = doWork();
+ * DatabaseInstrumentation.record("import", "locations", start, rows);
+ * </pre>
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class DatabaseInstrumentation {
+    
+    private static final String TAG = DatabaseInstrumentation.class.getSimpleName();
+    
+    /** Returned by {@link #start()} when instrumentation is disabled */
+    public static final long DISABLED = 0;
+    
+    public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 100;
+    public static final int MAX_SLOW_QUERIES = 32;
+    
+    protected static final int MAX_SIGNATURE_LENGTH = 200;
+    protected static final int MAX_CACHED_TARGETS = 512;
+    
+    protected static volatile boolean sEnabled;
+    protected static volatile long sSlowQueryThresholdNanos = DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS * 1000000L;
+    protected static volatile boolean sTrackAllocations;
+    protected static final ConcurrentMap<String, QueryStats> sStats = new ConcurrentHashMap<String, QueryStats>();
+    /** Operation to target to statistics, so the signature of a repeated statement is only built once */
+    protected static final ConcurrentMap<String, ConcurrentMap<String, QueryStats>> sTargets = 
+            new ConcurrentHashMap<String, ConcurrentMap<String, QueryStats>>();
+    protected static final SlowQuery[] sSlowQueries = new SlowQuery[MAX_SLOW_QUERIES];
+    protected static int sSlowQueryCount;
+    
+    /**
+     * Counts values into buckets which double in size, so that percentiles can be estimated without storing every value.
+     * Bucket n holds values of at least 2^(n-1) and less than 2^n microseconds.
+     */
+    public static class Histogram {
+        public static final int BUCKETS = 40;
+        
+        protected final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        protected final AtomicLong mCount = new AtomicLong();
+        protected final AtomicLong mTotalNanos = new AtomicLong();
+        protected final AtomicLong mMaxNanos = new AtomicLong();
+        
+        public void add(long nanos) {
+            long micros = Math.max(0, nanos) / 1000;
+            mBuckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+            long max = mMaxNanos.get();
+            while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+        }
+        
+        public long getCount() {
+            return mCount.get();
+        }
+        
+        public long getTotalNanos() {
+            return mTotalNanos.get();
+        }
+        
+        public long getMaxNanos() {
+            return mMaxNanos.get();
+        }
+        
+        public long getMeanNanos() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotalNanos.get() / count;
+        }
+        
+        /**
+         * @param percentile The percentile, from 0 to 100
+         * @return The upper bound of the bucket holding the percentile, no more than the largest value recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(mMaxNanos.get(), (1L << bucket) * 1000);
+                }
+            }
+            return mMaxNanos.get();
+        }
+        
+        /**
+         * @return A copy of the bucket counts
+         */
+        public long[] getBuckets() {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            return buckets;
+        }
+    }
+    
+    /**
+     * What has been recorded for one query signature
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class QueryStats {
+        protected final String mSignature;
+        protected final Histogram mLatency = new Histogram();
+        protected final Histogram mCursorLifetime = new Histogram();
+        protected final AtomicLong mRows = new AtomicLong();
+        protected final AtomicLong mSlow = new AtomicLong();
+        protected final AtomicLong mCursorsOpened = new AtomicLong();
+        protected final AtomicLong mCursorsLeaked = new AtomicLong();
+        
+        public QueryStats(String signature) {
+            mSignature = signature;
+        }
+        
+        public String getSignature() {
+            return mSignature;
+        }
+        
+        public Histogram getLatency() {
+            return mLatency;
+        }
+        
+        /**
+         * @return How long cursors were open, from being returned by the query until being closed
+         */
+        public Histogram getCursorLifetime() {
+            return mCursorLifetime;
+        }
+        
+        public long getCount() {
+            return mLatency.getCount();
+        }
+        
+        /**
+         * @return The total number of rows returned, inserted, updated or deleted
+         */
+        public long getRows() {
+            return mRows.get();
+        }
+        
+        public long getSlowCount() {
+            return mSlow.get();
+        }
+        
+        public long getCursorsOpened() {
+            return mCursorsOpened.get();
+        }
+        
+        /**
+         * @return The number of cursors which are still open, including any that have leaked
+         */
+        public long getOpenCursors() {
+            return mCursorsOpened.get() - mCursorLifetime.getCount();
+        }
+        
+        /**
+         * @return The number of cursors which were garbage collected without being closed
+         */
+        public long getLeakedCursors() {
+            return mCursorsLeaked.get();
+        }
+        
+        @Override public String toString() {
+            return mSignature+": "+getCount()+" calls, mean "+(mLatency.getMeanNanos() / 1000)+"us, p50 "
+                    +(mLatency.getPercentileNanos(50) / 1000)+"us, p99 "+(mLatency.getPercentileNanos(99) / 1000)+"us, max "
+                    +(mLatency.getMaxNanos() / 1000)+"us, "+getRows()+" rows, "+getSlowCount()+" slow, "
+                    +getOpenCursors()+" open cursors, "+getLeakedCursors()+" leaked";
+        }
+    }
+    
+    /**
+     * A call which took longer than the slow query threshold
+     */
+    public static class SlowQuery {
+        protected final String mSignature;
+        protected final String mStatement;
+        protected final long mDurationNanos;
+        protected final int mRows;
+        protected final long mTimestamp;
+        
+        public SlowQuery(String signature, String statement, long durationNanos, int rows, long timestamp) {
+            mSignature = signature;
+            mStatement = statement;
+            mDurationNanos = durationNanos;
+            mRows = rows;
+            mTimestamp = timestamp;
+        }
+        
+        public String getSignature() {
+            return mSignature;
+        }
+        
+        /**
+         * @return The statement as it was run, before literals were removed
+         */
+        public String getStatement() {
+            return mStatement;
+        }
+        
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+        
+        public int getRows() {
+            return mRows;
+        }
+        
+        /**
+         * @return When the query finished, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+        
+        @Override public String toString() {
+            return "Slow query ("+(mDurationNanos / 1000000)+"ms, "+mRows+" rows): "+mStatement;
+        }
+    }
+    
+    /**
+     * Records how long it stays open, and whether it is closed at all
+     */
+    protected static class InstrumentedCursor extends CursorWrapper {
+        protected final QueryStats mStats;
+        protected final long mOpened;
+        protected final Throwable mAllocationSite;
+        protected volatile boolean mRecorded;
+        
+        protected InstrumentedCursor(Cursor cursor, QueryStats stats) {
+            super(cursor);
+            mStats = stats;
+            mOpened = System.nanoTime();
+            mAllocationSite = sTrackAllocations ? new Throwable("Cursor was opened here") : null;
+            stats.mCursorsOpened.incrementAndGet();
+        }
+        
+        @Override public void close() {
+            super.close();
+            if (!mRecorded) {
+                mRecorded = true;
+                mStats.mCursorLifetime.add(System.nanoTime() - mOpened);
+            }
+        }
+        
+        @Override protected void finalize() throws Throwable {
+            try {
+                if (!mRecorded) {
+                    mStats.mCursorsLeaked.incrementAndGet();
+                    if (mAllocationSite != null) {
+                        Log.w(TAG, "Cursor was never closed: "+mStats.getSignature(), mAllocationSite);
+                    } else {
+                        Log.w(TAG, "Cursor was never closed: "+mStats.getSignature());
+                    }
+                    close();
+                }
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+    
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+    
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+    
+    public static void setSlowQueryThresholdMillis(long thresholdMillis) {
+        sSlowQueryThresholdNanos = Math.max(0, thresholdMillis) * 1000000L;
+    }
+    
+    /**
+     * @param trackAllocations Whether to capture a stack trace when each cursor is opened, so a leaked cursor can be 
+     * logged with where it came from.  This is expensive and best left for debugging leaks.
+     */
+    public static void setTrackAllocations(boolean trackAllocations) {
+        sTrackAllocations = trackAllocations;
+    }
+    
+    /**
+     * Clear all of the recorded statistics and slow queries
+     */
+    public static void reset() {
+        sTargets.clear();
+        sStats.clear();
+        synchronized (sSlowQueries) {
+            for (int i = 0; i < MAX_SLOW_QUERIES; i++) {
+                sSlowQueries[i] = null;
+            }
+            sSlowQueryCount = 0;
+        }
+    }
+    
+    /**
+     * @return The time to pass to {@link #record(String, String, long, int)}, or {@link #DISABLED}
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : DISABLED;
+    }
+    
+    /**
+     * Record a call which began at start.  Does nothing if instrumentation was disabled when the call started.
+     * @param operation What was done, such as "query" or "applyBatch"
+     * @param target The statement, table or authority the operation was applied to
+     * @param start The value returned by {@link #start()}
+     * @param rows The number of rows read or written
+     * @return The statistics the call was recorded in, or null if it was not recorded
+     */
+    @Nullable
+    public static QueryStats record(String operation, String target, long start, int rows) {
+        if (start == DISABLED) {
+            return null;
+        }
+        long duration = System.nanoTime() - start;
+        QueryStats stats = getOrCreateStats(operation, target);
+        stats.mLatency.add(duration);
+        stats.mRows.addAndGet(Math.max(0, rows));
+        if (duration >= sSlowQueryThresholdNanos) {
+            stats.mSlow.incrementAndGet();
+            SlowQuery slow = new SlowQuery(stats.getSignature(), operation+" "+target, duration, rows, System.currentTimeMillis());
+            Log.w(TAG, slow.toString());
+            synchronized (sSlowQueries) {
+                sSlowQueries[sSlowQueryCount++ % MAX_SLOW_QUERIES] = slow;
+            }
+        }
+        return stats;
+    }
+    
+    /**
+     * Run a raw query, recording its latency and row count and wrapping the cursor to record its lifetime
+     */
+    @Nullable
+    public static Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        long start = start();
+        Cursor result = database.rawQuery(sql, selectionArgs);
+        return start == DISABLED ? result : recordCursor("query", sql, start, result);
+    }
+    
+    /**
+     * Run a query, recording its latency and row count and wrapping the cursor to record its lifetime
+     */
+    @Nullable
+    public static Cursor query(SQLiteDatabase database, String table, String[] columns, String selection, String[] selectionArgs, 
+            String groupBy, String having, String orderBy, String limit) {
+        long start = start();
+        Cursor result = database.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
+        if (start == DISABLED) {
+            return result;
+        }
+        StringBuilder target = new StringBuilder(table);
+        if (selection != null) target.append(" WHERE ").append(selection);
+        if (groupBy != null) target.append(" GROUP BY ").append(groupBy);
+        if (orderBy != null) target.append(" ORDER BY ").append(orderBy);
+        return recordCursor("query", target.toString(), start, result);
+    }
+    
+    /**
+     * Query a content provider, recording its latency and row count and wrapping the cursor to record its lifetime
+     */
+    @Nullable
+    public static Cursor query(android.content.ContentResolver resolver, android.net.Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        long start = start();
+        Cursor result = resolver.query(uri, projection, selection, selectionArgs, sortOrder);
+        if (start == DISABLED) {
+            return result;
+        }
+        StringBuilder target = new StringBuilder(String.valueOf(uri));
+        if (selection != null) target.append(" WHERE ").append(selection);
+        if (sortOrder != null) target.append(" ORDER BY ").append(sortOrder);
+        return recordCursor("query", target.toString(), start, result);
+    }
+    
+    public static long insert(SQLiteDatabase database, String table, String nullColumnHack, ContentValues values) {
+        long start = start();
+        long id = database.insert(table, nullColumnHack, values);
+        record("insert", table, start, id == -1 ? 0 : 1);
+        return id;
+    }
+    
+    public static int update(SQLiteDatabase database, String table, ContentValues values, String whereClause, String[] whereArgs) {
+        long start = start();
+        int rows = database.update(table, values, whereClause, whereArgs);
+        if (start != DISABLED) {
+            record("update", whereClause == null ? table : table+" WHERE "+whereClause, start, rows);
+        }
+        return rows;
+    }
+    
+    public static int delete(SQLiteDatabase database, String table, String whereClause, String[] whereArgs) {
+        long start = start();
+        int rows = database.delete(table, whereClause, whereArgs);
+        if (start != DISABLED) {
+            record("delete", whereClause == null ? table : table+" WHERE "+whereClause, start, rows);
+        }
+        return rows;
+    }
+    
+    protected static Cursor recordCursor(String operation, String target, long start, Cursor result) {
+        int rows = result == null ? 0 : result.getCount();
+        QueryStats stats = record(operation, target, start, rows);
+        return result == null || stats == null ? result : new InstrumentedCursor(result, stats);
+    }
+    
+    protected static QueryStats getOrCreateStats(String operation, String target) {
+        ConcurrentMap<String, QueryStats> targets = sTargets.get(operation);
+        if (targets == null) {
+            sTargets.putIfAbsent(operation, new ConcurrentHashMap<String, QueryStats>());
+            targets = sTargets.get(operation);
+        }
+        QueryStats stats = targets.get(target);
+        if (stats != null) {
+            return stats;
+        }
+        String signature = signatureOf(operation, target);
+        stats = sStats.get(signature);
+        if (stats == null) {
+            QueryStats created = new QueryStats(signature);
+            stats = sStats.putIfAbsent(signature, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        if (targets.size() < MAX_CACHED_TARGETS) {
+            targets.put(target, stats);
+        }
+        return stats;
+    }
+    
+    /**
+     * @return The statistics for a signature, or null if nothing has been recorded for it
+     */
+    @Nullable
+    public static QueryStats getStats(String operation, String target) {
+        return sStats.get(signatureOf(operation, target));
+    }
+    
+    /**
+     * @return The statistics for every signature, slowest in total first
+     */
+    @NonNull
+    public static List<QueryStats> getAllStats() {
+        List<QueryStats> stats = new ArrayList<QueryStats>(sStats.values());
+        Collections.sort(stats, new Comparator<QueryStats>() {
+            @Override public int compare(QueryStats lhs, QueryStats rhs) {
+                long difference = rhs.getLatency().getTotalNanos() - lhs.getLatency().getTotalNanos();
+                return difference > 0 ? 1 : (difference < 0 ? -1 : 0);
+            }
+        });
+        return stats;
+    }
+    
+    /**
+     * @return The most recent slow queries, oldest first
+     */
+    @NonNull
+    public static List<SlowQuery> getSlowQueries() {
+        List<SlowQuery> slow = new ArrayList<SlowQuery>(MAX_SLOW_QUERIES);
+        synchronized (sSlowQueries) {
+            int first = Math.max(0, sSlowQueryCount - MAX_SLOW_QUERIES);
+            for (int i = first; i < sSlowQueryCount; i++) {
+                slow.add(sSlowQueries[i % MAX_SLOW_QUERIES]);
+            }
+        }
+        return slow;
+    }
+    
+    /**
+     * Write the statistics for every signature to the log
+     */
+    public static void dump() {
+        for (QueryStats stats : getAllStats()) {
+            Log.i(TAG, stats.toString());
+        }
+    }
+    
+    /**
+     * @return The operation and target with string and numeric literals replaced by ? and whitespace collapsed
+     */
+    @NonNull
+    public static String signatureOf(String operation, String target) {
+        return normalize(operation+" "+target);
+    }
+    
+    protected static String normalize(String statement) {
+        StringBuilder signature = new StringBuilder(Math.min(statement.length(), MAX_SIGNATURE_LENGTH));
+        int length = statement.length();
+        boolean space = false;
+        for (int i = 0; i < length && signature.length() < MAX_SIGNATURE_LENGTH; i++) {
+            char c = statement.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = signature.length() > 0;
+                continue;
+            }
+            if (space) {
+                signature.append(' ');
+                space = false;
+            }
+            char previous = i == 0 ? ' ' : statement.charAt(i - 1);
+            if (c == '\'') {
+                // Skip the literal, including escaped quotes
+                i++;
+                while (i < length && !(statement.charAt(i) == '\'' && (i + 1 >= length || statement.charAt(i + 1) != '\''))) {
+                    i += statement.charAt(i) == '\'' ? 2 : 1;
+                }
+                signature.append('?');
+            } else if (Character.isDigit(c) && !Character.isLetterOrDigit(previous) && previous != '_') {
+                while (i + 1 < length && (Character.isLetterOrDigit(statement.charAt(i + 1)) || statement.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                signature.append('?');
+            } else {
+                signature.append(c);
+            }
+        }
+        return signature.toString();
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Formats doubles and floats into a reusable character buffer, without the allocations and arbitrary precision arithmetic
+ * of {@link Double#toString(double)}.
+ *
+ * The shortest format writes the fewest fractional digits which parse back to exactly the same value, so a latitude of
+ * 43.6532 is written as "43.6532" and whole numbers are written without a fraction, as org.json does.  Values are tried
+ * with 0, 1, 2... decimals as a scaled long; since the long and the power of ten are both exact doubles and division is
+ * correctly rounded, the check that the candidate divides back to the value is exact.  Values which need more than 15 or
+ * 16 significant digits, or which are very large or very small, fall back to {@link Double#toString(double)}, which
+ * always round trips.
+ *
+ * The fixed format rounds to a given number of decimals, for example 7 decimals for coordinates (about 1cm).
+ *
+ * A formatter is not thread safe; the static methods use one formatter per thread.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class DoubleFormatter {
+
+    public static final int MAX_FIXED_DECIMALS = 15;
+
+    protected static final int INITIAL_BUFFER_SIZE = 40;
+    // Doubles at or above 2^53 cannot hold every long, so candidates must stay below it to be exact
+    protected static final double MAX_EXACT = 9007199254740992d;
+    // Smaller values would need more decimals than there are exact powers of ten
+    protected static final double MIN_FAST = 1e-7;
+    protected static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    protected static final ThreadLocal<DoubleFormatter> sFormatters = new ThreadLocal<DoubleFormatter>() {
+        @Override
+        protected DoubleFormatter initialValue() {
+            return new DoubleFormatter();
+        }
+    };
+
+    protected char[] mBuffer;
+    protected int mLength;
+
+    public DoubleFormatter() {
+        mBuffer = new char[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * @return The value in the shortest format, using the formatter for this thread
+     */
+    public static String toString(double value) {
+        DoubleFormatter formatter = sFormatters.get();
+        formatter.format(value);
+        return formatter.toString();
+    }
+
+    /**
+     * @return The value in the shortest format, using the formatter for this thread
+     */
+    public static String toString(float value) {
+        DoubleFormatter formatter = sFormatters.get();
+        formatter.format(value);
+        return formatter.toString();
+    }
+
+    /**
+     * @return The value rounded to the given number of decimals, using the formatter for this thread
+     */
+    public static String toString(double value, int decimals) {
+        DoubleFormatter formatter = sFormatters.get();
+        formatter.format(value, decimals);
+        return formatter.toString();
+    }
+
+    /**
+     * Append the value in the shortest format, using the formatter for this thread
+     */
+    public static void append(StringBuilder output, double value) {
+        DoubleFormatter formatter = sFormatters.get();
+        formatter.format(value);
+        formatter.appendTo(output);
+    }
+
+    /**
+     * Format the value with the fewest fractional digits which parse back to the same double
+     * @return The number of characters written to the buffer
+     */
+    public int format(double value) {
+        if (value == 0) {
+            return writeZero(Double.doubleToRawLongBits(value) < 0);
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude >= MIN_FAST && magnitude < MAX_EXACT) {
+            for (int decimals = 0; decimals < POWERS_OF_TEN.length; decimals++) {
+                double scaled = magnitude * POWERS_OF_TEN[decimals];
+                if (scaled >= MAX_EXACT) {
+                    break;
+                }
+                long digits = Math.round(scaled);
+                if (digits / POWERS_OF_TEN[decimals] == magnitude) {
+                    return writeDecimal(value < 0, digits, decimals);
+                }
+            }
+        }
+        return write(Double.toString(value));
+    }
+
+    /**
+     * Format the value with the fewest fractional digits which parse back to the same float, whether parsed as a float or
+     * parsed as a double and narrowed
+     * @return The number of characters written to the buffer
+     */
+    public int format(float value) {
+        if (value == 0) {
+            return writeZero(Float.floatToRawIntBits(value) < 0);
+        }
+        float magnitude = Math.abs(value);
+        if (magnitude >= MIN_FAST && magnitude < MAX_EXACT) {
+            for (int decimals = 0; decimals < POWERS_OF_TEN.length; decimals++) {
+                double scaled = magnitude * POWERS_OF_TEN[decimals];
+                if (scaled >= MAX_EXACT) {
+                    break;
+                }
+                long digits = Math.round(scaled);
+                double candidate = digits / POWERS_OF_TEN[decimals];
+                if ((float)candidate == magnitude && !isFloatMidpoint(candidate)) {
+                    return writeDecimal(value < 0, digits, decimals);
+                }
+            }
+        }
+        return write(Float.toString(value));
+    }
+
+    /**
+     * Format the value rounded to the given number of decimals.  Trailing zeros are kept.
+     * @param decimals The number of decimals, up to {@link #MAX_FIXED_DECIMALS}
+     * @return The number of characters written to the buffer
+     */
+    public int format(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return write(Double.toString(value));
+        }
+        decimals = Math.max(0, Math.min(MAX_FIXED_DECIMALS, decimals));
+        double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+        if (scaled < MAX_EXACT) {
+            long digits = Math.round(scaled);
+            // Values which round to zero are written without a sign
+            return writeDecimal(value < 0 && digits != 0, digits, decimals);
+        }
+        return write(new BigDecimal(value).setScale(decimals, BigDecimal.ROUND_HALF_UP).toPlainString());
+    }
+
+    /**
+     * @return The buffer holding the last formatted value.  It is reused by the next call.
+     */
+    public char[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return The length of the last formatted value
+     */
+    public int length() {
+        return mLength;
+    }
+
+    public void appendTo(StringBuilder output) {
+        output.append(mBuffer, 0, mLength);
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(mBuffer, 0, mLength);
+    }
+
+    /**
+     * @return The last formatted value
+     */
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mLength);
+    }
+
+    /**
+     * Whether a double lies exactly half way between two floats.  Narrowing such a value rounds to even, which may differ
+     * from parsing the decimal directly as a float.
+     */
+    protected static boolean isFloatMidpoint(double value) {
+        float nearest = (float)value;
+        if (nearest == value) {
+            return false;
+        }
+        float other = Math.nextAfter(nearest, value);
+        return ((double)nearest + (double)other) / 2 == value;
+    }
+
+    protected int writeZero(boolean negative) {
+        mLength = 0;
+        if (negative) {
+            mBuffer[mLength++] = '-';
+        }
+        mBuffer[mLength++] = '0';
+        return mLength;
+    }
+
+    /**
+     * Write digits with a decimal point placed before the last <code>decimals</code> digits
+     */
+    protected int writeDecimal(boolean negative, long digits, int decimals) {
+        ensureCapacity(decimals + 22);
+        int position = mBuffer.length;
+        for (int i = 0; i < decimals; i++) {
+            mBuffer[--position] = (char)('0' + (int)(digits % 10));
+            digits /= 10;
+        }
+        if (decimals > 0) {
+            mBuffer[--position] = '.';
+        }
+        do {
+            mBuffer[--position] = (char)('0' + (int)(digits % 10));
+            digits /= 10;
+        } while (digits != 0);
+        if (negative) {
+            mBuffer[--position] = '-';
+        }
+        mLength = mBuffer.length - position;
+        System.arraycopy(mBuffer, position, mBuffer, 0, mLength);
+        return mLength;
+    }
+
+    protected int write(String value) {
+        ensureCapacity(value.length());
+        value.getChars(0, value.length(), mBuffer, 0);
+        mLength = value.length();
+        return mLength;
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (mBuffer.length < capacity) {
+            mBuffer = new char[Math.max(capacity, mBuffer.length * 2)];
+        }
+    }
+}
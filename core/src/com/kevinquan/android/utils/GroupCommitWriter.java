@@ -0,0 +1,587 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Serializes writes to a database through a single thread, committing every write that arrives within a short window in
+ * one transaction.  Many small writes from different threads then share one commit (and one sync of the journal) instead
+ * of each paying for their own implicit transaction.
+ *
+ * A batch is committed once the oldest write has waited for the window, once enough writes are pending, or when a
+ * {@link #flush()} is requested.  Each write returns a future which is completed after its batch has been committed.  If a
+ * write throws, the batch is rolled back and its writes are replayed one transaction each, so a failing write fails only
+ * its own future and leaves none of its statements behind.
+ * <pre>
+ * GroupCommitWriter writer = new GroupCommitWriter(database);
+ * Future&lt;Long&gt; id = writer.insert(TABLE_LOCATIONS, location.getValues());
+ * </pre>
+ * Writes submitted from within a write run immediately as part of the current transaction, and their futures complete
+ * with it.  A write must not wait on the futures of writes it submits, since they cannot complete until it returns.  If a
+ * nested write throws, the write that submitted it fails.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class GroupCommitWriter {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 10;
+
+    /**
+     * A unit of work run on the writer thread inside the batch transaction
+     */
+    public interface Write<T> {
+        /**
+         * @return The result passed to the write's future
+         */
+        public T write(SQLiteDatabase database) throws Exception;
+    }
+
+    protected class Pending<T> {
+        protected final Write<T> mWrite;
+        protected final WriteResult<T> mResult = new WriteResult<T>() {
+            @Override public T get() throws InterruptedException, ExecutionException {
+                checkNotWriter(this);
+                return super.get();
+            }
+
+            @Override public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                checkNotWriter(this);
+                return super.get(timeout, unit);
+            }
+        };
+        protected final long mSubmittedAt = System.nanoTime();
+        protected T mValue;
+
+        protected Pending(Write<T> write) {
+            mWrite = write;
+        }
+
+        protected boolean isFlush() {
+            return mWrite == null;
+        }
+
+        /**
+         * Run the write, holding its result until the batch has been committed
+         */
+        protected void run(SQLiteDatabase database) throws Exception {
+            mValue = mWrite == null ? null : mWrite.write(database);
+        }
+
+        protected void complete() {
+            mResult.set(mValue);
+        }
+
+        protected void fail(Throwable failure) {
+            mValue = null;
+            mResult.fail(failure);
+        }
+    }
+
+    protected final SQLiteDatabase mDatabase;
+    protected final Object mLock = new Object();
+    protected int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    protected long mMaxDelayMs = DEFAULT_MAX_DELAY_MS;
+
+    protected List<Pending<?>> mPending = new ArrayList<Pending<?>>();
+    protected long mOldestQueuedAt;
+    protected boolean mFlushRequested;
+    protected boolean mRunning;
+    protected boolean mStopping;
+    protected Thread mThread;
+    protected volatile Thread mWriter;
+
+    // Only used by the writer thread, for the writes submitted by the writes in the current transaction
+    protected final List<Pending<?>> mNested = new ArrayList<Pending<?>>();
+    protected Exception mNestedFailure;
+
+    protected final AtomicLong mSubmitted = new AtomicLong();
+    protected final AtomicLong mCommitted = new AtomicLong();
+    protected final AtomicLong mFailed = new AtomicLong();
+    protected final AtomicLong mBatches = new AtomicLong();
+    protected final AtomicLong mReplays = new AtomicLong();
+    protected final AtomicLong mMaxBatch = new AtomicLong();
+    protected final AtomicLong mCommitNanos = new AtomicLong();
+    protected final AtomicLong mMaxCommitNanos = new AtomicLong();
+    protected final AtomicLong mLatencyNanos = new AtomicLong();
+
+    /**
+     * @param database The database to write to, which should only be written to through this writer
+     */
+    public GroupCommitWriter(SQLiteDatabase database) {
+        if (database == null) {
+            throw new IllegalArgumentException("Database must be provided");
+        }
+        mDatabase = database;
+    }
+
+    /**
+     * @param maxBatchSize The most writes to commit in one transaction, which also triggers a commit once reached
+     */
+    public GroupCommitWriter setMaxBatchSize(int maxBatchSize) {
+        synchronized (mLock) {
+            mMaxBatchSize = Math.max(1, maxBatchSize);
+            mLock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * @param maxDelayMs The longest a write waits for others to join its batch
+     */
+    public GroupCommitWriter setMaxDelay(long maxDelayMs) {
+        synchronized (mLock) {
+            mMaxDelayMs = Math.max(0, maxDelayMs);
+            mLock.notifyAll();
+        }
+        return this;
+    }
+
+    @NonNull
+    public <T> Future<T> submit(Write<T> write) {
+        if (write == null) {
+            throw new IllegalArgumentException("Write must be provided");
+        }
+        return enqueue(new Pending<T>(write)).mResult;
+    }
+
+    /**
+     * @return A future holding the id of the inserted row
+     */
+    @NonNull
+    public Future<Long> insert(final String table, ContentValues values) {
+        final ContentValues copy = new ContentValues(values);
+        return submit(new Write<Long>() {
+            @Override public Long write(SQLiteDatabase database) {
+                return database.insertOrThrow(table, null, copy);
+            }
+        });
+    }
+
+    /**
+     * @return A future holding the number of rows updated
+     */
+    @NonNull
+    public Future<Integer> update(final String table, ContentValues values, final String whereClause, String[] whereArgs) {
+        final ContentValues copy = new ContentValues(values);
+        final String[] args = whereArgs == null ? null : whereArgs.clone();
+        return submit(new Write<Integer>() {
+            @Override public Integer write(SQLiteDatabase database) {
+                return database.update(table, copy, whereClause, args);
+            }
+        });
+    }
+
+    /**
+     * @return A future holding the number of rows deleted
+     */
+    @NonNull
+    public Future<Integer> delete(final String table, final String whereClause, String[] whereArgs) {
+        final String[] args = whereArgs == null ? null : whereArgs.clone();
+        return submit(new Write<Integer>() {
+            @Override public Integer write(SQLiteDatabase database) {
+                return database.delete(table, whereClause, args);
+            }
+        });
+    }
+
+    /**
+     * Commit the pending writes without waiting for the window
+     * @return A future that completes once every write submitted before it has been committed or has failed
+     */
+    @NonNull
+    public Future<Void> flush() {
+        Pending<Void> flush = new Pending<Void>(null);
+        synchronized (mLock) {
+            mFlushRequested = true;
+        }
+        return enqueue(flush).mResult;
+    }
+
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * Commit every pending write and stop the writer thread.  Writes submitted while stopping are committed before the
+     * thread exits, and the thread is started again by the next write after that.
+     */
+    public void shutdown() {
+        Thread thread;
+        synchronized (mLock) {
+            if (!mRunning) {
+                return;
+            }
+            // The writer stays running until its thread exits, so no second thread can start while it commits
+            mStopping = true;
+            mLock.notifyAll();
+            thread = mThread;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Log.w(TAG, "Interrupted while waiting for writer to stop.", ie);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of writes and flushes submitted
+     */
+    public long getSubmittedCount() {
+        return mSubmitted.get();
+    }
+
+    /**
+     * @return The number of writes that have been committed
+     */
+    public long getCommittedCount() {
+        return mCommitted.get();
+    }
+
+    /**
+     * @return The number of writes that failed
+     */
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * @return The number of batch transactions committed, not counting the transactions of replayed writes
+     */
+    public long getBatchCount() {
+        return mBatches.get();
+    }
+
+    /**
+     * @return The number of batches that were rolled back and replayed one write at a time
+     */
+    public long getReplayCount() {
+        return mReplays.get();
+    }
+
+    public int getLargestBatchSize() {
+        return (int)mMaxBatch.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = mBatches.get();
+        return batches == 0 ? 0 : (double)mCommitted.get() / batches;
+    }
+
+    /**
+     * @return The average time from starting a batch transaction to its commit completing
+     */
+    public double getAverageCommitMillis() {
+        long batches = mBatches.get();
+        return batches == 0 ? 0 : mCommitNanos.get() / 1000000d / batches;
+    }
+
+    public double getMaxCommitMillis() {
+        return mMaxCommitNanos.get() / 1000000d;
+    }
+
+    /**
+     * @return The average time from submitting a write to its future completing
+     */
+    public double getAverageLatencyMillis() {
+        long completed = mCommitted.get() + mFailed.get();
+        return completed == 0 ? 0 : mLatencyNanos.get() / 1000000d / completed;
+    }
+
+    protected <T> Pending<T> enqueue(Pending<T> pending) {
+        mSubmitted.incrementAndGet();
+        if (Thread.currentThread() == mWriter) {
+            // Queuing from inside a batch would wait on the batch itself, so join it instead
+            runNested(pending);
+            return pending;
+        }
+        synchronized (mLock) {
+            mPending.add(pending);
+            if (mPending.size() == 1) {
+                mOldestQueuedAt = System.nanoTime();
+            }
+            if (!mRunning) {
+                start();
+            } else if (mPending.size() == 1 || mPending.size() >= mMaxBatchSize || mFlushRequested) {
+                mLock.notifyAll();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Run a write submitted by another write as part of the current transaction.  Its future completes or fails with the
+     * transaction, and if it throws, the write that submitted it fails.
+     */
+    protected void runNested(Pending<?> pending) {
+        mNested.add(pending);
+        if (mNestedFailure != null) {
+            return;
+        }
+        try {
+            pending.run(mDatabase);
+        } catch (Exception e) {
+            mNestedFailure = e;
+        }
+    }
+
+    /**
+     * Waiting on the writer thread for a write that hasn't completed would wait for the writer itself
+     */
+    protected void checkNotWriter(Future<?> result) {
+        if (!result.isDone() && Thread.currentThread() == mWriter) {
+            throw new IllegalStateException("Writes cannot wait for writes they submit, which complete after they return");
+        }
+    }
+
+    /**
+     * Start the writer thread.  Must be called while holding the lock.
+     */
+    protected void start() {
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override public void run() {
+                consume();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    protected void consume() {
+        mWriter = Thread.currentThread();
+        try {
+            while (true) {
+                List<Pending<?>> batch;
+                synchronized (mLock) {
+                    try {
+                        while (!mStopping && mPending.isEmpty()) {
+                            mLock.wait();
+                        }
+                        while (!mStopping && !mFlushRequested && mPending.size() < mMaxBatchSize) {
+                            long remainingMs = mMaxDelayMs - (System.nanoTime() - mOldestQueuedAt) / 1000000;
+                            if (remainingMs <= 0) {
+                                break;
+                            }
+                            mLock.wait(remainingMs);
+                        }
+                    } catch (InterruptedException ie) {
+                        Log.w(TAG, "Interrupted while waiting for writes, committing.", ie);
+                    }
+                    if (mPending.isEmpty()) {
+                        return;
+                    }
+                    if (mPending.size() <= mMaxBatchSize) {
+                        batch = mPending;
+                        mPending = new ArrayList<Pending<?>>();
+                        mFlushRequested = false;
+                    } else {
+                        List<Pending<?>> head = mPending.subList(0, mMaxBatchSize);
+                        batch = new ArrayList<Pending<?>>(head);
+                        head.clear();
+                        // The rest have already waited, so commit them next without another window
+                        mOldestQueuedAt = 0;
+                    }
+                }
+                try {
+                    commit(batch);
+                } catch (Throwable t) {
+                    // Anything thrown past the replay would otherwise leave the batch waiting forever
+                    Log.e(TAG, "Could not commit batch of "+batch.size()+" writes.", t);
+                    failUnfinished(mNested, t);
+                    failUnfinished(batch, t);
+                    mNested.clear();
+                }
+            }
+        } finally {
+            synchronized (mLock) {
+                mWriter = null;
+                mThread = null;
+                mRunning = false;
+                mStopping = false;
+                // Writes that arrived after the last batch was taken still need a thread
+                if (!mPending.isEmpty()) {
+                    start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a batch of writes in one transaction, completing their futures once it has been committed
+     */
+    protected void commit(List<Pending<?>> batch) {
+        long instrumentationStart = DatabaseInstrumentation.start();
+        long started = System.nanoTime();
+        Exception failure = null;
+        mNested.clear();
+        mNestedFailure = null;
+        mDatabase.beginTransaction();
+        try {
+            for (Pending<?> pending : batch) {
+                try {
+                    runWrite(pending);
+                } catch (Exception e) {
+                    failure = e;
+                    break;
+                }
+            }
+            if (failure == null) {
+                mDatabase.setTransactionSuccessful();
+            }
+        } finally {
+            try {
+                mDatabase.endTransaction();
+            } catch (RuntimeException re) {
+                Log.e(TAG, "Could not commit batch of "+batch.size()+" writes.", re);
+                if (failure == null) {
+                    failure = re;
+                }
+            }
+        }
+        if (failure != null) {
+            Log.w(TAG, "Write failed in batch of "+batch.size()+", replaying writes individually.", failure);
+            mReplays.incrementAndGet();
+            // Replaying submits the nested writes again, so the ones that were rolled back fail
+            failAll(mNested, new IllegalStateException("Write was rolled back with its batch", failure));
+            replay(batch);
+            return;
+        }
+        long elapsed = System.nanoTime() - started;
+        mBatches.incrementAndGet();
+        mCommitNanos.addAndGet(elapsed);
+        updateMax(mMaxCommitNanos, elapsed);
+        // Nested writes complete first, so whoever sees a write complete also sees the writes it submitted complete
+        int writes = completeAll(mNested) + completeAll(batch);
+        mNested.clear();
+        updateMax(mMaxBatch, writes);
+        DatabaseInstrumentation.record("groupCommit", TAG, instrumentationStart, writes);
+    }
+
+    /**
+     * Run each write of a failed batch in its own transaction
+     */
+    protected void replay(List<Pending<?>> batch) {
+        for (Pending<?> pending : batch) {
+            Exception failure = null;
+            mNested.clear();
+            mNestedFailure = null;
+            mDatabase.beginTransaction();
+            try {
+                runWrite(pending);
+                mDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                try {
+                    mDatabase.endTransaction();
+                } catch (RuntimeException re) {
+                    if (failure == null) {
+                        failure = re;
+                    }
+                }
+            }
+            if (failure != null) {
+                Log.w(TAG, "Could not apply write.", failure);
+                failAll(mNested, failure);
+                fail(pending, failure);
+            } else {
+                completeAll(mNested);
+                complete(pending);
+            }
+        }
+        mNested.clear();
+    }
+
+    /**
+     * Run a write, failing it if any write it submitted failed
+     */
+    protected void runWrite(Pending<?> pending) throws Exception {
+        pending.run(mDatabase);
+        if (mNestedFailure != null) {
+            throw mNestedFailure;
+        }
+    }
+
+    protected void complete(Pending<?> pending) {
+        if (!pending.isFlush()) {
+            mCommitted.incrementAndGet();
+            mLatencyNanos.addAndGet(System.nanoTime() - pending.mSubmittedAt);
+        }
+        pending.complete();
+    }
+
+    protected void fail(Pending<?> pending, Throwable failure) {
+        if (!pending.isFlush()) {
+            mFailed.incrementAndGet();
+            mLatencyNanos.addAndGet(System.nanoTime() - pending.mSubmittedAt);
+        }
+        pending.fail(failure);
+    }
+
+    /**
+     * @return The number of writes completed, not counting flushes
+     */
+    protected int completeAll(List<Pending<?>> pendings) {
+        int writes = 0;
+        for (Pending<?> pending : pendings) {
+            if (!pending.isFlush()) {
+                writes++;
+            }
+            complete(pending);
+        }
+        return writes;
+    }
+
+    protected void failAll(List<Pending<?>> pendings, Throwable failure) {
+        for (Pending<?> pending : pendings) {
+            fail(pending, failure);
+        }
+    }
+
+    protected void failUnfinished(List<Pending<?>> pendings, Throwable failure) {
+        for (Pending<?> pending : pendings) {
+            if (!pending.mResult.isDone()) {
+                fail(pending, failure);
+            }
+        }
+    }
+
+    protected static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static final String TAG = GroupCommitWriter.class.getSimpleName();
+}
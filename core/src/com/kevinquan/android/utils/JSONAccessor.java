@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Reads typed values from JSON objects without relying on exceptions.  Each value is looked up once with
+ * {@link JSONObject#opt(String)} and its type is checked directly, so absent keys, nulls and type mismatches return the
+ * default value without a {@link org.json.JSONException} being built.
+ *
+ * Values are coerced the same way as Android's org.json getters: any number can be read as any numeric type (truncating
+ * as {@link Number#intValue()} does), numbers stored as strings are parsed, "true" and "false" strings are read as booleans,
+ * and any non-null value can be read as a string.
+ *
+ * An accessor can optionally count misses for each key, which helps spot payloads drifting away from the expected schema.
+ * Counting accessors are safe to share between threads.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONAccessor {
+
+    public enum Miss {
+        /** The key was not present, or was present with a null value */
+        Absent,
+        /** The value could not be converted to the requested type */
+        Mismatch,
+        ;
+    }
+
+    /** Shared accessor that does not count misses */
+    public static final JSONAccessor DEFAULT = new JSONAccessor(false);
+
+    protected final boolean mCountMisses;
+    protected final ConcurrentMap<String, AtomicInteger[]> mMisses;
+
+    /**
+     * @param countMisses Whether to count misses for each key
+     */
+    public JSONAccessor(boolean countMisses) {
+        mCountMisses = countMisses;
+        mMisses = countMisses ? new ConcurrentHashMap<String, AtomicInteger[]>() : null;
+    }
+
+    public boolean getBoolean(JSONObject obj, String key, boolean defaultValue) {
+        Object value = lookup(obj, key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean)value).booleanValue();
+        }
+        if (value instanceof String) {
+            String text = (String)value;
+            if ("true".equalsIgnoreCase(text)) {
+                return true;
+            } else if ("false".equalsIgnoreCase(text)) {
+                return false;
+            }
+        }
+        recordMiss(key, Miss.Mismatch);
+        return defaultValue;
+    }
+
+    public double getDouble(JSONObject obj, String key, double defaultValue) {
+        Object value = lookup(obj, key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).doubleValue();
+        }
+        if (value instanceof String && JSONTokenizer.isNumber((String)value)) {
+            try {
+                return Double.parseDouble((String)value);
+            } catch (NumberFormatException nfe) {
+                // Fall through to a mismatch; only reached if the check above is more lenient than the parser
+            }
+        }
+        recordMiss(key, Miss.Mismatch);
+        return defaultValue;
+    }
+
+    public int getInt(JSONObject obj, String key, int defaultValue) {
+        Object value = lookup(obj, key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).intValue();
+        }
+        if (value instanceof String && JSONTokenizer.isNumber((String)value)) {
+            try {
+                return (int)Double.parseDouble((String)value);
+            } catch (NumberFormatException nfe) {
+                // Fall through to a mismatch
+            }
+        }
+        recordMiss(key, Miss.Mismatch);
+        return defaultValue;
+    }
+
+    public long getLong(JSONObject obj, String key, long defaultValue) {
+        Object value = lookup(obj, key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).longValue();
+        }
+        if (value instanceof String && JSONTokenizer.isNumber((String)value)) {
+            try {
+                return (long)Double.parseDouble((String)value);
+            } catch (NumberFormatException nfe) {
+                // Fall through to a mismatch
+            }
+        }
+        recordMiss(key, Miss.Mismatch);
+        return defaultValue;
+    }
+
+    /**
+     * Unlike the other getters, an explicit null is returned as the string "null" to match org.json
+     */
+    @Nullable
+    public String getString(JSONObject obj, String key) {
+        if (obj == null || key == null) {
+            return null;
+        }
+        Object value = obj.opt(key);
+        if (value == null) {
+            recordMiss(key, Miss.Absent);
+            return null;
+        }
+        return value instanceof String ? (String)value : String.valueOf(value);
+    }
+
+    @Nullable
+    public JSONObject getObject(JSONObject obj, String key) {
+        Object value = lookup(obj, key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof JSONObject) {
+            return (JSONObject)value;
+        }
+        recordMiss(key, Miss.Mismatch);
+        return null;
+    }
+
+    @Nullable
+    public JSONArray getArray(JSONObject obj, String key) {
+        Object value = lookup(obj, key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof JSONArray) {
+            return (JSONArray)value;
+        }
+        recordMiss(key, Miss.Mismatch);
+        return null;
+    }
+
+    /**
+     * @return The number of times the key missed in the given way, or 0 if misses are not counted
+     */
+    public int getMisses(String key, Miss miss) {
+        if (!mCountMisses || key == null) {
+            return 0;
+        }
+        AtomicInteger[] counts = mMisses.get(key);
+        return counts == null ? 0 : counts[miss.ordinal()].get();
+    }
+
+    /**
+     * @return A snapshot of the misses for each key that has missed, indexed by {@link Miss#ordinal()}
+     */
+    @NonNull
+    public Map<String, int[]> getMisses() {
+        if (!mCountMisses) {
+            return Collections.emptyMap();
+        }
+        Map<String, int[]> snapshot = new HashMap<String, int[]>();
+        for (Map.Entry<String, AtomicInteger[]> entry : mMisses.entrySet()) {
+            AtomicInteger[] counts = entry.getValue();
+            int[] values = new int[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                values[i] = counts[i].get();
+            }
+            snapshot.put(entry.getKey(), values);
+        }
+        return snapshot;
+    }
+
+    public void resetMisses() {
+        if (mCountMisses) {
+            mMisses.clear();
+        }
+    }
+
+    /**
+     * Look up a value, treating nulls as absent
+     * @return The value or null if it is absent
+     */
+    @Nullable
+    protected Object lookup(JSONObject obj, String key) {
+        if (obj == null || key == null) {
+            return null;
+        }
+        Object value = obj.opt(key);
+        if (value == null || value == JSONObject.NULL) {
+            recordMiss(key, Miss.Absent);
+            return null;
+        }
+        return value;
+    }
+
+    protected void recordMiss(String key, Miss miss) {
+        if (!mCountMisses) {
+            return;
+        }
+        AtomicInteger[] counts = mMisses.get(key);
+        if (counts == null) {
+            AtomicInteger[] created = new AtomicInteger[Miss.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new AtomicInteger();
+            }
+            counts = mMisses.putIfAbsent(key, created);
+            if (counts == null) {
+                counts = created;
+            }
+        }
+        counts[miss.ordinal()].incrementAndGet();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.IOException;
+
+/**
+ * Maps JSON strings to the constants of an enum without creating strings, using a {@link JSONKeyTable} built from the
+ * {@link Enum#toString()} of each constant.  This matches enums written with <code>toString()</code> and read back with a
+ * <code>fromValue(String)</code> method, as the models in this library do.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONEnumTable<E extends Enum<E>> {
+
+    protected final E[] mValues;
+    protected final E mDefaultValue;
+    protected final JSONKeyTable mKeys;
+
+    /**
+     * @param type The enum class
+     * @param defaultValue The value returned for strings which do not match a constant, nulls and other types
+     */
+    public JSONEnumTable(Class<E> type, E defaultValue) {
+        mValues = type.getEnumConstants();
+        mDefaultValue = defaultValue;
+        String[] names = new String[mValues.length];
+        for (int i = 0; i < mValues.length; i++) {
+            names[i] = mValues[i].toString();
+        }
+        mKeys = new JSONKeyTable(names);
+    }
+
+    /**
+     * @return The constant matching the current string of the tokenizer, or the default value
+     */
+    public E get(JSONTokenizer tokenizer) {
+        if (tokenizer.getToken() != JSONTokenizer.Token.String) {
+            return mDefaultValue;
+        }
+        int index = mKeys.indexOf(tokenizer);
+        return index == -1 ? mDefaultValue : mValues[index];
+    }
+
+    /**
+     * Advance to the next value and read it as a constant.  Values which are not strings are skipped.
+     * @return The matching constant, or the default value
+     */
+    public E next(JSONTokenizer tokenizer) throws IOException {
+        if (tokenizer.next() != JSONTokenizer.Token.String) {
+            tokenizer.skipValue();
+            return mDefaultValue;
+        }
+        return get(tokenizer);
+    }
+
+    public E getDefaultValue() {
+        return mDefaultValue;
+    }
+}
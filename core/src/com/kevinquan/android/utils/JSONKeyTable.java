@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.Arrays;
+
+/**
+ * A fixed set of JSON names, such as the <code>JSON_FIELD_*</code> constants of a model, looked up straight from the
+ * characters of a {@link JSONTokenizer} token.  The table is a perfect hash: a seed is searched for when the table is
+ * built so that every name lands in its own slot, so a lookup is one hash over the characters and at most one comparison,
+ * and no string is created.
+ *
+ * Names are identified by their position in the array the table was built from, which suits a switch statement when
+ * reading a model.  Tables are immutable and safe to share between threads.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONKeyTable {
+
+    // Seeds to try at each table size before doubling the size
+    protected static final int MAX_SEEDS = 1000;
+
+    protected final String[] mKeys;
+    protected final int[] mSlots;
+    protected final int mMask;
+    protected final int mSeed;
+
+    /**
+     * @param keys The names in the table
+     * @throws IllegalArgumentException If a name is null or repeated
+     */
+    public JSONKeyTable(String... keys) {
+        mKeys = keys.clone();
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == null) {
+                throw new IllegalArgumentException("Key "+i+" is null");
+            }
+            for (int j = 0; j < i; j++) {
+                if (mKeys[j].equals(mKeys[i])) {
+                    throw new IllegalArgumentException("Key "+mKeys[i]+" is repeated");
+                }
+            }
+        }
+        int size = Integer.highestOneBit(Math.max(1, mKeys.length)) * 2;
+        int[] slots = null;
+        int seed = 0;
+        while (slots == null) {
+            size *= 2;
+            for (seed = 1; seed <= MAX_SEEDS && slots == null; seed++) {
+                slots = build(seed, size);
+            }
+        }
+        mSlots = slots;
+        mMask = size - 1;
+        // The loop increments once more after a successful build
+        mSeed = seed - 1;
+    }
+
+    /**
+     * @return The number of names in the table
+     */
+    public int size() {
+        return mKeys.length;
+    }
+
+    /**
+     * @return The name at the position
+     */
+    public String getKey(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * @return The position of the current name or string of the tokenizer, or -1 if it is not in the table
+     */
+    public int indexOf(JSONTokenizer tokenizer) {
+        return indexOf(tokenizer.getTextBuffer(), 0, tokenizer.getTextLength());
+    }
+
+    /**
+     * @return The position of the characters in the range, or -1 if they are not in the table
+     */
+    public int indexOf(char[] chars, int offset, int length) {
+        int hash = mSeed;
+        for (int i = offset; i < offset + length; i++) {
+            hash = hash * 31 + chars[i];
+        }
+        int index = mSlots[mix(hash) & mMask] - 1;
+        if (index < 0) {
+            return -1;
+        }
+        String key = mKeys[index];
+        if (key.length() != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != chars[offset + i]) {
+                return -1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The position of the name, or -1 if it is not in the table
+     */
+    public int indexOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+        char[] chars = name.toCharArray();
+        return indexOf(chars, 0, chars.length);
+    }
+
+    /**
+     * @return The name from the table matching the current token of the tokenizer, or a new string if it is not in the
+     * table.  Repeated names then share one instance.
+     */
+    public String intern(JSONTokenizer tokenizer) {
+        int index = indexOf(tokenizer);
+        return index == -1 ? tokenizer.getText() : mKeys[index];
+    }
+
+    /**
+     * Try to place every key in its own slot
+     * @return The slots holding the position of each key plus one, or null if two keys collide
+     */
+    protected int[] build(int seed, int size) {
+        int[] slots = new int[size];
+        for (int i = 0; i < mKeys.length; i++) {
+            String key = mKeys[i];
+            int hash = seed;
+            for (int j = 0; j < key.length(); j++) {
+                hash = hash * 31 + key.charAt(j);
+            }
+            int slot = mix(hash) & (size - 1);
+            if (slots[slot] != 0) {
+                return null;
+            }
+            slots[slot] = i + 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Spread the bits of a string hash so that the low bits used for the slot depend on every character
+     */
+    protected static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(mKeys);
+    }
+}
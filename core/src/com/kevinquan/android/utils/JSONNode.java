@@ -0,0 +1,445 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A lightweight JSON tree built by {@link JSONTokenizer}.  Numbers are kept as primitives and object members are kept in
+ * parallel arrays rather than a map, so a tree is considerably smaller and faster to build than the equivalent
+ * {@link org.json.JSONObject}.  Like the tokenizer, nodes depend only on the JDK.
+ *
+ * The typed getters follow the same rules as the <code>safeGet*</code> methods of {@link JSONUtils}: values are coerced
+ * the same way as org.json does, and missing values, nulls and values that cannot be converted return the default value.
+ * If a key appears more than once in an object, the last value is used, as with org.json.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONNode {
+
+    public enum Type {
+        Object,
+        Array,
+        String,
+        Number,
+        Boolean,
+        Null,
+    }
+
+    public static final JSONNode NULL = new JSONNode(Type.Null);
+
+    protected static final JSONNode TRUE = new JSONNode(Type.Boolean);
+    protected static final JSONNode FALSE = new JSONNode(Type.Boolean);
+    protected static final int INITIAL_CAPACITY = 4;
+    // Objects with more members than this are searched through a hash table rather than a linear scan
+    protected static final int LINEAR_SEARCH_LIMIT = 8;
+
+    static {
+        TRUE.mBoolean = true;
+    }
+
+    protected final Type mType;
+    protected String mString;
+    protected boolean mBoolean;
+    protected boolean mIsInteger;
+    protected long mLong;
+    protected double mDouble;
+
+    // Objects and arrays
+    protected String[] mNames;
+    protected JSONNode[] mValues;
+    protected int mSize;
+    protected int[] mHashTable;
+
+    protected JSONNode(Type type) {
+        mType = type;
+    }
+
+    /**
+     * Parse a complete document
+     * @param json The document
+     * @return The root of the tree
+     * @throws IOException If the document is not valid JSON
+     */
+    public static JSONNode parse(String json) throws IOException {
+        return parse(new JSONTokenizer(json));
+    }
+
+    /**
+     * Parse a complete document
+     * @param reader The source of the document.  It is not closed.
+     * @return The root of the tree
+     * @throws IOException If the document could not be read or is not valid JSON
+     */
+    public static JSONNode parse(Reader reader) throws IOException {
+        return parse(new JSONTokenizer(reader));
+    }
+
+    /**
+     * Parse a complete document from a tokenizer which has not been advanced yet
+     * @return The root of the tree
+     * @throws IOException If the document could not be read or is not valid JSON
+     */
+    public static JSONNode parse(JSONTokenizer tokenizer) throws IOException {
+        return parse(tokenizer, null);
+    }
+
+    /**
+     * Parse a complete document, sharing one string for each object member name found in the table rather than creating
+     * a string for every occurrence.  This saves memory when a document repeats the same object many times.
+     * @param tokenizer A tokenizer which has not been advanced yet
+     * @param keys The expected names, or null to create a string for every name
+     * @return The root of the tree
+     * @throws IOException If the document could not be read or is not valid JSON
+     */
+    public static JSONNode parse(JSONTokenizer tokenizer, JSONKeyTable keys) throws IOException {
+        JSONNode root = readValue(tokenizer, tokenizer.next(), keys);
+        tokenizer.next();
+        return root;
+    }
+
+    protected static JSONNode readValue(JSONTokenizer tokenizer, JSONTokenizer.Token token, JSONKeyTable keys) throws IOException {
+        switch (token) {
+            case BeginObject: {
+                JSONNode node = new JSONNode(Type.Object);
+                while ((token = tokenizer.next()) != JSONTokenizer.Token.EndObject) {
+                    String name = keys == null ? tokenizer.getText() : keys.intern(tokenizer);
+                    node.add(name, readValue(tokenizer, tokenizer.next(), keys));
+                }
+                return node;
+            }
+            case BeginArray: {
+                JSONNode node = new JSONNode(Type.Array);
+                while ((token = tokenizer.next()) != JSONTokenizer.Token.EndArray) {
+                    node.add(null, readValue(tokenizer, token, keys));
+                }
+                return node;
+            }
+            case String: {
+                JSONNode node = new JSONNode(Type.String);
+                node.mString = tokenizer.getText();
+                return node;
+            }
+            case Number: {
+                JSONNode node = new JSONNode(Type.Number);
+                node.mIsInteger = tokenizer.isInteger();
+                node.mLong = tokenizer.getLong();
+                node.mDouble = tokenizer.getDouble();
+                return node;
+            }
+            case True:
+                return TRUE;
+            case False:
+                return FALSE;
+            case Null:
+                return NULL;
+            default:
+                throw new IOException("Unexpected "+token);
+        }
+    }
+
+    protected void add(String name, JSONNode value) {
+        if (mValues == null) {
+            mValues = new JSONNode[INITIAL_CAPACITY];
+            if (mType == Type.Object) {
+                mNames = new String[INITIAL_CAPACITY];
+            }
+        } else if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+            if (mNames != null) {
+                mNames = Arrays.copyOf(mNames, mSize * 2);
+            }
+        }
+        if (mNames != null) {
+            mNames[mSize] = name;
+            mHashTable = null;
+        }
+        mValues[mSize++] = value;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public boolean isNull() {
+        return mType == Type.Null;
+    }
+
+    /**
+     * @return The number of members of an object or elements of an array, otherwise 0
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The name of the object member at the position
+     */
+    public String getName(int position) {
+        return mNames == null || position < 0 || position >= mSize ? null : mNames[position];
+    }
+
+    /**
+     * @return Whether an object has a member with the name, even if its value is null
+     */
+    public boolean has(String key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * @return The value of the object member, or null if this is not an object or the member does not exist
+     */
+    public JSONNode get(String key) {
+        int index = indexOf(key);
+        return index == -1 ? null : mValues[index];
+    }
+
+    /**
+     * @return The array element or object member at the position, or null if it does not exist
+     */
+    public JSONNode get(int position) {
+        return mValues == null || position < 0 || position >= mSize ? null : mValues[position];
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        JSONNode value = get(key);
+        return value == null ? defaultValue : value.asBoolean(defaultValue);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        JSONNode value = get(key);
+        return value == null ? defaultValue : value.asDouble(defaultValue);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        JSONNode value = get(key);
+        return value == null ? defaultValue : value.asInt(defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        JSONNode value = get(key);
+        return value == null ? defaultValue : value.asLong(defaultValue);
+    }
+
+    /**
+     * @return The value as a string, or null if it does not exist.  As with org.json, a null value is returned as "null".
+     */
+    public String getString(String key) {
+        JSONNode value = get(key);
+        return value == null ? null : value.asString();
+    }
+
+    /**
+     * @return The object stored in the key, or null if it does not exist or is not an object
+     */
+    public JSONNode getObject(String key) {
+        JSONNode value = get(key);
+        return value == null || value.mType != Type.Object ? null : value;
+    }
+
+    /**
+     * @return The array stored in the key, or null if it does not exist or is not an array
+     */
+    public JSONNode getArray(String key) {
+        JSONNode value = get(key);
+        return value == null || value.mType != Type.Array ? null : value;
+    }
+
+    public boolean asBoolean(boolean defaultValue) {
+        if (mType == Type.Boolean) {
+            return mBoolean;
+        }
+        if (mType == Type.String) {
+            if ("true".equalsIgnoreCase(mString)) {
+                return true;
+            } else if ("false".equalsIgnoreCase(mString)) {
+                return false;
+            }
+        }
+        return defaultValue;
+    }
+
+    public double asDouble(double defaultValue) {
+        if (mType == Type.Number) {
+            return mDouble;
+        }
+        if (mType == Type.String && JSONTokenizer.isNumber(mString)) {
+            try {
+                return Double.parseDouble(mString);
+            } catch (NumberFormatException nfe) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
+    public int asInt(int defaultValue) {
+        if (mType == Type.Number) {
+            return mIsInteger ? (int)mLong : (int)mDouble;
+        }
+        return mType == Type.String && JSONTokenizer.isNumber(mString) ? (int)asDouble(defaultValue) : defaultValue;
+    }
+
+    public long asLong(long defaultValue) {
+        if (mType == Type.Number) {
+            return mLong;
+        }
+        return mType == Type.String && JSONTokenizer.isNumber(mString) ? (long)asDouble(defaultValue) : defaultValue;
+    }
+
+    /**
+     * @return The value as a string.  Objects and arrays are returned as JSON.
+     */
+    public String asString() {
+        if (mType == Type.String) {
+            return mString;
+        }
+        return toString();
+    }
+
+    /**
+     * @return Whether the value is a number without a fraction or exponent that fits in a long
+     */
+    public boolean isInteger() {
+        return mType == Type.Number && mIsInteger;
+    }
+
+    protected int indexOf(String key) {
+        if (mNames == null || key == null) {
+            return -1;
+        }
+        if (mSize <= LINEAR_SEARCH_LIMIT) {
+            // Search from the end so that the last duplicate wins
+            for (int i = mSize - 1; i >= 0; i--) {
+                if (key.equals(mNames[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        if (mHashTable == null) {
+            buildHashTable();
+        }
+        int mask = mHashTable.length - 1;
+        for (int slot = key.hashCode() & mask; ; slot = (slot + 1) & mask) {
+            int index = mHashTable[slot] - 1;
+            if (index == -1) {
+                return -1;
+            }
+            if (key.equals(mNames[index])) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Build an open addressing table of member positions, offset by one so that 0 marks an empty slot
+     */
+    protected void buildHashTable() {
+        int capacity = Integer.highestOneBit(mSize * 2) * 2;
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < mSize; i++) {
+            int slot = mNames[i].hashCode() & mask;
+            while (table[slot] != 0 && !mNames[table[slot] - 1].equals(mNames[i])) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        mHashTable = table;
+    }
+
+    /**
+     * @return The node as compact JSON
+     */
+    @Override
+    public String toString() {
+        StringBuilder output = new StringBuilder();
+        write(output);
+        return output.toString();
+    }
+
+    protected void write(StringBuilder output) {
+        switch (mType) {
+            case Object:
+                output.append('{');
+                for (int i = 0; i < mSize; i++) {
+                    if (i > 0) {
+                        output.append(',');
+                    }
+                    writeString(output, mNames[i]);
+                    output.append(':');
+                    mValues[i].write(output);
+                }
+                output.append('}');
+                break;
+            case Array:
+                output.append('[');
+                for (int i = 0; i < mSize; i++) {
+                    if (i > 0) {
+                        output.append(',');
+                    }
+                    mValues[i].write(output);
+                }
+                output.append(']');
+                break;
+            case String:
+                writeString(output, mString);
+                break;
+            case Number:
+                if (mIsInteger) {
+                    output.append(mLong);
+                } else {
+                    // Whole numbers are written without a fraction, as org.json does
+                    DoubleFormatter.append(output, mDouble);
+                }
+                break;
+            case Boolean:
+                output.append(mBoolean);
+                break;
+            default:
+                output.append("null");
+        }
+    }
+
+    protected static void writeString(StringBuilder output, String value) {
+        output.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    output.append('\\').append(c);
+                    break;
+                case '\n': output.append("\\n"); break;
+                case '\r': output.append("\\r"); break;
+                case '\t': output.append("\\t"); break;
+                case '\b': output.append("\\b"); break;
+                case '\f': output.append("\\f"); break;
+                default:
+                    if (c < 0x20) {
+                        output.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        output.append(c);
+                    }
+            }
+        }
+        output.append('"');
+    }
+}
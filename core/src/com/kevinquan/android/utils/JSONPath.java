@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+/**
+ * A compiled path into a JSON document, such as <code>response.items[3].name</code> or <code>items[*].id</code>.
+ *
+ * Paths are made of object keys separated by dots and array indices in square brackets.  <code>[*]</code> matches every
+ * element of an array.  Keys containing dots or brackets can be quoted, as in <code>['a.b'].c</code>.  An empty path
+ * matches the root value.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONPath {
+
+    public static final int WILDCARD = -1;
+    protected static final int NOT_AN_INDEX = -2;
+
+    protected final String mPath;
+    protected final String[] mKeys;
+    protected final int[] mIndices;
+
+    protected JSONPath(String path, String[] keys, int[] indices) {
+        mPath = path;
+        mKeys = keys;
+        mIndices = indices;
+    }
+
+    /**
+     * Compile a path
+     * @param path The path to compile
+     * @return The compiled path
+     * @throws IllegalArgumentException If the path is malformed
+     */
+    @NonNull
+    public static JSONPath compile(String path) {
+        List<String> keys = new ArrayList<String>();
+        List<Integer> indices = new ArrayList<Integer>();
+        if (!TextUtils.isEmpty(path)) {
+            int position = 0;
+            int length = path.length();
+            boolean expectKey = true;
+            while (position < length) {
+                char c = path.charAt(position);
+                if (c == '[') {
+                    int close = position;
+                    int open = position + 1;
+                    while (open < length && path.charAt(open) == ' ') {
+                        open++;
+                    }
+                    if (open < length && (path.charAt(open) == '\'' || path.charAt(open) == '"')) {
+                        // Quoted keys may contain brackets, so look for the bracket after the closing quote
+                        close = path.indexOf(path.charAt(open), open + 1);
+                    }
+                    if (close != -1) {
+                        close = path.indexOf(']', close);
+                    }
+                    if (close == -1) {
+                        throw new IllegalArgumentException("Unterminated [ in path "+path);
+                    }
+                    String segment = path.substring(position + 1, close).trim();
+                    if (segment.length() >= 2 && (segment.charAt(0) == '\'' || segment.charAt(0) == '"')
+                            && segment.charAt(segment.length() - 1) == segment.charAt(0)) {
+                        keys.add(segment.substring(1, segment.length() - 1));
+                        indices.add(NOT_AN_INDEX);
+                    } else if ("*".equals(segment)) {
+                        keys.add(null);
+                        indices.add(WILDCARD);
+                    } else {
+                        int index;
+                        try {
+                            index = Integer.parseInt(segment);
+                        } catch (NumberFormatException nfe) {
+                            throw new IllegalArgumentException("Invalid array index ["+segment+"] in path "+path);
+                        }
+                        if (index < 0) {
+                            throw new IllegalArgumentException("Negative array index ["+segment+"] in path "+path);
+                        }
+                        keys.add(null);
+                        indices.add(index);
+                    }
+                    position = close + 1;
+                    expectKey = false;
+                    continue;
+                }
+                if (c == '.') {
+                    if (expectKey) {
+                        throw new IllegalArgumentException("Empty key in path "+path);
+                    }
+                    position++;
+                    expectKey = true;
+                    continue;
+                }
+                if (!expectKey) {
+                    throw new IllegalArgumentException("Missing . before key at "+position+" in path "+path);
+                }
+                int end = position;
+                while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                keys.add(path.substring(position, end));
+                indices.add(NOT_AN_INDEX);
+                position = end;
+                expectKey = false;
+            }
+            if (expectKey && keys.size() > 0) {
+                throw new IllegalArgumentException("Path ends with . in "+path);
+            }
+        }
+        int[] indexArray = new int[indices.size()];
+        for (int i = 0; i < indexArray.length; i++) {
+            indexArray[i] = indices.get(i);
+        }
+        return new JSONPath(path == null ? "" : path, keys.toArray(new String[keys.size()]), indexArray);
+    }
+
+    /**
+     * @return The number of segments in the path
+     */
+    public int length() {
+        return mKeys.length;
+    }
+
+    /**
+     * @return Whether the segment selects an object key, otherwise it selects array elements
+     */
+    public boolean isKey(int segment) {
+        return mIndices[segment] == NOT_AN_INDEX;
+    }
+
+    /**
+     * @return The key selected by the segment, or null if the segment selects array elements
+     */
+    public String getKey(int segment) {
+        return mKeys[segment];
+    }
+
+    /**
+     * @return The array index selected by the segment, or {@link #WILDCARD} if every element is selected
+     */
+    public int getIndex(int segment) {
+        return mIndices[segment];
+    }
+
+    /**
+     * @return Whether the path can match more than one value
+     */
+    public boolean hasWildcard() {
+        for (int index : mIndices) {
+            if (index == WILDCARD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether the segment matches the object key
+     */
+    protected boolean matchesKey(int segment, String key) {
+        return mIndices[segment] == NOT_AN_INDEX && mKeys[segment].equals(key);
+    }
+
+    /**
+     * @return Whether the segment matches the array index
+     */
+    protected boolean matchesIndex(int segment, int index) {
+        int expected = mIndices[segment];
+        return expected == WILDCARD || expected == index;
+    }
+
+    @Override
+    public String toString() {
+        return mPath;
+    }
+}
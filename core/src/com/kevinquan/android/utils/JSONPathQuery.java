@@ -0,0 +1,636 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Extracts values at a set of {@link JSONPath}s from JSON text in a single pass, without building JSON objects.  Subtrees
+ * that no path leads into are skipped by the pull parser without being materialized, and scanning stops as soon as every
+ * path without a wildcard has been matched.
+ *
+ * Values are converted the same way as the <code>safeGet*</code> methods of {@link JSONUtils}: numbers stored as strings are
+ * coerced, booleans can be stored as "true" or "false" strings, and any value that is missing or cannot be converted leaves
+ * the default value in place.  Paths that select an object or array where a value was expected are treated as mismatches.
+ *
+ * <pre>
+ * JSONPathQuery query = new JSONPathQuery();
+ * JSONPathQuery.LongResult id = query.addLong("data.id", 0);
+ * JSONPathQuery.StringResult names = query.addString("data.items[*].name");
+ * if (JSONUtils.safeExtract(reader, query)) { ... }
+ * </pre>
+ *
+ * Queries can be executed repeatedly, and results are reset at the start of each execution.  Queries are not thread safe.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONPathQuery {
+
+    private static final String TAG = JSONPathQuery.class.getSimpleName();
+
+    protected List<Result> mResults;
+    // Indices of the results whose paths match the current position, for each depth
+    protected int[][] mCandidates;
+    protected int mPending;
+    protected boolean mStopWhenMatched;
+
+    public JSONPathQuery() {
+        mResults = new ArrayList<Result>();
+        mCandidates = new int[1][0];
+    }
+
+    @NonNull
+    public BooleanResult addBoolean(String path, boolean defaultValue) {
+        return add(new BooleanResult(JSONPath.compile(path), defaultValue));
+    }
+
+    @NonNull
+    public DoubleResult addDouble(String path, double defaultValue) {
+        return add(new DoubleResult(JSONPath.compile(path), defaultValue));
+    }
+
+    @NonNull
+    public IntResult addInt(String path, int defaultValue) {
+        return add(new IntResult(JSONPath.compile(path), defaultValue));
+    }
+
+    @NonNull
+    public LongResult addLong(String path, long defaultValue) {
+        return add(new LongResult(JSONPath.compile(path), defaultValue));
+    }
+
+    /**
+     * Strings default to null, as with {@link JSONUtils#safeGetString(org.json.JSONObject, String)}
+     */
+    @NonNull
+    public StringResult addString(String path) {
+        return add(new StringResult(JSONPath.compile(path)));
+    }
+
+    protected <T extends Result> T add(T result) {
+        mResults.add(result);
+        int depth = result.mPath.length() + 1;
+        if (mCandidates.length < depth) {
+            mCandidates = Arrays.copyOf(mCandidates, depth);
+        }
+        for (int i = 0; i < mCandidates.length; i++) {
+            if (mCandidates[i] == null || mCandidates[i].length < mResults.size()) {
+                mCandidates[i] = new int[Math.max(4, mResults.size() * 2)];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scan JSON text for the paths of this query
+     * @param json The JSON text
+     */
+    public void execute(String json) throws IOException {
+        execute(new StringReader(json == null ? "" : json));
+    }
+
+    /**
+     * Scan JSON text for the paths of this query.  The reader is not closed, and is left positioned after the last value
+     * that needed to be read.
+     * @param source The reader providing JSON text
+     */
+    public void execute(Reader source) throws IOException {
+        mPending = 0;
+        mStopWhenMatched = true;
+        for (int i = 0; i < mResults.size(); i++) {
+            Result result = mResults.get(i);
+            result.reset();
+            mCandidates[0][i] = i;
+            if (result.mPath.hasWildcard()) {
+                mStopWhenMatched = false;
+            } else {
+                mPending++;
+            }
+        }
+        if (mResults.size() == 0) {
+            return;
+        }
+        JsonReader reader = new JsonReader(source);
+        // Match the leniency of org.json
+        reader.setLenient(true);
+        try {
+            scan(reader, 0, mResults.size());
+        } catch (IllegalStateException ise) {
+            throw new IOException("Unexpected JSON structure: "+ise.getMessage());
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid number: "+nfe.getMessage());
+        }
+    }
+
+    /**
+     * @return Whether every path without a wildcard was matched and scanning can stop
+     */
+    protected boolean isDone() {
+        return mStopWhenMatched && mPending == 0;
+    }
+
+    /**
+     * Read the next value, descending into it only if a candidate path continues into it
+     * @param depth The number of path segments matched so far
+     * @param count The number of candidates at this depth
+     */
+    protected void scan(JsonReader reader, int depth, int count) throws IOException {
+        int[] candidates = mCandidates[depth];
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+            boolean isObject = token == JsonToken.BEGIN_OBJECT;
+            boolean descend = false;
+            for (int i = 0; i < count; i++) {
+                Result result = mResults.get(candidates[i]);
+                if (result.mPath.length() == depth) {
+                    Log.w(TAG, "Expected a value but found "+(isObject ? "an object" : "an array")+" at "+result.mPath);
+                    result.mismatch();
+                } else if (result.mPath.isKey(depth) == isObject) {
+                    descend = true;
+                }
+            }
+            if (!descend) {
+                reader.skipValue();
+                return;
+            }
+            if (isObject) {
+                scanObject(reader, depth, count);
+            } else {
+                scanArray(reader, depth, count);
+            }
+            return;
+        }
+        int complete = 0;
+        for (int i = 0; i < count; i++) {
+            if (mResults.get(candidates[i]).mPath.length() == depth) {
+                complete++;
+            }
+        }
+        if (complete == 0) {
+            reader.skipValue();
+            return;
+        }
+        String text = null;
+        boolean bool = false;
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                text = reader.nextString();
+                break;
+            case BOOLEAN:
+                bool = reader.nextBoolean();
+                break;
+            case NULL:
+                reader.nextNull();
+                break;
+            default:
+                reader.skipValue();
+                return;
+        }
+        for (int i = 0; i < count; i++) {
+            Result result = mResults.get(candidates[i]);
+            if (result.mPath.length() == depth) {
+                result.receive(token, text, bool);
+            }
+        }
+    }
+
+    protected void scanObject(JsonReader reader, int depth, int count) throws IOException {
+        int[] candidates = mCandidates[depth];
+        int[] next = mCandidates[depth + 1];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            int matched = 0;
+            for (int i = 0; i < count; i++) {
+                Result result = mResults.get(candidates[i]);
+                if (result.mPath.length() > depth && result.mPath.matchesKey(depth, name) && !result.isSettled()) {
+                    next[matched++] = candidates[i];
+                }
+            }
+            if (matched == 0) {
+                reader.skipValue();
+            } else {
+                scan(reader, depth + 1, matched);
+                if (isDone()) {
+                    return;
+                }
+            }
+        }
+        reader.endObject();
+    }
+
+    protected void scanArray(JsonReader reader, int depth, int count) throws IOException {
+        int[] candidates = mCandidates[depth];
+        int[] next = mCandidates[depth + 1];
+        reader.beginArray();
+        int index = 0;
+        while (reader.hasNext()) {
+            int matched = 0;
+            for (int i = 0; i < count; i++) {
+                Result result = mResults.get(candidates[i]);
+                if (result.mPath.length() > depth && !result.mPath.isKey(depth) && result.mPath.matchesIndex(depth, index) && !result.isSettled()) {
+                    next[matched++] = candidates[i];
+                }
+            }
+            if (matched == 0) {
+                reader.skipValue();
+            } else {
+                scan(reader, depth + 1, matched);
+                if (isDone()) {
+                    return;
+                }
+            }
+            index++;
+        }
+        reader.endArray();
+    }
+
+    /**
+     * The values found at a path.  Paths with wildcards can match several values, in document order.  Values that could not
+     * be converted are stored as the default value so that positions line up with the matched elements.
+     */
+    public abstract class Result {
+
+        protected final JSONPath mPath;
+        protected int mSize;
+        protected boolean mSettled;
+
+        protected Result(JSONPath path) {
+            mPath = path;
+        }
+
+        public JSONPath getPath() {
+            return mPath;
+        }
+
+        /**
+         * @return The number of values matched by the path
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @return Whether the path matched a value that could be converted
+         */
+        public boolean isFound() {
+            return mSize > 0;
+        }
+
+        protected void reset() {
+            mSize = 0;
+            mSettled = false;
+        }
+
+        /**
+         * @return Whether a path without a wildcard has already been matched, so no further values are accepted
+         */
+        protected boolean isSettled() {
+            return mSettled;
+        }
+
+        protected void mismatch() {
+            if (!mPath.hasWildcard()) {
+                settle();
+            } else {
+                mSize = ensureCapacity(mSize + 1);
+                storeDefault(mSize - 1);
+            }
+        }
+
+        protected void receive(JsonToken token, String text, boolean bool) {
+            int position = mSize;
+            if (mPath.hasWildcard()) {
+                mSize = ensureCapacity(mSize + 1);
+                if (!store(position, token, text, bool)) {
+                    Log.w(TAG, "Could not convert "+token+" at "+mPath+"["+position+"]");
+                    storeDefault(position);
+                }
+                return;
+            }
+            ensureCapacity(1);
+            if (store(0, token, text, bool)) {
+                mSize = 1;
+            } else {
+                Log.w(TAG, "Could not convert "+token+" at "+mPath);
+            }
+            settle();
+        }
+
+        protected void settle() {
+            if (!mSettled) {
+                mSettled = true;
+                mPending--;
+            }
+        }
+
+        /**
+         * Grow storage to hold at least the size
+         * @return The size
+         */
+        protected abstract int ensureCapacity(int size);
+
+        /**
+         * Convert and store a value
+         * @return Whether the value could be converted
+         */
+        protected abstract boolean store(int position, JsonToken token, String text, boolean bool);
+
+        protected abstract void storeDefault(int position);
+
+        @Override
+        public String toString() {
+            return mPath+" ("+mSize+" values)";
+        }
+    }
+
+    public class BooleanResult extends Result {
+
+        protected final boolean mDefault;
+        protected boolean[] mValues;
+
+        protected BooleanResult(JSONPath path, boolean defaultValue) {
+            super(path);
+            mDefault = defaultValue;
+            mValues = new boolean[1];
+        }
+
+        /**
+         * @return The first value, or the default value if nothing was found
+         */
+        public boolean get() {
+            return mSize > 0 ? mValues[0] : mDefault;
+        }
+
+        public boolean get(int position) {
+            return position < mSize ? mValues[position] : mDefault;
+        }
+
+        @Override
+        protected int ensureCapacity(int size) {
+            if (mValues.length < size) {
+                mValues = Arrays.copyOf(mValues, Math.max(size, mValues.length * 2));
+            }
+            return size;
+        }
+
+        @Override
+        protected boolean store(int position, JsonToken token, String text, boolean bool) {
+            if (token == JsonToken.BOOLEAN) {
+                mValues[position] = bool;
+                return true;
+            }
+            if (token == JsonToken.STRING && ("true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text))) {
+                mValues[position] = "true".equalsIgnoreCase(text);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected void storeDefault(int position) {
+            mValues[position] = mDefault;
+        }
+    }
+
+    public class DoubleResult extends Result {
+
+        protected final double mDefault;
+        protected double[] mValues;
+
+        protected DoubleResult(JSONPath path, double defaultValue) {
+            super(path);
+            mDefault = defaultValue;
+            mValues = new double[1];
+        }
+
+        /**
+         * @return The first value, or the default value if nothing was found
+         */
+        public double get() {
+            return mSize > 0 ? mValues[0] : mDefault;
+        }
+
+        public double get(int position) {
+            return position < mSize ? mValues[position] : mDefault;
+        }
+
+        @Override
+        protected int ensureCapacity(int size) {
+            if (mValues.length < size) {
+                mValues = Arrays.copyOf(mValues, Math.max(size, mValues.length * 2));
+            }
+            return size;
+        }
+
+        @Override
+        protected boolean store(int position, JsonToken token, String text, boolean bool) {
+            if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+                return false;
+            }
+            try {
+                mValues[position] = Double.parseDouble(text);
+                return true;
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+        }
+
+        @Override
+        protected void storeDefault(int position) {
+            mValues[position] = mDefault;
+        }
+    }
+
+    public class IntResult extends Result {
+
+        protected final int mDefault;
+        protected int[] mValues;
+
+        protected IntResult(JSONPath path, int defaultValue) {
+            super(path);
+            mDefault = defaultValue;
+            mValues = new int[1];
+        }
+
+        /**
+         * @return The first value, or the default value if nothing was found
+         */
+        public int get() {
+            return mSize > 0 ? mValues[0] : mDefault;
+        }
+
+        public int get(int position) {
+            return position < mSize ? mValues[position] : mDefault;
+        }
+
+        @Override
+        protected int ensureCapacity(int size) {
+            if (mValues.length < size) {
+                mValues = Arrays.copyOf(mValues, Math.max(size, mValues.length * 2));
+            }
+            return size;
+        }
+
+        @Override
+        protected boolean store(int position, JsonToken token, String text, boolean bool) {
+            if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+                return false;
+            }
+            try {
+                // Narrow the same way as Number.intValue()
+                mValues[position] = (int)parseLong(text);
+                return true;
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+        }
+
+        @Override
+        protected void storeDefault(int position) {
+            mValues[position] = mDefault;
+        }
+    }
+
+    public class LongResult extends Result {
+
+        protected final long mDefault;
+        protected long[] mValues;
+
+        protected LongResult(JSONPath path, long defaultValue) {
+            super(path);
+            mDefault = defaultValue;
+            mValues = new long[1];
+        }
+
+        /**
+         * @return The first value, or the default value if nothing was found
+         */
+        public long get() {
+            return mSize > 0 ? mValues[0] : mDefault;
+        }
+
+        public long get(int position) {
+            return position < mSize ? mValues[position] : mDefault;
+        }
+
+        @Override
+        protected int ensureCapacity(int size) {
+            if (mValues.length < size) {
+                mValues = Arrays.copyOf(mValues, Math.max(size, mValues.length * 2));
+            }
+            return size;
+        }
+
+        @Override
+        protected boolean store(int position, JsonToken token, String text, boolean bool) {
+            if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+                return false;
+            }
+            try {
+                mValues[position] = parseLong(text);
+                return true;
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+        }
+
+        @Override
+        protected void storeDefault(int position) {
+            mValues[position] = mDefault;
+        }
+    }
+
+    public class StringResult extends Result {
+
+        protected String[] mValues;
+
+        protected StringResult(JSONPath path) {
+            super(path);
+            mValues = new String[1];
+        }
+
+        /**
+         * @return The first value, or null if nothing was found
+         */
+        @Nullable
+        public String get() {
+            return mSize > 0 ? mValues[0] : null;
+        }
+
+        @Nullable
+        public String get(int position) {
+            return position < mSize ? mValues[position] : null;
+        }
+
+        @Override
+        protected int ensureCapacity(int size) {
+            if (mValues.length < size) {
+                mValues = Arrays.copyOf(mValues, Math.max(size, mValues.length * 2));
+            }
+            return size;
+        }
+
+        @Override
+        protected boolean store(int position, JsonToken token, String text, boolean bool) {
+            switch (token) {
+                case STRING:
+                case NUMBER:
+                    mValues[position] = text;
+                    return true;
+                case BOOLEAN:
+                    mValues[position] = bool ? "true" : "false";
+                    return true;
+                case NULL:
+                    // org.json returns the string form of its null sentinel
+                    mValues[position] = "null";
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        protected void storeDefault(int position) {
+            mValues[position] = null;
+        }
+    }
+
+    /**
+     * Parse a whole number directly, falling back to truncating a decimal number as org.json does
+     */
+    protected static long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException nfe) {
+            return (long)Double.parseDouble(text);
+        }
+    }
+}
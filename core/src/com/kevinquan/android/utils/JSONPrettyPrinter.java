@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes indented JSON to a {@link Writer} incrementally, either by walking a JSON object tree or by reformatting raw JSON
+ * text read from a {@link Reader}.  Output is produced in the same layout as {@link JSONObject#toString(int)} but the
+ * document is never materialized as a single string.
+ *
+ * Instances hold reusable buffers and are not thread safe.  Use {@link JSONUtils#prettyPrint(JSONObject, int, Writer)} and
+ * related methods for one off printing.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONPrettyPrinter {
+
+    protected static final int BUFFER_SIZE = 4096;
+    protected static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Double.toString uses an exponent outside of this range
+    protected static final double MIN_PLAIN = 1e-3;
+    protected static final double MAX_PLAIN = 1e7;
+    protected static final double MAX_EXACT_WHOLE = 9007199254740992d;
+
+    protected final Writer mWriter;
+    protected final int mIndentation;
+    protected final char[] mOutput;
+    protected int mOutputLength;
+    protected char[] mSpaces;
+    protected DoubleFormatter mNumberFormatter;
+
+    /**
+     * @param writer The writer to send output to.  It is not closed by the printer.
+     * @param indentation The number of spaces to indent each level
+     */
+    public JSONPrettyPrinter(Writer writer, int indentation) {
+        mWriter = writer;
+        mIndentation = Math.max(0, indentation);
+        mOutput = new char[BUFFER_SIZE];
+        mSpaces = new char[0];
+    }
+
+    /**
+     * Write an object tree
+     * @param obj The object to write
+     */
+    public void print(JSONObject obj) throws IOException, JSONException {
+        writeObject(obj, 0);
+        flush();
+    }
+
+    /**
+     * Write an array tree
+     * @param array The array to write
+     */
+    public void print(JSONArray array) throws IOException, JSONException {
+        writeArray(array, 0);
+        flush();
+    }
+
+    /**
+     * Reformat raw JSON text without parsing it into objects.  The input is assumed to be valid JSON; whitespace outside
+     * of strings is replaced and everything else is copied through as is.
+     * @param reader The source of the JSON text
+     */
+    public void print(Reader reader) throws IOException {
+        char[] input = new char[BUFFER_SIZE];
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        char pendingOpen = 0;
+        int read;
+        while ((read = reader.read(input)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = input[i];
+                if (inString) {
+                    append(c);
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                    continue;
+                }
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    continue;
+                }
+                if (pendingOpen != 0) {
+                    // Containers are only broken onto new lines if they are not empty
+                    boolean closesPending = (pendingOpen == '{' && c == '}') || (pendingOpen == '[' && c == ']');
+                    pendingOpen = 0;
+                    if (closesPending) {
+                        depth--;
+                        append(c);
+                        continue;
+                    }
+                    newline(depth);
+                }
+                switch (c) {
+                    case '{':
+                    case '[':
+                        append(c);
+                        depth++;
+                        pendingOpen = c;
+                        break;
+                    case '}':
+                    case ']':
+                        depth--;
+                        newline(depth);
+                        append(c);
+                        break;
+                    case ',':
+                        append(c);
+                        newline(depth);
+                        break;
+                    case ':':
+                        append(c);
+                        append(' ');
+                        break;
+                    case '"':
+                        inString = true;
+                        append(c);
+                        break;
+                    default:
+                        append(c);
+                }
+            }
+        }
+        flush();
+    }
+
+    protected void writeObject(JSONObject obj, int depth) throws IOException, JSONException {
+        Iterator<String> keys = obj.keys();
+        if (!keys.hasNext()) {
+            append('{');
+            append('}');
+            return;
+        }
+        append('{');
+        boolean first = true;
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!first) {
+                append(',');
+            }
+            first = false;
+            newline(depth + 1);
+            writeString(key);
+            append(':');
+            append(' ');
+            writeValue(obj.opt(key), depth + 1);
+        }
+        newline(depth);
+        append('}');
+    }
+
+    protected void writeArray(JSONArray array, int depth) throws IOException, JSONException {
+        int length = array.length();
+        append('[');
+        if (length == 0) {
+            append(']');
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                append(',');
+            }
+            newline(depth + 1);
+            writeValue(array.opt(i), depth + 1);
+        }
+        newline(depth);
+        append(']');
+    }
+
+    protected void writeValue(Object value, int depth) throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            append("null");
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject)value, depth);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray)value, depth);
+        } else if (value instanceof Boolean) {
+            append(((Boolean)value).booleanValue() ? "true" : "false");
+        } else if (value instanceof Double && !((Double)value).isNaN() && !((Double)value).isInfinite()) {
+            writeDouble(((Double)value).doubleValue());
+        } else if (value instanceof Number) {
+            append(JSONObject.numberToString((Number)value));
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    /**
+     * Write a quoted string, escaping characters the same way as Android's JSONStringer
+     */
+    protected void writeString(String value) throws IOException {
+        append('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    append('\\');
+                    append(c);
+                    break;
+                case '\t': append('\\'); append('t'); break;
+                case '\b': append('\\'); append('b'); break;
+                case '\n': append('\\'); append('n'); break;
+                case '\r': append('\\'); append('r'); break;
+                case '\f': append('\\'); append('f'); break;
+                default:
+                    if (c <= 0x1F) {
+                        append('\\');
+                        append('u');
+                        append('0');
+                        append('0');
+                        append(HEX[(c >> 4) & 0xF]);
+                        append(HEX[c & 0xF]);
+                    } else {
+                        append(c);
+                    }
+            }
+        }
+        append('"');
+    }
+
+    protected void newline(int depth) throws IOException {
+        append('\n');
+        int spaces = depth * mIndentation;
+        if (spaces <= 0) {
+            return;
+        }
+        if (mSpaces.length < spaces) {
+            mSpaces = new char[Math.max(spaces, mSpaces.length * 2)];
+            Arrays.fill(mSpaces, ' ');
+        }
+        append(mSpaces, spaces);
+    }
+
+    /**
+     * Write a double as {@link JSONObject#numberToString(Number)} would, using the formatter where its output is the same:
+     * whole numbers it can represent exactly, and the range where {@link Double#toString(double)} does not use an exponent
+     */
+    protected void writeDouble(double value) throws IOException, JSONException {
+        double magnitude = Math.abs(value);
+        // Zero is left to org.json, which writes negative zero as -0
+        if (value == 0
+                || !(value == (long)value && magnitude < MAX_EXACT_WHOLE) && !(magnitude >= MIN_PLAIN && magnitude < MAX_PLAIN)) {
+            append(JSONObject.numberToString(value));
+            return;
+        }
+        if (mNumberFormatter == null) {
+            mNumberFormatter = new DoubleFormatter();
+        }
+        mNumberFormatter.format(value);
+        append(mNumberFormatter.getBuffer(), mNumberFormatter.length());
+    }
+
+    protected void append(char c) throws IOException {
+        if (mOutputLength == mOutput.length) {
+            flushBuffer();
+        }
+        mOutput[mOutputLength++] = c;
+    }
+
+    protected void append(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            append(value.charAt(i));
+        }
+    }
+
+    protected void append(char[] chars, int length) throws IOException {
+        if (length > mOutput.length - mOutputLength) {
+            flushBuffer();
+            if (length > mOutput.length) {
+                mWriter.write(chars, 0, length);
+                return;
+            }
+        }
+        System.arraycopy(chars, 0, mOutput, mOutputLength, length);
+        mOutputLength += length;
+    }
+
+    protected void flushBuffer() throws IOException {
+        if (mOutputLength > 0) {
+            mWriter.write(mOutput, 0, mOutputLength);
+            mOutputLength = 0;
+        }
+    }
+
+    /**
+     * Write any buffered output to the writer and flush it
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        mWriter.flush();
+    }
+}
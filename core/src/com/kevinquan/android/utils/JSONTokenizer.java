@@ -0,0 +1,729 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A small pull tokenizer for strict JSON that has no dependencies outside of the JDK, so it runs on a plain JVM as well as
+ * on Android.
+ *
+ * Each call to {@link #next()} returns the next token.  The text of names and strings is decoded into a char buffer that
+ * is reused for every token, and numbers are parsed straight from that buffer into primitives, so walking a document
+ * allocates nothing unless {@link #getText()} is called.  A tokenizer can be {@link #reset(Reader)} to reuse its buffers
+ * for another document.
+ *
+ * <pre>
+ * JSONTokenizer tokenizer = new JSONTokenizer(json);
+ * while (tokenizer.next() != JSONTokenizer.Token.EndDocument) {
+ *     if (tokenizer.getToken() == JSONTokenizer.Token.Name &amp;&amp; tokenizer.textEquals("recordedAt")) {
+ *         tokenizer.next();
+ *         long recordedAt = tokenizer.getLong();
+ *     }
+ * }
+ * </pre>
+ *
+ * Malformed input results in an {@link IOException} giving the position of the error.  Instances are not thread safe.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONTokenizer {
+
+    public enum Token {
+        BeginObject,
+        EndObject,
+        BeginArray,
+        EndArray,
+        Name,
+        String,
+        Number,
+        True,
+        False,
+        Null,
+        EndDocument,
+    }
+
+    protected static final int BUFFER_SIZE = 4096;
+    protected static final int INITIAL_DEPTH = 16;
+
+    protected static final int SCOPE_EMPTY_ARRAY = 1;
+    protected static final int SCOPE_ARRAY = 2;
+    protected static final int SCOPE_EMPTY_OBJECT = 3;
+    protected static final int SCOPE_OBJECT = 4;
+    protected static final int SCOPE_AFTER_NAME = 5;
+
+    // Powers of ten that are exactly representable as doubles
+    protected static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+    protected static final int MAX_EXACT_DIGITS = 15;
+
+    protected Reader mReader;
+    protected char[] mInput;
+    protected int mPosition;
+    protected int mLimit;
+    // Characters consumed before the current input buffer, for error messages
+    protected long mConsumed;
+
+    protected int[] mScopes;
+    protected int mDepth;
+    protected boolean mDone;
+
+    protected Token mToken;
+    protected char[] mText;
+    protected int mTextLength;
+
+    protected boolean mIsInteger;
+    protected long mLong;
+    protected double mDouble;
+
+    public JSONTokenizer(Reader reader) {
+        mInput = new char[BUFFER_SIZE];
+        mText = new char[64];
+        mScopes = new int[INITIAL_DEPTH];
+        reset(reader);
+    }
+
+    public JSONTokenizer(String json) {
+        mText = new char[64];
+        mScopes = new int[INITIAL_DEPTH];
+        reset(json);
+    }
+
+    /**
+     * Start tokenizing another document, reusing the buffers of this tokenizer
+     * @param reader The source of the document.  It is not closed by the tokenizer.
+     */
+    public void reset(Reader reader) {
+        mReader = reader;
+        if (mInput == null || mInput.length < BUFFER_SIZE) {
+            mInput = new char[BUFFER_SIZE];
+        }
+        mPosition = 0;
+        mLimit = 0;
+        resetState();
+    }
+
+    /**
+     * Start tokenizing another document held in a string
+     * @param json The document
+     */
+    public void reset(String json) {
+        mReader = null;
+        mInput = json == null ? new char[0] : json.toCharArray();
+        mPosition = 0;
+        mLimit = mInput.length;
+        resetState();
+    }
+
+    protected void resetState() {
+        mConsumed = 0;
+        mDepth = 0;
+        mDone = false;
+        mToken = null;
+        mTextLength = 0;
+    }
+
+    /**
+     * @return The current token, or null if {@link #next()} has not been called
+     */
+    public Token getToken() {
+        return mToken;
+    }
+
+    /**
+     * @return The number of objects and arrays enclosing the current position
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Advance to the next token
+     * @return The token
+     * @throws IOException If the input could not be read or is not valid JSON
+     */
+    public Token next() throws IOException {
+        int c = nextNonWhitespace();
+        if (mDepth == 0) {
+            if (mDone) {
+                if (c != -1) {
+                    throw syntaxError("Unexpected content after the end of the document");
+                }
+                return mToken = Token.EndDocument;
+            }
+            if (c == -1) {
+                throw syntaxError("Empty document");
+            }
+            return mToken = readValue(c);
+        }
+        switch (mScopes[mDepth - 1]) {
+            case SCOPE_EMPTY_ARRAY:
+                if (c == ']') {
+                    return mToken = pop(Token.EndArray);
+                }
+                mScopes[mDepth - 1] = SCOPE_ARRAY;
+                return mToken = readValue(c);
+            case SCOPE_ARRAY:
+                if (c == ']') {
+                    return mToken = pop(Token.EndArray);
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected , or ] in array");
+                }
+                return mToken = readValue(nextNonWhitespace());
+            case SCOPE_EMPTY_OBJECT:
+                if (c == '}') {
+                    return mToken = pop(Token.EndObject);
+                }
+                return mToken = readName(c);
+            case SCOPE_OBJECT:
+                if (c == '}') {
+                    return mToken = pop(Token.EndObject);
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected , or } in object");
+                }
+                return mToken = readName(nextNonWhitespace());
+            case SCOPE_AFTER_NAME:
+                if (c != ':') {
+                    throw syntaxError("Expected : after name");
+                }
+                mScopes[mDepth - 1] = SCOPE_OBJECT;
+                return mToken = readValue(nextNonWhitespace());
+            default:
+                throw new IllegalStateException("Unknown scope "+mScopes[mDepth - 1]);
+        }
+    }
+
+    /**
+     * Skip the value starting at the current token.  If the current token begins an object or array, tokens are consumed up
+     * to and including the matching end, otherwise nothing is consumed.
+     */
+    public void skipValue() throws IOException {
+        if (mToken != Token.BeginObject && mToken != Token.BeginArray) {
+            return;
+        }
+        int depth = mDepth - 1;
+        while (mDepth > depth) {
+            next();
+        }
+    }
+
+    /**
+     * @return The decoded text of the current name or string, or the text of the current number.  The buffer is reused
+     * for the next token.
+     */
+    public char[] getTextBuffer() {
+        return mText;
+    }
+
+    public int getTextLength() {
+        return mTextLength;
+    }
+
+    /**
+     * @return The text of the current name, string or number as a new string
+     */
+    public String getText() {
+        return new String(mText, 0, mTextLength);
+    }
+
+    /**
+     * Compare the text of the current token without allocating a string
+     * @return Whether the text equals the value
+     */
+    public boolean textEquals(String value) {
+        if (value == null || value.length() != mTextLength) {
+            return false;
+        }
+        for (int i = 0; i < mTextLength; i++) {
+            if (mText[i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Advance to the next value and read it as a boolean.  As with org.json, the strings "true" and "false" are accepted.
+     * Nulls, objects, arrays and other values are skipped and return the default value.
+     */
+    public boolean nextBoolean(boolean defaultValue) throws IOException {
+        switch (next()) {
+            case True:
+                return true;
+            case False:
+                return false;
+            case String:
+                if (mTextLength == 4 || mTextLength == 5) {
+                    String text = getText();
+                    if ("true".equalsIgnoreCase(text)) {
+                        return true;
+                    } else if ("false".equalsIgnoreCase(text)) {
+                        return false;
+                    }
+                }
+                return defaultValue;
+            default:
+                skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Advance to the next value and read it as a double.  As with org.json, numbers stored as strings are parsed.  Nulls,
+     * objects, arrays and other values are skipped and return the default value.
+     */
+    public double nextDouble(double defaultValue) throws IOException {
+        switch (next()) {
+            case Number:
+                return getDouble();
+            case String:
+                return parseText(defaultValue);
+            default:
+                skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Advance to the next value and read it as an int, truncating as {@link Number#intValue()} does.  See
+     * {@link #nextDouble(double)}.
+     */
+    public int nextInt(int defaultValue) throws IOException {
+        switch (next()) {
+            case Number:
+                return mIsInteger ? (int)mLong : (int)mDouble;
+            case String:
+                return (int)parseText(defaultValue);
+            default:
+                skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Advance to the next value and read it as a long, truncating any fraction.  See {@link #nextDouble(double)}.
+     */
+    public long nextLong(long defaultValue) throws IOException {
+        switch (next()) {
+            case Number:
+                return getLong();
+            case String:
+                return (long)parseText(defaultValue);
+            default:
+                skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Parse the current string as a number.  This is the uncommon case, so the text is converted to a string.
+     */
+    protected double parseText(double defaultValue) {
+        String text = getText();
+        if (!isNumber(text)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return Whether the current number has no fraction or exponent and fits in a long
+     */
+    public boolean isInteger() {
+        return mIsInteger;
+    }
+
+    /**
+     * @return The current number as a long, truncating any fraction
+     */
+    public long getLong() {
+        return mIsInteger ? mLong : (long)mDouble;
+    }
+
+    /**
+     * @return The current number as a double
+     */
+    public double getDouble() {
+        return mIsInteger ? (double)mLong : mDouble;
+    }
+
+    protected Token pop(Token token) {
+        mDepth--;
+        if (mDepth == 0) {
+            mDone = true;
+        }
+        return token;
+    }
+
+    protected void push(int scope) {
+        if (mDepth == mScopes.length) {
+            mScopes = Arrays.copyOf(mScopes, mDepth * 2);
+        }
+        mScopes[mDepth++] = scope;
+    }
+
+    protected Token readName(int c) throws IOException {
+        if (c != '"') {
+            throw syntaxError("Expected a quoted name");
+        }
+        readString();
+        mScopes[mDepth - 1] = SCOPE_AFTER_NAME;
+        return Token.Name;
+    }
+
+    protected Token readValue(int c) throws IOException {
+        if (mDepth == 0) {
+            mDone = true;
+        }
+        switch (c) {
+            case '{':
+                mDone = false;
+                push(SCOPE_EMPTY_OBJECT);
+                return Token.BeginObject;
+            case '[':
+                mDone = false;
+                push(SCOPE_EMPTY_ARRAY);
+                return Token.BeginArray;
+            case '"':
+                readString();
+                return Token.String;
+            case 't':
+                readLiteral("rue");
+                return Token.True;
+            case 'f':
+                readLiteral("alse");
+                return Token.False;
+            case 'n':
+                readLiteral("ull");
+                return Token.Null;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber(c);
+                    return Token.Number;
+                }
+                throw syntaxError("Unexpected character '"+(char)c+"'");
+        }
+    }
+
+    protected void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    protected void readString() throws IOException {
+        mTextLength = 0;
+        while (true) {
+            // Copy runs of plain characters directly from the input buffer
+            int start = mPosition;
+            while (mPosition < mLimit) {
+                char c = mInput[mPosition];
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    break;
+                }
+                mPosition++;
+            }
+            appendText(mInput, start, mPosition - start);
+            int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                appendText(readEscape());
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c < 0x20) {
+                throw syntaxError("Unescaped control character in string");
+            } else {
+                // The input buffer ran out mid run
+                appendText((char)c);
+            }
+        }
+    }
+
+    protected char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit == -1) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char)value;
+            default:
+                throw syntaxError("Invalid escape");
+        }
+    }
+
+    /**
+     * Reads a number into the text buffer, checking it against the JSON grammar and converting it to a long or double.
+     * Doubles with at most 15 significant digits and a small exponent are computed exactly without the JDK parser.
+     */
+    protected void readNumber(int first) throws IOException {
+        mTextLength = 0;
+        boolean negative = first == '-';
+        int c = first;
+        if (negative) {
+            appendText('-');
+            c = read();
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int droppedDigits = 0;
+        int fractionDigits = 0;
+        boolean overflow = false;
+        if (c == '0') {
+            appendText('0');
+            c = peek();
+            if (c >= '0' && c <= '9') {
+                throw syntaxError("Leading zeros are not allowed");
+            }
+        } else if (c >= '1' && c <= '9') {
+            while (true) {
+                appendText((char)c);
+                if (digits < 18 || (digits == 18 && mantissa <= (Long.MAX_VALUE - (c - '0')) / 10)) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                } else {
+                    overflow = true;
+                    droppedDigits++;
+                }
+                c = peek();
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                mPosition++;
+            }
+        } else {
+            throw syntaxError("Expected a digit");
+        }
+        boolean isInteger = true;
+        if (c == '.') {
+            isInteger = false;
+            mPosition++;
+            appendText('.');
+            c = read();
+            if (c < '0' || c > '9') {
+                throw syntaxError("Expected a digit after the decimal point");
+            }
+            while (true) {
+                appendText((char)c);
+                if (digits < 18 && !overflow) {
+                    if (mantissa != 0 || c != '0') {
+                        digits++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    fractionDigits++;
+                } else {
+                    overflow = true;
+                }
+                c = peek();
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                mPosition++;
+            }
+        }
+        int exponent = 0;
+        if (c == 'e' || c == 'E') {
+            isInteger = false;
+            mPosition++;
+            appendText((char)c);
+            c = read();
+            boolean negativeExponent = false;
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                appendText((char)c);
+                c = read();
+            }
+            if (c < '0' || c > '9') {
+                throw syntaxError("Expected a digit in the exponent");
+            }
+            while (true) {
+                appendText((char)c);
+                if (exponent < 100000) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+                c = peek();
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                mPosition++;
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (isInteger && !overflow) {
+            mIsInteger = true;
+            mLong = negative ? -mantissa : mantissa;
+            return;
+        }
+        mIsInteger = false;
+        int scale = exponent - fractionDigits + droppedDigits;
+        if (!overflow && digits <= MAX_EXACT_DIGITS && scale >= -22 && scale <= 22) {
+            double value = scale >= 0 ? mantissa * POWERS_OF_TEN[scale] : mantissa / POWERS_OF_TEN[-scale];
+            mDouble = negative ? -value : value;
+        } else {
+            mDouble = Double.parseDouble(getText());
+        }
+    }
+
+    protected void appendText(char c) {
+        if (mTextLength == mText.length) {
+            mText = Arrays.copyOf(mText, mTextLength * 2);
+        }
+        mText[mTextLength++] = c;
+    }
+
+    protected void appendText(char[] chars, int start, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (mTextLength + length > mText.length) {
+            mText = Arrays.copyOf(mText, Math.max(mTextLength + length, mText.length * 2));
+        }
+        System.arraycopy(chars, start, mText, mTextLength, length);
+        mTextLength += length;
+    }
+
+    protected int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    protected int read() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mInput[mPosition++];
+    }
+
+    protected int peek() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mInput[mPosition];
+    }
+
+    protected boolean fill() throws IOException {
+        if (mReader == null) {
+            return false;
+        }
+        mConsumed += mLimit;
+        mPosition = 0;
+        mLimit = 0;
+        int read = mReader.read(mInput, 0, mInput.length);
+        if (read <= 0) {
+            return false;
+        }
+        mLimit = read;
+        return true;
+    }
+
+    protected IOException syntaxError(String message) {
+        return new IOException(message+" at character "+(mConsumed + mPosition));
+    }
+
+    /**
+     * Checks whether text is a decimal number that {@link Double#parseDouble(String)} accepts, so that malformed strings
+     * can be rejected without a {@link NumberFormatException}.  Hexadecimal and type suffixed forms are not accepted.
+     */
+    protected static boolean isNumber(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start < end && (text.charAt(start) == '-' || text.charAt(start) == '+')) {
+            start++;
+        }
+        if (start == end) {
+            return false;
+        }
+        if (text.regionMatches(start, "NaN", 0, 3) || text.regionMatches(start, "Infinity", 0, 8)) {
+            return end - start == (text.charAt(start) == 'N' ? 3 : 8);
+        }
+        int digits = 0;
+        int position = start;
+        while (position < end && isDigit(text.charAt(position))) {
+            position++;
+            digits++;
+        }
+        if (position < end && text.charAt(position) == '.') {
+            position++;
+            while (position < end && isDigit(text.charAt(position))) {
+                position++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (position < end && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+            position++;
+            if (position < end && (text.charAt(position) == '-' || text.charAt(position) == '+')) {
+                position++;
+            }
+            int exponentDigits = 0;
+            while (position < end && isDigit(text.charAt(position))) {
+                position++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return position == end;
+    }
+
+    protected static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -24,6 +24,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
 /**
  * Collection of utilities to work with JSON objects.
  * @author Kevin Quan (kevin.quan@gmail.com)
@@ -71,6 +75,112 @@ public class JSONUtils {
         }
     }
     
+    /**
+     * Writes a "pretty print" version of the JSONArray to the writer without building the whole string in memory
+     * @param array The array to pretty print
+     * @param indentation The amount of indentation for each level
+     * @param writer The writer to write to.  It will be flushed but not closed.
+     * @return True if the array was written
+     */
+    public static boolean prettyPrint(JSONArray array, int indentation, Writer writer) {
+        if (array == null || writer == null) {
+            return false;
+        }
+        try {
+            new JSONPrettyPrinter(writer, indentation).print(array);
+            return true;
+        } catch (JSONException je) {
+            Log.w(TAG, "Could not pretty print JSON array.", je);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not write pretty printed JSON array.", ioe);
+        }
+        return false;
+    }
+    
+    /**
+     * Writes a "pretty print" version of the JSONObject to the writer without building the whole string in memory
+     * @param obj The object to pretty print
+     * @param indentation The amount of indentation for each level
+     * @param writer The writer to write to.  It will be flushed but not closed.
+     * @return True if the object was written
+     */
+    public static boolean prettyPrint(JSONObject obj, int indentation, Writer writer) {
+        if (obj == null || writer == null) {
+            return false;
+        }
+        try {
+            new JSONPrettyPrinter(writer, indentation).print(obj);
+            return true;
+        } catch (JSONException je) {
+            Log.w(TAG, "Could not pretty print JSON object.", je);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not write pretty printed JSON object.", ioe);
+        }
+        return false;
+    }
+    
+    /**
+     * Reformats raw JSON text from the reader as "pretty print" JSON to the writer, without parsing it into JSON objects.
+     * The input is expected to be valid JSON.
+     * @param reader The reader providing JSON text.  It will not be closed.
+     * @param indentation The amount of indentation for each level
+     * @param writer The writer to write to.  It will be flushed but not closed.
+     * @return True if the text was written
+     */
+    public static boolean prettyPrint(Reader reader, int indentation, Writer writer) {
+        if (reader == null || writer == null) {
+            return false;
+        }
+        try {
+            new JSONPrettyPrinter(writer, indentation).print(reader);
+            return true;
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not pretty print JSON text.", ioe);
+        }
+        return false;
+    }
+
+    /**
+     * Extract the values selected by the query from JSON text, without constructing JSON objects.  Values that are missing
+     * or cannot be converted keep the query's default values, as with the <code>safeGet*</code> methods.
+     * @param jsonAsString The JSON text
+     * @param query The query to execute
+     * @return True if the text was scanned without errors
+     */
+    public static boolean safeExtract(String jsonAsString, JSONPathQuery query) {
+        if (TextUtils.isEmpty(jsonAsString) || query == null) {
+            Log.w(TAG, "No content was provided.");
+            return false;
+        }
+        try {
+            query.execute(jsonAsString);
+            return true;
+        } catch (IOException ioe) {
+            Log.e(TAG, "Could not extract values from source string: "+jsonAsString, ioe);
+        }
+        return false;
+    }
+
+    /**
+     * Extract the values selected by the query from JSON text, without constructing JSON objects or reading the whole text
+     * into memory.  Values that are missing or cannot be converted keep the query's default values.
+     * @param reader The reader providing JSON text.  It will not be closed.
+     * @param query The query to execute
+     * @return True if the text was scanned without errors
+     */
+    public static boolean safeExtract(Reader reader, JSONPathQuery query) {
+        if (reader == null || query == null) {
+            return false;
+        }
+        try {
+            query.execute(reader);
+            return true;
+        } catch (IOException ioe) {
+            Log.e(TAG, "Could not extract values from JSON text.", ioe);
+        }
+        return false;
+    }
+
     /**
      * Construct a JSON Object from the string representation of JSON
      * @param jsonAsString The string representation of the JSON
@@ -92,6 +202,26 @@ public class JSONUtils {
         return object;
     }
 
+    /**
+     * Construct a lightweight JSON tree from the string representation of JSON.  The tree is faster to build and smaller than
+     * a JSON object, and its getters follow the same rules as the <code>safeGet*</code> methods.
+     * @param jsonAsString The string representation of the JSON
+     * @return The root of the tree, or an empty object if it could not be constructed
+     */
+    @NonNull
+    public static JSONNode safeCreateNode(String jsonAsString) {
+        if (TextUtils.isEmpty(jsonAsString)) {
+            Log.w(TAG, "No content was provided.");
+            return new JSONNode(JSONNode.Type.Object);
+        }
+        try {
+            return JSONNode.parse(jsonAsString);
+        } catch (IOException ioe) {
+            Log.e(TAG, "Could not construct JSON tree from source string: "+jsonAsString, ioe);
+            return new JSONNode(JSONNode.Type.Object);
+        }
+    }
+
     /**
      * Retrieve a JSON Array object stored at the provided key from the provided JSON object
      * @param obj The JSON object to retrieve from
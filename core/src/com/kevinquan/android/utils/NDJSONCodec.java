@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Converts one record to and from a line of newline delimited JSON.  Implementations typically delegate to a generated
+ * codec.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public interface NDJSONCodec<T> {
+
+    /**
+     * Write the record as a single JSON value
+     */
+    public void write(JsonWriter writer, T value) throws IOException;
+
+    /**
+     * Read a record from a single JSON value
+     * @return The record, or null if it should be skipped
+     */
+    public T read(JsonReader reader) throws IOException;
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Reads records from newline delimited JSON, one line at a time.  Blank lines are ignored, and lines which cannot be
+ * parsed (such as a partial line left by an interrupted append) are logged, counted and skipped rather than ending the
+ * read.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class NDJSONReader<T> implements Closeable {
+
+    private static final String TAG = NDJSONReader.class.getSimpleName();
+
+    protected final BufferedReader mReader;
+    protected final NDJSONCodec<T> mCodec;
+    protected int mLineNumber;
+    protected int mSkipped;
+
+    /**
+     * @param reader The source.  It is closed when this reader is closed.
+     * @param codec The codec for each record
+     */
+    public NDJSONReader(Reader reader, NDJSONCodec<T> codec) {
+        mReader = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+        mCodec = codec;
+    }
+
+    /**
+     * @return The next record, or null once the end of the input is reached
+     * @throws IOException If the input could not be read.  Malformed lines do not throw.
+     */
+    public T read() throws IOException {
+        String line;
+        while ((line = mReader.readLine()) != null) {
+            mLineNumber++;
+            if (line.trim().length() == 0) {
+                continue;
+            }
+            T value = parseLine(line);
+            if (value != null) {
+                return value;
+            }
+            mSkipped++;
+        }
+        return null;
+    }
+
+    /**
+     * Read all remaining records
+     * @param results The list to add records to
+     * @return The list of results
+     */
+    public List<T> readAll(List<T> results) throws IOException {
+        if (results == null) {
+            results = new ArrayList<T>();
+        }
+        T value;
+        while ((value = read()) != null) {
+            results.add(value);
+        }
+        return results;
+    }
+
+    /**
+     * @return The number of lines read so far
+     */
+    public int getLineNumber() {
+        return mLineNumber;
+    }
+
+    /**
+     * @return The number of non-blank lines which did not produce a record
+     */
+    public int getSkipped() {
+        return mSkipped;
+    }
+
+    protected T parseLine(String line) {
+        JsonReader reader = new JsonReader(new StringReader(line));
+        reader.setLenient(true);
+        try {
+            return mCodec.read(reader);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Could not parse line "+mLineNumber+": "+ioe.getMessage());
+        } catch (RuntimeException re) {
+            // Gson reports some malformed input with unchecked exceptions
+            Log.w(TAG, "Could not parse line "+mLineNumber+": "+re.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
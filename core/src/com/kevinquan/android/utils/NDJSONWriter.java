@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes records as newline delimited JSON: one compact JSON value per line.  Unlike a single JSON array, the output can
+ * be appended to, concatenated, and split on line boundaries to be read in parallel by {@link ParallelNDJSONReader}.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class NDJSONWriter<T> implements Closeable, Flushable {
+
+    protected final Writer mWriter;
+    protected final JsonWriter mJsonWriter;
+    protected final NDJSONCodec<T> mCodec;
+    protected int mCount;
+
+    /**
+     * @param writer The destination.  It is closed when this writer is closed.
+     * @param codec The codec for each record
+     */
+    public NDJSONWriter(Writer writer, NDJSONCodec<T> codec) {
+        mWriter = writer;
+        mCodec = codec;
+        mJsonWriter = new JsonWriter(writer);
+        // Lenient writers accept more than one top level value; the writer does not buffer, so the line breaks can be
+        // written directly to the destination between values
+        mJsonWriter.setLenient(true);
+    }
+
+    /**
+     * Write a record on its own line.  Null records are ignored.
+     */
+    public void write(T value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        mCodec.write(mJsonWriter, value);
+        mWriter.write('\n');
+        mCount++;
+    }
+
+    public void writeAll(Iterable<? extends T> values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        for (T value : values) {
+            write(value);
+        }
+    }
+
+    /**
+     * @return The number of records written
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a newline delimited JSON file on several threads.  The file is split into chunks of roughly
+ * {@link #getChunkSize()} bytes, each ending on a line boundary, and every chunk is parsed by an {@link NDJSONReader} on
+ * the executor.  Splitting on the raw bytes is safe because a line feed byte never occurs inside a multi-byte UTF-8
+ * character.
+ *
+ * When order is preserved, records are returned in the order they appear in the file.  Otherwise the records of each
+ * chunk stay together, but chunks are appended as soon as they finish.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class ParallelNDJSONReader<T> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final int SCAN_BUFFER_SIZE = 4096;
+
+    protected final NDJSONCodec<T> mCodec;
+    protected final ExecutorService mExecutor;
+    protected final AtomicInteger mSkipped;
+    protected int mChunkSize;
+
+    /**
+     * @param codec The codec for each record.  It is shared by all threads.
+     * @param executor The executor to parse chunks on.  It is not shut down by this reader.
+     */
+    public ParallelNDJSONReader(NDJSONCodec<T> codec, ExecutorService executor) {
+        mCodec = codec;
+        mExecutor = executor;
+        mSkipped = new AtomicInteger();
+        mChunkSize = DEFAULT_CHUNK_SIZE;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public ParallelNDJSONReader<T> setChunkSize(int chunkSize) {
+        mChunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+
+    /**
+     * @return The number of non-blank lines which did not produce a record, across all reads
+     */
+    public int getSkipped() {
+        return mSkipped.get();
+    }
+
+    /**
+     * Read every record in the file
+     * @param file The file to read
+     * @param preserveOrder Whether records must be returned in file order
+     * @return The records read
+     * @throws IOException If the file could not be read, or the read was interrupted
+     */
+    public List<T> read(File file, boolean preserveOrder) throws IOException {
+        List<long[]> chunks = split(file);
+        List<T> results = new ArrayList<T>();
+        if (chunks.size() == 1) {
+            // No point in handing a single chunk to another thread
+            results.addAll(readChunk(file, chunks.get(0)[0], chunks.get(0)[1]));
+            return results;
+        }
+        CompletionService<List<T>> completion = new ExecutorCompletionService<List<T>>(mExecutor);
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(chunks.size());
+        try {
+            for (final long[] chunk : chunks) {
+                final File source = file;
+                futures.add(completion.submit(new Callable<List<T>>() {
+                    @Override public List<T> call() throws Exception {
+                        return readChunk(source, chunk[0], chunk[1]);
+                    }
+                }));
+            }
+            if (preserveOrder) {
+                for (Future<List<T>> future : futures) {
+                    results.addAll(future.get());
+                }
+            } else {
+                for (int i = 0; i < futures.size(); i++) {
+                    results.addAll(completion.take().get());
+                }
+            }
+            return results;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading "+file);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException("Could not read "+file+": "+cause);
+        } finally {
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Split a file into chunks which end just after a line feed, or at the end of the file
+     * @return The start and end offset of each chunk
+     */
+    protected List<long[]> split(File file) throws IOException {
+        List<long[]> chunks = new ArrayList<long[]>();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            long length = input.length();
+            byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            long start = 0;
+            while (start < length) {
+                long end = start + mChunkSize;
+                if (end >= length) {
+                    end = length;
+                } else {
+                    end = findLineEnd(input, end - 1, length, buffer);
+                }
+                chunks.add(new long[] {start, end});
+                start = end;
+            }
+        } finally {
+            input.close();
+        }
+        if (chunks.isEmpty()) {
+            chunks.add(new long[] {0, 0});
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The offset just after the first line feed at or after the position, or the length if there is none
+     */
+    protected static long findLineEnd(RandomAccessFile input, long position, long length, byte[] buffer) throws IOException {
+        input.seek(position);
+        while (position < length) {
+            int read = input.read(buffer);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return length;
+    }
+
+    protected List<T> readChunk(File file, long start, long end) throws IOException {
+        byte[] bytes = new byte[(int)(end - start)];
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.seek(start);
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        NDJSONReader<T> reader = new NDJSONReader<T>(new InputStreamReader(new ByteArrayInputStream(bytes), UTF8), mCodec);
+        List<T> results = reader.readAll(new ArrayList<T>());
+        mSkipped.addAndGet(reader.getSkipped());
+        return results;
+    }
+}
@@ -0,0 +1,662 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Caches the results of content provider queries that are repeated often, such as the user's profile or settings.
+ *
+ * Results are keyed by URI, projection, selection, selection arguments and sort order, and are copied into an immutable
+ * column-oriented snapshot: integer and floating point columns are stored in primitive arrays, and text, blob and mixed
+ * columns as objects.  Floating point values also keep the text the provider returned for them, which can differ from
+ * {@link Double#toString(double)}, so a cached cursor reads the same strings as the original.  Each query is served with a new cursor over the snapshot, which callers close as usual.
+ *
+ * The cache is bounded by the estimated size of its snapshots, evicting the least recently used first.  Results that are
+ * larger than the whole cache are returned without being cached.  A {@link ContentObserver} is registered for each cached
+ * URI (including its descendants), and every entry for the URI is dropped when the provider reports a change.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class QueryCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    /** Estimated cost of an object reference and header, used when weighing strings and blobs */
+    protected static final int OBJECT_OVERHEAD_BYTES = 40;
+
+    protected static QueryCache sDefault;
+
+    /**
+     * Identifies a query
+     */
+    protected static class Key {
+        protected final Uri mUri;
+        protected final String[] mProjection;
+        protected final String mSelection;
+        protected final String[] mSelectionArgs;
+        protected final String mSortOrder;
+        protected final int mHashCode;
+
+        protected Key(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            mUri = uri;
+            mProjection = projection == null ? null : projection.clone();
+            mSelection = selection;
+            mSelectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+            mSortOrder = sortOrder;
+            int hashCode = uri.hashCode();
+            hashCode = 31 * hashCode + Arrays.hashCode(mProjection);
+            hashCode = 31 * hashCode + (mSelection == null ? 0 : mSelection.hashCode());
+            hashCode = 31 * hashCode + Arrays.hashCode(mSelectionArgs);
+            hashCode = 31 * hashCode + (mSortOrder == null ? 0 : mSortOrder.hashCode());
+            mHashCode = hashCode;
+        }
+
+        @Override public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return mHashCode == other.mHashCode && mUri.equals(other.mUri) && Arrays.equals(mProjection, other.mProjection)
+                    && (mSelection == null ? other.mSelection == null : mSelection.equals(other.mSelection))
+                    && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && (mSortOrder == null ? other.mSortOrder == null : mSortOrder.equals(other.mSortOrder));
+        }
+    }
+
+    /**
+     * An immutable copy of a query result, stored by column
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class Snapshot {
+        protected final String[] mColumnNames;
+        protected final int mRows;
+        /** For each column, a long[], double[], or Object[] of strings, blobs and boxed numbers when types are mixed */
+        protected final Object[] mColumns;
+        /** For each primitive column, which rows are null, or null if none are */
+        protected final boolean[][] mNulls;
+        /** For each column with floating point values, the text the provider returned for each of them */
+        protected final String[][] mText;
+        protected final long mWeight;
+
+        protected Snapshot(String[] columnNames, int rows, Object[] columns, boolean[][] nulls, String[][] text, long weight) {
+            mColumnNames = columnNames;
+            mRows = rows;
+            mColumns = columns;
+            mNulls = nulls;
+            mText = text;
+            mWeight = weight;
+        }
+
+        /**
+         * Copy a result into a snapshot
+         * @param result The result to copy, which is left before the first row
+         * @param maxWeight The largest snapshot to create
+         * @return The snapshot, or null if it would be larger than the maximum weight
+         */
+        @Nullable
+        public static Snapshot copyOf(Cursor result, long maxWeight) {
+            String[] columnNames = result.getColumnNames();
+            int rows = Math.max(0, result.getCount());
+            try {
+                // Type each column first so values can be copied straight into primitive arrays
+                int[] types = new int[columnNames.length];
+                Arrays.fill(types, Cursor.FIELD_TYPE_NULL);
+                for (result.moveToPosition(-1); result.moveToNext();) {
+                    for (int column = 0; column < columnNames.length; column++) {
+                        int type = getType(result, column);
+                        if (type == Cursor.FIELD_TYPE_NULL || type == types[column]) {
+                            continue;
+                        }
+                        // Blobs and columns with mixed types are stored as objects
+                        if (types[column] == Cursor.FIELD_TYPE_NULL && type != Cursor.FIELD_TYPE_BLOB) {
+                            types[column] = type;
+                        } else {
+                            types[column] = Cursor.FIELD_TYPE_STRING;
+                        }
+                    }
+                }
+                Object[] columns = new Object[columnNames.length];
+                boolean[][] nulls = new boolean[columnNames.length][];
+                String[][] text = new String[columnNames.length][];
+                long weight = OBJECT_OVERHEAD_BYTES;
+                for (int column = 0; column < columnNames.length; column++) {
+                    weight += OBJECT_OVERHEAD_BYTES + 2 * columnNames[column].length();
+                    switch (types[column]) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            columns[column] = new long[rows];
+                            weight += 8L * rows;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            columns[column] = new double[rows];
+                            text[column] = new String[rows];
+                            weight += 12L * rows;
+                            break;
+                        default:
+                            columns[column] = new Object[rows];
+                            weight += 4L * rows;
+                            break;
+                    }
+                }
+                if (weight > maxWeight) {
+                    return null;
+                }
+                int row = 0;
+                for (result.moveToPosition(-1); result.moveToNext() && row < rows; row++) {
+                    for (int column = 0; column < columnNames.length; column++) {
+                        if (columns[column] != null) {
+                            weight += copyValue(result, column, types[column], columns[column], nulls, text, row);
+                        }
+                    }
+                    if (weight > maxWeight) {
+                        return null;
+                    }
+                }
+                return new Snapshot(columnNames, row, columns, nulls, text, weight);
+            } finally {
+                result.moveToPosition(-1);
+            }
+        }
+
+        protected static int getType(Cursor result, int column) {
+            if (BuildUtils.isHoneycombOrGreater()) {
+                return result.getType(column);
+            }
+            // Without column types, keep every value as it is read as a string
+            return result.isNull(column) ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_STRING;
+        }
+
+        /**
+         * Copy the value in the current row
+         * @return The weight added beyond the column's fixed cost
+         */
+        protected static long copyValue(Cursor result, int column, int columnType, Object values, boolean[][] nulls, String[][] text,
+                int row) {
+            int type = getType(result, column);
+            if (type == Cursor.FIELD_TYPE_NULL) {
+                if (columnType == Cursor.FIELD_TYPE_STRING) {
+                    return 0;
+                }
+                long weight = 0;
+                if (nulls[column] == null) {
+                    int rows = columnType == Cursor.FIELD_TYPE_INTEGER ? ((long[])values).length : ((double[])values).length;
+                    nulls[column] = new boolean[rows];
+                    weight = rows;
+                }
+                nulls[column][row] = true;
+                return weight;
+            }
+            switch (columnType) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    ((long[])values)[row] = result.getLong(column);
+                    return 0;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    ((double[])values)[row] = result.getDouble(column);
+                    return copyText(result, column, text, row, 0);
+                default:
+                    if (type == Cursor.FIELD_TYPE_BLOB) {
+                        byte[] blob = result.getBlob(column);
+                        ((Object[])values)[row] = blob;
+                        return blob == null ? 0 : OBJECT_OVERHEAD_BYTES + blob.length;
+                    } else if (type == Cursor.FIELD_TYPE_INTEGER) {
+                        ((Object[])values)[row] = Long.valueOf(result.getLong(column));
+                        return OBJECT_OVERHEAD_BYTES;
+                    } else if (type == Cursor.FIELD_TYPE_FLOAT) {
+                        ((Object[])values)[row] = Double.valueOf(result.getDouble(column));
+                        long weight = OBJECT_OVERHEAD_BYTES;
+                        if (text[column] == null) {
+                            text[column] = new String[((Object[])values).length];
+                            weight += 4L * text[column].length;
+                        }
+                        return copyText(result, column, text, row, weight);
+                    }
+                    String value = result.getString(column);
+                    ((Object[])values)[row] = value;
+                    return value == null ? 0 : OBJECT_OVERHEAD_BYTES + 2 * value.length();
+            }
+        }
+
+        /**
+         * Keep the provider's text for a floating point value, as SQLite formats it differently than Java
+         * @return The weight added, including the given weight
+         */
+        protected static long copyText(Cursor result, int column, String[][] text, int row, long weight) {
+            String value = result.getString(column);
+            text[column][row] = value;
+            return value == null ? weight : weight + OBJECT_OVERHEAD_BYTES + 2 * value.length();
+        }
+
+        public int getRowCount() {
+            return mRows;
+        }
+
+        /**
+         * @return The estimated size of the snapshot in bytes
+         */
+        public long getWeight() {
+            return mWeight;
+        }
+
+        /**
+         * @return A new cursor over the snapshot
+         */
+        public Cursor newCursor() {
+            return new SnapshotCursor(this);
+        }
+    }
+
+    /**
+     * A read-only cursor over a snapshot
+     */
+    protected static class SnapshotCursor extends AbstractCursor {
+        protected final Snapshot mSnapshot;
+
+        protected SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override public int getCount() {
+            return mSnapshot.mRows;
+        }
+
+        @Override public String[] getColumnNames() {
+            return mSnapshot.mColumnNames;
+        }
+
+        @Override public int getType(int column) {
+            Object values = values(column);
+            if (values == null || isNull(column)) {
+                return FIELD_TYPE_NULL;
+            }
+            if (values instanceof long[]) {
+                return FIELD_TYPE_INTEGER;
+            }
+            if (values instanceof double[]) {
+                return FIELD_TYPE_FLOAT;
+            }
+            Object value = ((Object[])values)[getPosition()];
+            if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            }
+            if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            }
+            return value instanceof byte[] ? FIELD_TYPE_BLOB : FIELD_TYPE_STRING;
+        }
+
+        @Override public boolean isNull(int column) {
+            Object values = values(column);
+            if (values == null) {
+                return true;
+            }
+            if (values instanceof Object[]) {
+                return ((Object[])values)[getPosition()] == null;
+            }
+            boolean[] nulls = mSnapshot.mNulls[column];
+            return nulls != null && nulls[getPosition()];
+        }
+
+        @Override public String getString(int column) {
+            Object values = values(column);
+            if (isNull(column)) {
+                return null;
+            }
+            String[] text = mSnapshot.mText[column];
+            if (text != null && text[getPosition()] != null) {
+                return text[getPosition()];
+            }
+            if (values instanceof long[]) {
+                return Long.toString(((long[])values)[getPosition()]);
+            }
+            if (values instanceof double[]) {
+                return Double.toString(((double[])values)[getPosition()]);
+            }
+            Object value = ((Object[])values)[getPosition()];
+            return value instanceof byte[] ? new String((byte[])value) : String.valueOf(value);
+        }
+
+        @Override public byte[] getBlob(int column) {
+            Object values = values(column);
+            if (values instanceof Object[]) {
+                Object value = ((Object[])values)[getPosition()];
+                if (value instanceof byte[]) {
+                    return ((byte[])value).clone();
+                }
+            }
+            String value = getString(column);
+            return value == null ? null : value.getBytes();
+        }
+
+        @Override public long getLong(int column) {
+            Object values = values(column);
+            if (isNull(column)) {
+                return 0;
+            }
+            if (values instanceof long[]) {
+                return ((long[])values)[getPosition()];
+            }
+            if (values instanceof double[]) {
+                return (long)((double[])values)[getPosition()];
+            }
+            Object value = ((Object[])values)[getPosition()];
+            return value instanceof Number ? ((Number)value).longValue() : (long)parseDouble(getString(column));
+        }
+
+        @Override public double getDouble(int column) {
+            Object values = values(column);
+            if (isNull(column)) {
+                return 0;
+            }
+            if (values instanceof double[]) {
+                return ((double[])values)[getPosition()];
+            }
+            if (values instanceof long[]) {
+                return ((long[])values)[getPosition()];
+            }
+            Object value = ((Object[])values)[getPosition()];
+            return value instanceof Number ? ((Number)value).doubleValue() : parseDouble(getString(column));
+        }
+
+        @Override public short getShort(int column) {
+            return (short)getLong(column);
+        }
+
+        @Override public int getInt(int column) {
+            return (int)getLong(column);
+        }
+
+        @Override public float getFloat(int column) {
+            return (float)getDouble(column);
+        }
+
+        /**
+         * @return The values of the column, after checking that the cursor is on a row as {@link android.database.MatrixCursor} does
+         */
+        protected Object values(int column) {
+            checkPosition();
+            if (column < 0 || column >= mSnapshot.mColumns.length) {
+                throw new CursorIndexOutOfBoundsException("Requested column: "+column+", # of columns: "+mSnapshot.mColumns.length);
+            }
+            return mSnapshot.mColumns[column];
+        }
+
+        /**
+         * Text that isn't a number reads as 0, as it does from SQLite
+         */
+        protected double parseDouble(String text) {
+            try {
+                return Double.parseDouble(text.trim());
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the entries for a URI when the provider reports a change
+     */
+    protected class InvalidatingObserver extends ContentObserver {
+        protected final Uri mUri;
+        protected int mEntries;
+        protected int mVersion;
+
+        protected InvalidatingObserver(Uri uri) {
+            super(null);
+            mUri = uri;
+        }
+
+        @Override public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override public void onChange(boolean selfChange) {
+            invalidate(mUri);
+        }
+    }
+
+    protected final Context mContext;
+    protected final long mMaxBytes;
+    protected final LinkedHashMap<Key, Snapshot> mEntries = new LinkedHashMap<Key, Snapshot>(16, 0.75f, true);
+    protected final Map<Uri, InvalidatingObserver> mObservers = new HashMap<Uri, InvalidatingObserver>();
+    protected long mWeight;
+
+    protected long mHits;
+    protected long mMisses;
+    protected long mEvictions;
+    protected long mInvalidations;
+
+    /**
+     * Retrieve the cache shared across the application
+     */
+    public static synchronized QueryCache getDefault(Context context) {
+        if (sDefault == null) {
+            sDefault = new QueryCache(context.getApplicationContext(), DEFAULT_MAX_BYTES);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param context The context to use
+     * @param maxBytes The most the snapshots are estimated to take in memory
+     */
+    public QueryCache(Context context, long maxBytes) {
+        mContext = context;
+        mMaxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Query a content provider, serving the result from the cache if the same query has been made since the URI last
+     * changed.  Takes the same arguments as {@link android.content.ContentResolver#query(Uri, String[], String, String[], String)}.
+     * @return A cursor over the result, or null if the query failed
+     */
+    @Nullable
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (uri == null) {
+            return null;
+        }
+        Key key = new Key(uri, projection, selection, selectionArgs, sortOrder);
+        int version;
+        synchronized (this) {
+            Snapshot snapshot = mEntries.get(key);
+            if (snapshot != null) {
+                mHits++;
+                return snapshot.newCursor();
+            }
+            mMisses++;
+            version = observe(uri).mVersion;
+        }
+        Cursor result = null;
+        try {
+            result = queryProvider(uri, projection, selection, selectionArgs, sortOrder);
+        } catch (Exception e) {
+            Log.e(TAG, "Could not query "+uri, e);
+        }
+        Snapshot snapshot = null;
+        if (result != null) {
+            try {
+                snapshot = Snapshot.copyOf(result, mMaxBytes);
+            } catch (Exception e) {
+                Log.w(TAG, "Could not copy result of "+uri, e);
+            }
+        }
+        synchronized (this) {
+            InvalidatingObserver observer = mObservers.get(uri);
+            // Don't cache a result that may have been read before a change was reported
+            if (snapshot == null || observer == null || observer.mVersion != version) {
+                release(uri);
+                return result;
+            }
+            Snapshot replaced = mEntries.put(key, snapshot);
+            mWeight += snapshot.getWeight();
+            if (replaced != null) {
+                mWeight -= replaced.getWeight();
+                release(uri);
+            }
+            trim();
+        }
+        CursorUtils.safeClose(result);
+        return snapshot.newCursor();
+    }
+
+    /**
+     * Drop every entry for a URI
+     */
+    public synchronized void invalidate(Uri uri) {
+        InvalidatingObserver observer = mObservers.get(uri);
+        if (observer != null) {
+            observer.mVersion++;
+        }
+        Iterator<Map.Entry<Key, Snapshot>> entries = mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Snapshot> entry = entries.next();
+            if (entry.getKey().mUri.equals(uri)) {
+                entries.remove();
+                mWeight -= entry.getValue().getWeight();
+                mInvalidations++;
+                release(uri);
+            }
+        }
+    }
+
+    /**
+     * Drop every entry
+     */
+    public synchronized void clear() {
+        for (InvalidatingObserver observer : mObservers.values()) {
+            observer.mVersion++;
+        }
+        Iterator<Map.Entry<Key, Snapshot>> entries = mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Uri uri = entries.next().getKey().mUri;
+            entries.remove();
+            release(uri);
+        }
+        mWeight = 0;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The estimated size of the cached snapshots in bytes
+     */
+    public synchronized long getWeight() {
+        return mWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return mInvalidations;
+    }
+
+    @Override public synchronized String toString() {
+        return TAG+" [entries="+mEntries.size()+", bytes="+mWeight+"/"+mMaxBytes+", hits="+mHits+", misses="+mMisses
+                +", evictions="+mEvictions+", invalidations="+mInvalidations+"]";
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits.  Must be called while synchronized.
+     */
+    protected void trim() {
+        Iterator<Map.Entry<Key, Snapshot>> entries = mEntries.entrySet().iterator();
+        while (mWeight > mMaxBytes && entries.hasNext()) {
+            Map.Entry<Key, Snapshot> entry = entries.next();
+            entries.remove();
+            mWeight -= entry.getValue().getWeight();
+            mEvictions++;
+            release(entry.getKey().mUri);
+        }
+    }
+
+    /**
+     * Hold the observer for a URI, registering it if needed.  Must be called while synchronized.
+     */
+    protected InvalidatingObserver observe(Uri uri) {
+        InvalidatingObserver observer = mObservers.get(uri);
+        if (observer == null) {
+            observer = new InvalidatingObserver(uri);
+            mObservers.put(uri, observer);
+            registerObserver(uri, observer);
+        }
+        observer.mEntries++;
+        return observer;
+    }
+
+    /**
+     * Release a hold on the observer for a URI, unregistering it once nothing holds it.  Must be called while synchronized.
+     */
+    protected void release(Uri uri) {
+        InvalidatingObserver observer = mObservers.get(uri);
+        if (observer != null && --observer.mEntries <= 0) {
+            mObservers.remove(uri);
+            unregisterObserver(observer);
+        }
+    }
+
+    protected Cursor queryProvider(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return mContext.getContentResolver().query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    protected void registerObserver(Uri uri, ContentObserver observer) {
+        try {
+            mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not observe "+uri, e);
+        }
+    }
+
+    protected void unregisterObserver(ContentObserver observer) {
+        try {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not stop observing", e);
+        }
+    }
+
+    private static final String TAG = QueryCache.class.getSimpleName();
+}
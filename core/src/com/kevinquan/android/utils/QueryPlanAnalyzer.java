@@ -0,0 +1,857 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Runs <code>EXPLAIN QUERY PLAN</code> over a registry of an application's queries to find full table scans and sorts
+ * which need a temporary B-tree, and suggests indexes which would avoid them.
+ * 
+ * Suggestions are built from the shape of each query: columns compared for equality come first, followed by either a
+ * single range column or the GROUP BY / ORDER BY columns, and the remaining referenced columns are appended when that
+ * makes a small covering index.  Column names are checked against the table so expressions and aliases are ignored.  
+ * Only the top level SELECT is considered, and a WHERE clause joined with OR is not used for suggestions.
+ * 
+ * <pre>
+ * QueryPlanAnalyzer analyzer = new QueryPlanAnalyzer()
+ *         .register("recent", "SELECT * FROM locations WHERE provider = ? ORDER BY recordedAt DESC", "1");
+ * List&lt;QueryPlan&gt; plans = analyzer.analyze(database);
+ * CursorUtils.addIndex(database, analyzer.suggestIndexes(database, plans));
+ * </pre>
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class QueryPlanAnalyzer {
+    
+    private static final String TAG = QueryPlanAnalyzer.class.getSimpleName();
+    
+    /** The widest index that will be suggested to cover a query */
+    public static final int MAX_COVERING_COLUMNS = 5;
+    
+    protected static final String EXPLAIN = "EXPLAIN QUERY PLAN ";
+    protected static final String COLUMN_DETAIL = "detail";
+    protected static final String PREFIX_SCAN = "SCAN ";
+    protected static final String PREFIX_TEMP_BTREE = "USE TEMP B-TREE";
+    protected static final String ROW_ID = "rowid";
+    
+    protected static final Set<String> CLAUSE_KEYWORDS = new HashSet<String>();
+    protected static final Set<String> JOIN_KEYWORDS = new HashSet<String>();
+    static {
+        Collections.addAll(CLAUSE_KEYWORDS, "FROM", "WHERE", "GROUP", "HAVING", "ORDER", "LIMIT", "WINDOW", "UNION", "INTERSECT", "EXCEPT");
+        Collections.addAll(JOIN_KEYWORDS, "JOIN", "LEFT", "RIGHT", "FULL", "INNER", "OUTER", "CROSS", "NATURAL", "ON", "USING", "INDEXED", "NOT");
+    }
+    
+    /**
+     * The plan of one registered query
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class QueryPlan {
+        protected final String mName;
+        protected final String mSql;
+        protected final List<String> mDetails = new ArrayList<String>();
+        protected final List<String> mScannedTables = new ArrayList<String>();
+        protected final List<String> mTempBTrees = new ArrayList<String>();
+        protected String mError;
+        
+        public QueryPlan(String name, String sql) {
+            mName = name;
+            mSql = sql;
+        }
+        
+        public String getName() {
+            return mName;
+        }
+        
+        public String getSql() {
+            return mSql;
+        }
+        
+        /**
+         * @return The detail of each step of the plan
+         */
+        public List<String> getDetails() {
+            return mDetails;
+        }
+        
+        /**
+         * @return The tables (or aliases, depending on the version of SQLite) which are read in full without an index
+         */
+        public List<String> getScannedTables() {
+            return mScannedTables;
+        }
+        
+        /**
+         * @return The steps which sort through a temporary B-tree, such as "USE TEMP B-TREE FOR ORDER BY"
+         */
+        public List<String> getTempBTrees() {
+            return mTempBTrees;
+        }
+        
+        /**
+         * @return The reason the query could not be explained, or null if it was
+         */
+        @Nullable
+        public String getError() {
+            return mError;
+        }
+        
+        public boolean hasFullScan() {
+            return !mScannedTables.isEmpty();
+        }
+        
+        public boolean hasTempBTree() {
+            return !mTempBTrees.isEmpty();
+        }
+        
+        public boolean hasProblems() {
+            return mError != null || hasFullScan() || hasTempBTree();
+        }
+        
+        protected void addDetail(String detail) {
+            mDetails.add(detail);
+            if (detail.startsWith(PREFIX_TEMP_BTREE)) {
+                mTempBTrees.add(detail);
+                return;
+            }
+            if (!detail.startsWith(PREFIX_SCAN) || detail.contains(" USING ") || detail.contains("VIRTUAL TABLE")) {
+                return;
+            }
+            String[] words = detail.substring(PREFIX_SCAN.length()).trim().split("\\s+");
+            int table = words.length > 1 && "TABLE".equals(words[0]) ? 1 : 0;
+            String name = words[table];
+            if ("SUBQUERY".equals(name) || "CONSTANT".equals(name) || name.startsWith("(")) {
+                return;
+            }
+            // Older versions of SQLite report "SCAN TABLE name AS alias"; the alias is what the query refers to
+            if (words.length > table + 2 && "AS".equals(words[table + 1])) {
+                name = words[table + 2];
+            }
+            mScannedTables.add(name);
+        }
+        
+        @Override public String toString() {
+            StringBuilder report = new StringBuilder(mName).append(": ").append(mSql);
+            if (mError != null) {
+                report.append("\n  error: ").append(mError);
+            }
+            for (String detail : mDetails) {
+                report.append("\n  ").append(detail);
+            }
+            return report.toString();
+        }
+    }
+    
+    protected static class RegisteredQuery {
+        protected final String mSql;
+        protected final String[] mArgs;
+        
+        protected RegisteredQuery(String sql, String[] args) {
+            mSql = sql;
+            mArgs = args;
+        }
+    }
+    
+    protected final Map<String, RegisteredQuery> mQueries = new LinkedHashMap<String, RegisteredQuery>();
+    
+    /**
+     * Register a query to analyze.  Registering a name again replaces the query.
+     * @param name A name to identify the query in reports
+     * @param sql The query, as it would be passed to {@link SQLiteDatabase#rawQuery(String, String[])}
+     * @param args Representative values for the query's parameters.  These do not change the plan unless the database has 
+     * been analyzed with SQLITE_ENABLE_STAT4.
+     * @return This analyzer
+     */
+    public QueryPlanAnalyzer register(String name, String sql, String... args) {
+        if (TextUtils.isEmpty(name) || TextUtils.isEmpty(sql)) {
+            Log.w(TAG, "Query was not registered as its name or SQL was empty.");
+            return this;
+        }
+        mQueries.put(name, new RegisteredQuery(sql, args == null || args.length == 0 ? null : args.clone()));
+        return this;
+    }
+    
+    public int size() {
+        return mQueries.size();
+    }
+    
+    /**
+     * Explain every registered query.  Plans with full table scans or temporary B-trees are logged.
+     * @return The plan of each registered query, in the order they were registered
+     */
+    @NonNull
+    public List<QueryPlan> analyze(SQLiteDatabase database) {
+        List<QueryPlan> plans = new ArrayList<QueryPlan>(mQueries.size());
+        for (Map.Entry<String, RegisteredQuery> entry : mQueries.entrySet()) {
+            QueryPlan plan = explain(database, entry.getKey(), entry.getValue().mSql, entry.getValue().mArgs);
+            if (plan.hasProblems()) {
+                Log.w(TAG, plan.toString());
+            }
+            plans.add(plan);
+        }
+        return plans;
+    }
+    
+    /**
+     * Explain a single query
+     * @return The plan, with its error set if the query could not be explained
+     */
+    @NonNull
+    public static QueryPlan explain(SQLiteDatabase database, String name, String sql, String[] args) {
+        QueryPlan plan = new QueryPlan(name, sql);
+        if (database == null) {
+            plan.mError = "No database was provided";
+            return plan;
+        }
+        Cursor result = null;
+        try {
+            result = database.rawQuery(EXPLAIN+sql, args);
+            int detail = result.getColumnIndex(COLUMN_DETAIL);
+            if (detail == -1) {
+                detail = result.getColumnCount() - 1;
+            }
+            while (result.moveToNext()) {
+                plan.addDetail(result.getString(detail));
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Could not explain query "+name, e);
+            plan.mError = e.getMessage();
+        } finally {
+            CursorUtils.safeClose(result);
+        }
+        return plan;
+    }
+    
+    /**
+     * Suggest indexes for plans which scan a table or sort with a temporary B-tree.  Suggestions which an existing index
+     * already starts with, or which are a prefix of another suggestion, are left out.
+     * @return The suggested indexes, which can be created with {@link CursorUtils#addIndex(SQLiteDatabase, List)}
+     */
+    @NonNull
+    public List<CursorUtils.IndexInfo> suggestIndexes(SQLiteDatabase database, List<QueryPlan> plans) {
+        List<CursorUtils.IndexInfo> suggestions = new ArrayList<CursorUtils.IndexInfo>();
+        if (database == null || plans == null) {
+            return suggestions;
+        }
+        Map<String, TableInfo> tables = new HashMap<String, TableInfo>();
+        for (QueryPlan plan : plans) {
+            if (plan.getError() != null || !(plan.hasFullScan() || plan.hasTempBTree())) {
+                continue;
+            }
+            QueryShape shape = QueryShape.parse(plan.getSql());
+            Set<String> targets = new LinkedHashSet<String>();
+            for (String scanned : plan.getScannedTables()) {
+                targets.add(shape.resolveTable(scanned));
+            }
+            List<ColumnRef> ordering = shape.mGroup.isEmpty() ? shape.mOrder : shape.mGroup;
+            if (plan.hasTempBTree() && !ordering.isEmpty()) {
+                String qualifier = ordering.get(0).mQualifier;
+                targets.add(qualifier == null ? shape.getFirstTable() : shape.resolveTable(qualifier));
+            }
+            for (String table : targets) {
+                if (table == null) continue;
+                String key = table.toLowerCase(Locale.US);
+                TableInfo info = tables.get(key);
+                if (info == null) {
+                    info = TableInfo.load(database, table);
+                    tables.put(key, info);
+                }
+                CursorUtils.IndexInfo suggestion = suggestIndex(shape, table, info);
+                if (suggestion != null) {
+                    Log.i(TAG, "Suggesting "+suggestion+" for "+plan.getName());
+                    addSuggestion(suggestions, suggestion);
+                }
+            }
+        }
+        return suggestions;
+    }
+    
+    /**
+     * Analyze the registered queries and create the suggested indexes in a single transaction
+     * @return The indexes that were created, which is empty if none were suggested or they could not be created
+     * @see CursorUtils#addIndex(SQLiteDatabase, List)
+     */
+    @NonNull
+    public List<CursorUtils.IndexInfo> applySuggestions(SQLiteDatabase database) {
+        List<CursorUtils.IndexInfo> suggestions = suggestIndexes(database, analyze(database));
+        if (suggestions.isEmpty() || !CursorUtils.addIndex(database, suggestions)) {
+            return new ArrayList<CursorUtils.IndexInfo>();
+        }
+        return suggestions;
+    }
+    
+    /**
+     * Build the index for one table of a query
+     * @return The index, or null if the query gives nothing to index on
+     */
+    @Nullable
+    protected static CursorUtils.IndexInfo suggestIndex(QueryShape shape, String table, TableInfo info) {
+        if (info.mColumns.isEmpty()) {
+            return null;
+        }
+        List<String> equality = shape.resolveColumns(shape.mEquality, table, info);
+        if (equality.contains(ROW_ID)) {
+            // Rows are already found by their id
+            return null;
+        }
+        appendMissing(equality, shape.resolveColumns(shape.mJoin, table, info));
+        equality.remove(ROW_ID);
+        List<String> range = shape.resolveColumns(shape.mRange, table, info);
+        List<String> group = shape.resolveColumns(shape.mGroup, table, info);
+        List<String> order = shape.resolveColumns(shape.mOrder, table, info);
+        List<String> columns = new ArrayList<String>(equality);
+        if (!group.isEmpty() && group.size() == shape.mGroup.size()) {
+            appendMissing(columns, group);
+        } else if (!range.isEmpty()) {
+            if (!order.isEmpty() && order.size() == shape.mOrder.size() && order.get(0).equals(range.get(0))) {
+                appendMissing(columns, order);
+            } else {
+                appendMissing(columns, range.subList(0, 1));
+            }
+        } else if (!order.isEmpty() && order.size() == shape.mOrder.size()) {
+            appendMissing(columns, order);
+        }
+        columns.remove(ROW_ID);
+        if (columns.isEmpty()) {
+            return null;
+        }
+        if (!shape.selectsAll(table)) {
+            List<String> referenced = shape.resolveColumns(shape.mReferenced, table, info);
+            referenced.remove(ROW_ID);
+            List<String> covering = new ArrayList<String>(columns);
+            appendMissing(covering, referenced);
+            if (covering.size() <= MAX_COVERING_COLUMNS) {
+                columns = covering;
+            }
+        }
+        for (List<String> existing : info.mIndexes) {
+            if (startsWith(existing, columns)) {
+                return null;
+            }
+        }
+        return new CursorUtils.IndexInfo(info.mName, columns.toArray(new String[columns.size()]));
+    }
+    
+    protected static void addSuggestion(List<CursorUtils.IndexInfo> suggestions, CursorUtils.IndexInfo suggestion) {
+        List<String> columns = indexColumns(suggestion);
+        for (int i = suggestions.size() - 1; i >= 0; i--) {
+            CursorUtils.IndexInfo other = suggestions.get(i);
+            if (!other.getTable().equalsIgnoreCase(suggestion.getTable())) continue;
+            List<String> otherColumns = indexColumns(other);
+            if (startsWith(otherColumns, columns)) {
+                return;
+            }
+            if (startsWith(columns, otherColumns)) {
+                suggestions.remove(i);
+            }
+        }
+        suggestions.add(suggestion);
+    }
+    
+    protected static List<String> indexColumns(CursorUtils.IndexInfo index) {
+        List<String> columns = new ArrayList<String>();
+        for (String column : index.getColumns()) {
+            columns.add(column.trim().split("\\s+")[0].toLowerCase(Locale.US));
+        }
+        return columns;
+    }
+    
+    protected static boolean startsWith(List<String> columns, List<String> prefix) {
+        if (prefix.size() > columns.size()) return false;
+        for (int i = 0; i < prefix.size(); i++) {
+            if (!columns.get(i).equalsIgnoreCase(prefix.get(i).trim().split("\\s+")[0])) return false;
+        }
+        return true;
+    }
+    
+    protected static void appendMissing(List<String> columns, List<String> additional) {
+        for (String column : additional) {
+            String name = column.split(" ")[0];
+            boolean present = false;
+            for (String existing : columns) {
+                if (existing.split(" ")[0].equals(name)) {
+                    present = true;
+                    break;
+                }
+            }
+            if (!present) {
+                columns.add(column);
+            }
+        }
+    }
+    
+    /**
+     * The columns and indexes of a table, read with PRAGMA table_info and index_list
+     */
+    protected static class TableInfo {
+        protected String mName;
+        /** Lower case column name to declared name */
+        protected final Map<String, String> mColumns = new HashMap<String, String>();
+        protected String mRowIdAlias;
+        protected final List<List<String>> mIndexes = new ArrayList<List<String>>();
+        
+        protected static TableInfo load(SQLiteDatabase database, String table) {
+            TableInfo info = new TableInfo();
+            info.mName = table;
+            Cursor result = null;
+            try {
+                result = database.rawQuery("PRAGMA table_info("+table+")", null);
+                int keys = 0;
+                String key = null;
+                while (result.moveToNext()) {
+                    String column = result.getString(result.getColumnIndex("name"));
+                    info.mColumns.put(column.toLowerCase(Locale.US), column);
+                    if (result.getInt(result.getColumnIndex("pk")) > 0) {
+                        keys++;
+                        if ("INTEGER".equalsIgnoreCase(result.getString(result.getColumnIndex("type")))) {
+                            key = column;
+                        }
+                    }
+                }
+                CursorUtils.safeClose(result);
+                if (keys == 1 && key != null) {
+                    info.mRowIdAlias = key.toLowerCase(Locale.US);
+                }
+                List<String> indexes = new ArrayList<String>();
+                result = database.rawQuery("PRAGMA index_list("+table+")", null);
+                int partial = result.getColumnIndex("partial");
+                while (result.moveToNext()) {
+                    if (partial == -1 || result.getInt(partial) == 0) {
+                        indexes.add(result.getString(result.getColumnIndex("name")));
+                    }
+                }
+                for (String index : indexes) {
+                    CursorUtils.safeClose(result);
+                    result = database.rawQuery("PRAGMA index_info("+index+")", null);
+                    List<String> columns = new ArrayList<String>();
+                    while (result.moveToNext()) {
+                        String column = result.getString(result.getColumnIndex("name"));
+                        columns.add(column == null ? "" : column.toLowerCase(Locale.US));
+                    }
+                    info.mIndexes.add(columns);
+                }
+            } catch (SQLException e) {
+                Log.e(TAG, "Could not read the structure of "+table, e);
+            } finally {
+                CursorUtils.safeClose(result);
+            }
+            return info;
+        }
+        
+        /**
+         * @return The declared name of the column, rowid for the row id or its alias, or null if the table has no such column
+         */
+        @Nullable
+        protected String resolve(String column) {
+            String key = column.toLowerCase(Locale.US);
+            if (key.equals(mRowIdAlias) || key.equals(ROW_ID) || key.equals("oid") || key.equals("_rowid_")) {
+                return ROW_ID;
+            }
+            return mColumns.get(key);
+        }
+    }
+    
+    /**
+     * A reference to a column in a query, optionally qualified by a table or alias
+     */
+    protected static class ColumnRef {
+        protected final String mQualifier;
+        protected final String mColumn;
+        protected final boolean mDescending;
+        
+        protected ColumnRef(String qualifier, String column, boolean descending) {
+            mQualifier = qualifier;
+            mColumn = column;
+            mDescending = descending;
+        }
+    }
+    
+    /**
+     * The parts of a SELECT statement which matter for choosing an index
+     */
+    protected static class QueryShape {
+        /** Lower case alias or table name to table name */
+        protected final Map<String, String> mTables = new LinkedHashMap<String, String>();
+        protected final List<ColumnRef> mEquality = new ArrayList<ColumnRef>();
+        /** Columns compared with columns of another table, which only help when the table is searched in a join */
+        protected final List<ColumnRef> mJoin = new ArrayList<ColumnRef>();
+        protected final List<ColumnRef> mRange = new ArrayList<ColumnRef>();
+        protected final List<ColumnRef> mGroup = new ArrayList<ColumnRef>();
+        protected final List<ColumnRef> mOrder = new ArrayList<ColumnRef>();
+        protected final List<ColumnRef> mReferenced = new ArrayList<ColumnRef>();
+        /** Lower case qualifiers selected with .*, or the empty string for * */
+        protected final Set<String> mSelectAll = new HashSet<String>();
+        
+        protected static QueryShape parse(String sql) {
+            QueryShape shape = new QueryShape();
+            List<String> tokens = tokenize(sql);
+            // Split the top level statement into its clauses
+            Map<String, List<String>> clauses = new HashMap<String, List<String>>();
+            List<String> current = null;
+            int depth = 0;
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                String upper = token.toUpperCase(Locale.US);
+                if (token.equals("(")) {
+                    depth++;
+                } else if (token.equals(")")) {
+                    depth--;
+                } else if (depth == 0 && (upper.equals("SELECT") || CLAUSE_KEYWORDS.contains(upper))) {
+                    if (upper.equals("UNION") || upper.equals("INTERSECT") || upper.equals("EXCEPT")) {
+                        break;
+                    }
+                    if ((upper.equals("GROUP") || upper.equals("ORDER")) && i + 1 < tokens.size() && tokens.get(i + 1).equalsIgnoreCase("BY")) {
+                        i++;
+                    }
+                    current = clauses.containsKey(upper) ? null : new ArrayList<String>();
+                    if (current != null) {
+                        clauses.put(upper, current);
+                    }
+                    continue;
+                }
+                if (current != null) {
+                    current.add(token);
+                }
+            }
+            shape.parseFrom(clauses.get("FROM"));
+            shape.parseSelect(clauses.get("SELECT"));
+            shape.parseTerms(clauses.get("WHERE"));
+            shape.parseList(clauses.get("GROUP"), shape.mGroup);
+            shape.parseList(clauses.get("ORDER"), shape.mOrder);
+            for (List<String> clause : clauses.values()) {
+                for (int i = 0; i < clause.size(); i++) {
+                    i = readColumn(clause, i, shape.mReferenced) - 1;
+                }
+            }
+            return shape;
+        }
+        
+        @Nullable
+        protected String getFirstTable() {
+            return mTables.isEmpty() ? null : mTables.values().iterator().next();
+        }
+        
+        /**
+         * @return The table for a name reported in a plan or used to qualify a column, or the name itself if it is not
+         * an alias in this query
+         */
+        protected String resolveTable(String name) {
+            if (name == null) return null;
+            String table = mTables.get(name.toLowerCase(Locale.US));
+            return table == null ? name : table;
+        }
+        
+        protected boolean selectsAll(String table) {
+            if (mSelectAll.contains("")) return true;
+            for (String qualifier : mSelectAll) {
+                if (table.equalsIgnoreCase(resolveTable(qualifier))) return true;
+            }
+            return false;
+        }
+        
+        /**
+         * @return The declared names of the references which are columns of the table, without duplicates.  Descending 
+         * columns are marked with DESC if the references do not all sort the same way.
+         */
+        protected List<String> resolveColumns(List<ColumnRef> references, String table, TableInfo info) {
+            boolean mixed = false;
+            for (ColumnRef reference : references) {
+                mixed |= reference.mDescending != references.get(0).mDescending;
+            }
+            List<String> columns = new ArrayList<String>();
+            for (ColumnRef reference : references) {
+                if (reference.mQualifier != null) {
+                    if (!table.equalsIgnoreCase(resolveTable(reference.mQualifier))) continue;
+                } else if (mTables.size() > 1 && !table.equalsIgnoreCase(getFirstTable()) && ROW_ID.equals(info.resolve(reference.mColumn))) {
+                    // An unqualified row id in a join belongs to the first table
+                    continue;
+                }
+                String column = info.resolve(reference.mColumn);
+                if (column == null) continue;
+                if (mixed && reference.mDescending && !column.equals(ROW_ID)) {
+                    column = column+" DESC";
+                }
+                if (!columns.contains(column)) {
+                    columns.add(column);
+                }
+            }
+            return columns;
+        }
+        
+        protected void parseFrom(List<String> tokens) {
+            if (tokens == null) return;
+            List<String> on = new ArrayList<String>();
+            boolean expectTable = true;
+            int depth = 0;
+            String table = null;
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                String upper = token.toUpperCase(Locale.US);
+                if (token.equals("(")) {
+                    depth++;
+                    if (depth == 1 && !on.isEmpty()) on.add(token);
+                    continue;
+                } else if (token.equals(")")) {
+                    depth--;
+                    if (depth == 0 && !on.isEmpty()) {
+                        on.add(token);
+                    } else if (depth == 0) {
+                        // A subquery, which is named by the alias that follows
+                        expectTable = false;
+                        table = null;
+                    }
+                    continue;
+                }
+                if (depth > 0) {
+                    if (!on.isEmpty()) on.add(token);
+                    continue;
+                }
+                if (token.equals(",") || upper.equals("JOIN")) {
+                    expectTable = true;
+                    table = null;
+                    on = flushTerms(on);
+                } else if (upper.equals("ON")) {
+                    on = flushTerms(on);
+                    on.add(token);
+                } else if (!on.isEmpty()) {
+                    if (JOIN_KEYWORDS.contains(upper)) {
+                        on = flushTerms(on);
+                    } else {
+                        on.add(token);
+                    }
+                } else if (upper.equals("INDEXED") && i + 1 < tokens.size() && tokens.get(i + 1).equalsIgnoreCase("BY")) {
+                    i += 2;
+                } else if (JOIN_KEYWORDS.contains(upper) || upper.equals("AS") || !isIdentifier(token)) {
+                    continue;
+                } else if (expectTable) {
+                    // Skip the schema of schema.table
+                    table = unquote(i + 2 < tokens.size() && tokens.get(i + 1).equals(".") ? tokens.get(i += 2) : token);
+                    mTables.put(table.toLowerCase(Locale.US), table);
+                    expectTable = false;
+                } else if (table != null) {
+                    mTables.put(unquote(token).toLowerCase(Locale.US), table);
+                    table = null;
+                }
+            }
+            flushTerms(on);
+        }
+        
+        protected List<String> flushTerms(List<String> on) {
+            if (!on.isEmpty()) {
+                parseTerms(on.subList(1, on.size()));
+            }
+            return new ArrayList<String>();
+        }
+        
+        protected void parseSelect(List<String> tokens) {
+            if (tokens == null) return;
+            int depth = 0;
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                if (token.equals("(")) depth++;
+                else if (token.equals(")")) depth--;
+                else if (depth == 0 && token.equals("*")) {
+                    mSelectAll.add(i >= 2 && tokens.get(i - 1).equals(".") ? tokens.get(i - 2).toLowerCase(Locale.US) : "");
+                }
+            }
+        }
+        
+        /**
+         * Find the columns compared in a list of terms joined by AND
+         */
+        protected void parseTerms(List<String> tokens) {
+            if (tokens == null) return;
+            List<List<String>> terms = new ArrayList<List<String>>();
+            List<String> term = new ArrayList<String>();
+            int depth = 0;
+            boolean between = false;
+            for (String token : tokens) {
+                String upper = token.toUpperCase(Locale.US);
+                if (token.equals("(")) depth++;
+                else if (token.equals(")")) depth--;
+                if (depth == 0 && upper.equals("OR")) {
+                    // The terms can't all be satisfied by one index
+                    return;
+                }
+                if (depth == 0 && upper.equals("AND") && !between) {
+                    terms.add(term);
+                    term = new ArrayList<String>();
+                    continue;
+                }
+                if (depth == 0 && upper.equals("BETWEEN")) between = true;
+                else if (depth == 0 && upper.equals("AND")) between = false;
+                term.add(token);
+            }
+            terms.add(term);
+            for (List<String> parts : terms) {
+                parseTerm(parts);
+            }
+        }
+        
+        protected void parseTerm(List<String> term) {
+            // Strip parentheses which wrap the whole term
+            while (term.size() > 2 && term.get(0).equals("(") && term.get(term.size() - 1).equals(")")) {
+                term = term.subList(1, term.size() - 1);
+            }
+            List<ColumnRef> left = new ArrayList<ColumnRef>();
+            int end = readColumn(term, 0, left);
+            if (end == term.size() || left.isEmpty()) {
+                // The column may be on the right hand side, as in ? < recordedAt
+                List<ColumnRef> right = new ArrayList<ColumnRef>();
+                for (int op = 1; op < term.size() - 1; op++) {
+                    String operator = term.get(op);
+                    if (isComparison(operator) && readColumn(term, op + 1, right) == term.size() && !right.isEmpty()) {
+                        (operator.equals("=") || operator.equals("==") ? mEquality : mRange).add(right.get(0));
+                        break;
+                    }
+                }
+                return;
+            }
+            String operator = term.get(end).toUpperCase(Locale.US);
+            ColumnRef column = left.get(0);
+            // A join condition compares columns of two tables
+            List<ColumnRef> right = new ArrayList<ColumnRef>();
+            if ((operator.equals("=") || operator.equals("==")) && readColumn(term, end + 1, right) == term.size() && !right.isEmpty()) {
+                mJoin.add(column);
+                mJoin.add(right.get(0));
+                return;
+            }
+            if (operator.equals("=") || operator.equals("==") || operator.equals("IN")) {
+                mEquality.add(column);
+            } else if (operator.equals("IS")) {
+                if (end + 1 < term.size() && !term.get(end + 1).equalsIgnoreCase("NOT")) mEquality.add(column);
+            } else if (isComparison(operator) || operator.equals("BETWEEN")) {
+                mRange.add(column);
+            }
+        }
+        
+        protected void parseList(List<String> tokens, List<ColumnRef> columns) {
+            if (tokens == null) return;
+            for (int i = 0; i < tokens.size(); i++) {
+                int start = columns.size();
+                int end = readColumn(tokens, i, columns);
+                if (columns.size() == start) {
+                    // An expression which can't come from an index
+                    columns.add(new ColumnRef(null, "", false));
+                    while (end < tokens.size() && !tokens.get(end).equals(",")) end++;
+                } else {
+                    boolean descending = false;
+                    while (end < tokens.size() && !tokens.get(end).equals(",")) {
+                        if (tokens.get(end).equalsIgnoreCase("DESC")) descending = true;
+                        end++;
+                    }
+                    ColumnRef column = columns.get(start);
+                    columns.set(start, new ColumnRef(column.mQualifier, column.mColumn, descending));
+                }
+                i = end;
+            }
+        }
+        
+        /**
+         * Read a column reference at a position, which is a name or qualifier.name that is not a function call
+         * @return The position after the reference, or after the token if it is not a reference
+         */
+        protected static int readColumn(List<String> tokens, int position, List<ColumnRef> columns) {
+            if (position >= tokens.size()) return position;
+            String token = tokens.get(position);
+            if (!isIdentifier(token)) return position + 1;
+            if (position + 2 < tokens.size() && tokens.get(position + 1).equals(".") && isIdentifier(tokens.get(position + 2))) {
+                columns.add(new ColumnRef(unquote(token), unquote(tokens.get(position + 2)), false));
+                return position + 3;
+            }
+            if (position + 1 < tokens.size() && (tokens.get(position + 1).equals("(") || tokens.get(position + 1).equals("."))) {
+                return position + 1;
+            }
+            columns.add(new ColumnRef(null, unquote(token), false));
+            return position + 1;
+        }
+        
+        protected static String unquote(String token) {
+            return token.length() > 1 && token.charAt(0) == '"' ? token.substring(1) : token;
+        }
+        
+        protected static boolean isComparison(String operator) {
+            return operator.equals("<") || operator.equals(">") || operator.equals("<=") || operator.equals(">=") 
+                    || operator.equals("=") || operator.equals("==");
+        }
+        
+        protected static boolean isIdentifier(String token) {
+            char first = token.charAt(0);
+            return Character.isLetter(first) || first == '_' || first == '"';
+        }
+        
+        /**
+         * Split SQL into identifiers, literals, parameters and operators.  String literals become a single quote.  Quoted
+         * identifiers are marked with a leading double quote so they are not mistaken for keywords.
+         */
+        protected static List<String> tokenize(String sql) {
+            List<String> tokens = new ArrayList<String>();
+            int length = sql.length();
+            int i = 0;
+            while (i < length) {
+                char c = sql.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                    while (i < length && sql.charAt(i) != '\n') i++;
+                } else if (c == '\'') {
+                    int end = i + 1;
+                    while (end < length && !(sql.charAt(end) == '\'' && (end + 1 >= length || sql.charAt(end + 1) != '\''))) {
+                        end += sql.charAt(end) == '\'' ? 2 : 1;
+                    }
+                    tokens.add("'");
+                    i = end + 1;
+                } else if (c == '"' || c == '`' || c == '[') {
+                    char close = c == '[' ? ']' : c;
+                    int end = sql.indexOf(close, i + 1);
+                    if (end == -1) end = length;
+                    tokens.add("\""+sql.substring(i + 1, end));
+                    i = end + 1;
+                } else if (Character.isLetterOrDigit(c) || c == '_' || c == '?' || c == ':' || c == '@' || c == '$') {
+                    int end = i + 1;
+                    while (end < length && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) end++;
+                    tokens.add(sql.substring(i, end));
+                    i = end;
+                } else if ((c == '<' || c == '>' || c == '=' || c == '!') && i + 1 < length && "=>".indexOf(sql.charAt(i + 1)) != -1) {
+                    tokens.add(sql.substring(i, i + 2));
+                    i += 2;
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            }
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.kevinquan.android.location.SimpleRecordedLocation;
+
+/**
+ * Keeps time-series tables, such as recorded locations and motions, from growing without bound.
+ *
+ * Each {@link Policy} names a table and the column its rows are timed by.  Rows older than the policy's maximum age are
+ * deleted oldest first in small chunks through an index on the time column, with each chunk committed on its own and a
+ * short pause in between, so readers and writers are never locked out for long.  Rows younger than that but older than the
+ * downsampling age can first be thinned by a {@link Downsampler}, such as keeping one location per interval or collapsing
+ * runs of the same motion.  Downsampling only revisits rows newer than the last pass made by the same policy.
+ *
+ * Deleting rows leaves free pages in the database file.  If the database uses incremental auto-vacuum (see
+ * {@link #enableIncrementalVacuum(SQLiteDatabase)}), free pages are returned to the file system in steps after each run.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class RetentionEngine {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final long DEFAULT_PAUSE_MS = 5;
+    public static final int DEFAULT_VACUUM_STEP_PAGES = 256;
+
+    protected static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Decides which rows to keep when thinning older data.  Rows are passed in time order, grouped by their time, and the
+     * whole group is kept or deleted.
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public interface Downsampler {
+        /**
+         * @return The columns read by {@link #addRow(CursorUtils.RowReader)}, in slot order
+         */
+        public String[] getColumns();
+
+        /**
+         * Start a new pass over the table
+         */
+        public void reset();
+
+        /**
+         * Add a row to the current group
+         * @param row A reader over the columns, positioned at the row
+         */
+        public void addRow(CursorUtils.RowReader row);
+
+        /**
+         * Finish the current group
+         * @param time The time shared by the rows of the group
+         * @return Whether to keep the group
+         */
+        public boolean endGroup(long time);
+    }
+
+    /**
+     * Keeps the first group in each interval, measured from the last group kept
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class IntervalDownsampler implements Downsampler {
+        protected final long mIntervalMs;
+        protected long mLastKept;
+        protected boolean mHasKept;
+
+        /**
+         * @param intervalMs The shortest time between kept groups
+         */
+        public IntervalDownsampler(long intervalMs) {
+            mIntervalMs = intervalMs;
+        }
+
+        @Override public String[] getColumns() {
+            return new String[0];
+        }
+
+        @Override public void reset() {
+            mHasKept = false;
+        }
+
+        @Override public void addRow(CursorUtils.RowReader row) {}
+
+        @Override public boolean endGroup(long time) {
+            if (mHasKept && time - mLastKept < mIntervalMs) {
+                return false;
+            }
+            mHasKept = true;
+            mLastKept = time;
+            return true;
+        }
+    }
+
+    /**
+     * What to keep of one table
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class Policy {
+        protected final String mTable;
+        protected final String mTimeColumn;
+        protected long mMaxAgeMs = -1;
+        protected long mDownsampleAgeMs = -1;
+        protected Downsampler mDownsampler;
+        protected boolean mIndexed;
+        protected long mDownsampledUntil = Long.MIN_VALUE;
+
+        /**
+         * @param table The table to trim
+         * @param timeColumn The integer column rows are timed by, in milliseconds
+         */
+        public Policy(String table, String timeColumn) {
+            if (TextUtils.isEmpty(table) || TextUtils.isEmpty(timeColumn)) {
+                throw new IllegalArgumentException("Table and time column must be provided");
+            }
+            mTable = table;
+            mTimeColumn = timeColumn;
+        }
+
+        /**
+         * @param maxAgeMs How long rows are kept, or a negative value to keep them forever
+         */
+        public Policy setMaxAge(long maxAgeMs) {
+            mMaxAgeMs = maxAgeMs;
+            return this;
+        }
+
+        /**
+         * @param ageMs How old rows are before they are thinned
+         * @param downsampler Decides which rows to keep, or null to keep every row
+         */
+        public Policy setDownsampling(long ageMs, Downsampler downsampler) {
+            mDownsampleAgeMs = ageMs;
+            mDownsampler = downsampler;
+            mDownsampledUntil = Long.MIN_VALUE;
+            return this;
+        }
+
+        public String getTable() {
+            return mTable;
+        }
+
+        public String getTimeColumn() {
+            return mTimeColumn;
+        }
+    }
+
+    /**
+     * What a run removed
+     * @author Kevin Quan (kevin.quan@gmail.com)
+     *
+     */
+    public static class Report {
+        protected int mDeleted;
+        protected int mDownsampled;
+        protected int mVacuumedPages;
+        protected long mElapsedMillis;
+        protected boolean mCancelled;
+
+        /**
+         * @return The number of rows deleted for being older than their maximum age
+         */
+        public int getDeleted() {
+            return mDeleted;
+        }
+
+        /**
+         * @return The number of rows deleted by downsampling
+         */
+        public int getDownsampled() {
+            return mDownsampled;
+        }
+
+        public int getVacuumedPages() {
+            return mVacuumedPages;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override public String toString() {
+            return TAG+" [deleted="+mDeleted+", downsampled="+mDownsampled+", vacuumedPages="+mVacuumedPages
+                    +", elapsed="+mElapsedMillis+"ms"+(mCancelled ? ", cancelled" : "")+"]";
+        }
+    }
+
+    protected final SQLiteDatabase mDatabase;
+    protected final List<Policy> mPolicies = new ArrayList<Policy>();
+    protected int mChunkSize = DEFAULT_CHUNK_SIZE;
+    protected long mPauseMs = DEFAULT_PAUSE_MS;
+    protected int mVacuumStepPages = DEFAULT_VACUUM_STEP_PAGES;
+    protected volatile boolean mCancelled;
+
+    /**
+     * A policy for a table of {@link SimpleRecordedLocation}s
+     */
+    public static Policy newLocationPolicy(String table) {
+        return new Policy(table, SimpleRecordedLocation.COLUMN_RECORDED_AT);
+    }
+
+    /**
+     * Switch a database to incremental auto-vacuum.  A database that already has tables is rebuilt with VACUUM, which
+     * takes as long as copying the file, so this is best done when the database is created.
+     * @return Whether the database now uses incremental auto-vacuum
+     */
+    public static boolean enableIncrementalVacuum(SQLiteDatabase database) {
+        try {
+            if (queryLong(database, "PRAGMA auto_vacuum", 0) == AUTO_VACUUM_INCREMENTAL) {
+                return true;
+            }
+            database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            if (queryLong(database, "PRAGMA auto_vacuum", 0) != AUTO_VACUUM_INCREMENTAL) {
+                database.execSQL("VACUUM");
+            }
+            return queryLong(database, "PRAGMA auto_vacuum", 0) == AUTO_VACUUM_INCREMENTAL;
+        } catch (Exception e) {
+            Log.e(TAG, "Could not enable incremental vacuum", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param database The database holding the tables
+     */
+    public RetentionEngine(SQLiteDatabase database) {
+        if (database == null) {
+            throw new IllegalArgumentException("Database must be provided");
+        }
+        mDatabase = database;
+    }
+
+    public RetentionEngine addPolicy(Policy policy) {
+        if (policy != null) {
+            mPolicies.add(policy);
+        }
+        return this;
+    }
+
+    /**
+     * @param chunkSize The most rows to delete in one statement
+     */
+    public RetentionEngine setChunkSize(int chunkSize) {
+        mChunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+
+    /**
+     * @param pauseMs How long to pause between chunks so other connections can take the database
+     */
+    public RetentionEngine setPause(long pauseMs) {
+        mPauseMs = Math.max(0, pauseMs);
+        return this;
+    }
+
+    /**
+     * @param pages The most free pages to release in one step, or 0 to never vacuum
+     */
+    public RetentionEngine setVacuumStep(int pages) {
+        mVacuumStepPages = Math.max(0, pages);
+        return this;
+    }
+
+    /**
+     * Stop a run in progress after its current chunk
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Apply every policy and then release free pages
+     * @param now The current time, which ages are measured from
+     */
+    @NonNull
+    public Report run(long now) {
+        mCancelled = false;
+        Report report = new Report();
+        long started = System.nanoTime();
+        for (Policy policy : mPolicies) {
+            if (mCancelled) {
+                break;
+            }
+            try {
+                apply(policy, now, report);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not apply retention to "+policy.mTable, e);
+            }
+        }
+        if (!mCancelled) {
+            report.mVacuumedPages = vacuum();
+        }
+        report.mCancelled = mCancelled;
+        report.mElapsedMillis = (System.nanoTime() - started) / 1000000;
+        Log.d(TAG, report.toString());
+        return report;
+    }
+
+    protected void apply(Policy policy, long now, Report report) {
+        if (!policy.mIndexed) {
+            policy.mIndexed = CursorUtils.addIndex(mDatabase, Arrays.asList(new CursorUtils.IndexInfo(policy.mTable, policy.mTimeColumn)));
+        }
+        long deleteBefore = policy.mMaxAgeMs < 0 ? Long.MIN_VALUE : now - policy.mMaxAgeMs;
+        if (policy.mDownsampler != null && policy.mDownsampleAgeMs >= 0) {
+            long until = now - policy.mDownsampleAgeMs;
+            long from = Math.max(deleteBefore, policy.mDownsampledUntil);
+            if (from < until) {
+                report.mDownsampled += downsample(policy, from, until);
+                if (!mCancelled) {
+                    policy.mDownsampledUntil = until;
+                }
+            }
+        }
+        if (deleteBefore != Long.MIN_VALUE && !mCancelled) {
+            report.mDeleted += deleteBefore(policy, deleteBefore);
+        }
+    }
+
+    /**
+     * Delete the rows older than a time, oldest first, one chunk at a time
+     * @return The number of rows deleted
+     */
+    protected int deleteBefore(Policy policy, long cutoff) {
+        String where = "rowid IN (SELECT rowid FROM "+policy.mTable+" WHERE "+policy.mTimeColumn+" < "+cutoff
+                +" ORDER BY "+policy.mTimeColumn+" LIMIT "+mChunkSize+")";
+        int total = 0;
+        while (!mCancelled) {
+            long start = DatabaseInstrumentation.start();
+            int deleted = mDatabase.delete(policy.mTable, where, null);
+            DatabaseInstrumentation.record("retention", policy.mTable, start, deleted);
+            total += deleted;
+            if (deleted < mChunkSize) {
+                break;
+            }
+            pause();
+        }
+        return total;
+    }
+
+    /**
+     * Thin the rows in a range of time, deleting the groups the downsampler rejects after each page has been read
+     * @return The number of rows deleted
+     */
+    protected int downsample(Policy policy, long from, long until) {
+        Downsampler downsampler = policy.mDownsampler;
+        String[] columns = downsampler.getColumns();
+        CursorUtils.RowReader reader = new CursorUtils.RowReader(columns);
+        downsampler.reset();
+        primeDownsampler(policy, reader, from);
+
+        String[] selected = Arrays.copyOf(columns, columns.length + 1);
+        selected[columns.length] = policy.mTimeColumn;
+        CursorUtils.KeysetPager pager = new CursorUtils.KeysetPager(mDatabase, policy.mTable, policy.mTimeColumn)
+                .setTieBreaker("rowid")
+                .setColumns(selected)
+                .setSelection(policy.mTimeColumn+" >= "+from+" AND "+policy.mTimeColumn+" < "+until)
+                .setPageSize(mChunkSize);
+        long[] group = new long[16];
+        int groupSize = 0;
+        long groupTime = 0;
+        long[] rejected = new long[mChunkSize];
+        int rejectedCount = 0;
+        int deleted = 0;
+        int page = 0;
+        int timeIndex = -1;
+        int rowIdIndex = -1;
+        CursorUtils.PageIterator rows = pager.iterator();
+        try {
+            while (rows.hasNext() && !mCancelled) {
+                Cursor row = rows.next();
+                if (rows.getPageCount() != page) {
+                    // Only delete rows from pages that have been read completely
+                    page = rows.getPageCount();
+                    deleted += deleteRows(policy, rejected, rejectedCount);
+                    rejectedCount = 0;
+                    reader.bind(row);
+                    timeIndex = row.getColumnIndexOrThrow(policy.mTimeColumn);
+                    rowIdIndex = row.getColumnIndexOrThrow("rowid");
+                }
+                long time = row.getLong(timeIndex);
+                if (groupSize > 0 && time != groupTime) {
+                    if (!downsampler.endGroup(groupTime)) {
+                        rejected = append(rejected, rejectedCount, group, groupSize);
+                        rejectedCount += groupSize;
+                    }
+                    groupSize = 0;
+                }
+                if (groupSize == group.length) {
+                    group = Arrays.copyOf(group, group.length * 2);
+                }
+                group[groupSize++] = row.getLong(rowIdIndex);
+                groupTime = time;
+                downsampler.addRow(reader);
+            }
+        } finally {
+            rows.close();
+        }
+        if (!mCancelled) {
+            if (groupSize > 0 && !downsampler.endGroup(groupTime)) {
+                rejected = append(rejected, rejectedCount, group, groupSize);
+                rejectedCount += groupSize;
+            }
+            deleted += deleteRows(policy, rejected, rejectedCount);
+        }
+        return deleted;
+    }
+
+    /**
+     * Pass the last group before a range to the downsampler so that the range continues from it
+     */
+    protected void primeDownsampler(Policy policy, CursorUtils.RowReader reader, long from) {
+        if (from == Long.MIN_VALUE) {
+            return;
+        }
+        String[] columns = policy.mDownsampler.getColumns();
+        String[] selected = Arrays.copyOf(columns, columns.length + 1);
+        selected[selected.length - 1] = policy.mTimeColumn;
+        Cursor previous = null;
+        try {
+            previous = mDatabase.rawQuery("SELECT "+TextUtils.join(", ", selected)+" FROM "+policy.mTable+" WHERE "
+                    +policy.mTimeColumn+" = (SELECT MAX("+policy.mTimeColumn+") FROM "+policy.mTable+" WHERE "
+                    +policy.mTimeColumn+" < "+from+")", null);
+            if (!CursorUtils.hasResults(previous)) {
+                return;
+            }
+            reader.bind(previous);
+            long time = CursorUtils.safeGetLong(previous, policy.mTimeColumn, 0);
+            do {
+                policy.mDownsampler.addRow(reader);
+            } while (previous.moveToNext());
+            policy.mDownsampler.endGroup(time);
+        } finally {
+            CursorUtils.safeClose(previous);
+        }
+    }
+
+    protected int deleteRows(Policy policy, long[] rowIds, int count) {
+        int deleted = 0;
+        for (int offset = 0; offset < count && !mCancelled; offset += mChunkSize) {
+            StringBuilder where = new StringBuilder("rowid IN (");
+            int end = Math.min(count, offset + mChunkSize);
+            for (int i = offset; i < end; i++) {
+                if (i > offset) where.append(',');
+                where.append(rowIds[i]);
+            }
+            where.append(')');
+            long start = DatabaseInstrumentation.start();
+            int chunk = mDatabase.delete(policy.mTable, where.toString(), null);
+            DatabaseInstrumentation.record("downsample", policy.mTable, start, chunk);
+            deleted += chunk;
+            pause();
+        }
+        return deleted;
+    }
+
+    protected static long[] append(long[] values, int size, long[] added, int count) {
+        if (size + count > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, size + count));
+        }
+        System.arraycopy(added, 0, values, size, count);
+        return values;
+    }
+
+    /**
+     * Release free pages in steps if the database uses incremental auto-vacuum
+     * @return The number of pages released
+     */
+    protected int vacuum() {
+        if (mVacuumStepPages <= 0) {
+            return 0;
+        }
+        try {
+            if (queryLong(mDatabase, "PRAGMA auto_vacuum", 0) != AUTO_VACUUM_INCREMENTAL) {
+                return 0;
+            }
+            int vacuumed = 0;
+            long free = queryLong(mDatabase, "PRAGMA freelist_count", 0);
+            while (free > 0 && !mCancelled) {
+                long step = Math.min(free, mVacuumStepPages);
+                // Each page released is a result row, so the cursor has to be read to run the whole step
+                Cursor result = mDatabase.rawQuery("PRAGMA incremental_vacuum("+step+")", null);
+                try {
+                    result.getCount();
+                } finally {
+                    CursorUtils.safeClose(result);
+                }
+                long remaining = queryLong(mDatabase, "PRAGMA freelist_count", 0);
+                if (remaining >= free) {
+                    break;
+                }
+                vacuumed += free - remaining;
+                free = remaining;
+                pause();
+            }
+            return vacuumed;
+        } catch (Exception e) {
+            Log.e(TAG, "Could not vacuum database", e);
+            return 0;
+        }
+    }
+
+    protected void pause() {
+        if (mPauseMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(mPauseMs);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+        }
+    }
+
+    protected static long queryLong(SQLiteDatabase database, String sql, long defaultValue) {
+        Cursor result = null;
+        try {
+            result = database.rawQuery(sql, null);
+            if (!CursorUtils.hasResults(result)) {
+                return defaultValue;
+            }
+            return result.getLong(0);
+        } finally {
+            CursorUtils.safeClose(result);
+        }
+    }
+
+    private static final String TAG = RetentionEngine.class.getSimpleName();
+}
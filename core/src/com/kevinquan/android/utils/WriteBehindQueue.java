@@ -0,0 +1,448 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Queues writes to a content provider and applies them together on a background thread, so that many small writes share
+ * one binder transaction instead of each paying for their own.
+ *
+ * Queued writes are applied in order once enough are pending, once the oldest has waited long enough, or when a
+ * {@link #barrier()} is queued.  Repeated updates to the same row URI (without a selection) are merged into one update
+ * while nothing else has been queued in between that could touch the row, with later values replacing earlier ones.
+ * Each write returns a future holding its result; merged updates share the result of the merged update.
+ *
+ * Writes are applied through a {@link ContentProviderUtils.ChunkedBatch}, so a failure stops the rest of that flush and
+ * fails the futures of every write that was not applied.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class WriteBehindQueue {
+
+    public static final int DEFAULT_MAX_PENDING = 100;
+    public static final long DEFAULT_MAX_DELAY_MS = 50;
+
+    protected static final ConcurrentMap<String, WriteBehindQueue> sQueues = new ConcurrentHashMap<String, WriteBehindQueue>();
+
+    protected enum Type {
+        Insert,
+        Update,
+        Delete,
+        Barrier,
+        ;
+    }
+
+    protected static class Pending {
+        protected final Type mType;
+        protected final Uri mUri;
+        protected final ContentValues mValues;
+        protected final String mSelection;
+        protected final String[] mSelectionArgs;
+        protected final WriteResult<ContentProviderResult> mResult;
+        protected final WriteResult<Void> mBarrier;
+
+        protected Pending(Type type, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            mType = type;
+            mUri = uri;
+            if (type == Type.Insert || type == Type.Update) {
+                mValues = values == null ? new ContentValues() : new ContentValues(values);
+            } else {
+                mValues = null;
+            }
+            mSelection = selection;
+            mSelectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+            mResult = type == Type.Barrier ? null : new WriteResult<ContentProviderResult>();
+            mBarrier = type == Type.Barrier ? new WriteResult<Void>() : null;
+        }
+
+        protected ContentProviderOperation.Builder newBuilder() {
+            switch (mType) {
+                case Insert:
+                    return ContentProviderOperation.newInsert(mUri).withValues(mValues);
+                case Update:
+                    return ContentProviderOperation.newUpdate(mUri).withValues(mValues).withSelection(mSelection, mSelectionArgs);
+                case Delete:
+                    return ContentProviderOperation.newDelete(mUri).withSelection(mSelection, mSelectionArgs);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    protected final Context mContext;
+    protected final String mAuthority;
+    protected final Object mLock = new Object();
+    protected int mMaxPending = DEFAULT_MAX_PENDING;
+    protected long mMaxDelayMs = DEFAULT_MAX_DELAY_MS;
+    protected int mChunkSize = ContentProviderUtils.ChunkedBatch.DEFAULT_CHUNK_SIZE;
+
+    protected List<Pending> mPending = new ArrayList<Pending>();
+    protected final Map<Uri, Pending> mMergeable = new HashMap<Uri, Pending>();
+    protected long mOldestQueuedAt;
+    protected boolean mFlushRequested;
+    protected boolean mRunning;
+    protected boolean mStopping;
+    protected Thread mThread;
+
+    protected final AtomicLong mQueued = new AtomicLong();
+    protected final AtomicLong mMerged = new AtomicLong();
+    protected final AtomicLong mApplied = new AtomicLong();
+    protected final AtomicLong mFailed = new AtomicLong();
+    protected final AtomicLong mFlushes = new AtomicLong();
+
+    /**
+     * Retrieve the shared queue for an authority, creating it if needed
+     * @param context The context to use
+     * @param authority The authority of the target content provider
+     */
+    @NonNull
+    public static WriteBehindQueue forAuthority(Context context, String authority) {
+        WriteBehindQueue queue = sQueues.get(authority);
+        if (queue == null) {
+            WriteBehindQueue created = new WriteBehindQueue(context.getApplicationContext(), authority);
+            queue = sQueues.putIfAbsent(authority, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * @param context The context to use
+     * @param authority The authority of the target content provider
+     */
+    public WriteBehindQueue(Context context, String authority) {
+        mContext = context;
+        mAuthority = authority;
+    }
+
+    /**
+     * @param maxPending The number of queued writes that triggers a flush
+     */
+    public WriteBehindQueue setMaxPending(int maxPending) {
+        synchronized (mLock) {
+            mMaxPending = Math.max(1, maxPending);
+            mLock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * @param maxDelayMs The longest a write waits before it is flushed
+     */
+    public WriteBehindQueue setMaxDelay(long maxDelayMs) {
+        synchronized (mLock) {
+            mMaxDelayMs = Math.max(0, maxDelayMs);
+            mLock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * @param chunkSize The most operations to send in one transaction when a flush is large
+     */
+    public WriteBehindQueue setChunkSize(int chunkSize) {
+        mChunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+
+    public String getAuthority() {
+        return mAuthority;
+    }
+
+    @NonNull
+    public Future<ContentProviderResult> insert(Uri uri, ContentValues values) {
+        return enqueue(new Pending(Type.Insert, uri, values, null, null)).mResult;
+    }
+
+    /**
+     * Update a row by its URI.  The update is merged with any pending update to the same URI.
+     */
+    @NonNull
+    public Future<ContentProviderResult> update(Uri uri, ContentValues values) {
+        return update(uri, values, null, null);
+    }
+
+    /**
+     * Update the rows matching a selection.  Updates with a selection are never merged.
+     */
+    @NonNull
+    public Future<ContentProviderResult> update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return enqueue(new Pending(Type.Update, uri, values, selection, selectionArgs)).mResult;
+    }
+
+    @NonNull
+    public Future<ContentProviderResult> delete(Uri uri, String selection, String[] selectionArgs) {
+        return enqueue(new Pending(Type.Delete, uri, null, selection, selectionArgs)).mResult;
+    }
+
+    /**
+     * Flush the queue without waiting for a threshold
+     * @return A future that completes once every write queued before it has been applied or has failed
+     */
+    @NonNull
+    public Future<Void> barrier() {
+        return enqueue(new Pending(Type.Barrier, null, null, null, null)).mBarrier;
+    }
+
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * Apply every queued write and stop the background thread.  Writes queued while stopping are applied before the
+     * thread exits, and the thread is started again by the next write after that.
+     */
+    public void shutdown() {
+        Thread thread;
+        synchronized (mLock) {
+            if (!mRunning) {
+                return;
+            }
+            // The queue stays running until its thread exits, so no second thread can start while it applies
+            mStopping = true;
+            mLock.notifyAll();
+            thread = mThread;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Log.w(TAG, "Interrupted while waiting for queue to stop.", ie);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of writes queued, including those merged into an earlier update
+     */
+    public long getQueuedCount() {
+        return mQueued.get();
+    }
+
+    /**
+     * @return The number of updates merged into an earlier update
+     */
+    public long getMergedCount() {
+        return mMerged.get();
+    }
+
+    /**
+     * @return The number of operations applied to the provider
+     */
+    public long getAppliedCount() {
+        return mApplied.get();
+    }
+
+    /**
+     * @return The number of operations that failed or were not applied because an earlier one failed
+     */
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    public long getFlushCount() {
+        return mFlushes.get();
+    }
+
+    protected Pending enqueue(Pending pending) {
+        if (pending.mType != Type.Barrier && pending.mUri == null) {
+            throw new IllegalArgumentException("Uri must be provided");
+        }
+        mQueued.incrementAndGet();
+        synchronized (mLock) {
+            if (pending.mType == Type.Update && pending.mSelection == null) {
+                Pending existing = mMergeable.get(pending.mUri);
+                if (existing != null) {
+                    existing.mValues.putAll(pending.mValues);
+                    mMerged.incrementAndGet();
+                    return existing;
+                }
+                mMergeable.put(pending.mUri, pending);
+            } else {
+                // Anything else may touch the same rows, so later updates can't be moved in front of it
+                mMergeable.clear();
+            }
+            mPending.add(pending);
+            if (mPending.size() == 1) {
+                mOldestQueuedAt = System.nanoTime();
+            }
+            if (pending.mType == Type.Barrier) {
+                mFlushRequested = true;
+            }
+            if (!mRunning) {
+                start();
+            } else if (mPending.size() == 1 || mPending.size() >= mMaxPending || mFlushRequested) {
+                mLock.notifyAll();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Start the background thread.  Must be called while holding the lock.
+     */
+    protected void start() {
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override public void run() {
+                consume();
+            }
+        }, TAG+"-"+mAuthority);
+        mThread.setDaemon(true);
+        mThread.setPriority(Thread.NORM_PRIORITY - 1);
+        mThread.start();
+    }
+
+    protected void consume() {
+        try {
+            while (true) {
+                List<Pending> flush;
+                synchronized (mLock) {
+                    try {
+                        while (!mStopping && mPending.isEmpty()) {
+                            mLock.wait();
+                        }
+                        while (!mStopping && !mFlushRequested && mPending.size() < mMaxPending) {
+                            long remainingMs = mMaxDelayMs - (System.nanoTime() - mOldestQueuedAt) / 1000000;
+                            if (remainingMs <= 0) {
+                                break;
+                            }
+                            mLock.wait(remainingMs);
+                        }
+                    } catch (InterruptedException ie) {
+                        Log.w(TAG, "Interrupted while waiting for writes, flushing.", ie);
+                    }
+                    if (mPending.isEmpty()) {
+                        return;
+                    }
+                    flush = mPending;
+                    mPending = new ArrayList<Pending>();
+                    mMergeable.clear();
+                    mFlushRequested = false;
+                }
+                try {
+                    apply(flush);
+                } catch (Throwable t) {
+                    // Anything thrown past the batch would otherwise leave the flush waiting forever
+                    Log.e(TAG, "Could not apply "+flush.size()+" queued writes.", t);
+                    failUnfinished(flush, t);
+                }
+            }
+        } finally {
+            synchronized (mLock) {
+                mThread = null;
+                mRunning = false;
+                mStopping = false;
+                // Writes that arrived after the last flush was taken still need a thread
+                if (!mPending.isEmpty()) {
+                    start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply one flush of writes, completing their futures
+     */
+    protected void apply(List<Pending> flush) {
+        mFlushes.incrementAndGet();
+        List<Pending> writes = new ArrayList<Pending>(flush.size());
+        ContentProviderUtils.ChunkedBatch batch = createBatch();
+        final Exception[] failure = new Exception[1];
+        batch.setListener(new ContentProviderUtils.ChunkListener() {
+            @Override public void onChunkApplied(int offset, int count, long elapsedMillis, int attempts) {}
+            @Override public void onChunkFailed(int offset, int count, int attempts, Exception e) {
+                failure[0] = e;
+            }
+        });
+        ContentProviderResult[] results;
+        try {
+            for (Pending pending : flush) {
+                if (pending.mType != Type.Barrier) {
+                    batch.add(pending.newBuilder());
+                    writes.add(pending);
+                }
+            }
+            results = batch.apply();
+        } catch (Exception e) {
+            Log.e(TAG, "Could not apply "+writes.size()+" queued writes.", e);
+            failure[0] = e;
+            results = new ContentProviderResult[writes.size()];
+        }
+        int write = 0;
+        for (Pending pending : flush) {
+            if (pending.mType == Type.Barrier) {
+                pending.mBarrier.set(null);
+                continue;
+            }
+            ContentProviderResult result = write < results.length ? results[write] : null;
+            write++;
+            if (result != null) {
+                mApplied.incrementAndGet();
+                pending.mResult.set(result);
+            } else {
+                mFailed.incrementAndGet();
+                pending.mResult.fail(failure[0] != null ? failure[0] : new IllegalStateException("Write was not applied"));
+            }
+        }
+    }
+
+    /**
+     * Fail the writes of a flush that have not completed, releasing its barriers once they have
+     */
+    protected void failUnfinished(List<Pending> flush, Throwable failure) {
+        for (Pending pending : flush) {
+            if (pending.mType != Type.Barrier && !pending.mResult.isDone()) {
+                mFailed.incrementAndGet();
+                pending.mResult.fail(failure);
+            }
+        }
+        for (Pending pending : flush) {
+            if (pending.mType == Type.Barrier && !pending.mBarrier.isDone()) {
+                pending.mBarrier.set(null);
+            }
+        }
+    }
+
+    /**
+     * Create the batch that a flush is applied through
+     */
+    protected ContentProviderUtils.ChunkedBatch createBatch() {
+        return new ContentProviderUtils.ChunkedBatch(mContext, mAuthority).setChunkSize(mChunkSize);
+    }
+
+    private static final String TAG = WriteBehindQueue.class.getSimpleName();
+}
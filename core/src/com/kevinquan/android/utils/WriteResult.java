@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The future result of a write which is applied on another thread, completed once the write has been applied or has
+ * failed.  Shared by the writers in this package that hand out futures for their writes.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+class WriteResult<T> implements Future<T> {
+    protected final CountDownLatch mDone = new CountDownLatch(1);
+    protected T mValue;
+    protected Throwable mFailure;
+
+    protected void set(T value) {
+        mValue = value;
+        mDone.countDown();
+    }
+
+    protected void fail(Throwable failure) {
+        mFailure = failure;
+        mDone.countDown();
+    }
+
+    /**
+     * Writes cannot be cancelled once they have been handed off
+     */
+    @Override public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override public boolean isCancelled() {
+        return false;
+    }
+
+    @Override public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    @Override public T get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        return getValue();
+    }
+
+    @Override public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getValue();
+    }
+
+    protected T getValue() throws ExecutionException {
+        if (mFailure != null) {
+            throw new ExecutionException(mFailure);
+        }
+        return mValue;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.events;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.kevinquan.android.events.PrimitiveRingBuffer;
+import com.kevinquan.android.events.PrimitiveRingBuffer.OverflowPolicy;
+import com.kevinquan.android.events.PrimitiveRingBuffer.ProducerType;
+
+/**
+ * This class checks that a {@link PrimitiveRingBuffer} delivers every producer's records whole and in order while many
+ * threads publish at once, counts drops and overflows under each overflow policy, and releases a batch whose handler fails.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class PrimitiveRingBufferTestCase extends TestCase {
+
+    protected static final int FIELD_PRODUCER = 0;
+    protected static final int FIELD_SEQUENCE = 1;
+    protected static final int FIELD_CHECK = 2;
+    protected static final int RECORD_WIDTH = 3;
+
+    protected static final int PRODUCERS = 4;
+    protected static final int RECORDS_PER_PRODUCER = 20000;
+
+    /**
+     * Writes a producer and sequence pair, with a check field to detect records mixed from two publishes
+     */
+    protected static final PrimitiveRingBuffer.RecordWriter<long[]> WRITER = new PrimitiveRingBuffer.RecordWriter<long[]>() {
+        @Override public void write(long[] source, long[] data, int offset) {
+            data[offset + FIELD_PRODUCER] = source[FIELD_PRODUCER];
+            data[offset + FIELD_SEQUENCE] = source[FIELD_SEQUENCE];
+            data[offset + FIELD_CHECK] = check(source[FIELD_PRODUCER], source[FIELD_SEQUENCE]);
+        }
+    };
+
+    protected static long check(long producer, long sequence) {
+        return (producer * 1000003L) ^ ~sequence;
+    }
+
+    /**
+     * Checks that the records of each producer arrive whole and in the order they were published
+     */
+    protected static class OrderCheckingHandler implements PrimitiveRingBuffer.BatchHandler {
+        protected final long[] mLastSequence;
+        protected final boolean mExpectGaps;
+        protected int mReceived;
+        protected int mBatches;
+        protected int mLargestBatch;
+        protected String mError;
+
+        public OrderCheckingHandler(int producers, boolean expectGaps) {
+            mLastSequence = new long[producers];
+            Arrays.fill(mLastSequence, -1);
+            mExpectGaps = expectGaps;
+        }
+
+        @Override public void onBatchStart(int size) {
+            mBatches++;
+            mLargestBatch = Math.max(mLargestBatch, size);
+        }
+
+        @Override public void onRecord(long[] data, int offset) {
+            int producer = (int)data[offset + FIELD_PRODUCER];
+            long sequence = data[offset + FIELD_SEQUENCE];
+            mReceived++;
+            if (mError != null) {
+                return;
+            }
+            if (data[offset + FIELD_CHECK] != check(producer, sequence)) {
+                mError = "Record "+sequence+" of producer "+producer+" was torn";
+            } else if (mExpectGaps ? sequence <= mLastSequence[producer] : sequence != mLastSequence[producer] + 1) {
+                mError = "Producer "+producer+" published "+sequence+" after "+mLastSequence[producer];
+            }
+            mLastSequence[producer] = sequence;
+        }
+
+        @Override public void onBatchEnd(boolean successful) {
+            Assert.assertTrue(successful);
+        }
+    }
+
+    /**
+     * Publish from several threads while draining on this one until every producer has finished
+     * @return The number of records each producer published successfully
+     */
+    protected static int[] publishConcurrently(final PrimitiveRingBuffer buffer, PrimitiveRingBuffer.BatchHandler handler, int producers,
+            int maxBatch, final boolean slowConsumer) throws InterruptedException {
+        final int[] published = new int[producers];
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger(producers);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                        long[] record = new long[] {producer, 0};
+                        for (int i = 0; i < RECORDS_PER_PRODUCER; i++) {
+                            record[FIELD_SEQUENCE] = i;
+                            if (buffer.publish(record, WRITER)) {
+                                published[producer]++;
+                            }
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+        while (running.get() > 0) {
+            if (buffer.drain(handler, maxBatch) == 0 || slowConsumer) {
+                Thread.yield();
+            }
+        }
+        while (buffer.drain(handler, maxBatch) > 0);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return published;
+    }
+
+    protected static int sum(int[] values) {
+        int total = 0;
+        for (int value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    public void test_multiProducerWaitKeepsEveryRecordInOrder() throws Exception {
+        PrimitiveRingBuffer buffer = new PrimitiveRingBuffer(64, RECORD_WIDTH, ProducerType.Multi, OverflowPolicy.Wait, 10000);
+        OrderCheckingHandler handler = new OrderCheckingHandler(PRODUCERS, false);
+        int[] published = publishConcurrently(buffer, handler, PRODUCERS, 32, false);
+        Assert.assertNull(handler.mError, handler.mError);
+        Assert.assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, sum(published));
+        Assert.assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, handler.mReceived);
+        Assert.assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, buffer.getPublishedCount());
+        Assert.assertEquals(0, buffer.getDroppedCount());
+        Assert.assertEquals(0, buffer.size());
+        Assert.assertTrue("Batch was larger than requested.", handler.mLargestBatch <= 32);
+        for (long last : handler.mLastSequence) {
+            Assert.assertEquals(RECORDS_PER_PRODUCER - 1, last);
+        }
+    }
+
+    public void test_multiProducerWaitOverflowsWithoutDropping() throws Exception {
+        PrimitiveRingBuffer buffer = new PrimitiveRingBuffer(2, RECORD_WIDTH, ProducerType.Multi, OverflowPolicy.Wait, 10000);
+        OrderCheckingHandler handler = new OrderCheckingHandler(PRODUCERS, false);
+        publishConcurrently(buffer, handler, PRODUCERS, 1, true);
+        Assert.assertNull(handler.mError, handler.mError);
+        Assert.assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, handler.mReceived);
+        Assert.assertEquals(0, buffer.getDroppedCount());
+        Assert.assertTrue("Publishers never found the buffer full.", buffer.getOverflowCount() > 0);
+    }
+
+    public void test_multiProducerDropNewestCountsDrops() throws Exception {
+        PrimitiveRingBuffer buffer = new PrimitiveRingBuffer(16, RECORD_WIDTH, ProducerType.Multi, OverflowPolicy.DropNewest, 0);
+        OrderCheckingHandler handler = new OrderCheckingHandler(PRODUCERS, true);
+        int[] published = publishConcurrently(buffer, handler, PRODUCERS, 4, true);
+        Assert.assertNull(handler.mError, handler.mError);
+        Assert.assertEquals(sum(published), handler.mReceived);
+        Assert.assertEquals(handler.mReceived, buffer.getPublishedCount());
+        Assert.assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, handler.mReceived + buffer.getDroppedCount());
+        Assert.assertEquals("Each drop should be one overflow.", buffer.getDroppedCount(), buffer.getOverflowCount());
+        Assert.assertTrue("Nothing was dropped from a slow consumer.", buffer.getDroppedCount() > 0);
+    }
+
+    public void test_singleProducerKeepsOrder() throws Exception {
+        PrimitiveRingBuffer buffer = new PrimitiveRingBuffer(8, RECORD_WIDTH, ProducerType.Single, OverflowPolicy.Wait, 10000);
+        OrderCheckingHandler handler = new OrderCheckingHandler(1, false);
+        publishConcurrently(buffer, handler, 1, 4, false);
+        Assert.assertNull(handler.mError, handler.mError);
+        Assert.assertEquals(RECORDS_PER_PRODUCER, handler.mReceived);
+        Assert.assertEquals(0, buffer.getDroppedCount());
+    }
+
+    public void test_dropNewestWhenFull() {
+        PrimitiveRingBuffer buffer = new PrimitiveRingBuffer(3, RECORD_WIDTH);
+        Assert.assertEquals("Capacity was not rounded up to a power of two.", 4, buffer.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(buffer.publish(new long[] {0, i}, WRITER));
+        }
+        Assert.assertFalse(buffer.publish(new long[] {0, 4}, WRITER));
+        Assert.assertFalse(buffer.publish(new long[] {0, 5}, WRITER));
+        Assert.assertEquals(2, buffer.getDroppedCount());
+        Assert.assertEquals(2, buffer.getOverflowCount());
+        Assert.assertEquals(4, buffer.size());
+
+        OrderCheckingHandler handler = new OrderCheckingHandler(1, false);
+        Assert.assertEquals(4, buffer.drain(handler, 10));
+        Assert.assertNull(handler.mError, handler.mError);
+        Assert.assertTrue("Drained buffer did not accept a record.", buffer.publish(new long[] {0, 4}, WRITER));
+    }
+
+    public void test_waitTimesOut() {
+        PrimitiveRingBuffer buffer = new PrimitiveRingBuffer(2, RECORD_WIDTH, ProducerType.Single, OverflowPolicy.Wait, 20);
+        Assert.assertTrue(buffer.publish(new long[] {0, 0}, WRITER));
+        Assert.assertTrue(buffer.publish(new long[] {0, 1}, WRITER));
+        long start = System.currentTimeMillis();
+        Assert.assertFalse("Publish into a full buffer did not time out.", buffer.publish(new long[] {0, 2}, WRITER));
+        Assert.assertTrue("Publisher did not wait before dropping.", System.currentTimeMillis() - start >= 20);
+        Assert.assertEquals(1, buffer.getDroppedCount());
+        Assert.assertEquals(1, buffer.getOverflowCount());
+    }
+
+    public void test_failedHandlerReleasesBatch() {
+        PrimitiveRingBuffer buffer = new PrimitiveRingBuffer(4, RECORD_WIDTH);
+        for (int i = 0; i < 3; i++) {
+            buffer.publish(new long[] {0, i}, WRITER);
+        }
+        final AtomicLong ended = new AtomicLong(-1);
+        try {
+            buffer.drain(new PrimitiveRingBuffer.BatchHandler() {
+                @Override public void onBatchStart(int size) {}
+                @Override public void onRecord(long[] data, int offset) {
+                    if (data[offset + FIELD_SEQUENCE] == 1) {
+                        throw new IllegalStateException("Could not handle record");
+                    }
+                }
+                @Override public void onBatchEnd(boolean successful) {
+                    ended.set(successful ? 1 : 0);
+                }
+            }, 10);
+            Assert.fail("Handler failure was not propagated.");
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+        Assert.assertEquals("Failed batch was not ended unsuccessfully.", 0, ended.get());
+        Assert.assertEquals("Failed batch was not released.", 0, buffer.size());
+        Assert.assertEquals(0, buffer.drain(new OrderCheckingHandler(1, false), 10));
+    }
+}
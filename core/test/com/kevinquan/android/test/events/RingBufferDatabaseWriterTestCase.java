@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.events;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.kevinquan.android.events.PrimitiveRingBuffer;
+import com.kevinquan.android.events.RingBufferDatabaseWriter;
+
+/**
+ * This class checks that a {@link RingBufferDatabaseWriter} commits each drained batch, skips records that fail to insert,
+ * and rolls back a batch whose binder throws.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class RingBufferDatabaseWriterTestCase extends TestCase {
+
+    protected static final String TABLE = "events";
+
+    /**
+     * Inserts the single field of each record, throwing when asked to bind a negative value
+     */
+    protected static final RingBufferDatabaseWriter.RecordBinder BINDER = new RingBufferDatabaseWriter.RecordBinder() {
+        @Override public String getInsertStatement() {
+            return "INSERT INTO "+TABLE+" (value) VALUES (?)";
+        }
+
+        @Override public void bind(SQLiteStatement statement, long[] data, int offset) {
+            if (data[offset] < 0) {
+                throw new IllegalArgumentException("Negative value "+data[offset]);
+            }
+            statement.bindLong(1, data[offset]);
+        }
+    };
+
+    protected static final PrimitiveRingBuffer.RecordWriter<Long> WRITER = new PrimitiveRingBuffer.RecordWriter<Long>() {
+        @Override public void write(Long source, long[] data, int offset) {
+            data[offset] = source;
+        }
+    };
+
+    protected SQLiteDatabase mDatabase;
+    protected PrimitiveRingBuffer mBuffer;
+    protected RingBufferDatabaseWriter mWriter;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE "+TABLE+" (_id INTEGER PRIMARY KEY, value INTEGER UNIQUE)");
+        mBuffer = new PrimitiveRingBuffer(16, 1);
+        mWriter = new RingBufferDatabaseWriter(mBuffer, mDatabase, BINDER, 16, 1);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mWriter.stop();
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    protected long count() {
+        Cursor cursor = mDatabase.rawQuery("SELECT COUNT(*) FROM "+TABLE, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    protected void publish(long... values) {
+        for (long value : values) {
+            Assert.assertTrue(mBuffer.publish(value, WRITER));
+        }
+    }
+
+    public void test_batchesAreCommitted() {
+        publish(1, 2, 3);
+        mWriter.start();
+        mWriter.stop();
+        Assert.assertEquals(3, count());
+        Assert.assertEquals(3, mWriter.getWrittenCount());
+        Assert.assertEquals(0, mWriter.getFailedCount());
+        Assert.assertEquals(1, mWriter.getBatchCount());
+    }
+
+    public void test_failedInsertIsSkipped() {
+        publish(1, 1, 2);
+        mWriter.start();
+        mWriter.stop();
+        Assert.assertEquals(2, count());
+        Assert.assertEquals(2, mWriter.getWrittenCount());
+        Assert.assertEquals(1, mWriter.getFailedCount());
+        Assert.assertEquals(1, mWriter.getBatchCount());
+    }
+
+    public void test_failedBindRollsBackBatch() {
+        publish(1, 2, -1, 3);
+        mWriter.start();
+        mWriter.stop();
+        Assert.assertEquals("Batch with a failed record was committed.", 0, count());
+        Assert.assertEquals(0, mWriter.getWrittenCount());
+        Assert.assertEquals(4, mWriter.getFailedCount());
+        Assert.assertEquals(0, mWriter.getBatchCount());
+        Assert.assertEquals("Failed batch was not released.", 0, mBuffer.size());
+
+        publish(4);
+        mWriter.start();
+        mWriter.stop();
+        Assert.assertEquals(1, count());
+        Assert.assertEquals(1, mWriter.getWrittenCount());
+    }
+}
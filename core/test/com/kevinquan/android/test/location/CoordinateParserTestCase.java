@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.location;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.kevinquan.android.location.CoordinateParser;
+import com.kevinquan.android.location.LocationUtils;
+
+/**
+ * This class checks that the coordinate parser agrees exactly with {@link Double#parseDouble(String)} and keeps the
+ * {@link LocationUtils#NO_VALUE} semantics of {@link LocationUtils#parseLocationValueFromString(String)}.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class CoordinateParserTestCase extends TestCase {
+
+    protected static final int SAMPLES = 200000;
+
+    protected static String randomCoordinate(Random random) {
+        int decimals = random.nextInt(10);
+        double scale = Math.pow(10, decimals);
+        double value = Math.round((random.nextDouble() * 360 - 180) * scale) / scale;
+        return new BigDecimal(value).setScale(decimals, BigDecimal.ROUND_HALF_UP).toPlainString();
+    }
+
+    public void test_matchesParseDouble() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            String text = randomCoordinate(random);
+            Assert.assertEquals("Parsed value differs for "+text, Double.doubleToLongBits(Double.parseDouble(text)),
+                    Double.doubleToLongBits(CoordinateParser.parse(text)));
+        }
+        String[] values = {"0", "-0", "+1.5", "5.", ".5", " 43.6532 ", "000.000000001", "-179.999999999", "90",
+                "43.653226000000004", "12345678901234567890", "1e5", "-1.5E-3", "Infinity", "0.1234567890123456789012345"};
+        for (String text : values) {
+            Assert.assertEquals("Parsed value differs for "+text, Double.doubleToLongBits(Double.parseDouble(text)),
+                    Double.doubleToLongBits(CoordinateParser.parse(text)));
+        }
+    }
+
+    public void test_noValue() {
+        String[] values = {null, "", " ", ".", "-", "+.", "1.2.3", "abc", "4x2", "--1"};
+        for (String text : values) {
+            Assert.assertEquals("Invalid value was parsed: "+text, LocationUtils.NO_VALUE, LocationUtils.parseLocationValueFromString(text), 0);
+        }
+    }
+
+    public void test_ranges() {
+        char[] buffer = "lat=43.6532;lng=-79.3832".toCharArray();
+        Assert.assertEquals(43.6532, CoordinateParser.parse(buffer, 4, 7), 0);
+        Assert.assertEquals(-79.3832, CoordinateParser.parse(buffer, 16, 8), 0);
+        Assert.assertEquals(-79.3832, CoordinateParser.parse(new StringBuilder().append(buffer), 16, 8), 0);
+        Assert.assertEquals(LocationUtils.NO_VALUE, CoordinateParser.parse(buffer, 20, 8), 0);
+        Assert.assertEquals(LocationUtils.NO_VALUE, CoordinateParser.parse(buffer, 4, 0), 0);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.location;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.kevinquan.android.location.SimpleRecordedLocation;
+import com.kevinquan.android.location.SimpleRecordedLocationCodec;
+
+/**
+ * This class checks that the generated location codec reads the same JSON as the hand written conversion, and that
+ * locations survive a round trip through the codec.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class SimpleRecordedLocationCodecTestCase extends TestCase {
+
+    protected static final int LOCATIONS = 200;
+
+    protected SimpleRecordedLocation createLocation(int i) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(SimpleRecordedLocation.JSON_FIELD_LATITUDE, 43.6532 + i / 10000d);
+        json.put(SimpleRecordedLocation.JSON_FIELD_LONGITUDE, -79.3832 - i / 10000d);
+        json.put(SimpleRecordedLocation.JSON_FIELD_ACCURACY, 5 + i % 20);
+        json.put(SimpleRecordedLocation.JSON_FIELD_ALTITUDE, 76.5);
+        json.put(SimpleRecordedLocation.JSON_FIELD_BEARING, i % 360);
+        json.put(SimpleRecordedLocation.JSON_FIELD_SPEED, 1.5);
+        json.put(SimpleRecordedLocation.JSON_FIELD_RECORDED_AT, 1384347600000L + i * 1000L);
+        json.put(SimpleRecordedLocation.JSON_FIELD_PROVIDER_ID, SimpleRecordedLocation.LocationProviderType.GPS.getDbId());
+        return new SimpleRecordedLocation(json);
+    }
+
+    public void test_codecReadsHandWrittenJson() throws JSONException, IOException {
+        SimpleRecordedLocation location = createLocation(7);
+        String json = location.asJson(false).toString();
+        SimpleRecordedLocation decoded = SimpleRecordedLocationCodec.read(new JsonReader(new StringReader(json)));
+        Assert.assertEquals("Codec did not read hand written JSON.", location, decoded);
+
+        StringWriter output = new StringWriter();
+        SimpleRecordedLocationCodec.write(new JsonWriter(output), location);
+        Assert.assertEquals("Hand written conversion did not read codec JSON.", location, new SimpleRecordedLocation(new JSONObject(output.toString())));
+    }
+
+    public void test_codecRoundTrip() throws JSONException, IOException {
+        for (int i = 0; i < LOCATIONS; i++) {
+            SimpleRecordedLocation location = createLocation(i);
+            StringWriter output = new StringWriter();
+            SimpleRecordedLocationCodec.write(new JsonWriter(output), location);
+            Assert.assertEquals("Location changed in a round trip.", location, SimpleRecordedLocationCodec.read(new JsonReader(new StringReader(output.toString()))));
+        }
+    }
+}
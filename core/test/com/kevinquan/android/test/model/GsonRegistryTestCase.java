@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.model;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.kevinquan.android.model.BaseGsonModel;
+import com.kevinquan.android.model.GsonRegistry;
+
+/**
+ * This class checks that {@link GsonRegistry} and {@link BaseGsonModel} produce the same JSON as a new {@link Gson}
+ * instance, including after reconfiguration, nested conversions on one thread and conversions from several threads.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class GsonRegistryTestCase extends TestCase {
+
+    protected static class Child extends BaseGsonModel {
+        protected String mName;
+        protected double mWeight;
+        protected Child() {}
+        protected Child(String name, double weight) {
+            mName = name;
+            mWeight = weight;
+        }
+    }
+
+    protected static class Sample extends BaseGsonModel {
+        protected String mText;
+        protected String mMissing;
+        protected long mRecordedAt;
+        protected int mCount;
+        protected double mLatitude;
+        protected boolean mFlag;
+        protected Child mChild;
+        protected List<Child> mChildren;
+        protected Map<String, Integer> mCounts;
+        protected Sample() {}
+    }
+
+    protected static class Label {
+        protected Child mChild;
+        protected Label(Child child) {
+            mChild = child;
+        }
+    }
+
+    protected static class Labelled extends BaseGsonModel {
+        protected Label mLabel;
+        protected String mText;
+        protected Labelled() {}
+    }
+
+    /**
+     * Writes a label as the string form of its child, converting the child on the same thread in the middle of the outer
+     * conversion
+     */
+    protected static class LabelAdapter extends TypeAdapter<Label> {
+        @Override
+        public void write(JsonWriter out, Label value) throws IOException {
+            out.value(GsonRegistry.toJson(value.mChild));
+        }
+        @Override
+        public Label read(JsonReader in) throws IOException {
+            return new Label(GsonRegistry.read(new StringReader(in.nextString()), Child.class));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        GsonRegistry.configure(null);
+        super.tearDown();
+    }
+
+    protected static Sample createSample(int seed) {
+        Sample sample = new Sample();
+        sample.mText = "Quote \" html <b>&amp;</b> = ' unicode \u00e9 \u2028 seed "+seed;
+        sample.mRecordedAt = 1400000000000L + seed;
+        sample.mCount = seed;
+        sample.mLatitude = 43.6532123 + seed / 1000.0;
+        sample.mFlag = seed % 2 == 0;
+        sample.mChild = new Child("child "+seed, seed * 1.5);
+        sample.mChildren = new ArrayList<Child>();
+        for (int i = 0; i < seed % 4; i++) {
+            sample.mChildren.add(i == 1 ? null : new Child("item "+i, i));
+        }
+        sample.mCounts = new LinkedHashMap<String, Integer>();
+        sample.mCounts.put("a", seed);
+        sample.mCounts.put("b", null);
+        return sample;
+    }
+
+    public void test_matchesNewGson() {
+        Gson gson = new Gson();
+        for (int seed = 0; seed < 10; seed++) {
+            Sample sample = createSample(seed);
+            Assert.assertEquals(gson.toJson(sample), sample.toString());
+            Assert.assertEquals(gson.toJson(sample), GsonRegistry.toJson(sample));
+        }
+        Assert.assertEquals(gson.toJson(new Sample()), new Sample().toString());
+        Assert.assertEquals("null", GsonRegistry.toJson(null));
+        Assert.assertEquals(gson.toJson("text"), GsonRegistry.toJson("text"));
+        Assert.assertEquals(gson.toJson(Integer.valueOf(3)), GsonRegistry.toJson(Integer.valueOf(3)));
+    }
+
+    public void test_streamingRoundTrip() throws Exception {
+        Sample sample = createSample(3);
+        StringWriter writer = new StringWriter();
+        sample.writeTo(writer);
+        Assert.assertEquals(sample.toString(), writer.toString());
+
+        Sample read = BaseGsonModel.readFrom(new StringReader(writer.toString()), Sample.class);
+        Assert.assertEquals(sample.toString(), read.toString());
+        Assert.assertEquals(new Gson().fromJson(writer.toString(), Sample.class).toString(), read.toString());
+        Assert.assertNull(BaseGsonModel.readFrom(new StringReader("null"), Sample.class));
+    }
+
+    public void test_largeOutputDoesNotAffectLaterConversions() {
+        Gson gson = new Gson();
+        Sample large = createSample(2);
+        StringBuilder text = new StringBuilder();
+        while (text.length() <= GsonRegistry.MAX_POOLED_BUFFER * 2) {
+            text.append("large text ");
+        }
+        large.mText = text.toString();
+        Sample small = createSample(5);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(gson.toJson(large), large.toString());
+            Assert.assertEquals(gson.toJson(small), small.toString());
+        }
+    }
+
+    public void test_configureReplacesCachedAdapters() {
+        Sample sample = createSample(4);
+        Assert.assertEquals(new Gson().toJson(sample), sample.toString());
+
+        GsonBuilder builder = new GsonBuilder().serializeNulls().setPrettyPrinting();
+        GsonRegistry.configure(builder);
+        Assert.assertEquals(builder.create().toJson(sample), sample.toString());
+        Assert.assertTrue(sample.toString().contains("\"mMissing\": null"));
+
+        GsonRegistry.configure(null);
+        Assert.assertEquals(new Gson().toJson(sample), sample.toString());
+    }
+
+    public void test_nestedConversionOnOneThread() throws Exception {
+        GsonBuilder builder = new GsonBuilder().registerTypeAdapter(Label.class, new LabelAdapter());
+        GsonRegistry.configure(builder);
+        Labelled labelled = new Labelled();
+        labelled.mLabel = new Label(new Child("inner \"quoted\"", 2.5));
+        labelled.mText = "outer";
+
+        String json = labelled.toString();
+        Assert.assertEquals(builder.create().toJson(labelled), json);
+        Labelled read = BaseGsonModel.readFrom(new StringReader(json), Labelled.class);
+        Assert.assertEquals("inner \"quoted\"", read.mLabel.mChild.mName);
+        Assert.assertEquals(json, read.toString());
+    }
+
+    public void test_concurrentConversions() throws Exception {
+        final int threadCount = 4;
+        final int iterations = 500;
+        final Gson gson = new Gson();
+        final List<String> failures = new ArrayList<String>();
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < iterations; i++) {
+                        Sample sample = createSample(offset * iterations + i);
+                        String expected = gson.toJson(sample);
+                        String actual = sample.toString();
+                        if (!expected.equals(actual)) {
+                            synchronized (failures) {
+                                failures.add(actual);
+                            }
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue("Mismatched conversions: "+failures, failures.isEmpty());
+    }
+}
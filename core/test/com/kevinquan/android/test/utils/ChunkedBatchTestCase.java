@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.TransactionTooLargeException;
+
+import com.kevinquan.android.utils.ContentProviderUtils;
+
+/**
+ * This class checks that a {@link ContentProviderUtils.ChunkedBatch} keeps back-references working across chunks, splits
+ * chunks that are too large, places yield points and retries transient failures, using a provider that assigns ids in memory.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class ChunkedBatchTestCase extends TestCase {
+
+    protected static final Uri PARENT_URI = Uri.parse("content://test/parent");
+    protected static final Uri CHILD_URI = Uri.parse("content://test/child");
+    protected static final String COLUMN_PARENT_ID = "parent_id";
+
+    /**
+     * Applies inserts in memory, failing in the configured ways
+     */
+    protected static class MemoryBatch extends ContentProviderUtils.ChunkedBatch implements ContentProviderUtils.ChunkListener {
+        protected long mNextId = 1;
+        protected int mMaxOperations = Integer.MAX_VALUE;
+        protected int mTransientFailures;
+        protected int mFailAtChunk = -1;
+        protected boolean mDropResults;
+        protected int mChunks;
+        protected final List<ContentValues> mInserted = new ArrayList<ContentValues>();
+        protected final List<Integer> mYieldPoints = new ArrayList<Integer>();
+        protected final List<Integer> mAppliedSizes = new ArrayList<Integer>();
+        protected int mLastAttempts;
+        protected int mFailedOffset = -1;
+
+        public MemoryBatch() {
+            super(null, "test");
+            setListener(this);
+        }
+
+        @Override protected ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws Exception {
+            if (operations.size() > mMaxOperations) {
+                throw new TransactionTooLargeException();
+            }
+            if (mTransientFailures > 0) {
+                mTransientFailures--;
+                throw new RemoteException();
+            }
+            if (mChunks++ == mFailAtChunk) {
+                throw new OperationApplicationException("Constraint failed");
+            }
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (operation.isYieldAllowed()) {
+                    mYieldPoints.add(mInserted.size());
+                }
+                mInserted.add(operation.resolveValueBackReferences(results, i));
+                results[i] = new ContentProviderResult(Uri.withAppendedPath(operation.getUri(), String.valueOf(mNextId++)));
+            }
+            return mDropResults ? new ContentProviderResult[operations.size()] : results;
+        }
+
+        @Override public void onChunkApplied(int offset, int count, long elapsedMillis, int attempts) {
+            mAppliedSizes.add(count);
+            mLastAttempts = attempts;
+        }
+
+        @Override public void onChunkFailed(int offset, int count, int attempts, Exception e) {
+            mFailedOffset = offset;
+            mLastAttempts = attempts;
+        }
+    }
+
+    /**
+     * Add parents which each have children that refer to them
+     */
+    protected void addFamilies(ContentProviderUtils.ChunkedBatch batch, int families, int children) {
+        for (int family = 0; family < families; family++) {
+            int parent = batch.add(ContentProviderOperation.newInsert(PARENT_URI).withValue("name", "parent"+family));
+            for (int child = 0; child < children; child++) {
+                batch.add(ContentProviderOperation.newInsert(CHILD_URI).withValue("name", "child"+child), COLUMN_PARENT_ID, parent);
+            }
+        }
+    }
+
+    protected void assertChildrenReferToParents(MemoryBatch batch, ContentProviderResult[] results) {
+        long parentId = -1;
+        for (int i = 0; i < results.length; i++) {
+            Assert.assertNotNull("Operation "+i+" was not applied.", results[i]);
+            ContentValues values = batch.mInserted.get(i);
+            if (values.getAsString("name").startsWith("parent")) {
+                parentId = Long.parseLong(results[i].uri.getLastPathSegment());
+            } else {
+                Assert.assertEquals("Child "+i+" refers to the wrong parent.", Long.valueOf(parentId), values.getAsLong(COLUMN_PARENT_ID));
+            }
+        }
+    }
+
+    public void test_chunksKeepGroupsTogether() {
+        MemoryBatch batch = new MemoryBatch();
+        batch.setChunkSize(8).setYieldInterval(0);
+        addFamilies(batch, 10, 5);
+        ContentProviderResult[] results = batch.apply();
+        Assert.assertEquals("Not every operation was applied.", 60, batch.getAppliedCount());
+        for (int size : batch.mAppliedSizes) {
+            Assert.assertEquals("Chunk was not cut at a parent.", 6, size);
+        }
+        assertChildrenReferToParents(batch, results);
+    }
+
+    public void test_referencesAcrossChunksAreResolved() {
+        MemoryBatch batch = new MemoryBatch();
+        batch.setChunkSize(4);
+        // Every child refers to a parent in the first chunk
+        addFamilies(batch, 1, 20);
+        ContentProviderResult[] results = batch.apply();
+        Assert.assertEquals("Group larger than a chunk was not split.", 6, batch.mAppliedSizes.size());
+        assertChildrenReferToParents(batch, results);
+    }
+
+    public void test_largeChunksAreSplit() {
+        MemoryBatch batch = new MemoryBatch();
+        batch.mMaxOperations = 7;
+        batch.setChunkSize(40).setYieldInterval(0);
+        addFamilies(batch, 8, 4);
+        ContentProviderResult[] results = batch.apply();
+        Assert.assertEquals("Not every operation was applied.", 40, batch.getAppliedCount());
+        for (int size : batch.mAppliedSizes) {
+            Assert.assertTrue("Applied chunk was larger than the provider accepts.", size <= 7);
+        }
+        assertChildrenReferToParents(batch, results);
+    }
+
+    public void test_yieldPointsStartGroups() {
+        MemoryBatch batch = new MemoryBatch();
+        batch.setChunkSize(100).setYieldInterval(8);
+        addFamilies(batch, 10, 2);
+        batch.apply();
+        Assert.assertFalse("No yield points were set.", batch.mYieldPoints.isEmpty());
+        int last = 0;
+        for (int point : batch.mYieldPoints) {
+            Assert.assertEquals("Yield point was placed inside a group.", 0, point % 3);
+            Assert.assertTrue("Yield points are too close together.", point - last >= 8);
+            last = point;
+        }
+    }
+
+    public void test_retriesAndYieldPointsAreExclusive() {
+        MemoryBatch batch = new MemoryBatch();
+        Assert.assertEquals("Retries are not opt-in.", 0, ContentProviderUtils.ChunkedBatch.DEFAULT_MAX_RETRIES);
+        try {
+            batch.setYieldInterval(8).setRetries(1, 1);
+            Assert.fail("Retries were allowed with yield points.");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+        try {
+            batch.setYieldInterval(0).setRetries(1, 1).setYieldInterval(8);
+            Assert.fail("Yield points were allowed with retries.");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+
+        batch = new MemoryBatch();
+        batch.mTransientFailures = 1;
+        batch.setChunkSize(100).setYieldInterval(0).setRetries(1, 1);
+        addFamilies(batch, 10, 2);
+        ContentProviderResult[] results = batch.apply();
+        Assert.assertTrue("Yield points were placed in a chunk that could be retried.", batch.mYieldPoints.isEmpty());
+        Assert.assertEquals("Chunk was not retried.", 2, batch.mLastAttempts);
+        Assert.assertEquals("Retried chunk applied operations twice.", 30, batch.mInserted.size());
+        assertChildrenReferToParents(batch, results);
+    }
+
+    public void test_transientFailuresAreRetried() {
+        MemoryBatch batch = new MemoryBatch();
+        batch.mTransientFailures = 2;
+        batch.setYieldInterval(0).setRetries(3, 1);
+        addFamilies(batch, 2, 2);
+        ContentProviderResult[] results = batch.apply();
+        Assert.assertEquals("Chunk was not retried until it succeeded.", 3, batch.mLastAttempts);
+        assertChildrenReferToParents(batch, results);
+
+        batch = new MemoryBatch();
+        batch.mTransientFailures = 5;
+        batch.setYieldInterval(0).setRetries(1, 1);
+        addFamilies(batch, 2, 2);
+        results = batch.apply();
+        Assert.assertEquals("Failed chunk was reported after the wrong number of attempts.", 2, batch.mLastAttempts);
+        Assert.assertEquals("Operations were reported as applied.", 0, batch.getAppliedCount());
+        Assert.assertNull("Failed operation has a result.", results[0]);
+    }
+
+    public void test_permanentFailureStopsBatch() {
+        MemoryBatch batch = new MemoryBatch();
+        batch.mFailAtChunk = 1;
+        batch.setChunkSize(3);
+        addFamilies(batch, 4, 2);
+        ContentProviderResult[] results = batch.apply();
+        Assert.assertEquals("Failure was not reported for the second chunk.", 3, batch.mFailedOffset);
+        Assert.assertEquals("Failure was retried.", 1, batch.mLastAttempts);
+        Assert.assertEquals("Only the first chunk should be applied.", 3, batch.getAppliedCount());
+        Assert.assertNotNull("First chunk has no results.", results[2]);
+        for (int i = 3; i < results.length; i++) {
+            Assert.assertNull("Operation after the failure has a result.", results[i]);
+        }
+    }
+
+    public void test_missingResultsFailTheChunk() {
+        MemoryBatch batch = new MemoryBatch();
+        batch.mDropResults = true;
+        batch.setChunkSize(4);
+        addFamilies(batch, 1, 6);
+        ContentProviderResult[] results = batch.apply();
+        Assert.assertEquals("Chunk referring to a missing result did not fail.", 4, batch.mFailedOffset);
+        Assert.assertEquals("Only the first chunk should be applied.", 4, batch.getAppliedCount());
+        Assert.assertNull("Failed operation has a result.", results[4]);
+    }
+
+    public void test_invalidBackReferencesAreRejected() {
+        MemoryBatch batch = new MemoryBatch();
+        int first = batch.add(ContentProviderOperation.newInsert(PARENT_URI));
+        try {
+            batch.addBackReference(first, COLUMN_PARENT_ID, first);
+            Assert.fail("Operation was allowed to refer to itself.");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+    }
+}
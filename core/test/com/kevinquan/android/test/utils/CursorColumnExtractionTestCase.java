@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.kevinquan.android.utils.CursorUtils;
+
+/**
+ * This class checks that the bulk column extractors copy the same values as the safeGet* methods.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class CursorColumnExtractionTestCase extends TestCase {
+
+    protected static final int EXTRA_COLUMNS = 30;
+
+    /**
+     * Build a cursor with the time, value and count columns after many unrelated columns
+     */
+    protected MatrixCursor createCursor(int rows) {
+        String[] columns = new String[EXTRA_COLUMNS + 3];
+        for (int i = 0; i < EXTRA_COLUMNS; i++) {
+            columns[i] = "extra"+i;
+        }
+        columns[EXTRA_COLUMNS] = "time";
+        columns[EXTRA_COLUMNS + 1] = "value";
+        columns[EXTRA_COLUMNS + 2] = "count";
+        MatrixCursor cursor = new MatrixCursor(columns, rows);
+        for (int row = 0; row < rows; row++) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < EXTRA_COLUMNS; i++) {
+                values[i] = i;
+            }
+            values[EXTRA_COLUMNS] = 1400000000000L + row;
+            values[EXTRA_COLUMNS + 1] = row / 4.0;
+            values[EXTRA_COLUMNS + 2] = row % 7 == 0 ? null : Integer.valueOf(row % 7);
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    public void test_valuesMatchSafeGetters() {
+        MatrixCursor cursor = createCursor(100);
+        CursorUtils.LongColumn times = new CursorUtils.LongColumn("time", -1);
+        CursorUtils.DoubleColumn values = new CursorUtils.DoubleColumn("value", -1);
+        CursorUtils.IntColumn counts = new CursorUtils.IntColumn("count", -1);
+        CursorUtils.IntColumn missing = new CursorUtils.IntColumn("missing", -1);
+        Assert.assertEquals("Not every row was copied.", 100, CursorUtils.extractColumns(cursor, null, times, values, counts, missing));
+        Assert.assertFalse("Missing column was reported as present.", missing.isPresent());
+        int row = 0;
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext(), row++) {
+            Assert.assertEquals("Time differs at "+row, CursorUtils.safeGetLong(cursor, "time", -1), times.get(row));
+            Assert.assertEquals("Value differs at "+row, CursorUtils.safeGetDouble(cursor, "value", -1), values.get(row), 0);
+            Assert.assertEquals("Count differs at "+row, CursorUtils.safeGetInt(cursor, "count", -1), counts.get(row));
+            Assert.assertEquals("Missing column did not use the default at "+row, -1, missing.get(row));
+        }
+        Assert.assertEquals("Copy of the values has the wrong length.", 100, times.getValues().length);
+        Assert.assertTrue("Single column extraction differs.",
+                Arrays.equals(times.getValues(), CursorUtils.extractLongs(cursor, "time")));
+    }
+
+    public void test_filterAndGrowth() {
+        MatrixCursor cursor = createCursor(1000);
+        CursorUtils.RowFilter evenRows = new CursorUtils.RowFilter() {
+            @Override public boolean accept(Cursor row) {
+                return row.getPosition() % 2 == 0;
+            }
+        };
+        CursorUtils.LongColumn times = new CursorUtils.LongColumn("time", 0);
+        Assert.assertEquals("Filtered row count is wrong.", 500, CursorUtils.extractColumns(cursor, evenRows, times));
+        Assert.assertEquals("Column size does not match the row count.", 500, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            Assert.assertEquals("Filtered value is wrong at "+i, 1400000000000L + i * 2, times.get(i));
+        }
+        Assert.assertTrue("Buffer did not grow to hold the rows.", times.getBuffer().length >= 500);
+
+        // Reusing the column for a smaller cursor keeps the buffer
+        long[] buffer = times.getBuffer();
+        Assert.assertEquals("Reused column row count is wrong.", 10, CursorUtils.extractColumns(createCursor(10), null, times));
+        Assert.assertSame("Buffer was reallocated for a smaller cursor.", buffer, times.getBuffer());
+        Assert.assertEquals("Reused column size is wrong.", 10, times.getValues().length);
+    }
+
+    public void test_positionIsRestored() {
+        MatrixCursor cursor = createCursor(20);
+        Assert.assertTrue("Cursor could not be moved.", cursor.moveToPosition(7));
+        CursorUtils.extractDoubles(cursor, "value");
+        Assert.assertEquals("Cursor position was not restored.", 7, cursor.getPosition());
+        Assert.assertEquals("Empty cursor produced values.", 0, CursorUtils.extractInts(createCursor(0), "count").length);
+        Assert.assertEquals("Null cursor produced values.", 0, CursorUtils.extractLongs(null, "time").length);
+    }
+
+    public void test_columnsCanBeReused() {
+        CursorUtils.LongColumn times = new CursorUtils.LongColumn("time", 0);
+        CursorUtils.DoubleColumn values = new CursorUtils.DoubleColumn("value", 0);
+        Assert.assertEquals(100, CursorUtils.extractColumns(createCursor(100), null, times, values));
+        MatrixCursor cursor = createCursor(10);
+        Assert.assertEquals(10, CursorUtils.extractColumns(cursor, null, times, values));
+        Assert.assertEquals("Values from the earlier extraction were kept.", 10, times.size());
+        Assert.assertEquals(10, times.getValues().length);
+        int row = 0;
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext(), row++) {
+            Assert.assertEquals(CursorUtils.safeGetLong(cursor, "time", 0), times.get(row));
+            Assert.assertEquals(CursorUtils.safeGetDouble(cursor, "value", 0), values.get(row), 0);
+        }
+    }
+}
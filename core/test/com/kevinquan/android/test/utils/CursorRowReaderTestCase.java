@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.CharArrayBuffer;
+import android.database.MatrixCursor;
+
+import com.kevinquan.android.location.SimpleRecordedLocation;
+import com.kevinquan.android.utils.CursorUtils;
+
+/**
+ * This class checks that a {@link CursorUtils.RowReader} reads the same values as the safeGet* methods, including on a wide
+ * cursor with the columns it reads at the end.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class CursorRowReaderTestCase extends TestCase {
+
+    protected static final int EXTRA_COLUMNS = 60;
+
+    protected static final String[] LOCATION_COLUMNS = {
+        SimpleRecordedLocation.COLUMN_LATITUDE, SimpleRecordedLocation.COLUMN_LONGITUDE, SimpleRecordedLocation.COLUMN_ACCURACY,
+        SimpleRecordedLocation.COLUMN_ALTITUDE, SimpleRecordedLocation.COLUMN_BEARING, SimpleRecordedLocation.COLUMN_SPEED,
+        SimpleRecordedLocation.COLUMN_RECORDED_AT, SimpleRecordedLocation.COLUMN_PROVIDER_ID,
+    };
+
+    /**
+     * Build a cursor with the location columns at the end of many unrelated columns
+     */
+    protected MatrixCursor createWideCursor(int rows) {
+        String[] columns = new String[EXTRA_COLUMNS + LOCATION_COLUMNS.length];
+        for (int i = 0; i < EXTRA_COLUMNS; i++) {
+            columns[i] = "extra"+i;
+        }
+        System.arraycopy(LOCATION_COLUMNS, 0, columns, EXTRA_COLUMNS, LOCATION_COLUMNS.length);
+        MatrixCursor cursor = new MatrixCursor(columns, rows);
+        for (int row = 0; row < rows; row++) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < EXTRA_COLUMNS; i++) {
+                values[i] = i;
+            }
+            values[EXTRA_COLUMNS] = String.valueOf(43.6 + row / 10000.0);
+            values[EXTRA_COLUMNS + 1] = String.valueOf(-79.4 - row / 10000.0);
+            values[EXTRA_COLUMNS + 2] = 5.5f;
+            values[EXTRA_COLUMNS + 3] = 100.25;
+            values[EXTRA_COLUMNS + 4] = (float)(row % 360);
+            values[EXTRA_COLUMNS + 5] = 1.5f;
+            values[EXTRA_COLUMNS + 6] = 1400000000000L + row;
+            values[EXTRA_COLUMNS + 7] = row % 3;
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    public void test_valuesMatchSafeGetters() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"text", "number", "nothing", "flag"});
+        cursor.addRow(new Object[] {"12.5", 7L, null, CursorUtils.VALUE_TRUE});
+        Assert.assertTrue("Cursor could not be moved to the first row.", cursor.moveToFirst());
+        String[] columns = {"text", "number", "nothing", "flag", "missing"};
+        CursorUtils.RowReader reader = new CursorUtils.RowReader(columns).bind(cursor);
+        for (int slot = 0; slot < columns.length; slot++) {
+            String column = columns[slot];
+            Assert.assertEquals("Presence differs for "+column, cursor.getColumnIndex(column) != -1, reader.hasColumn(slot));
+            Assert.assertEquals("String differs for "+column, CursorUtils.safeGetString(cursor, column), reader.getString(slot));
+            Assert.assertEquals("Long differs for "+column, CursorUtils.safeGetLong(cursor, column, -1), reader.getLong(slot, -1));
+            Assert.assertEquals("Int differs for "+column, CursorUtils.safeGetInt(cursor, column, -1), reader.getInt(slot, -1));
+            Assert.assertEquals("Double differs for "+column, CursorUtils.safeGetDouble(cursor, column, -1), reader.getDouble(slot, -1), 0);
+            Assert.assertEquals("Float differs for "+column, CursorUtils.safeGetFloat(cursor, column, -1), reader.getFloat(slot, -1), 0);
+        }
+        Assert.assertTrue("Int backed boolean was not read.", reader.getIntBackedBoolean(3, false));
+        Assert.assertTrue("Null value was not detected.", reader.isNull(2));
+        Assert.assertTrue("Missing column was not treated as null.", reader.isNull(4));
+        Assert.assertNull("Missing column returned characters.", reader.getChars(4));
+        CharArrayBuffer chars = reader.getChars(0);
+        Assert.assertEquals("Characters were not copied.", "12.5", new String(chars.data, 0, chars.sizeCopied));
+    }
+
+    public void test_bindResolvesEachCursor() {
+        MatrixCursor first = new MatrixCursor(new String[] {"a", "b"});
+        first.addRow(new Object[] {1, 2});
+        MatrixCursor second = new MatrixCursor(new String[] {"b", "a"});
+        second.addRow(new Object[] {3, 4});
+        first.moveToFirst();
+        second.moveToFirst();
+        CursorUtils.RowReader reader = new CursorUtils.RowReader("a", "b");
+        Assert.assertEquals("First cursor was read incorrectly.", 1, reader.bind(first).getInt(0, -1));
+        Assert.assertEquals("Second cursor was read incorrectly.", 4, reader.bind(second).getInt(0, -1));
+        Assert.assertEquals("Unbound reader did not return the default.", -1, reader.bind(null).getInt(0, -1));
+    }
+
+    public void test_locationsMatchSafeGetters() {
+        MatrixCursor cursor = createWideCursor(20);
+        Assert.assertTrue("Cursor could not be moved to the first row.", cursor.moveToFirst());
+        CursorUtils.RowReader reader = SimpleRecordedLocation.newRowReader(cursor);
+        do {
+            SimpleRecordedLocation location = new SimpleRecordedLocation(reader);
+            Assert.assertEquals("Latitude differs.", Double.parseDouble(CursorUtils.safeGetString(cursor, SimpleRecordedLocation.COLUMN_LATITUDE)), location.getLatitude(), 0);
+            Assert.assertEquals("Longitude differs.", Double.parseDouble(CursorUtils.safeGetString(cursor, SimpleRecordedLocation.COLUMN_LONGITUDE)), location.getLongitude(), 0);
+            Assert.assertEquals("Accuracy differs.", CursorUtils.safeGetFloat(cursor, SimpleRecordedLocation.COLUMN_ACCURACY, 0), location.getAccuracy(), 0);
+            Assert.assertEquals("Altitude differs.", CursorUtils.safeGetDouble(cursor, SimpleRecordedLocation.COLUMN_ALTITUDE, 0), location.getAltitude(), 0);
+            Assert.assertEquals("Bearing differs.", CursorUtils.safeGetFloat(cursor, SimpleRecordedLocation.COLUMN_BEARING, 0), location.getBearing(), 0);
+            Assert.assertEquals("Speed differs.", CursorUtils.safeGetFloat(cursor, SimpleRecordedLocation.COLUMN_SPEED, 0), location.getSpeed(), 0);
+            Assert.assertEquals("Time differs.", CursorUtils.safeGetLong(cursor, SimpleRecordedLocation.COLUMN_RECORDED_AT, 0), location.getRecordedAt());
+            Assert.assertEquals("Provider differs.", SimpleRecordedLocation.LocationProviderType.fromDbId(
+                    CursorUtils.safeGetInt(cursor, SimpleRecordedLocation.COLUMN_PROVIDER_ID, 0)), location.getProvider());
+        } while (cursor.moveToNext());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.DatabaseInstrumentation;
+import com.kevinquan.android.utils.DatabaseInstrumentation.QueryStats;
+import com.kevinquan.android.utils.DatabaseInstrumentation.SlowQuery;
+
+/**
+ * This class checks what the database instrumentation records against an in-memory database.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class DatabaseInstrumentationTestCase extends TestCase {
+
+    protected static final String QUERY = "SELECT * FROM locations WHERE provider = ";
+
+    protected SQLiteDatabase mDatabase;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        DatabaseInstrumentation.reset();
+        DatabaseInstrumentation.setSlowQueryThresholdMillis(DatabaseInstrumentation.DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS);
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE locations (_id INTEGER PRIMARY KEY, recordedAt INTEGER, provider INTEGER)");
+        for (int i = 0; i < 10; i++) {
+            mDatabase.execSQL("INSERT INTO locations (recordedAt, provider) VALUES ("+i+", "+(i % 2)+")");
+        }
+    }
+
+    @Override protected void tearDown() throws Exception {
+        DatabaseInstrumentation.setEnabled(false);
+        DatabaseInstrumentation.reset();
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void test_signatures() {
+        Assert.assertEquals("Literals were not removed.", "query SELECT * FROM t2 WHERE a = ? AND b = ? AND c IN (?, ?)",
+                DatabaseInstrumentation.signatureOf("query", "SELECT *  FROM t2\n WHERE a = 5 AND b = 'it''s' AND c IN (1.5, 2)"));
+        Assert.assertEquals("Uri ids were not removed.", "query content://com.example/locations/?",
+                DatabaseInstrumentation.signatureOf("query", "content://com.example/locations/42"));
+    }
+
+    public void test_disabledRecordsNothing() {
+        Assert.assertEquals("Disabled start was timed.", DatabaseInstrumentation.DISABLED, DatabaseInstrumentation.start());
+        Cursor result = DatabaseInstrumentation.rawQuery(mDatabase, QUERY+"1", null);
+        Assert.assertEquals("Query returned the wrong rows.", 5, result.getCount());
+        CursorUtils.safeClose(result);
+        Assert.assertTrue("Disabled query was recorded.", DatabaseInstrumentation.getAllStats().isEmpty());
+    }
+
+    public void test_queriesAreGroupedBySignature() {
+        DatabaseInstrumentation.setEnabled(true);
+        Cursor first = DatabaseInstrumentation.rawQuery(mDatabase, QUERY+"0", null);
+        Cursor second = DatabaseInstrumentation.rawQuery(mDatabase, QUERY+"1", null);
+        QueryStats stats = DatabaseInstrumentation.getStats("query", QUERY+"0");
+        Assert.assertNotNull("Query was not recorded.", stats);
+        Assert.assertEquals("Queries were not grouped.", 2, stats.getCount());
+        Assert.assertEquals("Rows were not counted.", 10, stats.getRows());
+        Assert.assertEquals("Open cursors were not counted.", 2, stats.getOpenCursors());
+        CursorUtils.safeClose(first);
+        CursorUtils.safeClose(second);
+        CursorUtils.safeClose(second);
+        Assert.assertEquals("Closed cursors were not counted.", 0, stats.getOpenCursors());
+        Assert.assertEquals("Cursor lifetimes were not recorded.", 2, stats.getCursorLifetime().getCount());
+
+        ContentValues values = new ContentValues();
+        values.put("recordedAt", 100L);
+        Assert.assertTrue("Insert failed.", DatabaseInstrumentation.insert(mDatabase, "locations", null, values) > 0);
+        Assert.assertEquals("Update did not change rows.", 11, DatabaseInstrumentation.update(mDatabase, "locations", values, null, null));
+        Assert.assertEquals("Insert was not recorded.", 1, DatabaseInstrumentation.getStats("insert", "locations").getRows());
+        Assert.assertEquals("Update was not recorded.", 11, DatabaseInstrumentation.getStats("update", "locations").getRows());
+    }
+
+    public void test_slowQueryLog() {
+        DatabaseInstrumentation.setEnabled(true);
+        DatabaseInstrumentation.setSlowQueryThresholdMillis(0);
+        for (int i = 0; i < DatabaseInstrumentation.MAX_SLOW_QUERIES + 5; i++) {
+            CursorUtils.safeClose(DatabaseInstrumentation.rawQuery(mDatabase, QUERY+i, null));
+        }
+        List<SlowQuery> slow = DatabaseInstrumentation.getSlowQueries();
+        Assert.assertEquals("Slow query log was not bounded.", DatabaseInstrumentation.MAX_SLOW_QUERIES, slow.size());
+        Assert.assertEquals("Oldest slow query was not dropped.", "query "+QUERY+"5", slow.get(0).getStatement());
+        Assert.assertEquals("Newest slow query is missing.", "query "+QUERY+(DatabaseInstrumentation.MAX_SLOW_QUERIES + 4), 
+                slow.get(slow.size() - 1).getStatement());
+        Assert.assertEquals("Slow queries were not counted.", DatabaseInstrumentation.MAX_SLOW_QUERIES + 5, 
+                DatabaseInstrumentation.getStats("query", QUERY+"0").getSlowCount());
+    }
+
+    public void test_leakedCursorsAreDetected() throws InterruptedException {
+        DatabaseInstrumentation.setEnabled(true);
+        openAndForget();
+        QueryStats stats = DatabaseInstrumentation.getStats("query", QUERY+"0");
+        for (int attempt = 0; attempt < 20 && stats.getLeakedCursors() == 0; attempt++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("Leaked cursor was not detected.", 1, stats.getLeakedCursors());
+        Assert.assertEquals("Leaked cursor is still counted as open.", 0, stats.getOpenCursors());
+    }
+
+    protected void openAndForget() {
+        DatabaseInstrumentation.rawQuery(mDatabase, QUERY+"0", null).moveToFirst();
+    }
+
+    public void test_histogram() {
+        DatabaseInstrumentation.Histogram histogram = new DatabaseInstrumentation.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.add(i * 1000000L);
+        }
+        Assert.assertEquals("Max was not kept.", 100000000L, histogram.getMaxNanos());
+        Assert.assertEquals("Mean is wrong.", 50500000L, histogram.getMeanNanos());
+        long median = histogram.getPercentileNanos(50);
+        Assert.assertTrue("Median is out of its bucket: "+median, median >= 50000000L && median <= 2 * 50000000L);
+        Assert.assertEquals("Top percentile should be the max.", 100000000L, histogram.getPercentileNanos(100));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.kevinquan.android.utils.DoubleFormatter;
+
+/**
+ * This class checks that formatted doubles and floats parse back to the same value, and that values with few decimals are
+ * written with no more digits than needed.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class DoubleFormatterTestCase extends TestCase {
+
+    protected static final int SAMPLES = 200000;
+
+    protected void assertRoundTrips(DoubleFormatter formatter, double value) {
+        formatter.format(value);
+        String text = formatter.toString();
+        Assert.assertEquals("Formatted value did not round trip: "+text, Double.doubleToLongBits(value), Double.doubleToLongBits(Double.parseDouble(text)));
+    }
+
+    protected void assertRoundTrips(DoubleFormatter formatter, float value) {
+        formatter.format(value);
+        String text = formatter.toString();
+        Assert.assertEquals("Formatted float did not round trip: "+text, Float.floatToIntBits(value), Float.floatToIntBits(Float.parseFloat(text)));
+        Assert.assertEquals("Formatted float did not round trip through a double: "+text, Float.floatToIntBits(value), Float.floatToIntBits((float)Double.parseDouble(text)));
+    }
+
+    public void test_specialValues() {
+        DoubleFormatter formatter = new DoubleFormatter();
+        double[] values = {0, -0d, 1, -1, 0.1, 0.5, 100, 1e-7, 1e15, 1e22, 1e23, 123456789012345678d, 9007199254740992d,
+                Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL, 0.1 + 0.2, 43.6532, -79.3832};
+        for (double value : values) {
+            assertRoundTrips(formatter, value);
+            assertRoundTrips(formatter, -value);
+        }
+        Assert.assertEquals("0", DoubleFormatter.toString(0d));
+        Assert.assertEquals("-0", DoubleFormatter.toString(-0d));
+        Assert.assertEquals("12", DoubleFormatter.toString(12d));
+        Assert.assertEquals("43.6532", DoubleFormatter.toString(43.6532));
+        Assert.assertEquals("-0.0001", DoubleFormatter.toString(-0.0001));
+        Assert.assertEquals("NaN", DoubleFormatter.toString(Double.NaN));
+        Assert.assertEquals("-Infinity", DoubleFormatter.toString(Double.NEGATIVE_INFINITY));
+        Assert.assertEquals("5.3", DoubleFormatter.toString(5.3f));
+    }
+
+    public void test_randomDoublesRoundTrip() {
+        DoubleFormatter formatter = new DoubleFormatter();
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(value)) {
+                assertRoundTrips(formatter, value);
+            }
+            assertRoundTrips(formatter, random.nextDouble() * 1000);
+        }
+    }
+
+    public void test_randomFloatsRoundTrip() {
+        DoubleFormatter formatter = new DoubleFormatter();
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            float value = Float.intBitsToFloat(random.nextInt());
+            if (!Float.isNaN(value)) {
+                assertRoundTrips(formatter, value);
+            }
+            assertRoundTrips(formatter, random.nextFloat() * 100);
+        }
+    }
+
+    public void test_coordinatesAreShortest() {
+        DoubleFormatter formatter = new DoubleFormatter();
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            int decimals = 1 + random.nextInt(9);
+            double scale = Math.pow(10, decimals);
+            double value = Math.round((random.nextDouble() * 360 - 180) * scale) / scale;
+            formatter.format(value);
+            String text = formatter.toString();
+            int point = text.indexOf('.');
+            int written = point == -1 ? 0 : text.length() - point - 1;
+            Assert.assertTrue("Too many decimals for "+value+": "+text, written <= decimals);
+            Assert.assertEquals("Coordinate did not round trip: "+text, value, Double.parseDouble(text), 0);
+        }
+    }
+
+    public void test_fixedPrecision() {
+        DoubleFormatter formatter = new DoubleFormatter();
+        Assert.assertEquals("43.6532000", DoubleFormatter.toString(43.6532, 7));
+        Assert.assertEquals("-79.3832123", DoubleFormatter.toString(-79.38321234, 7));
+        Assert.assertEquals("0.0000000", DoubleFormatter.toString(-0.00000001, 7));
+        Assert.assertEquals("3", DoubleFormatter.toString(2.5, 0));
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            double value = random.nextDouble() * 360 - 180;
+            formatter.format(value, 7);
+            String text = formatter.toString();
+            Assert.assertEquals("Wrong number of decimals: "+text, 7, text.length() - text.indexOf('.') - 1);
+            Assert.assertEquals("Value was not rounded to 7 decimals: "+text, value, Double.parseDouble(text), 0.5000001e-7);
+        }
+        // Values too large for the fast path
+        Assert.assertEquals(new BigDecimal(1e20).setScale(2).toPlainString(), DoubleFormatter.toString(1e20, 2));
+    }
+}
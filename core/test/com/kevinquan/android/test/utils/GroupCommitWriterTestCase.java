@@ -0,0 +1,321 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kevinquan.android.utils.GroupCommitWriter;
+
+/**
+ * This class checks that a {@link GroupCommitWriter} commits writes from many threads in shared transactions, isolates a
+ * failing write from the rest of its batch, commits early when flushed, and keeps one writer thread through a shutdown.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class GroupCommitWriterTestCase extends TestCase {
+
+    protected static final String TABLE = "events";
+    protected static final int THREADS = 4;
+    protected static final int WRITES_PER_THREAD = 250;
+
+    protected SQLiteDatabase mDatabase;
+    protected GroupCommitWriter mWriter;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        createTable(mDatabase);
+        mWriter = new GroupCommitWriter(mDatabase);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mWriter.shutdown();
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    protected static void createTable(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE "+TABLE+" (_id INTEGER PRIMARY KEY, source INTEGER, value INTEGER)");
+    }
+
+    protected static ContentValues newEvent(int source, int value) {
+        ContentValues values = new ContentValues();
+        values.put("source", source);
+        values.put("value", value);
+        return values;
+    }
+
+    protected static long count(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM "+TABLE, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Insert rows through the writer from several threads at once
+     */
+    protected static void insertConcurrently(final GroupCommitWriter writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<Long>>> tasks = new ArrayList<Future<List<Long>>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int source = t;
+                tasks.add(executor.submit(new Callable<List<Long>>() {
+                    @Override public List<Long> call() throws Exception {
+                        List<Future<Long>> inserts = new ArrayList<Future<Long>>();
+                        List<Long> ids = new ArrayList<Long>();
+                        for (int i = 0; i < WRITES_PER_THREAD; i++) {
+                            inserts.add(writer.insert(TABLE, newEvent(source, i)));
+                        }
+                        for (Future<Long> insert : inserts) {
+                            ids.add(insert.get(10, TimeUnit.SECONDS));
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            Set<Long> ids = new HashSet<Long>();
+            for (Future<List<Long>> task : tasks) {
+                ids.addAll(task.get());
+            }
+            Assert.assertEquals(THREADS * WRITES_PER_THREAD, ids.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void test_concurrentWritesShareTransactions() throws Exception {
+        insertConcurrently(mWriter);
+        Assert.assertEquals(THREADS * WRITES_PER_THREAD, count(mDatabase));
+        Assert.assertEquals(THREADS * WRITES_PER_THREAD, mWriter.getCommittedCount());
+        Assert.assertEquals(0, mWriter.getFailedCount());
+        Assert.assertTrue(mWriter.getBatchCount() < THREADS * WRITES_PER_THREAD / 4);
+        Assert.assertTrue(mWriter.getLargestBatchSize() <= GroupCommitWriter.DEFAULT_MAX_BATCH_SIZE);
+        Assert.assertTrue(mWriter.getAverageBatchSize() > 4);
+        Assert.assertTrue(mWriter.getAverageCommitMillis() > 0);
+    }
+
+    public void test_failedWriteOnlyFailsItself() throws Exception {
+        mWriter.setMaxDelay(10000);
+        Future<Long> first = mWriter.insert(TABLE, newEvent(0, 1));
+        ContentValues duplicate = newEvent(0, 2);
+        duplicate.put("_id", 1);
+        Future<Long> failing = mWriter.insert(TABLE, duplicate);
+        Future<Integer> update = mWriter.update(TABLE, newEvent(0, 3), "value = ?", new String[] {"1"});
+        mWriter.flush().get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1L, first.get().longValue());
+        Assert.assertEquals(1, update.get().intValue());
+        try {
+            failing.get();
+            Assert.fail("Duplicate insert should have failed");
+        } catch (ExecutionException e) {
+            // Expected
+        }
+        Assert.assertEquals(1, count(mDatabase));
+        Assert.assertEquals(1, mWriter.getReplayCount());
+        Assert.assertEquals(2, mWriter.getCommittedCount());
+        Assert.assertEquals(1, mWriter.getFailedCount());
+    }
+
+    public void test_writeRollsBackAsAUnit() throws Exception {
+        Future<Void> failing = mWriter.submit(new GroupCommitWriter.Write<Void>() {
+            @Override public Void write(SQLiteDatabase database) {
+                database.insertOrThrow(TABLE, null, newEvent(1, 1));
+                throw new IllegalStateException("Failed part way through");
+            }
+        });
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            Assert.fail("Write should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(0, count(mDatabase));
+    }
+
+    public void test_flushCommitsEarly() throws Exception {
+        mWriter.setMaxDelay(60000);
+        Future<Long> insert = mWriter.insert(TABLE, newEvent(0, 0));
+        Thread.sleep(50);
+        Assert.assertFalse(insert.isDone());
+        mWriter.flush().get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(insert.isDone());
+        Assert.assertEquals(1, mWriter.getBatchCount());
+        Assert.assertEquals(1, mWriter.getCommittedCount());
+    }
+
+    public void test_nestedWriteCompletesWithBatch() throws Exception {
+        final List<Future<Long>> nested = new ArrayList<Future<Long>>();
+        Future<Boolean> outer = mWriter.submit(new GroupCommitWriter.Write<Boolean>() {
+            @Override public Boolean write(SQLiteDatabase database) throws Exception {
+                Future<Long> insert = mWriter.insert(TABLE, newEvent(2, 2));
+                nested.add(insert);
+                try {
+                    insert.get();
+                    return true;
+                } catch (IllegalStateException e) {
+                    // Waiting would never return, since the insert completes after this write
+                    return false;
+                }
+            }
+        });
+        Assert.assertFalse(outer.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, nested.size());
+        Assert.assertTrue(nested.get(0).isDone());
+        Assert.assertEquals(1L, nested.get(0).get().longValue());
+        Assert.assertEquals(1, count(mDatabase));
+        Assert.assertEquals(2, mWriter.getCommittedCount());
+    }
+
+    public void test_nestedWriteFailsWhenBatchRollsBack() throws Exception {
+        mWriter.setMaxDelay(10000);
+        final List<Future<Long>> nested = new ArrayList<Future<Long>>();
+        Future<Void> outer = mWriter.submit(new GroupCommitWriter.Write<Void>() {
+            @Override public Void write(SQLiteDatabase database) {
+                nested.add(mWriter.insert(TABLE, newEvent(3, 3)));
+                return null;
+            }
+        });
+        ContentValues duplicate = newEvent(0, 0);
+        duplicate.put("_id", 1);
+        Future<Long> failing = mWriter.insert(TABLE, duplicate);
+        mWriter.flush().get(10, TimeUnit.SECONDS);
+
+        outer.get();
+        // The nested insert from the rolled back batch fails, and the one from the replay is committed
+        Assert.assertEquals(2, nested.size());
+        try {
+            nested.get(0).get();
+            Assert.fail("Nested write of the rolled back batch should have failed");
+        } catch (ExecutionException e) {
+            // Expected
+        }
+        Assert.assertEquals(1L, nested.get(1).get().longValue());
+        try {
+            failing.get();
+            Assert.fail("Duplicate insert should have failed");
+        } catch (ExecutionException e) {
+            // Expected
+        }
+        Assert.assertEquals(1, count(mDatabase));
+    }
+
+    public void test_failedNestedWriteFailsOuterWrite() throws Exception {
+        final ContentValues duplicate = newEvent(4, 4);
+        duplicate.put("_id", 1);
+        Future<Long> outer = mWriter.submit(new GroupCommitWriter.Write<Long>() {
+            @Override public Long write(SQLiteDatabase database) {
+                long id = database.insertOrThrow(TABLE, null, newEvent(4, 1));
+                mWriter.insert(TABLE, duplicate);
+                return id;
+            }
+        });
+        try {
+            outer.get(10, TimeUnit.SECONDS);
+            Assert.fail("Write should fail when a write it submitted fails");
+        } catch (ExecutionException e) {
+            // Expected
+        }
+        Assert.assertEquals(0, count(mDatabase));
+    }
+
+    /**
+     * A write that records the thread it ran on
+     */
+    protected static GroupCommitWriter.Write<Thread> recordThread(final CountDownLatch started, final CountDownLatch release) {
+        return new GroupCommitWriter.Write<Thread>() {
+            @Override public Thread write(SQLiteDatabase database) throws Exception {
+                started.countDown();
+                release.await();
+                return Thread.currentThread();
+            }
+        };
+    }
+
+    public void test_writeDuringShutdownUsesSameThread() throws Exception {
+        mWriter.setMaxDelay(0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Thread> first = mWriter.submit(recordThread(started, release));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Thread stopping = new Thread(new Runnable() {
+            @Override public void run() {
+                mWriter.shutdown();
+            }
+        });
+        stopping.start();
+        while (stopping.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        // Arrives while the first write is still being committed
+        Future<Thread> second = mWriter.submit(recordThread(new CountDownLatch(1), release));
+        Thread.sleep(50);
+        Assert.assertFalse(second.isDone());
+        release.countDown();
+
+        Assert.assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        stopping.join(10000);
+        Assert.assertFalse(stopping.isAlive());
+        Assert.assertEquals(0, mWriter.getPendingCount());
+        // The next write starts a new thread
+        Future<Thread> third = mWriter.submit(recordThread(new CountDownLatch(1), release));
+        Assert.assertFalse(first.get() == third.get(10, TimeUnit.SECONDS));
+    }
+
+    public void test_errorInWriteFailsItsFuture() throws Exception {
+        Future<Void> failing = mWriter.submit(new GroupCommitWriter.Write<Void>() {
+            @Override public Void write(SQLiteDatabase database) {
+                database.insertOrThrow(TABLE, null, newEvent(5, 5));
+                throw new AssertionError("Failed with an error");
+            }
+        });
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            Assert.fail("Write should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        } catch (TimeoutException e) {
+            Assert.fail("Write that threw an error never completed");
+        }
+        Assert.assertEquals(0, count(mDatabase));
+        // The writer keeps committing later writes
+        Assert.assertEquals(1L, mWriter.insert(TABLE, newEvent(5, 6)).get(10, TimeUnit.SECONDS).longValue());
+        Assert.assertEquals(1, mWriter.getFailedCount());
+    }
+}
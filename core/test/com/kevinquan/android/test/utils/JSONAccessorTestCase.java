@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.kevinquan.android.utils.JSONAccessor;
+import com.kevinquan.android.utils.JSONUtils;
+
+/**
+ * This class checks that the exception-free accessors agree with the safeGet* methods, including on sparse objects where
+ * most optional fields are absent, null or of an unexpected type.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONAccessorTestCase extends TestCase {
+
+    protected static final int FIELDS = 40;
+    protected static final int OBJECTS = 16;
+
+    public void test_coercionMatchesSafeGetters() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("int", 12);
+        obj.put("decimal", 12.75);
+        obj.put("numericString", "42.5");
+        obj.put("badString", "4x2");
+        obj.put("bool", true);
+        obj.put("boolString", "FALSE");
+        obj.put("null", JSONObject.NULL);
+        obj.put("object", new JSONObject());
+        String[] keys = {"int", "decimal", "numericString", "badString", "bool", "boolString", "null", "object", "missing"};
+        JSONAccessor accessor = JSONAccessor.DEFAULT;
+        for (String key : keys) {
+            Assert.assertEquals("Int differs for "+key, JSONUtils.safeGetInt(obj, key, -1), accessor.getInt(obj, key, -1));
+            Assert.assertEquals("Long differs for "+key, JSONUtils.safeGetLong(obj, key, -1), accessor.getLong(obj, key, -1));
+            Assert.assertEquals("Double differs for "+key, JSONUtils.safeGetDouble(obj, key, -1), accessor.getDouble(obj, key, -1), 0);
+            Assert.assertEquals("Boolean differs for "+key, JSONUtils.safeGetBoolean(obj, key, true), accessor.getBoolean(obj, key, true));
+            Assert.assertEquals("String differs for "+key, JSONUtils.safeGetString(obj, key), accessor.getString(obj, key));
+        }
+    }
+
+    public void test_missesAreCounted() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("present", 1);
+        obj.put("wrong", "text");
+        JSONAccessor accessor = new JSONAccessor(true);
+        accessor.getInt(obj, "present", 0);
+        accessor.getInt(obj, "wrong", 0);
+        accessor.getInt(obj, "absent", 0);
+        accessor.getLong(obj, "absent", 0);
+        Assert.assertEquals("Present key was counted as a miss.", 0, accessor.getMisses("present", JSONAccessor.Miss.Absent));
+        Assert.assertEquals("Mismatch was not counted.", 1, accessor.getMisses("wrong", JSONAccessor.Miss.Mismatch));
+        Assert.assertEquals("Absent key was not counted.", 2, accessor.getMisses("absent", JSONAccessor.Miss.Absent));
+        accessor.resetMisses();
+        Assert.assertTrue("Misses were not reset.", accessor.getMisses().isEmpty());
+    }
+
+    public void test_sparseObjectsMatchSafeGetters() throws JSONException {
+        JSONAccessor accessor = JSONAccessor.DEFAULT;
+        for (int i = 0; i < OBJECTS; i++) {
+            JSONObject obj = new JSONObject();
+            for (int field = 0; field < FIELDS; field++) {
+                // One field in eight is present, one is null and one has the wrong type
+                switch ((field + i) % 8) {
+                    case 0: obj.put("field"+field, field); break;
+                    case 1: obj.put("field"+field, JSONObject.NULL); break;
+                    case 2: obj.put("field"+field, "n/a"); break;
+                    default: break;
+                }
+            }
+            for (int field = 0; field < FIELDS; field++) {
+                String key = "field"+field;
+                Assert.assertEquals("Accessor read a different value for "+key, JSONUtils.safeGetLong(obj, key, 0), accessor.getLong(obj, key, 0));
+            }
+        }
+    }
+}
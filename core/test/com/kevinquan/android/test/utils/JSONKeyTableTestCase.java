@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.kevinquan.android.location.SimpleRecordedLocation;
+import com.kevinquan.android.location.SimpleRecordedLocation.LocationProviderType;
+import com.kevinquan.android.utils.JSONEnumTable;
+import com.kevinquan.android.utils.JSONKeyTable;
+import com.kevinquan.android.utils.JSONNode;
+import com.kevinquan.android.utils.JSONTokenizer;
+
+/**
+ * This class checks the perfect hash key table, the enum table and the token based location reader.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONKeyTableTestCase extends TestCase {
+
+    protected static final int LOCATIONS = 500;
+
+    public void test_keyTable() {
+        String[] keys = {"latitude", "longitude", "accuracy", "altitude", "bearing", "speed", "recordedAt", "providerId",
+                "motionType", "confidence", "timestamp", "millisSinceBoot", "motions", "snapshots"};
+        JSONKeyTable table = new JSONKeyTable(keys);
+        Assert.assertEquals(keys.length, table.size());
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals("Key was not found: "+keys[i], i, table.indexOf(keys[i]));
+            Assert.assertEquals(keys[i], table.getKey(i));
+        }
+        String[] misses = {"", "lat", "latitudes", "Latitude", "speeD", "unknown"};
+        for (String miss : misses) {
+            Assert.assertEquals("Unexpected key was found: "+miss, -1, table.indexOf(miss));
+        }
+        char[] buffer = "xxspeedxx".toCharArray();
+        Assert.assertEquals(5, table.indexOf(buffer, 2, 5));
+        try {
+            new JSONKeyTable("a", "b", "a");
+            Assert.fail("Repeated keys were accepted.");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+    }
+
+    public void test_internedNames() throws IOException {
+        JSONKeyTable table = new JSONKeyTable("latitude", "longitude");
+        JSONNode root = JSONNode.parse(new JSONTokenizer("[{\"latitude\":1,\"other\":2},{\"latitude\":3}]"), table);
+        Assert.assertSame("Name was not interned.", table.getKey(0), root.get(0).getName(0));
+        Assert.assertSame("Name was not interned.", table.getKey(0), root.get(1).getName(0));
+        Assert.assertEquals("other", root.get(0).getName(1));
+        Assert.assertEquals(3, root.get(1).getInt("latitude", 0));
+    }
+
+    public void test_enumTable() throws IOException {
+        JSONEnumTable<LocationProviderType> table = new JSONEnumTable<LocationProviderType>(LocationProviderType.class, LocationProviderType.Unknown);
+        JSONTokenizer tokenizer = new JSONTokenizer("[\"GPS\",\"WiFi\",\"Bogus\",12,null,{\"GPS\":1}]");
+        tokenizer.next();
+        Assert.assertEquals(LocationProviderType.GPS, table.next(tokenizer));
+        Assert.assertEquals(LocationProviderType.WiFi, table.next(tokenizer));
+        Assert.assertEquals(LocationProviderType.Unknown, table.next(tokenizer));
+        Assert.assertEquals(LocationProviderType.Unknown, table.next(tokenizer));
+        Assert.assertEquals(LocationProviderType.Unknown, table.next(tokenizer));
+        Assert.assertEquals(LocationProviderType.Unknown, table.next(tokenizer));
+        Assert.assertEquals("Object was not skipped.", JSONTokenizer.Token.EndArray, tokenizer.next());
+    }
+
+    public void test_coercingReads() throws IOException {
+        JSONTokenizer tokenizer = new JSONTokenizer("[12.75,\"42.5\",\"4x2\",null,[1,2],true,\"FALSE\",9007199254740993]");
+        tokenizer.next();
+        Assert.assertEquals(12, tokenizer.nextInt(-1));
+        Assert.assertEquals(42, tokenizer.nextLong(-1));
+        Assert.assertEquals(-1, tokenizer.nextDouble(-1), 0);
+        Assert.assertEquals(-1, tokenizer.nextLong(-1));
+        Assert.assertEquals(-1, tokenizer.nextInt(-1));
+        Assert.assertTrue(tokenizer.nextBoolean(false));
+        Assert.assertFalse(tokenizer.nextBoolean(true));
+        Assert.assertEquals(9007199254740993L, tokenizer.nextLong(-1));
+        Assert.assertEquals(JSONTokenizer.Token.EndArray, tokenizer.next());
+    }
+
+    protected JSONObject createLocationJson(int i) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(SimpleRecordedLocation.JSON_FIELD_LATITUDE, 43.6532 + i / 10000d);
+        json.put(SimpleRecordedLocation.JSON_FIELD_LONGITUDE, -79.3832 - i / 10000d);
+        json.put(SimpleRecordedLocation.JSON_FIELD_ACCURACY, 5 + i % 20);
+        if (i % 2 == 0) {
+            json.put(SimpleRecordedLocation.JSON_FIELD_ALTITUDE, 76.5);
+            json.put(SimpleRecordedLocation.JSON_FIELD_SPEED, "1.5");
+        }
+        json.put(SimpleRecordedLocation.JSON_FIELD_BEARING, JSONObject.NULL);
+        json.put(SimpleRecordedLocation.JSON_FIELD_RECORDED_AT, 1384347600000L + i * 1000L);
+        json.put(SimpleRecordedLocation.JSON_FIELD_PROVIDER_ID, LocationProviderType.GPS.getDbId());
+        json.put("extra", new JSONObject().put("nested", i));
+        return json;
+    }
+
+    public void test_locationReaderMatchesJSONObject() throws JSONException, IOException {
+        StringBuilder document = new StringBuilder("[");
+        SimpleRecordedLocation[] expected = new SimpleRecordedLocation[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            JSONObject json = createLocationJson(i);
+            expected[i] = new SimpleRecordedLocation(json);
+            document.append(i > 0 ? "," : "").append(json.toString());
+        }
+        String json = document.append("]").toString();
+
+        JSONTokenizer tokenizer = new JSONTokenizer(json);
+        tokenizer.next();
+        SimpleRecordedLocation reused = null;
+        for (int i = 0; i < LOCATIONS; i++) {
+            SimpleRecordedLocation location = SimpleRecordedLocation.read(tokenizer, reused);
+            Assert.assertEquals("Location "+i+" differs.", expected[i], location);
+            Assert.assertEquals(expected[i].getSpeed(), location.getSpeed(), 0);
+            if (reused != null) {
+                Assert.assertSame("Location was not reused.", reused, location);
+            }
+            reused = location;
+        }
+        Assert.assertNull("Read past the end of the array.", SimpleRecordedLocation.read(tokenizer, reused));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.kevinquan.android.utils.JSONPath;
+import com.kevinquan.android.utils.JSONPathQuery;
+import com.kevinquan.android.utils.JSONUtils;
+
+/**
+ * This class checks that {@link JSONPath} parses keys, indices, wildcards and quoted keys, and that {@link JSONPathQuery}
+ * extracts the same values as the safeGet* methods, keeps defaults for mismatches, and stops reading once every path has
+ * been matched.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONPathTestCase extends TestCase {
+
+    /**
+     * Counts the characters read from the wrapped reader
+     */
+    protected static class CountingReader extends Reader {
+        protected final Reader mSource;
+        protected int mRead;
+
+        public CountingReader(Reader source) {
+            mSource = source;
+        }
+
+        @Override public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = mSource.read(buffer, offset, length);
+            if (read > 0) {
+                mRead += read;
+            }
+            return read;
+        }
+
+        @Override public void close() throws IOException {
+            mSource.close();
+        }
+    }
+
+    protected static JSONObject createSample() throws Exception {
+        JSONObject values = new JSONObject();
+        values.put("long", 1400000000000L);
+        values.put("int", 42);
+        values.put("double", 43.6532123);
+        values.put("truncated", 7.9);
+        values.put("numericString", "12.5");
+        values.put("booleanString", "true");
+        values.put("flag", false);
+        values.put("text", "a \"quoted\" value");
+        values.put("nothing", JSONObject.NULL);
+        values.put("object", new JSONObject().put("k", 1));
+
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 4; i++) {
+            items.put(new JSONObject().put("id", i * 10).put("name", "item"+i));
+        }
+        items.put(new JSONObject().put("id", "not a number").put("name", "bad"));
+        JSONObject sample = new JSONObject();
+        sample.put("values", values);
+        sample.put("items", items);
+        sample.put("a.b", new JSONObject().put("c", "quoted key"));
+        sample.put("matrix", new JSONArray().put(new JSONArray().put(1).put(2)).put(new JSONArray().put(3).put(4)));
+        return sample;
+    }
+
+    public void test_compile() {
+        JSONPath path = JSONPath.compile("response.items[3].name");
+        Assert.assertEquals(4, path.length());
+        Assert.assertEquals("response", path.getKey(0));
+        Assert.assertEquals("items", path.getKey(1));
+        Assert.assertFalse(path.isKey(2));
+        Assert.assertEquals(3, path.getIndex(2));
+        Assert.assertEquals("name", path.getKey(3));
+        Assert.assertFalse(path.hasWildcard());
+
+        path = JSONPath.compile("items[*].id");
+        Assert.assertTrue(path.hasWildcard());
+        Assert.assertEquals(JSONPath.WILDCARD, path.getIndex(1));
+
+        path = JSONPath.compile("['a.b'][\"c[0]\"][ 2 ]");
+        Assert.assertEquals(3, path.length());
+        Assert.assertEquals("a.b", path.getKey(0));
+        Assert.assertEquals("c[0]", path.getKey(1));
+        Assert.assertEquals(2, path.getIndex(2));
+
+        Assert.assertEquals(0, JSONPath.compile("").length());
+        Assert.assertEquals(0, JSONPath.compile(null).length());
+    }
+
+    public void test_malformedPathsAreRejected() {
+        String[] paths = {"a..b", "a.", ".a", "a[", "a[x]", "a[-1]", "a[0]b", "a[0].", "['a]", "[\"a]\"]x"};
+        for (String path : paths) {
+            try {
+                JSONPath.compile(path);
+                Assert.fail("Malformed path was accepted: "+path);
+            } catch (IllegalArgumentException iae) {
+                // Expected
+            }
+        }
+    }
+
+    public void test_valuesMatchSafeGetters() throws Exception {
+        JSONObject sample = createSample();
+        JSONObject values = sample.getJSONObject("values");
+        String[] keys = {"long", "int", "double", "truncated", "numericString", "booleanString", "flag", "text", "nothing", "object", "missing"};
+        JSONPathQuery query = new JSONPathQuery();
+        JSONPathQuery.LongResult[] longs = new JSONPathQuery.LongResult[keys.length];
+        JSONPathQuery.IntResult[] ints = new JSONPathQuery.IntResult[keys.length];
+        JSONPathQuery.DoubleResult[] doubles = new JSONPathQuery.DoubleResult[keys.length];
+        JSONPathQuery.BooleanResult[] booleans = new JSONPathQuery.BooleanResult[keys.length];
+        JSONPathQuery.StringResult[] strings = new JSONPathQuery.StringResult[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            longs[i] = query.addLong("values."+keys[i], -1);
+            ints[i] = query.addInt("values."+keys[i], -1);
+            doubles[i] = query.addDouble("values."+keys[i], -1);
+            booleans[i] = query.addBoolean("values."+keys[i], true);
+            strings[i] = query.addString("values."+keys[i]);
+        }
+        Assert.assertTrue(JSONUtils.safeExtract(sample.toString(), query));
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals("object")) {
+                // Objects are never converted, while org.json reads their string form
+                Assert.assertNull("Object was read as a string.", strings[i].get());
+                Assert.assertFalse(strings[i].isFound());
+                continue;
+            }
+            Assert.assertEquals("Long of "+keys[i], JSONUtils.safeGetLong(values, keys[i], -1), longs[i].get());
+            Assert.assertEquals("Int of "+keys[i], JSONUtils.safeGetInt(values, keys[i], -1), ints[i].get());
+            Assert.assertEquals("Double of "+keys[i], JSONUtils.safeGetDouble(values, keys[i], -1), doubles[i].get(), 0);
+            Assert.assertEquals("Boolean of "+keys[i], JSONUtils.safeGetBoolean(values, keys[i], true), booleans[i].get());
+            Assert.assertEquals("String of "+keys[i], JSONUtils.safeGetString(values, keys[i]), strings[i].get());
+        }
+    }
+
+    public void test_wildcardsAndIndices() throws Exception {
+        JSONPathQuery query = new JSONPathQuery();
+        JSONPathQuery.IntResult ids = query.addInt("items[*].id", -1);
+        JSONPathQuery.StringResult names = query.addString("items[*].name");
+        JSONPathQuery.StringResult third = query.addString("items[2].name");
+        JSONPathQuery.StringResult quoted = query.addString("['a.b'].c");
+        JSONPathQuery.IntResult cell = query.addInt("matrix[1][0]", -1);
+        JSONPathQuery.IntResult cells = query.addInt("matrix[*][1]", -1);
+        Assert.assertTrue(JSONUtils.safeExtract(new StringReader(createSample().toString()), query));
+
+        Assert.assertEquals(5, ids.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(i * 10, ids.get(i));
+            Assert.assertEquals("item"+i, names.get(i));
+        }
+        Assert.assertEquals("Unconverted value did not keep its position.", -1, ids.get(4));
+        Assert.assertEquals("bad", names.get(4));
+        Assert.assertEquals("item2", third.get());
+        Assert.assertEquals("quoted key", quoted.get());
+        Assert.assertEquals(3, cell.get());
+        Assert.assertEquals(2, cells.size());
+        Assert.assertEquals(2, cells.get(0));
+        Assert.assertEquals(4, cells.get(1));
+    }
+
+    public void test_mismatchesKeepDefaults() throws Exception {
+        JSONPathQuery query = new JSONPathQuery();
+        JSONPathQuery.LongResult object = query.addLong("values.object", 5);
+        JSONPathQuery.LongResult array = query.addLong("items", 6);
+        JSONPathQuery.LongResult indexIntoObject = query.addLong("values[0]", 7);
+        JSONPathQuery.LongResult keyIntoArray = query.addLong("items.id", 8);
+        JSONPathQuery.LongResult pastEnd = query.addLong("items[10].id", 9);
+        Assert.assertTrue(JSONUtils.safeExtract(createSample().toString(), query));
+        JSONPathQuery.LongResult[] results = {object, array, indexIntoObject, keyIntoArray, pastEnd};
+        for (int i = 0; i < results.length; i++) {
+            Assert.assertFalse("Mismatch was found: "+results[i], results[i].isFound());
+            Assert.assertEquals(5 + i, results[i].get());
+        }
+    }
+
+    public void test_scanningStopsOnceMatched() throws Exception {
+        StringBuilder json = new StringBuilder("{\"id\":7,\"name\":\"first\",\"padding\":[");
+        for (int i = 0; i < 20000; i++) {
+            json.append(i).append(',');
+        }
+        json.append("0],\"name\":\"last\"}");
+
+        JSONPathQuery query = new JSONPathQuery();
+        JSONPathQuery.LongResult id = query.addLong("id", 0);
+        JSONPathQuery.StringResult name = query.addString("name");
+        CountingReader reader = new CountingReader(new StringReader(json.toString()));
+        Assert.assertTrue(JSONUtils.safeExtract(reader, query));
+        Assert.assertEquals(7, id.get());
+        Assert.assertEquals("first", name.get());
+        Assert.assertTrue("The whole document was read.", reader.mRead < json.length() / 2);
+
+        JSONPathQuery.LongResult padding = query.addLong("padding[*]", -1);
+        Assert.assertTrue(JSONUtils.safeExtract(json.toString(), query));
+        Assert.assertEquals("A wildcard path stopped early.", 20001, padding.size());
+    }
+
+    public void test_queriesCanBeRepeated() throws Exception {
+        JSONPathQuery query = new JSONPathQuery();
+        JSONPathQuery.IntResult ids = query.addInt("items[*].id", -1);
+        JSONPathQuery.StringResult text = query.addString("values.text");
+        Assert.assertTrue(JSONUtils.safeExtract(createSample().toString(), query));
+        Assert.assertEquals(5, ids.size());
+        Assert.assertTrue(JSONUtils.safeExtract("{\"items\":[{\"id\":3}]}", query));
+        Assert.assertEquals("Results were not reset.", 1, ids.size());
+        Assert.assertEquals(3, ids.get());
+        Assert.assertNull(text.get());
+    }
+
+    public void test_invalidInput() {
+        JSONPathQuery query = new JSONPathQuery();
+        JSONPathQuery.IntResult value = query.addInt("a.b", -1);
+        Assert.assertFalse(JSONUtils.safeExtract("", query));
+        Assert.assertFalse(JSONUtils.safeExtract((String)null, query));
+        Assert.assertFalse(JSONUtils.safeExtract("{\"a\":", query));
+        Assert.assertFalse(JSONUtils.safeExtract("{\"x\":1}", null));
+        Assert.assertEquals(-1, value.get());
+    }
+}
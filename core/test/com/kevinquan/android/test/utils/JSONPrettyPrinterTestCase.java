@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.kevinquan.android.utils.JSONPrettyPrinter;
+import com.kevinquan.android.utils.JSONUtils;
+
+/**
+ * This class checks that {@link JSONPrettyPrinter} writes object trees, array trees and reformatted JSON text in the same
+ * layout as {@link JSONObject#toString(int)}.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONPrettyPrinterTestCase extends TestCase {
+
+    protected static final int[] INDENTS = {0, 1, 2, 4};
+
+    protected static JSONObject createSample() throws Exception {
+        JSONObject nested = new JSONObject();
+        nested.put("emptyObject", new JSONObject());
+        nested.put("emptyArray", new JSONArray());
+        nested.put("nothing", JSONObject.NULL);
+        nested.put("deeper", new JSONObject().put("list", new JSONArray().put(new JSONArray().put(1).put(2)).put(new JSONObject().put("k", "v"))));
+
+        JSONObject sample = new JSONObject();
+        sample.put("name", "Quote \" backslash \\ slash / tab \t newline \n control \u0001 unicode \u00e9 \u2028");
+        sample.put("latitude", 43.6532123);
+        sample.put("longitude", -79.3832);
+        sample.put("small", 1.0E-7);
+        sample.put("whole", 3.0);
+        sample.put("recordedAt", 1400000000000L);
+        sample.put("count", 7);
+        sample.put("flag", true);
+        sample.put("off", false);
+        sample.put("nested", nested);
+        sample.put("mixed", new JSONArray().put("text").put(1.5).put(JSONObject.NULL).put(new JSONObject()).put(new JSONArray()));
+        return sample;
+    }
+
+    public void test_objectTreesMatchToString() throws Exception {
+        JSONObject sample = createSample();
+        for (int indent : INDENTS) {
+            StringWriter output = new StringWriter();
+            Assert.assertTrue(JSONUtils.prettyPrint(sample, indent, output));
+            Assert.assertEquals("Object differs with indent "+indent, sample.toString(indent), output.toString());
+        }
+        StringWriter empty = new StringWriter();
+        JSONUtils.prettyPrint(new JSONObject(), 2, empty);
+        Assert.assertEquals(new JSONObject().toString(2), empty.toString());
+    }
+
+    public void test_arrayTreesMatchToString() throws Exception {
+        JSONArray array = new JSONArray().put(createSample()).put(new JSONArray()).put("last");
+        for (int indent : INDENTS) {
+            StringWriter output = new StringWriter();
+            Assert.assertTrue(JSONUtils.prettyPrint(array, indent, output));
+            Assert.assertEquals("Array differs with indent "+indent, array.toString(indent), output.toString());
+        }
+    }
+
+    public void test_reformattedTextMatchesToString() throws Exception {
+        JSONObject sample = createSample();
+        String compact = sample.toString();
+        String spaced = sample.toString(3).replace("\n", "\r\n\t ");
+        for (String text : new String[] {compact, spaced}) {
+            for (int indent : INDENTS) {
+                StringWriter output = new StringWriter();
+                Assert.assertTrue(JSONUtils.prettyPrint(new StringReader(text), indent, output));
+                Assert.assertEquals("Text differs with indent "+indent, sample.toString(indent), output.toString());
+            }
+        }
+    }
+
+    public void test_numbersMatchToString() throws Exception {
+        Random random = new Random(31);
+        JSONArray numbers = new JSONArray().put(-0.0).put(1e-3).put(9.999999e6).put(1e7).put(1e15).put(1e20).put(-4.9e-324)
+                .put(Double.MAX_VALUE).put(0.1 + 0.2).put((double)Long.MAX_VALUE);
+        for (int i = 0; i < 500; i++) {
+            double bits = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(bits) && !Double.isInfinite(bits)) {
+                numbers.put(bits);
+            }
+            numbers.put((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(24) - 8));
+            numbers.put(Math.round(random.nextDouble() * 1e7) / 1e4);
+        }
+        StringWriter output = new StringWriter();
+        Assert.assertTrue(JSONUtils.prettyPrint(numbers, 2, output));
+        Assert.assertEquals(numbers.toString(2), output.toString());
+    }
+
+    public void test_printerCanBeReused() throws Exception {
+        StringWriter output = new StringWriter();
+        JSONPrettyPrinter printer = new JSONPrettyPrinter(output, 2);
+        JSONObject first = new JSONObject().put("a", 1);
+        JSONArray second = new JSONArray().put("b");
+        printer.print(first);
+        printer.print(second);
+        printer.flush();
+        Assert.assertEquals(first.toString(2)+second.toString(2), output.toString());
+    }
+
+    public void test_missingArguments() {
+        Assert.assertFalse(JSONUtils.prettyPrint((JSONObject)null, 2, new StringWriter()));
+        Assert.assertFalse(JSONUtils.prettyPrint(new JSONObject(), 2, null));
+        Assert.assertFalse(JSONUtils.prettyPrint((StringReader)null, 2, new StringWriter()));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.kevinquan.android.utils.JSONNode;
+import com.kevinquan.android.utils.JSONTokenizer;
+
+/**
+ * This class houses tests for the JSON tokenizer and tree, including checking the tree against org.json.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class JSONTokenizerTestCase extends TestCase {
+
+    public void test_numbersMatchJdkParser() throws IOException {
+        String[] numbers = {"0", "1", "-1", "0.1", "1.5e3", "-2.5E-3", "43.6532123", "-79.3832", "3.141592653589793",
+                "1e22", "1e23", "123456789.123456789", "4.9e-324", "1.7976931348623157e308"};
+        for (String number : numbers) {
+            JSONTokenizer tokenizer = new JSONTokenizer(number);
+            Assert.assertEquals("Number was not recognized: "+number, JSONTokenizer.Token.Number, tokenizer.next());
+            Assert.assertEquals("Number was parsed incorrectly: "+number, Double.parseDouble(number), tokenizer.getDouble(), 0);
+        }
+        JSONTokenizer tokenizer = new JSONTokenizer(String.valueOf(Long.MAX_VALUE));
+        tokenizer.next();
+        Assert.assertTrue("Largest long was not an integer.", tokenizer.isInteger());
+        Assert.assertEquals("Largest long was not parsed exactly.", Long.MAX_VALUE, tokenizer.getLong());
+    }
+
+    public void test_treeGetters() throws IOException {
+        JSONNode node = JSONNode.parse("{\"items\":[1,{\"name\":\"a\\\"b\\u00e9\"}],\"count\":\"42\",\"none\":null,\"flag\":true,\"count\":43}");
+        Assert.assertEquals("Last duplicate key was not used.", 43, node.getInt("count", 0));
+        Assert.assertEquals("Escapes were not decoded.", "a\"b\u00e9", node.getArray("items").get(1).getString("name"));
+        Assert.assertEquals("Null was not returned as a string.", "null", node.getString("none"));
+        Assert.assertEquals("Null did not return the default.", -1, node.getLong("none", -1));
+        Assert.assertEquals("Missing key did not return the default.", -1, node.getLong("missing", -1));
+        Assert.assertTrue("Boolean was not read.", node.getBoolean("flag", false));
+        Assert.assertNull("Array was returned as an object.", node.getObject("items"));
+    }
+
+    public void test_skipValue() throws IOException {
+        JSONTokenizer tokenizer = new JSONTokenizer(new StringReader("{\"skip\":{\"a\":[1,2,[3]]},\"keep\":7}"));
+        long kept = 0;
+        tokenizer.next();
+        while (tokenizer.next() == JSONTokenizer.Token.Name) {
+            boolean keep = tokenizer.textEquals("keep");
+            tokenizer.next();
+            if (keep) {
+                kept = tokenizer.getLong();
+            } else {
+                tokenizer.skipValue();
+            }
+        }
+        Assert.assertEquals("Value after skipped object was not read.", 7, kept);
+        Assert.assertEquals("Document did not end.", JSONTokenizer.Token.EndDocument, tokenizer.next());
+    }
+
+    public void test_malformedDocumentsAreRejected() {
+        String[] documents = {"", "{", "[1,]", "{\"a\" 1}", "01", "[1] x", "\"abc", "{\"a\":tru}", "1.", "-"};
+        for (String document : documents) {
+            try {
+                JSONNode.parse(document);
+                Assert.fail("Malformed document was accepted: "+document);
+            } catch (IOException ioe) {
+                // Expected
+            }
+        }
+    }
+
+    public void test_treeMatchesOrgJson() throws IOException, JSONException {
+        StringBuilder document = new StringBuilder("{\"locations\":[");
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) {
+                document.append(',');
+            }
+            document.append("{\"latitude\":").append(43.6532 + i / 10000d).append(",\"longitude\":").append(-79.3832 - i / 10000d)
+                    .append(",\"accuracy\":").append(5 + i % 20).append(",\"recordedAt\":").append(1384347600000L + i * 1000L)
+                    .append(",\"providerId\":5,\"label\":\"location ").append(i).append("\"}");
+        }
+        String json = document.append("]}").toString();
+
+        JSONArray expected = new JSONObject(json).getJSONArray("locations");
+        JSONNode actual = JSONNode.parse(json).getArray("locations");
+        Assert.assertEquals("Tree has a different number of locations.", expected.length(), actual.size());
+        for (int i = 0; i < expected.length(); i++) {
+            JSONObject location = expected.getJSONObject(i);
+            JSONNode node = actual.get(i);
+            Assert.assertEquals("Latitude differs.", location.getDouble("latitude"), node.getDouble("latitude", 0), 0);
+            Assert.assertEquals("Longitude differs.", location.getDouble("longitude"), node.getDouble("longitude", 0), 0);
+            Assert.assertEquals("Recorded time differs.", location.getLong("recordedAt"), node.getLong("recordedAt", 0));
+            Assert.assertEquals("Label differs.", location.getString("label"), node.getString("label"));
+        }
+
+        // A reset tokenizer walks the document the same way each time
+        JSONTokenizer tokenizer = new JSONTokenizer(json);
+        int firstCount = 0;
+        while (tokenizer.next() != JSONTokenizer.Token.EndDocument) {
+            firstCount++;
+        }
+        tokenizer.reset(json);
+        int secondCount = 0;
+        while (tokenizer.next() != JSONTokenizer.Token.EndDocument) {
+            secondCount++;
+        }
+        Assert.assertEquals("Reset tokenizer read a different number of tokens.", firstCount, secondCount);
+    }
+}
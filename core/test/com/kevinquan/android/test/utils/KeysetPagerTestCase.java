@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.CursorUtils.KeysetPager;
+import com.kevinquan.android.utils.CursorUtils.PageIterator;
+
+/**
+ * This class checks that paging by key visits every row once and in order, including rows which share a key at the edge
+ * of a page, with and without prefetching.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class KeysetPagerTestCase extends TestCase {
+
+    protected static final int ROWS = 1000;
+    protected static final int ROWS_PER_KEY = 4;
+    protected static final int PROVIDERS = 3;
+    protected static final int PAGE_SIZE = 64;
+
+    protected SQLiteDatabase mDatabase;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE locations (_id INTEGER PRIMARY KEY, recordedAt INTEGER, provider INTEGER)");
+        mDatabase.execSQL("CREATE INDEX idx_locations_recordedAt ON locations(recordedAt)");
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO locations (_id, recordedAt, provider) VALUES (?, ?, ?)");
+        mDatabase.beginTransaction();
+        try {
+            // Insert in reverse so row ids don't follow the key
+            for (int i = ROWS; i > 0; i--) {
+                insert.bindLong(1, i);
+                insert.bindLong(2, 1400000000000L + i / ROWS_PER_KEY);
+                insert.bindLong(3, i % PROVIDERS);
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    /**
+     * Read every row of the pager, checking that the rows are in key order
+     * @return The ids of the rows
+     */
+    protected List<Long> readIds(KeysetPager pager, boolean descending) {
+        List<Long> ids = new ArrayList<Long>();
+        long lastKey = descending ? Long.MAX_VALUE : Long.MIN_VALUE;
+        for (Cursor row : pager) {
+            long key = CursorUtils.safeGetLong(row, "recordedAt", 0);
+            Assert.assertTrue("Rows are out of order.", descending ? key <= lastKey : key >= lastKey);
+            lastKey = key;
+            ids.add(CursorUtils.safeGetLong(row, "_id", 0));
+        }
+        return ids;
+    }
+
+    protected void assertAllRows(List<Long> ids, int provider) {
+        List<Long> expected = new ArrayList<Long>();
+        for (long id = 1; id <= ROWS; id++) {
+            if (provider == -1 || id % PROVIDERS == provider) expected.add(id);
+        }
+        List<Long> sorted = new ArrayList<Long>(ids);
+        Collections.sort(sorted);
+        Assert.assertEquals("Rows were skipped or repeated.", expected, sorted);
+    }
+
+    public void test_uniqueKey() {
+        KeysetPager pager = new KeysetPager(mDatabase, "locations", "_id").setPageSize(PAGE_SIZE);
+        List<Long> ids = readIds(pager, false);
+        assertAllRows(ids, -1);
+        Assert.assertEquals("Rows were not in id order.", Long.valueOf(1), ids.get(0));
+    }
+
+    public void test_sharedKeysWithTieBreaker() {
+        KeysetPager pager = new KeysetPager(mDatabase, "locations", "recordedAt").setTieBreaker("_id").setPageSize(PAGE_SIZE)
+                .setColumns("provider");
+        assertAllRows(readIds(pager, false), -1);
+        assertAllRows(readIds(pager.setDescending(true), true), -1);
+    }
+
+    public void test_selection() {
+        KeysetPager pager = new KeysetPager(mDatabase, "locations", "recordedAt").setTieBreaker("_id").setPageSize(PAGE_SIZE)
+                .setSelection("provider = ?", "1");
+        assertAllRows(readIds(pager, false), 1);
+    }
+
+    public void test_prefetch() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            KeysetPager pager = new KeysetPager(mDatabase, "locations", "recordedAt").setTieBreaker("_id").setPageSize(PAGE_SIZE)
+                    .setPrefetchExecutor(executor);
+            PageIterator rows = pager.iterator();
+            List<Long> ids = new ArrayList<Long>();
+            while (rows.hasNext()) {
+                ids.add(CursorUtils.safeGetLong(rows.next(), "_id", 0));
+            }
+            assertAllRows(ids, -1);
+            Assert.assertEquals("Unexpected number of pages.", ROWS / PAGE_SIZE + 1, rows.getPageCount());
+            
+            // Stopping early discards the prefetched page
+            rows = pager.iterator();
+            Assert.assertTrue("First row was not read.", rows.hasNext());
+            rows.next();
+            rows.close();
+            Assert.assertFalse("Closed iterator has rows.", rows.hasNext());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void test_callbackCanStop() {
+        final List<Long> ids = new ArrayList<Long>();
+        int rows = new KeysetPager(mDatabase, "locations", "_id").setPageSize(PAGE_SIZE).forEachRow(new CursorUtils.RowCallback() {
+            @Override public boolean onRow(Cursor row) {
+                ids.add(CursorUtils.safeGetLong(row, "_id", 0));
+                return ids.size() < 100;
+            }
+        });
+        Assert.assertEquals("Callback was not stopped.", 100, rows);
+        Assert.assertEquals("Last row is wrong.", Long.valueOf(100), ids.get(99));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.gson.stream.JsonReader;
+import com.kevinquan.android.location.SimpleRecordedLocation;
+import com.kevinquan.android.utils.NDJSONReader;
+import com.kevinquan.android.utils.NDJSONWriter;
+import com.kevinquan.android.utils.ParallelNDJSONReader;
+
+/**
+ * This class checks that newline delimited JSON round trips, that malformed lines are skipped, and that the parallel
+ * reader returns the same records as a single threaded read, in file order when requested.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class NDJSONTestCase extends TestCase {
+
+    protected static final int LOCATIONS = 20000;
+    protected static final int THREADS = 4;
+
+    protected SimpleRecordedLocation createLocation(int i) throws IOException {
+        String json = "{\"latitude\":"+(43.6532 + i / 10000d)+",\"longitude\":"+(-79.3832 - i / 10000d)
+                +",\"accuracy\":"+(5 + i % 20)+",\"recordedAt\":"+(1384347600000L + i * 1000L)
+                +",\"providerId\":"+SimpleRecordedLocation.LocationProviderType.GPS.getDbId()+"}";
+        return SimpleRecordedLocation.NDJSON_CODEC.read(new JsonReader(new StringReader(json)));
+    }
+
+    protected File writeLocations(int count) throws IOException {
+        File file = File.createTempFile("locations", ".ndjson");
+        file.deleteOnExit();
+        NDJSONWriter<SimpleRecordedLocation> writer = new NDJSONWriter<SimpleRecordedLocation>(
+                new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), SimpleRecordedLocation.NDJSON_CODEC);
+        try {
+            for (int i = 0; i < count; i++) {
+                writer.write(createLocation(i));
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    public void test_roundTrip() throws IOException {
+        StringWriter output = new StringWriter();
+        NDJSONWriter<SimpleRecordedLocation> writer = new NDJSONWriter<SimpleRecordedLocation>(output, SimpleRecordedLocation.NDJSON_CODEC);
+        for (int i = 0; i < 3; i++) {
+            writer.write(createLocation(i));
+        }
+        writer.flush();
+        Assert.assertEquals("Each record was not written on its own line.", 3, output.toString().split("\n").length);
+
+        // A blank line and a partial line left by an interrupted append
+        String input = output.toString()+"\n{\"latitude\":43.1,\"longit";
+        NDJSONReader<SimpleRecordedLocation> reader = new NDJSONReader<SimpleRecordedLocation>(new StringReader(input), SimpleRecordedLocation.NDJSON_CODEC);
+        List<SimpleRecordedLocation> locations = reader.readAll(null);
+        Assert.assertEquals("Valid records were not read.", 3, locations.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("Record did not round trip.", createLocation(i), locations.get(i));
+        }
+        Assert.assertEquals("Partial line was not skipped.", 1, reader.getSkipped());
+    }
+
+    public void test_parallelRead() throws IOException {
+        File file = writeLocations(LOCATIONS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            ParallelNDJSONReader<SimpleRecordedLocation> reader = new ParallelNDJSONReader<SimpleRecordedLocation>(
+                    SimpleRecordedLocation.NDJSON_CODEC, executor).setChunkSize(64 * 1024);
+
+            List<SimpleRecordedLocation> ordered = reader.read(file, true);
+            Assert.assertEquals("Not all records were read.", LOCATIONS, ordered.size());
+            for (int i = 1; i < LOCATIONS; i++) {
+                Assert.assertTrue("Records were not in file order.", ordered.get(i - 1).getRecordedAt() < ordered.get(i).getRecordedAt());
+            }
+
+            List<SimpleRecordedLocation> unordered = reader.read(file, false);
+            Assert.assertEquals("Not all records were read without ordering.", LOCATIONS, unordered.size());
+            Assert.assertEquals("Lines were skipped.", 0, reader.getSkipped());
+
+            List<SimpleRecordedLocation> single = reader.setChunkSize(Integer.MAX_VALUE).read(file, true);
+            Assert.assertEquals("Parallel read differs from single threaded read.", single, ordered);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void test_emptyFile() throws IOException {
+        File file = File.createTempFile("empty", ".ndjson");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.close();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertTrue("Empty file produced records.", new ParallelNDJSONReader<SimpleRecordedLocation>(
+                    SimpleRecordedLocation.NDJSON_CODEC, executor).read(file, true).isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
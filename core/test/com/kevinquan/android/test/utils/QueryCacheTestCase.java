@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import com.kevinquan.android.utils.QueryCache;
+
+/**
+ * This class checks that a {@link QueryCache} serves repeated queries from identical snapshots, evicts by weight, drops
+ * entries when their URI changes, and reads floating point values as the text the provider returned.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class QueryCacheTestCase extends TestCase {
+
+    protected static final Uri PROFILE_URI = Uri.parse("content://test/profile/data");
+    protected static final Uri SETTINGS_URI = Uri.parse("content://test/settings");
+
+    /**
+     * Answers queries from matrix cursors, recording the queries and observers
+     */
+    protected static class MemoryCache extends QueryCache {
+        protected int mQueries;
+        protected int mRows = 10;
+        protected final List<ContentObserver> mObservers = new ArrayList<ContentObserver>();
+
+        public MemoryCache(long maxBytes) {
+            super(null, maxBytes);
+        }
+
+        @Override protected Cursor queryProvider(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            mQueries++;
+            return createResult(mRows);
+        }
+
+        @Override protected void registerObserver(Uri uri, ContentObserver observer) {
+            mObservers.add(observer);
+        }
+
+        @Override protected void unregisterObserver(ContentObserver observer) {
+            mObservers.remove(observer);
+        }
+    }
+
+    /**
+     * Formats floating point values as SQLite does rather than as {@link Double#toString(double)}
+     */
+    protected static class SQLiteFormattedCursor extends MatrixCursor {
+        public SQLiteFormattedCursor(String[] columnNames) {
+            super(columnNames);
+        }
+
+        @Override public String getString(int column) {
+            if (getType(column) == FIELD_TYPE_FLOAT) {
+                return String.format(Locale.US, "%.15g", getDouble(column));
+            }
+            return super.getString(column);
+        }
+    }
+
+    protected static MatrixCursor createFloatResult() {
+        MatrixCursor cursor = new SQLiteFormattedCursor(new String[] {"_id", "distance", "mixed"});
+        double[] values = {1e20, 0.1, -2.5, 123456.789};
+        for (int row = 0; row < values.length; row++) {
+            cursor.addRow(new Object[] {(long)row, values[row], row % 2 == 0 ? (Object)values[row] : "text"+row});
+        }
+        return cursor;
+    }
+
+    protected static MatrixCursor createResult(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"_id", "display_name", "weight", "photo", "mixed", "empty", "sparse"});
+        for (int row = 0; row < rows; row++) {
+            cursor.addRow(new Object[] {(long)row, "Name "+row, row * 1.5, new byte[] {(byte)row, 1, 2}, row % 2 == 0 ? (Object)row : "text"+row,
+                    null, row % 3 == 0 ? null : (Object)(long)row});
+        }
+        return cursor;
+    }
+
+    protected void assertSameRows(Cursor expected, Cursor actual) {
+        Assert.assertEquals("Row counts differ.", expected.getCount(), actual.getCount());
+        Assert.assertTrue("Column names differ.", Arrays.equals(expected.getColumnNames(), actual.getColumnNames()));
+        expected.moveToPosition(-1);
+        actual.moveToPosition(-1);
+        while (expected.moveToNext()) {
+            Assert.assertTrue("Cached cursor ran out of rows.", actual.moveToNext());
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                String name = expected.getColumnName(column);
+                Assert.assertEquals("Null differs for "+name, expected.isNull(column), actual.isNull(column));
+                Assert.assertEquals("Type differs for "+name, expected.getType(column), actual.getType(column));
+                if (expected.getType(column) == Cursor.FIELD_TYPE_BLOB) {
+                    Assert.assertTrue("Blob differs for "+name, Arrays.equals(expected.getBlob(column), actual.getBlob(column)));
+                    continue;
+                }
+                Assert.assertEquals("String differs for "+name, expected.getString(column), actual.getString(column));
+                if (expected.getType(column) != Cursor.FIELD_TYPE_STRING) {
+                    Assert.assertEquals("Long differs for "+name, expected.getLong(column), actual.getLong(column));
+                    Assert.assertEquals("Double differs for "+name, expected.getDouble(column), actual.getDouble(column), 0);
+                }
+            }
+        }
+    }
+
+    public void test_repeatedQueriesAreServedFromSnapshots() {
+        MemoryCache cache = new MemoryCache(QueryCache.DEFAULT_MAX_BYTES);
+        Cursor first = cache.query(PROFILE_URI, null, null, null, "is_primary DESC");
+        Cursor second = cache.query(PROFILE_URI, null, null, null, "is_primary DESC");
+        Assert.assertEquals("Repeated query reached the provider.", 1, cache.mQueries);
+        Assert.assertEquals("Hit was not counted.", 1, cache.getHitCount());
+        assertSameRows(createResult(10), first);
+        assertSameRows(createResult(10), second);
+        first.close();
+        Assert.assertTrue("Closing one cursor affected another.", second.moveToFirst());
+
+        cache.query(PROFILE_URI, new String[] {"_id"}, null, null, "is_primary DESC");
+        cache.query(PROFILE_URI, null, "_id = ?", new String[] {"1"}, "is_primary DESC");
+        Assert.assertEquals("Different queries shared an entry.", 3, cache.size());
+        Assert.assertEquals("Each URI should have one observer.", 1, cache.mObservers.size());
+    }
+
+    public void test_changesInvalidateEntries() {
+        MemoryCache cache = new MemoryCache(QueryCache.DEFAULT_MAX_BYTES);
+        cache.query(PROFILE_URI, null, null, null, null);
+        cache.query(SETTINGS_URI, null, null, null, null);
+        Assert.assertEquals("Observers were not registered.", 2, cache.mObservers.size());
+        cache.mObservers.get(0).onChange(false);
+        Assert.assertEquals("Changed URI was not dropped.", 1, cache.size());
+        Assert.assertEquals("Observer of a dropped URI is still registered.", 1, cache.mObservers.size());
+        cache.query(PROFILE_URI, null, null, null, null);
+        cache.query(SETTINGS_URI, null, null, null, null);
+        Assert.assertEquals("Changed URI was not queried again.", 3, cache.mQueries);
+        Assert.assertEquals("Invalidation was not counted.", 1, cache.getInvalidationCount());
+    }
+
+    public void test_leastRecentlyUsedIsEvicted() {
+        MemoryCache probe = new MemoryCache(QueryCache.DEFAULT_MAX_BYTES);
+        probe.query(PROFILE_URI, null, null, null, null);
+        long weight = probe.getWeight();
+
+        MemoryCache cache = new MemoryCache(weight * 3);
+        for (int i = 0; i < 3; i++) {
+            cache.query(PROFILE_URI, null, "_id > ?", new String[] {String.valueOf(i)}, null);
+        }
+        cache.query(PROFILE_URI, null, "_id > ?", new String[] {"0"}, null);
+        cache.query(PROFILE_URI, null, "_id > ?", new String[] {"3"}, null);
+        Assert.assertEquals("Cache grew past its weight.", 3, cache.size());
+        Assert.assertEquals("Eviction was not counted.", 1, cache.getEvictionCount());
+        int queries = cache.mQueries;
+        cache.query(PROFILE_URI, null, "_id > ?", new String[] {"0"}, null);
+        Assert.assertEquals("Recently used entry was evicted.", queries, cache.mQueries);
+        cache.query(PROFILE_URI, null, "_id > ?", new String[] {"1"}, null);
+        Assert.assertEquals("Least recently used entry was not evicted.", queries + 1, cache.mQueries);
+    }
+
+    public void test_largeResultsAreNotCached() {
+        MemoryCache cache = new MemoryCache(2048);
+        cache.mRows = 200;
+        Cursor result = cache.query(SETTINGS_URI, null, null, null, null);
+        assertSameRows(createResult(200), result);
+        Assert.assertEquals("Large result was cached.", 0, cache.size());
+        Assert.assertTrue("Observer was left registered.", cache.mObservers.isEmpty());
+    }
+
+    public void test_emptyCacheQueriesEachTime() {
+        MemoryCache cache = new MemoryCache(0);
+        for (int i = 0; i < 3; i++) {
+            Cursor result = cache.query(PROFILE_URI, null, null, null, null);
+            assertSameRows(createResult(10), result);
+            result.close();
+        }
+        Assert.assertEquals("A cache without room answered a query.", 3, cache.mQueries);
+        Assert.assertEquals("A cache without room kept an entry.", 0, cache.size());
+    }
+
+    public void test_floatTextMatchesProvider() {
+        MemoryCache cache = new MemoryCache(QueryCache.DEFAULT_MAX_BYTES) {
+            @Override protected Cursor queryProvider(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+                mQueries++;
+                return createFloatResult();
+            }
+        };
+        cache.query(SETTINGS_URI, null, null, null, null).close();
+        Cursor snapshot = cache.query(SETTINGS_URI, null, null, null, null);
+        Assert.assertEquals("Second query was not served from a snapshot.", 1, cache.getHitCount());
+        assertSameRows(createFloatResult(), snapshot);
+    }
+
+    public void test_readingOffARowThrowsLikeMatrixCursor() {
+        MemoryCache cache = new MemoryCache(QueryCache.DEFAULT_MAX_BYTES);
+        cache.query(PROFILE_URI, null, null, null, null).close();
+        Cursor snapshot = cache.query(PROFILE_URI, null, null, null, null);
+        Assert.assertEquals("Second query was not served from a snapshot.", 1, cache.getHitCount());
+        assertOffRow(snapshot);
+        Assert.assertTrue(snapshot.moveToLast());
+        Assert.assertEquals(9, snapshot.getLong(0));
+        Assert.assertFalse(snapshot.moveToNext());
+        assertOffRow(snapshot);
+        Assert.assertTrue(snapshot.moveToFirst());
+        try {
+            snapshot.getString(snapshot.getColumnCount());
+            Assert.fail("Reading past the last column did not throw.");
+        } catch (CursorIndexOutOfBoundsException cioobe) {
+            // Expected
+        }
+    }
+
+    protected void assertOffRow(Cursor cursor) {
+        try {
+            cursor.getLong(0);
+            Assert.fail("Reading off a row did not throw at position "+cursor.getPosition());
+        } catch (CursorIndexOutOfBoundsException cioobe) {
+            // Expected
+        }
+        try {
+            cursor.isNull(5);
+            Assert.fail("Checking for null off a row did not throw at position "+cursor.getPosition());
+        } catch (CursorIndexOutOfBoundsException cioobe) {
+            // Expected
+        }
+    }
+}
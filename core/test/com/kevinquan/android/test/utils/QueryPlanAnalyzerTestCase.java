@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.CursorUtils.IndexInfo;
+import com.kevinquan.android.utils.QueryPlanAnalyzer;
+import com.kevinquan.android.utils.QueryPlanAnalyzer.QueryPlan;
+
+/**
+ * This class runs the query plan analyzer against an in-memory database to check that scans are found, that the 
+ * suggested indexes remove them, and that indexes are created in a single transaction.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class QueryPlanAnalyzerTestCase extends TestCase {
+
+    protected SQLiteDatabase mDatabase;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE locations (_id INTEGER PRIMARY KEY, latitude TEXT, longitude TEXT, accuracy REAL, recordedAt INTEGER, provider INTEGER)");
+        mDatabase.execSQL("CREATE TABLE motions (_id INTEGER PRIMARY KEY, activityType TEXT, confidence INTEGER, recordedAt INTEGER)");
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    protected List<String> getIndexNames(String table) {
+        List<String> names = new ArrayList<String>();
+        Cursor result = mDatabase.rawQuery("PRAGMA index_list("+table+")", null);
+        while (result.moveToNext()) {
+            names.add(result.getString(result.getColumnIndex("name")));
+        }
+        CursorUtils.safeClose(result);
+        return names;
+    }
+
+    public void test_indexInfoQueries() {
+        Assert.assertEquals("Single column index changed.", "CREATE INDEX IF NOT EXISTS idx_locations_recordedAt ON locations(recordedAt)",
+                new IndexInfo("locations", "recordedAt").getDefaultCreateQuery());
+        Assert.assertEquals("Multi-column index was not built.", "CREATE INDEX IF NOT EXISTS idx_locations_provider_recordedAt_DESC ON locations(provider, recordedAt DESC)",
+                new IndexInfo("locations", "provider", "recordedAt DESC").getDefaultCreateQuery());
+        IndexInfo partial = new IndexInfo("locations", new String[] {"recordedAt"}, "accuracy < 50");
+        Assert.assertTrue("Index was not partial.", partial.isPartial());
+        Assert.assertTrue("Partial index had no where clause.", partial.getDefaultCreateQuery().endsWith("ON locations(recordedAt) WHERE accuracy < 50"));
+        Assert.assertFalse("Partial index has the same name as the full index.", 
+                partial.getDefaultIndexName().equals(new IndexInfo("locations", "recordedAt").getDefaultIndexName()));
+    }
+
+    public void test_scansAndSortsAreReported() {
+        QueryPlanAnalyzer analyzer = new QueryPlanAnalyzer()
+                .register("byProvider", "SELECT * FROM locations WHERE provider = ? ORDER BY recordedAt DESC", "1")
+                .register("byId", "SELECT * FROM locations WHERE _id = ?", "1")
+                .register("invalid", "SELECT * FROM nowhere");
+        List<QueryPlan> plans = analyzer.analyze(mDatabase);
+        Assert.assertEquals("Not every query was explained.", 3, plans.size());
+        Assert.assertEquals("Scan was not found.", Arrays.asList("locations"), plans.get(0).getScannedTables());
+        Assert.assertTrue("Sort was not found.", plans.get(0).hasTempBTree());
+        Assert.assertFalse("Search by id was reported.", plans.get(1).hasProblems());
+        Assert.assertNotNull("Invalid query was not reported.", plans.get(2).getError());
+    }
+
+    public void test_suggestionsRemoveScans() {
+        QueryPlanAnalyzer analyzer = new QueryPlanAnalyzer()
+                .register("byProvider", "SELECT * FROM locations WHERE provider = ? ORDER BY recordedAt DESC", "1")
+                .register("window", "SELECT latitude, longitude FROM locations WHERE recordedAt > ? AND recordedAt <= ?", "0", "1")
+                .register("motionLocations", "SELECT l.latitude, m.confidence FROM motions AS m JOIN locations l ON l.recordedAt = m.recordedAt "
+                        +"WHERE m.activityType = ? ORDER BY m.recordedAt", "Still")
+                .register("types", "SELECT activityType, count(*) FROM motions GROUP BY activityType");
+        List<IndexInfo> suggestions = analyzer.suggestIndexes(mDatabase, analyzer.analyze(mDatabase));
+        Assert.assertTrue("Composite index was not suggested.", suggestions.contains(new IndexInfo("locations", "provider", "recordedAt")));
+        Assert.assertTrue("Covering index was not suggested.", suggestions.contains(new IndexInfo("locations", "recordedAt", "latitude", "longitude")));
+        Assert.assertTrue("Join index was not suggested.", suggestions.contains(new IndexInfo("motions", "activityType", "recordedAt", "confidence")));
+        Assert.assertEquals("Index for the group was not merged into a wider one.", 3, suggestions.size());
+
+        Assert.assertEquals("Suggestions were not applied.", suggestions, analyzer.applySuggestions(mDatabase));
+        for (QueryPlan plan : analyzer.analyze(mDatabase)) {
+            Assert.assertFalse("Plan still has problems: "+plan, plan.hasProblems());
+        }
+        Assert.assertTrue("Indexes were suggested again.", analyzer.suggestIndexes(mDatabase, analyzer.analyze(mDatabase)).isEmpty());
+    }
+
+    public void test_unindexableQueriesHaveNoSuggestions() {
+        QueryPlanAnalyzer analyzer = new QueryPlanAnalyzer()
+                .register("all", "SELECT * FROM locations")
+                .register("either", "SELECT * FROM motions WHERE confidence > ? OR activityType = ?", "50", "Still")
+                .register("expression", "SELECT * FROM locations ORDER BY abs(accuracy)");
+        Assert.assertTrue("Indexes were suggested.", analyzer.suggestIndexes(mDatabase, analyzer.analyze(mDatabase)).isEmpty());
+    }
+
+    public void test_addIndexIsTransactional() {
+        List<IndexInfo> indexes = new ArrayList<IndexInfo>();
+        indexes.add(new IndexInfo("locations", "recordedAt"));
+        indexes.add(new IndexInfo("locations", "missingColumn"));
+        Assert.assertFalse("Invalid index was created.", CursorUtils.addIndex(mDatabase, indexes));
+        Assert.assertTrue("Valid index was not rolled back.", getIndexNames("locations").isEmpty());
+
+        indexes.remove(1);
+        indexes.add(new IndexInfo("motions", new String[] {"recordedAt"}, "confidence > 50"));
+        Assert.assertTrue("Indexes were not created.", CursorUtils.addIndex(mDatabase, indexes));
+        Assert.assertTrue("Indexes could not be created again.", CursorUtils.addIndex(mDatabase, indexes));
+        Assert.assertEquals("Index was not created.", Arrays.asList("idx_locations_recordedAt"), getIndexNames("locations"));
+        Assert.assertEquals("Partial index was not created.", 1, getIndexNames("motions").size());
+    }
+
+    public void test_addIndexThrowsInCallersTransaction() {
+        List<IndexInfo> indexes = new ArrayList<IndexInfo>();
+        indexes.add(new IndexInfo("locations", "recordedAt"));
+        mDatabase.beginTransaction();
+        try {
+            Assert.assertTrue("Index was not created in the transaction.", CursorUtils.addIndex(mDatabase, indexes));
+            indexes.add(new IndexInfo("locations", "missingColumn"));
+            try {
+                CursorUtils.addIndex(mDatabase, indexes);
+                Assert.fail("Invalid index was not reported to the caller.");
+            } catch (SQLException e) {
+                // Expected
+            }
+            Assert.assertTrue("Caller's transaction was ended.", mDatabase.inTransaction());
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        Assert.assertEquals("Index from the caller's transaction was not kept.", Arrays.asList("idx_locations_recordedAt"), getIndexNames("locations"));
+    }
+}
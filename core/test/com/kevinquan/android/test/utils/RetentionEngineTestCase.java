@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.RetentionEngine;
+
+/**
+ * This class checks that a {@link RetentionEngine} deletes expired rows in chunks, thins older rows with a downsampler
+ * without revisiting ranges it has already thinned, and releases free pages when incremental vacuum is enabled.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class RetentionEngineTestCase extends TestCase {
+
+    protected static final String TABLE = "locations";
+    protected static final long NOW = 1400000000000L;
+    protected static final long SECOND = 1000;
+    protected static final long HOUR = 60 * 60 * SECOND;
+    protected static final int ROWS = 4 * 3600;
+
+    protected SQLiteDatabase mDatabase;
+
+    /**
+     * Keeps a group when its state differs from the last kept group
+     */
+    protected static class StateDownsampler implements RetentionEngine.Downsampler {
+        protected long mGroupState = -1;
+        protected long mLastState = -1;
+        protected int mGroups;
+
+        @Override public String[] getColumns() {
+            return new String[] {"state"};
+        }
+
+        @Override public void reset() {
+            mGroupState = -1;
+            mLastState = -1;
+        }
+
+        @Override public void addRow(CursorUtils.RowReader row) {
+            mGroupState = Math.max(mGroupState, row.getLong(0, 0));
+        }
+
+        @Override public boolean endGroup(long time) {
+            mGroups++;
+            long state = mGroupState;
+            mGroupState = -1;
+            if (state == mLastState) {
+                return false;
+            }
+            mLastState = state;
+            return true;
+        }
+    }
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        createTable(mDatabase);
+        // One row a second for the last four hours
+        fill(mDatabase, ROWS, 1);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    protected static void createTable(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE "+TABLE+" (_id INTEGER PRIMARY KEY, recordedAt INTEGER, state INTEGER, payload TEXT)");
+    }
+
+    /**
+     * Insert rows one second apart ending at {@link #NOW}, with the given number of rows recorded at each time
+     */
+    protected static void fill(SQLiteDatabase database, int seconds, int rowsPerTime) {
+        SQLiteStatement insert = database.compileStatement("INSERT INTO "+TABLE+" (recordedAt, state, payload) VALUES (?, ?, ?)");
+        database.beginTransaction();
+        try {
+            for (int i = seconds; i > 0; i--) {
+                for (int r = 0; r < rowsPerTime; r++) {
+                    insert.bindLong(1, NOW - i * SECOND);
+                    // The state changes every ten minutes
+                    insert.bindLong(2, (i / 600) % 2);
+                    insert.bindString(3, "a payload that makes the rows take up some pages");
+                    insert.executeInsert();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    protected static long count(SQLiteDatabase database, String where) {
+        Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM "+TABLE+(where == null ? "" : " WHERE "+where), null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void test_maxAgeDeletesInChunks() {
+        RetentionEngine engine = new RetentionEngine(mDatabase).setChunkSize(1000).setPause(0)
+                .addPolicy(RetentionEngine.newLocationPolicy(TABLE).setMaxAge(HOUR));
+        RetentionEngine.Report report = engine.run(NOW);
+        Assert.assertEquals(3 * 3600, report.getDeleted());
+        Assert.assertEquals(3600, count(mDatabase, null));
+        Assert.assertEquals(0, count(mDatabase, "recordedAt < "+(NOW - HOUR)));
+        Assert.assertFalse(report.isCancelled());
+
+        // Nothing further has expired
+        Assert.assertEquals(0, engine.run(NOW).getDeleted());
+        Assert.assertEquals(10, engine.run(NOW + 10 * SECOND).getDeleted());
+    }
+
+    public void test_intervalDownsampling() {
+        RetentionEngine engine = new RetentionEngine(mDatabase).setChunkSize(256).setPause(0)
+                .addPolicy(RetentionEngine.newLocationPolicy(TABLE)
+                        .setDownsampling(HOUR, new RetentionEngine.IntervalDownsampler(60 * SECOND)));
+        RetentionEngine.Report report = engine.run(NOW);
+        // Three hours at one row a minute, with the last hour untouched
+        Assert.assertEquals(3 * 60, count(mDatabase, "recordedAt < "+(NOW - HOUR)));
+        Assert.assertEquals(3600, count(mDatabase, "recordedAt >= "+(NOW - HOUR)));
+        Assert.assertEquals(3 * 3600 - 3 * 60, report.getDownsampled());
+
+        Cursor cursor = mDatabase.rawQuery("SELECT recordedAt FROM "+TABLE+" WHERE recordedAt < "+(NOW - HOUR)+" ORDER BY recordedAt", null);
+        try {
+            long previous = 0;
+            while (cursor.moveToNext()) {
+                long time = cursor.getLong(0);
+                if (previous != 0) {
+                    Assert.assertEquals(60 * SECOND, time - previous);
+                }
+                previous = time;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void test_downsamplingResumesFromWatermark() {
+        RetentionEngine.Policy policy = RetentionEngine.newLocationPolicy(TABLE)
+                .setDownsampling(HOUR, new RetentionEngine.IntervalDownsampler(60 * SECOND));
+        RetentionEngine engine = new RetentionEngine(mDatabase).setChunkSize(256).setPause(0).addPolicy(policy);
+        engine.run(NOW);
+        long remaining = count(mDatabase, null);
+
+        // Running again at the same time has nothing new to thin
+        Assert.assertEquals(0, engine.run(NOW).getDownsampled());
+        Assert.assertEquals(remaining, count(mDatabase, null));
+
+        // Thinning the next ten minutes continues the spacing from the rows already kept
+        RetentionEngine.Report report = engine.run(NOW + 10 * 60 * SECOND);
+        Assert.assertEquals(10 * 60 - 10, report.getDownsampled());
+        Assert.assertEquals(3 * 60 + 10, count(mDatabase, "recordedAt < "+(NOW - HOUR + 10 * 60 * SECOND)));
+    }
+
+    public void test_groupsAreKeptOrDeletedTogether() {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        try {
+            createTable(database);
+            // Three rows at each time, so groups cross page boundaries
+            fill(database, 3600, 3);
+            StateDownsampler downsampler = new StateDownsampler();
+            RetentionEngine engine = new RetentionEngine(database).setChunkSize(100).setPause(0)
+                    .addPolicy(RetentionEngine.newLocationPolicy(TABLE).setDownsampling(0, downsampler));
+            RetentionEngine.Report report = engine.run(NOW);
+            Assert.assertEquals(3600, downsampler.mGroups);
+            // The state changes every ten minutes, starting part way through the first ten minutes
+            Cursor cursor = database.rawQuery("SELECT recordedAt, COUNT(*), MIN(state) = MAX(state) FROM "+TABLE
+                    +" GROUP BY recordedAt ORDER BY recordedAt", null);
+            try {
+                Assert.assertEquals(7, cursor.getCount());
+                while (cursor.moveToNext()) {
+                    Assert.assertEquals(3, cursor.getInt(1));
+                    Assert.assertEquals(1, cursor.getInt(2));
+                }
+            } finally {
+                cursor.close();
+            }
+            Assert.assertEquals(3 * 3600 - 7 * 3, report.getDownsampled());
+        } finally {
+            database.close();
+        }
+    }
+
+    public void test_cancel() {
+        final RetentionEngine engine = new RetentionEngine(mDatabase).setChunkSize(100).setPause(0);
+        // Cancel part way through the first pass, after 200 groups
+        StateDownsampler downsampler = new StateDownsampler() {
+            @Override public boolean endGroup(long time) {
+                if (mGroups == 200) {
+                    engine.cancel();
+                }
+                return super.endGroup(time);
+            }
+        };
+        RetentionEngine.Policy policy = RetentionEngine.newLocationPolicy(TABLE).setDownsampling(0, downsampler).setMaxAge(HOUR);
+        engine.addPolicy(policy);
+        RetentionEngine.Report report = engine.run(NOW);
+        Assert.assertTrue(report.isCancelled());
+        Assert.assertEquals(0, report.getDeleted());
+        Assert.assertTrue(count(mDatabase, null) > ROWS - 300);
+
+        // The next run starts over rather than treating the range as thinned
+        report = engine.run(NOW);
+        Assert.assertFalse(report.isCancelled());
+        Assert.assertEquals(0, count(mDatabase, "recordedAt < "+(NOW - HOUR)));
+        Assert.assertTrue(report.getDownsampled() > 0);
+    }
+
+    public void test_incrementalVacuum() {
+        Assert.assertTrue(RetentionEngine.enableIncrementalVacuum(mDatabase));
+        RetentionEngine engine = new RetentionEngine(mDatabase).setChunkSize(1000).setPause(0).setVacuumStep(8)
+                .addPolicy(RetentionEngine.newLocationPolicy(TABLE).setMaxAge(HOUR));
+        RetentionEngine.Report report = engine.run(NOW);
+        Assert.assertTrue(report.getVacuumedPages() > 0);
+        Cursor cursor = mDatabase.rawQuery("PRAGMA freelist_count", null);
+        try {
+            cursor.moveToFirst();
+            Assert.assertEquals(0, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void test_chunkedDeleteMatchesOneStatement() {
+        SQLiteDatabase bulk = SQLiteDatabase.create(null);
+        try {
+            createTable(bulk);
+            fill(bulk, ROWS, 1);
+            bulk.execSQL("CREATE INDEX idx_locations_recordedAt ON "+TABLE+"(recordedAt)");
+            int bulkDeleted = bulk.delete(TABLE, "recordedAt < "+(NOW - HOUR), null);
+
+            RetentionEngine engine = new RetentionEngine(mDatabase).setChunkSize(500).setPause(0)
+                    .addPolicy(RetentionEngine.newLocationPolicy(TABLE).setMaxAge(HOUR));
+            Assert.assertEquals(bulkDeleted, engine.run(NOW).getDeleted());
+            Assert.assertEquals(count(bulk, null), count(mDatabase, null));
+        } finally {
+            bulk.close();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.test.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+
+import com.kevinquan.android.utils.ContentProviderUtils;
+import com.kevinquan.android.utils.WriteBehindQueue;
+
+/**
+ * This class checks that a {@link WriteBehindQueue} merges updates to the same row, flushes on its thresholds and on a
+ * barrier, reports failures through its futures, and keeps one background thread through a shutdown.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class WriteBehindQueueTestCase extends TestCase {
+
+    protected static final Uri ITEMS_URI = Uri.parse("content://test/items");
+    protected static final int WRITES = 1000;
+
+    /**
+     * Records the operations that reach the provider
+     */
+    protected static class MemoryProvider {
+        protected final List<ContentValues> mApplied = new ArrayList<ContentValues>();
+        protected final List<Integer> mBatchSizes = new ArrayList<Integer>();
+        protected final List<Thread> mThreads = new ArrayList<Thread>();
+        protected final CountDownLatch mStarted = new CountDownLatch(1);
+        protected CountDownLatch mRelease;
+        protected long mNextId = 1;
+        protected boolean mFail;
+        protected boolean mError;
+
+        protected synchronized ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws Exception {
+            mThreads.add(Thread.currentThread());
+            mStarted.countDown();
+            if (mRelease != null) {
+                mRelease.await();
+            }
+            if (mFail) {
+                throw new OperationApplicationException("Constraint failed");
+            }
+            if (mError) {
+                throw new AssertionError("Provider failed with an error");
+            }
+            mBatchSizes.add(operations.size());
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                mApplied.add(operations.get(i).resolveValueBackReferences(results, i));
+                results[i] = new ContentProviderResult(Uri.withAppendedPath(operations.get(i).getUri(), String.valueOf(mNextId++)));
+            }
+            return results;
+        }
+
+        protected ContentProviderUtils.ChunkedBatch newBatch() {
+            return new ContentProviderUtils.ChunkedBatch(null, "test") {
+                @Override protected ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws Exception {
+                    return MemoryProvider.this.applyBatch(operations);
+                }
+            };
+        }
+    }
+
+    protected static class MemoryQueue extends WriteBehindQueue {
+        protected final MemoryProvider mProvider;
+
+        public MemoryQueue(MemoryProvider provider) {
+            super(null, "test");
+            mProvider = provider;
+        }
+
+        @Override protected ContentProviderUtils.ChunkedBatch createBatch() {
+            return mProvider.newBatch().setChunkSize(mChunkSize);
+        }
+    }
+
+    protected ContentValues values(String key, Object value) {
+        ContentValues values = new ContentValues();
+        values.put(key, String.valueOf(value));
+        return values;
+    }
+
+    public void test_updatesToTheSameRowAreMerged() throws Exception {
+        MemoryProvider provider = new MemoryProvider();
+        MemoryQueue queue = new MemoryQueue(provider);
+        queue.setMaxDelay(10000);
+        List<Future<ContentProviderResult>> results = new ArrayList<Future<ContentProviderResult>>();
+        for (int i = 0; i < 50; i++) {
+            Uri row = Uri.withAppendedPath(ITEMS_URI, String.valueOf(i % 5));
+            results.add(queue.update(row, values("count", i)));
+            if (i % 2 == 0) {
+                results.add(queue.update(row, values("even", i)));
+            }
+        }
+        queue.barrier().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Updates were not merged.", 5, provider.mApplied.size());
+        Assert.assertEquals("Merged updates were not counted.", 70, queue.getMergedCount());
+        for (int row = 0; row < 5; row++) {
+            Assert.assertEquals("Later value did not replace the earlier one.", String.valueOf(45 + row), provider.mApplied.get(row).getAsString("count"));
+            Assert.assertNotNull("Values from every update were not kept.", provider.mApplied.get(row).getAsString("even"));
+        }
+        for (Future<ContentProviderResult> result : results) {
+            Assert.assertTrue("Merged update was not completed.", result.isDone());
+            Assert.assertNotNull("Merged update has no result.", result.get());
+        }
+        queue.shutdown();
+    }
+
+    public void test_otherWritesStopMerging() throws Exception {
+        MemoryProvider provider = new MemoryProvider();
+        MemoryQueue queue = new MemoryQueue(provider);
+        queue.setMaxDelay(10000);
+        Uri row = Uri.withAppendedPath(ITEMS_URI, "1");
+        queue.update(row, values("name", "first"));
+        queue.delete(ITEMS_URI, "name = ?", new String[] {"first"});
+        queue.update(row, values("name", "second"));
+        queue.update(row, values("name", "third"));
+        queue.barrier().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Update was merged across a delete.", 3, provider.mApplied.size());
+        Assert.assertEquals("Update was applied out of order.", "first", provider.mApplied.get(0).getAsString("name"));
+        Assert.assertEquals("Updates after the delete were not merged.", "third", provider.mApplied.get(2).getAsString("name"));
+        queue.shutdown();
+    }
+
+    public void test_flushThresholds() throws Exception {
+        MemoryProvider provider = new MemoryProvider();
+        MemoryQueue queue = new MemoryQueue(provider);
+        queue.setMaxDelay(10000).setMaxPending(10);
+        List<Future<ContentProviderResult>> results = new ArrayList<Future<ContentProviderResult>>();
+        for (int i = 0; i < 10; i++) {
+            results.add(queue.insert(ITEMS_URI, values("index", i)));
+        }
+        Assert.assertNotNull("Size threshold did not flush the writes.", results.get(9).get(5, TimeUnit.SECONDS));
+        for (int i = 10; i < 15; i++) {
+            results.add(queue.insert(ITEMS_URI, values("index", i)));
+        }
+        Thread.sleep(100);
+        Assert.assertFalse("Writes below the size threshold were flushed.", results.get(14).isDone());
+
+        queue.setMaxDelay(20);
+        Assert.assertNotNull("Delay threshold did not flush the remaining writes.", results.get(14).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("Not every write was applied.", 15, queue.getAppliedCount());
+        for (int i = 0; i < 15; i++) {
+            Assert.assertEquals("Writes were applied out of order.", String.valueOf(i), provider.mApplied.get(i).getAsString("index"));
+        }
+        queue.shutdown();
+    }
+
+    public void test_failuresCompleteFutures() throws Exception {
+        MemoryProvider provider = new MemoryProvider();
+        provider.mFail = true;
+        MemoryQueue queue = new MemoryQueue(provider);
+        Future<ContentProviderResult> result = queue.insert(ITEMS_URI, values("name", "failed"));
+        queue.barrier().get(5, TimeUnit.SECONDS);
+        try {
+            result.get();
+            Assert.fail("Failed write completed normally.");
+        } catch (ExecutionException ee) {
+            Assert.assertTrue("Failure has the wrong cause.", ee.getCause() instanceof OperationApplicationException);
+        }
+        Assert.assertEquals("Failure was not counted.", 1, queue.getFailedCount());
+        queue.shutdown();
+    }
+
+    public void test_manySmallWritesAreBatched() throws Exception {
+        MemoryProvider provider = new MemoryProvider();
+        MemoryQueue queue = new MemoryQueue(provider);
+        for (int i = 0; i < WRITES; i++) {
+            queue.insert(ITEMS_URI, values("index", i));
+        }
+        queue.barrier().get(10, TimeUnit.SECONDS);
+        queue.shutdown();
+
+        Assert.assertEquals("Not every queued write was applied.", WRITES, provider.mApplied.size());
+        Assert.assertTrue("Queued writes were not batched.", provider.mBatchSizes.size() < WRITES / 10);
+    }
+
+    public void test_writeDuringShutdownUsesSameThread() throws Exception {
+        MemoryProvider provider = new MemoryProvider();
+        provider.mRelease = new CountDownLatch(1);
+        final MemoryQueue queue = new MemoryQueue(provider);
+        queue.setMaxDelay(0);
+        Future<ContentProviderResult> first = queue.insert(ITEMS_URI, values("index", 0));
+        Assert.assertTrue("First write was not applied.", provider.mStarted.await(5, TimeUnit.SECONDS));
+
+        Thread stopping = new Thread(new Runnable() {
+            @Override public void run() {
+                queue.shutdown();
+            }
+        });
+        stopping.start();
+        while (stopping.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        // Arrives while the first write is still being applied
+        Future<ContentProviderResult> second = queue.insert(ITEMS_URI, values("index", 1));
+        provider.mRelease.countDown();
+
+        Assert.assertNotNull("First write was not applied.", first.get(5, TimeUnit.SECONDS));
+        Assert.assertNotNull("Write queued while stopping was not applied.", second.get(5, TimeUnit.SECONDS));
+        stopping.join(5000);
+        Assert.assertFalse("Shutdown did not return.", stopping.isAlive());
+        Assert.assertEquals("Writes were applied out of order.", "1", provider.mApplied.get(1).getAsString("index"));
+        Assert.assertEquals("Writes were not applied in two flushes.", 2, provider.mThreads.size());
+        Assert.assertSame("A second thread applied writes while the first was stopping.", provider.mThreads.get(0), provider.mThreads.get(1));
+    }
+
+    public void test_errorFailsTheFlush() throws Exception {
+        MemoryProvider provider = new MemoryProvider();
+        provider.mError = true;
+        MemoryQueue queue = new MemoryQueue(provider);
+        Future<ContentProviderResult> result = queue.insert(ITEMS_URI, values("name", "failed"));
+        try {
+            queue.barrier().get(5, TimeUnit.SECONDS);
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail("Failed write completed normally.");
+        } catch (ExecutionException ee) {
+            Assert.assertTrue("Failure has the wrong cause.", ee.getCause() instanceof AssertionError);
+        } catch (TimeoutException te) {
+            Assert.fail("Flush that threw an error never completed.");
+        }
+        provider.mError = false;
+        Assert.assertNotNull("Queue stopped applying writes after an error.", queue.insert(ITEMS_URI, values("name", "applied")).get(5, TimeUnit.SECONDS));
+        queue.shutdown();
+    }
+}
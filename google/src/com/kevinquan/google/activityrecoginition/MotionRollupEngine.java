@@ -0,0 +1,363 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.google.activityrecoginition.model.Motion;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+import com.kevinquan.google.activityrecoginition.model.MotionRollup;
+import com.kevinquan.google.activityrecoginition.model.MotionRollup.Granularity;
+
+/**
+ * Incrementally aggregates raw motion rows (stored using the {@link Motion} columns) into per bucket rollups of the time
+ * spent in each {@link MotionType}.
+ *
+ * Each snapshot's most probable motion is considered to last until the next snapshot, but no longer than the maximum gap.
+ * As the duration of the most recent snapshot is not known until the next snapshot arrives, the most recent snapshot's
+ * timestamp is persisted as a watermark and is rolled up on the following run.  Intervals that cross a bucket boundary are
+ * split between the buckets.  Snapshots where several motions share the highest confidence have no most probable motion,
+ * so their intervals are rolled up separately under {@link MotionRollup#TIED_ACTIVITY_TYPE} rather than credited to any
+ * motion type.
+ *
+ * Rows that arrive late (i.e., inserted after a run but recorded before the watermark) are detected by their row ID.  When
+ * found, all rollups from the start of the coarsest bucket containing the late row are deleted and recomputed.
+ *
+ * Instances are not thread safe and should be run from a single background thread.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionRollupEngine {
+
+    public static final String STATE_TABLE = "motionRollupState";
+    public static final String COLUMN_ROLLUP_TABLE = "rollupTable";
+    public static final String COLUMN_WATERMARK = "watermark";
+    public static final String COLUMN_LAST_ROW_ID = "lastRowId";
+
+    protected static final long NO_WATERMARK = -1;
+    protected static final int VALUES_PER_TYPE = 3;
+    protected static final int OFFSET_DURATION = 0;
+    protected static final int OFFSET_CONFIDENCE_DURATION = 1;
+    protected static final int OFFSET_SAMPLES = 2;
+    /** Tied snapshots are aggregated after the motion types */
+    protected static final int TIED_OFFSET = MotionType.values().length * VALUES_PER_TYPE;
+
+    protected String mMotionTable;
+    protected String mRollupTable;
+    protected long mMaxGapMillis;
+    protected Granularity[] mGranularities;
+    protected Granularity mCoarsestGranularity;
+    protected Calendar mScratch;
+    protected List<Map<Long,long[]>> mPending;
+
+    /**
+     * @param motionTable The table storing raw motion rows
+     * @param rollupTable The table to store rollups in
+     * @param maxGapMillis The longest time a snapshot's motion is considered to last if no other snapshot follows it
+     * @param timeZone The time zone used to align buckets
+     * @param granularities The bucket sizes to roll up into
+     */
+    public MotionRollupEngine(String motionTable, String rollupTable, long maxGapMillis, TimeZone timeZone, Granularity... granularities) {
+        if (TextUtils.isEmpty(motionTable) || TextUtils.isEmpty(rollupTable)) {
+            throw new IllegalArgumentException("Motion and rollup tables must be provided");
+        }
+        mMotionTable = motionTable;
+        mRollupTable = rollupTable;
+        mMaxGapMillis = maxGapMillis;
+        mGranularities = granularities == null || granularities.length == 0 ? Granularity.values() : granularities;
+        mCoarsestGranularity = mGranularities[0];
+        for (Granularity granularity : mGranularities) {
+            if (granularity.ordinal() > mCoarsestGranularity.ordinal()) {
+                mCoarsestGranularity = granularity;
+            }
+        }
+        mScratch = Calendar.getInstance(timeZone == null ? TimeZone.getDefault() : timeZone);
+        mPending = new ArrayList<Map<Long,long[]>>(mGranularities.length);
+        for (int i = 0; i < mGranularities.length; i++) {
+            mPending.add(new HashMap<Long,long[]>());
+        }
+    }
+
+    public MotionRollupEngine(String motionTable, String rollupTable, long maxGapMillis) {
+        this(motionTable, rollupTable, maxGapMillis, null);
+    }
+
+    /**
+     * Create the rollup and state tables if they do not exist.  Also called at the start of every run.
+     * @param database The database to create the tables in
+     */
+    public void createTables(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS "+mRollupTable+" ("
+                +MotionRollup.COLUMN_GRANULARITY+" INTEGER NOT NULL, "
+                +MotionRollup.COLUMN_BUCKET_START+" INTEGER NOT NULL, "
+                +MotionRollup.COLUMN_ACTIVITY_TYPE+" TEXT NOT NULL, "
+                +MotionRollup.COLUMN_DURATION+" INTEGER NOT NULL DEFAULT 0, "
+                +MotionRollup.COLUMN_CONFIDENCE_DURATION+" INTEGER NOT NULL DEFAULT 0, "
+                +MotionRollup.COLUMN_SAMPLES+" INTEGER NOT NULL DEFAULT 0, "
+                +"PRIMARY KEY ("+MotionRollup.COLUMN_GRANULARITY+", "+MotionRollup.COLUMN_BUCKET_START+", "+MotionRollup.COLUMN_ACTIVITY_TYPE+"))");
+        database.execSQL("CREATE TABLE IF NOT EXISTS "+STATE_TABLE+" ("
+                +COLUMN_ROLLUP_TABLE+" TEXT PRIMARY KEY, "
+                +COLUMN_WATERMARK+" INTEGER NOT NULL, "
+                +COLUMN_LAST_ROW_ID+" INTEGER NOT NULL)");
+    }
+
+    /**
+     * Roll up all motion rows that have arrived since the last run
+     * @param database The database containing the motion table
+     * @return The number of motion rows that were read
+     */
+    public int run(SQLiteDatabase database) {
+        if (database == null) {
+            return 0;
+        }
+        createTables(database);
+        int rowsRead = 0;
+        database.beginTransaction();
+        try {
+            long watermark = NO_WATERMARK;
+            long lastRowId = 0;
+            Cursor state = null;
+            try {
+                state = database.query(STATE_TABLE, null, COLUMN_ROLLUP_TABLE+"=?", new String[] {mRollupTable}, null, null, null);
+                if (CursorUtils.hasResults(state)) {
+                    watermark = CursorUtils.safeGetLong(state, COLUMN_WATERMARK, NO_WATERMARK);
+                    lastRowId = CursorUtils.safeGetLong(state, COLUMN_LAST_ROW_ID, 0);
+                }
+            } finally {
+                CursorUtils.safeClose(state);
+            }
+            long maxRowId = queryForLong(database, "SELECT MAX(rowid) FROM "+mMotionTable, null, lastRowId);
+
+            long startFrom = watermark;
+            long clipFrom = Long.MIN_VALUE;
+            if (watermark != NO_WATERMARK) {
+                long lateRecordedAt = queryForLong(database, "SELECT MIN("+Motion.COLUMN_RECORDED_AT+") FROM "+mMotionTable
+                        +" WHERE rowid > "+lastRowId+" AND "+Motion.COLUMN_RECORDED_AT+" < "+watermark, null, NO_WATERMARK);
+                if (lateRecordedAt != NO_WATERMARK) {
+                    clipFrom = mCoarsestGranularity.getBucketStart(mScratch, lateRecordedAt);
+                    Log.d(TAG, "Late motion recorded at "+lateRecordedAt+", recomputing rollups from "+clipFrom);
+                    database.delete(mRollupTable, MotionRollup.COLUMN_BUCKET_START+" >= "+clipFrom, null);
+                    // The snapshot before the recompute point may extend into it
+                    startFrom = queryForLong(database, "SELECT MAX("+Motion.COLUMN_RECORDED_AT+") FROM "+mMotionTable
+                            +" WHERE "+Motion.COLUMN_RECORDED_AT+" < "+clipFrom, null, NO_WATERMARK);
+                }
+            }
+
+            long newWatermark = watermark;
+            Cursor rows = null;
+            try {
+                rows = database.rawQuery("SELECT "+Motion.COLUMN_ACTIVITY_TYPE+", "+Motion.COLUMN_CONFIDENCE+", "+Motion.COLUMN_RECORDED_AT
+                        +" FROM "+mMotionTable
+                        +(startFrom == NO_WATERMARK ? "" : " WHERE "+Motion.COLUMN_RECORDED_AT+" >= "+startFrom)
+                        +" ORDER BY "+Motion.COLUMN_RECORDED_AT, null);
+                newWatermark = accumulate(rows, clipFrom, newWatermark);
+                rowsRead = rows == null ? 0 : rows.getCount();
+            } finally {
+                CursorUtils.safeClose(rows);
+            }
+
+            flush(database);
+            database.execSQL("INSERT OR REPLACE INTO "+STATE_TABLE+" ("+COLUMN_ROLLUP_TABLE+", "+COLUMN_WATERMARK+", "+COLUMN_LAST_ROW_ID+") VALUES (?, ?, ?)",
+                    new Object[] {mRollupTable, newWatermark, maxRowId});
+            database.setTransactionSuccessful();
+        } finally {
+            for (Map<Long,long[]> pending : mPending) {
+                pending.clear();
+            }
+            database.endTransaction();
+        }
+        return rowsRead;
+    }
+
+    /**
+     * Retrieve the rollups for a time range
+     * @param database The database containing the rollup table
+     * @param granularity The bucket size to retrieve
+     * @param from The start of the range (inclusive)
+     * @param to The end of the range (exclusive)
+     * @return The rollups in the range ordered by bucket
+     */
+    @NonNull
+    public List<MotionRollup> getRollups(SQLiteDatabase database, Granularity granularity, long from, long to) {
+        List<MotionRollup> rollups = new ArrayList<MotionRollup>();
+        if (database == null || granularity == null) {
+            return rollups;
+        }
+        Cursor result = null;
+        try {
+            result = database.query(mRollupTable, null,
+                    MotionRollup.COLUMN_GRANULARITY+"=? AND "+MotionRollup.COLUMN_BUCKET_START+">=? AND "+MotionRollup.COLUMN_BUCKET_START+"<?",
+                    new String[] {String.valueOf(granularity.getDbId()), String.valueOf(from), String.valueOf(to)},
+                    null, null, MotionRollup.COLUMN_BUCKET_START+", "+MotionRollup.COLUMN_ACTIVITY_TYPE);
+            if (CursorUtils.hasResults(result)) {
+                do {
+                    rollups.add(new MotionRollup(result));
+                } while (result.moveToNext());
+            }
+        } finally {
+            CursorUtils.safeClose(result);
+        }
+        return rollups;
+    }
+
+    /**
+     * Walk the motion rows, grouping rows with the same timestamp into a snapshot, and attribute each snapshot's interval
+     * @return The timestamp of the last snapshot, whose interval has not been attributed
+     */
+    protected long accumulate(Cursor rows, long clipFrom, long watermark) {
+        if (!CursorUtils.hasResults(rows)) {
+            return watermark;
+        }
+        int typeIndex = rows.getColumnIndex(Motion.COLUMN_ACTIVITY_TYPE);
+        int confidenceIndex = rows.getColumnIndex(Motion.COLUMN_CONFIDENCE);
+        int recordedAtIndex = rows.getColumnIndex(Motion.COLUMN_RECORDED_AT);
+
+        long snapshotTime = NO_WATERMARK;
+        MotionType bestType = null;
+        int bestConfidence = -1;
+        boolean hasTie = false;
+        do {
+            long recordedAt = rows.getLong(recordedAtIndex);
+            if (recordedAt <= 0) {
+                continue;
+            }
+            if (recordedAt != snapshotTime) {
+                if (snapshotTime != NO_WATERMARK) {
+                    attribute(snapshotTime, recordedAt, hasTie ? null : bestType, bestConfidence, clipFrom);
+                }
+                snapshotTime = recordedAt;
+                bestType = null;
+                bestConfidence = -1;
+                hasTie = false;
+            }
+            // Matches MotionSnapshot.getMostProbableMotion()
+            int confidence = rows.getInt(confidenceIndex);
+            if (confidence > bestConfidence) {
+                bestType = MotionType.fromValue(rows.getString(typeIndex));
+                bestConfidence = confidence;
+                hasTie = false;
+            } else if (confidence == bestConfidence) {
+                hasTie = true;
+            }
+        } while (rows.moveToNext());
+        return snapshotTime;
+    }
+
+    /**
+     * Split the interval of a snapshot across the buckets of each granularity
+     * @param type The most probable motion of the snapshot, or null if it was tied
+     */
+    protected void attribute(long start, long nextStart, MotionType type, int confidence, long clipFrom) {
+        long end = start > Long.MAX_VALUE - mMaxGapMillis ? nextStart : Math.min(nextStart, start + mMaxGapMillis);
+        start = Math.max(start, clipFrom);
+        if (end <= start) {
+            return;
+        }
+        int typeOffset = type == null ? TIED_OFFSET : type.ordinal() * VALUES_PER_TYPE;
+        for (int i = 0; i < mGranularities.length; i++) {
+            Granularity granularity = mGranularities[i];
+            Map<Long,long[]> pending = mPending.get(i);
+            long pieceStart = start;
+            long bucketStart = granularity.getBucketStart(mScratch, pieceStart);
+            while (pieceStart < end) {
+                long bucketEnd = granularity.getNextBucketStart(mScratch, bucketStart);
+                long pieceEnd = Math.min(end, bucketEnd);
+                long[] values = pending.get(bucketStart);
+                if (values == null) {
+                    values = new long[TIED_OFFSET + VALUES_PER_TYPE];
+                    pending.put(bucketStart, values);
+                }
+                values[typeOffset + OFFSET_DURATION] += pieceEnd - pieceStart;
+                values[typeOffset + OFFSET_CONFIDENCE_DURATION] += (pieceEnd - pieceStart) * confidence;
+                values[typeOffset + OFFSET_SAMPLES]++;
+                pieceStart = pieceEnd;
+                bucketStart = bucketEnd;
+            }
+        }
+    }
+
+    /**
+     * Add the pending aggregates to the rollup table
+     */
+    protected void flush(SQLiteDatabase database) {
+        SQLiteStatement insert = database.compileStatement("INSERT OR IGNORE INTO "+mRollupTable+" ("
+                +MotionRollup.COLUMN_GRANULARITY+", "+MotionRollup.COLUMN_BUCKET_START+", "+MotionRollup.COLUMN_ACTIVITY_TYPE+") VALUES (?, ?, ?)");
+        SQLiteStatement update = database.compileStatement("UPDATE "+mRollupTable+" SET "
+                +MotionRollup.COLUMN_DURATION+" = "+MotionRollup.COLUMN_DURATION+" + ?, "
+                +MotionRollup.COLUMN_CONFIDENCE_DURATION+" = "+MotionRollup.COLUMN_CONFIDENCE_DURATION+" + ?, "
+                +MotionRollup.COLUMN_SAMPLES+" = "+MotionRollup.COLUMN_SAMPLES+" + ? "
+                +"WHERE "+MotionRollup.COLUMN_GRANULARITY+" = ? AND "+MotionRollup.COLUMN_BUCKET_START+" = ? AND "+MotionRollup.COLUMN_ACTIVITY_TYPE+" = ?");
+        try {
+            MotionType[] types = MotionType.values();
+            for (int i = 0; i < mGranularities.length; i++) {
+                int granularityId = mGranularities[i].getDbId();
+                for (Map.Entry<Long,long[]> entry : mPending.get(i).entrySet()) {
+                    long[] values = entry.getValue();
+                    for (int t = 0; t <= types.length; t++) {
+                        int typeOffset = t * VALUES_PER_TYPE;
+                        if (values[typeOffset + OFFSET_SAMPLES] == 0) {
+                            continue;
+                        }
+                        String type = t == types.length ? MotionRollup.TIED_ACTIVITY_TYPE : types[t].toString();
+                        insert.bindLong(1, granularityId);
+                        insert.bindLong(2, entry.getKey());
+                        insert.bindString(3, type);
+                        insert.executeInsert();
+                        update.bindLong(1, values[typeOffset + OFFSET_DURATION]);
+                        update.bindLong(2, values[typeOffset + OFFSET_CONFIDENCE_DURATION]);
+                        update.bindLong(3, values[typeOffset + OFFSET_SAMPLES]);
+                        update.bindLong(4, granularityId);
+                        update.bindLong(5, entry.getKey());
+                        update.bindString(6, type);
+                        update.execute();
+                    }
+                }
+            }
+        } finally {
+            insert.close();
+            update.close();
+        }
+    }
+
+    protected static long queryForLong(SQLiteDatabase database, String query, String[] args, long defaultValue) {
+        Cursor result = null;
+        try {
+            result = database.rawQuery(query, args);
+            if (CursorUtils.hasResults(result) && !result.isNull(0)) {
+                return result.getLong(0);
+            }
+        } finally {
+            CursorUtils.safeClose(result);
+        }
+        return defaultValue;
+    }
+
+    private static final String TAG = MotionRollupEngine.class.getSimpleName();
+}
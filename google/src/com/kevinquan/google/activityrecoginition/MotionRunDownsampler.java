@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.RetentionEngine;
+import com.kevinquan.google.activityrecoginition.model.Motion;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+
+/**
+ * Thins raw motion rows (stored using the {@link Motion} columns) for a {@link RetentionEngine} by collapsing runs of
+ * snapshots that share the same most probable motion into the first snapshot of the run.
+ *
+ * A snapshot is kept when its most probable motion differs from the last kept snapshot, or when the maximum gap has passed
+ * since the last kept snapshot so that long runs still record when they ended to within the gap.  The motions of a
+ * snapshot are kept or deleted together.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionRunDownsampler implements RetentionEngine.Downsampler {
+
+    public static final long DEFAULT_MAX_GAP_MS = 10 * 60 * 1000;
+
+    protected static final int COLUMN_SLOT_ACTIVITY_TYPE = 0;
+    protected static final int COLUMN_SLOT_CONFIDENCE = 1;
+
+    protected final long mMaxGapMs;
+    protected MotionType mGroupType;
+    protected int mGroupConfidence;
+    protected MotionType mLastType;
+    protected long mLastKept;
+
+    /**
+     * A policy for a table of raw motion rows
+     */
+    public static RetentionEngine.Policy newMotionPolicy(String table) {
+        return new RetentionEngine.Policy(table, Motion.COLUMN_RECORDED_AT);
+    }
+
+    public MotionRunDownsampler() {
+        this(DEFAULT_MAX_GAP_MS);
+    }
+
+    /**
+     * @param maxGapMs The longest time between kept snapshots of the same motion, or 0 to keep only the start of each run
+     */
+    public MotionRunDownsampler(long maxGapMs) {
+        mMaxGapMs = Math.max(0, maxGapMs);
+    }
+
+    @Override public String[] getColumns() {
+        return new String[] {Motion.COLUMN_ACTIVITY_TYPE, Motion.COLUMN_CONFIDENCE};
+    }
+
+    @Override public void reset() {
+        mGroupType = null;
+        mGroupConfidence = -1;
+        mLastType = null;
+    }
+
+    @Override public void addRow(CursorUtils.RowReader row) {
+        int confidence = row.getInt(COLUMN_SLOT_CONFIDENCE, 0);
+        if (mGroupType == null || confidence > mGroupConfidence) {
+            mGroupType = MotionType.fromValue(row.getString(COLUMN_SLOT_ACTIVITY_TYPE));
+            mGroupConfidence = confidence;
+        }
+    }
+
+    @Override public boolean endGroup(long time) {
+        MotionType type = mGroupType;
+        mGroupType = null;
+        mGroupConfidence = -1;
+        if (mLastType != null && type == mLastType && (mMaxGapMs == 0 || time - mLastKept < mMaxGapMs)) {
+            return false;
+        }
+        mLastType = type;
+        mLastKept = time;
+        return true;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.google.activityrecoginition.model.Motion;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+import com.kevinquan.google.activityrecoginition.model.MotionIntervalIndex;
+import com.kevinquan.google.activityrecoginition.model.MotionIntervalIndex.TimeBase;
+
+/**
+ * Persists a {@link MotionIntervalIndex} as a sparse index over raw motion rows: one row per motion segment rather than one
+ * row per motion, with an index on the segment start.  Point and range lookups are answered with a single indexed seek
+ * instead of loading and scanning snapshots.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionSegmentStore {
+
+    public static final String COLUMN_START = "segmentStart";
+    public static final String COLUMN_END = "segmentEnd";
+    public static final String COLUMN_ACTIVITY_TYPE = Motion.COLUMN_ACTIVITY_TYPE;
+    public static final String COLUMN_CONFIDENCE = Motion.COLUMN_CONFIDENCE;
+
+    protected String mTable;
+    protected TimeBase mTimeBase;
+
+    /**
+     * @param table The table to store segments in
+     * @param timeBase The clock the segments are keyed by.  Separate tables should be used for each clock.
+     */
+    public MotionSegmentStore(String table, TimeBase timeBase) {
+        if (TextUtils.isEmpty(table)) {
+            throw new IllegalArgumentException("Segment table must be provided");
+        }
+        mTable = table;
+        mTimeBase = timeBase == null ? TimeBase.RecordedAt : timeBase;
+    }
+
+    public void createTable(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS "+mTable+" ("
+                +COLUMN_START+" INTEGER PRIMARY KEY, "
+                +COLUMN_END+" INTEGER NOT NULL, "
+                +COLUMN_ACTIVITY_TYPE+" TEXT NOT NULL, "
+                +COLUMN_CONFIDENCE+" INTEGER NOT NULL)");
+    }
+
+    /**
+     * Replace the stored segments covered by the index with the segments of the index.  Stored segments which only partly
+     * overlap the index are clipped to the part outside it.
+     * @param database The database to write to
+     * @param index The index to store
+     */
+    public void write(SQLiteDatabase database, MotionIntervalIndex index) {
+        if (database == null || index == null || index.size() == 0) {
+            return;
+        }
+        if (index.getTimeBase() != mTimeBase) {
+            throw new IllegalArgumentException("Index is keyed by "+index.getTimeBase()+" but store is keyed by "+mTimeBase);
+        }
+        createTable(database);
+        long from = index.getStart(0);
+        long to = index.getEnd(index.size() - 1);
+        database.beginTransaction();
+        SQLiteStatement insert = null;
+        Cursor straddling = null;
+        try {
+            insert = database.compileStatement("INSERT OR REPLACE INTO "+mTable+" ("+COLUMN_START+", "+COLUMN_END+", "
+                    +COLUMN_ACTIVITY_TYPE+", "+COLUMN_CONFIDENCE+") VALUES (?, ?, ?, ?)");
+            // Segments don't overlap, so at most one stored segment straddles the start of the index
+            straddling = database.rawQuery("SELECT "+COLUMN_END+", "+COLUMN_ACTIVITY_TYPE+", "+COLUMN_CONFIDENCE+" FROM "+mTable
+                    +" WHERE "+COLUMN_START+" < "+from+" AND "+COLUMN_END+" > "+from, null);
+            if (CursorUtils.hasResults(straddling) && straddling.getLong(0) > to) {
+                // The stored segment covers the whole index, so keep its tail after the index
+                insertSegment(insert, to, straddling.getLong(0), straddling.getString(1), straddling.getInt(2));
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_END, from);
+            database.update(mTable, values, COLUMN_START+" < "+from+" AND "+COLUMN_END+" > "+from, null);
+            values.clear();
+            values.put(COLUMN_START, to);
+            database.update(mTable, values, COLUMN_START+" >= "+from+" AND "+COLUMN_START+" < "+to+" AND "+COLUMN_END+" > "+to, null);
+            database.delete(mTable, COLUMN_START+" >= "+from+" AND "+COLUMN_START+" < "+to, null);
+            for (int i = 0; i < index.size(); i++) {
+                insertSegment(insert, index.getStart(i), index.getEnd(i), index.getType(i).toString(), index.getConfidence(i));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            CursorUtils.safeClose(straddling);
+            if (insert != null) {
+                insert.close();
+            }
+            database.endTransaction();
+        }
+    }
+
+    protected void insertSegment(SQLiteStatement insert, long start, long end, String type, int confidence) {
+        insert.bindLong(1, start);
+        insert.bindLong(2, end);
+        insert.bindString(3, type);
+        insert.bindLong(4, confidence);
+        insert.executeInsert();
+    }
+
+    /**
+     * Find the most probable motion at a point in time
+     * @param database The database to read from
+     * @param time The time to look up
+     * @return The motion, or null if no segment covers the time
+     */
+    @Nullable
+    public MotionType getTypeAt(SQLiteDatabase database, long time) {
+        MotionIntervalIndex index = query(database, time, time + 1);
+        return index.getTypeAt(time);
+    }
+
+    /**
+     * Load the segments overlapping a range of time
+     * @param database The database to read from
+     * @param from The start of the range (inclusive)
+     * @param to The end of the range (exclusive)
+     * @return An index of the overlapping segments
+     */
+    @NonNull
+    public MotionIntervalIndex query(SQLiteDatabase database, long from, long to) {
+        Cursor result = null;
+        try {
+            // Seek to the last segment starting at or before the range, then scan forward on the primary key
+            result = database.rawQuery("SELECT "+COLUMN_START+", "+COLUMN_END+", "+COLUMN_ACTIVITY_TYPE+", "+COLUMN_CONFIDENCE
+                    +" FROM "+mTable
+                    +" WHERE "+COLUMN_START+" >= IFNULL((SELECT MAX("+COLUMN_START+") FROM "+mTable+" WHERE "+COLUMN_START+" <= "+from+"), "+from+")"
+                    +" AND "+COLUMN_START+" < "+to
+                    +" ORDER BY "+COLUMN_START, null);
+            return fromCursor(result);
+        } finally {
+            CursorUtils.safeClose(result);
+        }
+    }
+
+    @NonNull
+    protected MotionIntervalIndex fromCursor(Cursor result) {
+        int count = result == null ? 0 : result.getCount();
+        long[] starts = new long[Math.max(1, count)];
+        long[] ends = new long[starts.length];
+        MotionType[] types = new MotionType[starts.length];
+        int[] confidences = new int[starts.length];
+        int size = 0;
+        if (CursorUtils.hasResults(result)) {
+            do {
+                starts[size] = result.getLong(0);
+                ends[size] = result.getLong(1);
+                types[size] = MotionType.fromValue(result.getString(2));
+                confidences[size] = result.getInt(3);
+                size++;
+            } while (result.moveToNext());
+        }
+        return MotionIntervalIndex.fromSegments(mTimeBase, starts, ends, types, confidences, size);
+    }
+}
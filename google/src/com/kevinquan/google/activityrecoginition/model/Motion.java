@@ -15,6 +15,8 @@
  */
 package com.kevinquan.google.activityrecoginition.model;
 
+import java.io.IOException;
+
 import org.json.JSONObject;
 
 import android.database.Cursor;
@@ -24,8 +26,16 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.android.gms.location.DetectedActivity;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.kevinquan.android.codec.CodecField;
+import com.kevinquan.android.codec.GenerateCodec;
 import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.JSONEnumTable;
+import com.kevinquan.android.utils.JSONKeyTable;
+import com.kevinquan.android.utils.JSONTokenizer;
 import com.kevinquan.android.utils.JSONUtils;
+import com.kevinquan.android.utils.NDJSONCodec;
 
 /**
  * Models a Google Play activity recognition activity
@@ -33,6 +43,7 @@ import com.kevinquan.android.utils.JSONUtils;
  * @author Kevin Quan (kevin.quan@gmail.com)
  *
  */
+@GenerateCodec
 public class Motion implements Parcelable {
     
     public static final Parcelable.Creator<Motion> CREATOR = new Parcelable.Creator<Motion>() {
@@ -40,6 +51,12 @@ public class Motion implements Parcelable {
         public Motion[] newArray(int size) { return new Motion[size]; }
     };
 
+    /** Reads and writes motions as newline delimited JSON, one motion per line */
+    public static final NDJSONCodec<Motion> NDJSON_CODEC = new NDJSONCodec<Motion>() {
+        @Override public void write(JsonWriter writer, Motion value) throws IOException { MotionCodec.write(writer, value); }
+        @Override public Motion read(JsonReader reader) throws IOException { return MotionCodec.read(reader); }
+    };
+
     private static final String TAG = Motion.class.getSimpleName();
     
     protected static final String JSON_FIELD_MOTIONTYPE = "motionType";
@@ -47,11 +64,24 @@ public class Motion implements Parcelable {
     protected static final String JSON_FIELD_TIMESTAMP = "timestamp";
     protected static final String JSON_FIELD_MILLIS_SINCE_BOOT = "millisSinceBoot";
     
+    // Field names looked up by read(JSONTokenizer, long), identified by their position in the table
+    protected static final JSONKeyTable JSON_KEYS = new JSONKeyTable(JSON_FIELD_MOTIONTYPE, JSON_FIELD_CONFIDENCE,
+            JSON_FIELD_TIMESTAMP, JSON_FIELD_MILLIS_SINCE_BOOT);
+    protected static final int JSON_KEY_MOTIONTYPE = 0;
+    protected static final int JSON_KEY_CONFIDENCE = 1;
+    protected static final int JSON_KEY_TIMESTAMP = 2;
+    protected static final int JSON_KEY_MILLIS_SINCE_BOOT = 3;
+    
     public static final String COLUMN_ACTIVITY_TYPE = "activityType";
     public static final String COLUMN_CONFIDENCE = "confidence";
     public static final String COLUMN_MILLIS_SINCE_BOOT = "millisSinceBoot";
     public static final String COLUMN_RECORDED_AT = "recordedAt";
     
+    protected static final int COLUMN_SLOT_ACTIVITY_TYPE = 0;
+    protected static final int COLUMN_SLOT_CONFIDENCE = 1;
+    protected static final int COLUMN_SLOT_MILLIS_SINCE_BOOT = 2;
+    protected static final int COLUMN_SLOT_RECORDED_AT = 3;
+    
     public enum MotionType {
         Vehicle(DetectedActivity.IN_VEHICLE),
         Bicycling(DetectedActivity.ON_BICYCLE),
@@ -97,11 +127,25 @@ public class Motion implements Parcelable {
         }
     }
     
+    protected static final JSONEnumTable<MotionType> MOTION_TYPES = new JSONEnumTable<MotionType>(MotionType.class, MotionType.Unknown);
+    
+    @CodecField(json = JSON_FIELD_MOTIONTYPE, column = COLUMN_ACTIVITY_TYPE)
     protected MotionType mType;
+    @CodecField(json = JSON_FIELD_CONFIDENCE, column = COLUMN_CONFIDENCE)
     protected int mConfidence;
+    @CodecField(json = JSON_FIELD_MILLIS_SINCE_BOOT, column = COLUMN_MILLIS_SINCE_BOOT)
     protected long mMillisSinceBoot;
+    @CodecField(json = JSON_FIELD_TIMESTAMP, column = COLUMN_RECORDED_AT)
     protected long mTimestamp;
 
+    /**
+     * Used by {@link MotionCodec} when decoding
+     */
+    protected Motion() {
+        mType = MotionType.Unknown;
+        mMillisSinceBoot = Long.MAX_VALUE;
+    }
+
     public Motion(DetectedActivity activity) {
         mType = MotionType.fromGoogleId(activity.getType());
         mConfidence = activity.getConfidence();
@@ -112,18 +156,44 @@ public class Motion implements Parcelable {
         setTimes(timestamp, millisSinceBoot);
     }
     
+    public Motion(MotionType type, int confidence, long timestamp, long millisSinceBoot) {
+        mType = type == null ? MotionType.Unknown : type;
+        mConfidence = confidence;
+        setTimes(timestamp, millisSinceBoot);
+    }
+    
     public Motion(Cursor result) {
-        mType = MotionType.fromValue(CursorUtils.safeGetString(result, COLUMN_ACTIVITY_TYPE));
-        mConfidence = CursorUtils.safeGetInt(result, COLUMN_CONFIDENCE, 0);
-        mTimestamp = CursorUtils.safeGetLong(result, COLUMN_RECORDED_AT, 0);
-        mMillisSinceBoot = CursorUtils.safeGetLong(result, COLUMN_MILLIS_SINCE_BOOT, Long.MAX_VALUE);
+        this(newRowReader(result));
+    }
+    
+    /**
+     * Construct a motion from the current row of a reader created by {@link #newRowReader(Cursor)}
+     */
+    public Motion(CursorUtils.RowReader result) {
+        mType = MotionType.fromValue(result.getString(COLUMN_SLOT_ACTIVITY_TYPE));
+        mConfidence = result.getInt(COLUMN_SLOT_CONFIDENCE, 0);
+        mTimestamp = result.getLong(COLUMN_SLOT_RECORDED_AT, 0);
+        mMillisSinceBoot = result.getLong(COLUMN_SLOT_MILLIS_SINCE_BOOT, Long.MAX_VALUE);
+    }
+    
+    /**
+     * @return A reader for the motion columns, bound to the given cursor
+     */
+    public static CursorUtils.RowReader newRowReader(Cursor cursor) {
+        return new CursorUtils.RowReader(COLUMN_ACTIVITY_TYPE, COLUMN_CONFIDENCE, COLUMN_MILLIS_SINCE_BOOT,
+                COLUMN_RECORDED_AT).bind(cursor);
     }
     
     public Motion(Parcel in) {
-        mType = MotionType.fromGoogleId(in.readInt());
-        mConfidence = in.readInt();
-        mTimestamp = in.readLong();
-        mMillisSinceBoot = in.readLong();
+        // The parcel layout is the one generated in MotionCodec
+        this(MotionCodec.readFromParcel(in));
+    }
+
+    protected Motion(Motion original) {
+        mType = original.mType;
+        mConfidence = original.mConfidence;
+        mTimestamp = original.mTimestamp;
+        mMillisSinceBoot = original.mMillisSinceBoot;
     }
     
     public Motion(JSONObject object, long timestamp) {
@@ -136,6 +206,34 @@ public class Motion implements Parcelable {
         }
     }
     
+    /**
+     * Read a motion from a tokenizer, accepting the same JSON as {@link #Motion(JSONObject, long)}.  Field names and the
+     * motion type are matched from the tokenizer's buffer, so no strings are created.
+     * @param tokenizer The tokenizer, positioned just before the motion
+     * @param timestamp The timestamp to use if the motion does not have one
+     * @return The motion, or null if the value was not an object
+     */
+    public static Motion read(JSONTokenizer tokenizer, long timestamp) throws IOException {
+        if (tokenizer.next() != JSONTokenizer.Token.BeginObject) {
+            tokenizer.skipValue();
+            return null;
+        }
+        Motion motion = new Motion();
+        motion.mTimestamp = timestamp;
+        while (tokenizer.next() == JSONTokenizer.Token.Name) {
+            switch (JSON_KEYS.indexOf(tokenizer)) {
+                case JSON_KEY_MOTIONTYPE: motion.mType = MOTION_TYPES.next(tokenizer); break;
+                case JSON_KEY_CONFIDENCE: motion.mConfidence = tokenizer.nextInt(0); break;
+                case JSON_KEY_TIMESTAMP: motion.mTimestamp = tokenizer.nextLong(timestamp); break;
+                case JSON_KEY_MILLIS_SINCE_BOOT: motion.mMillisSinceBoot = tokenizer.nextLong(Long.MAX_VALUE); break;
+                default:
+                    tokenizer.next();
+                    tokenizer.skipValue();
+            }
+        }
+        return motion;
+    }
+    
     public MotionType getType() {
         return mType;
     }
@@ -165,10 +263,7 @@ public class Motion implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeInt(mType.getGoogleActivityId());
-        dest.writeInt(mConfidence);
-        dest.writeLong(mTimestamp);
-        dest.writeLong(mMillisSinceBoot);
+        MotionCodec.writeToParcel(this, dest);
     }
     
     @Override
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition.model;
+
+import java.util.List;
+
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.android.gms.location.ActivityRecognitionResult;
+import com.google.android.gms.location.DetectedActivity;
+import com.kevinquan.android.events.PrimitiveRingBuffer;
+import com.kevinquan.android.events.RingBufferDatabaseWriter;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+
+/**
+ * Layout of a motion within a {@link PrimitiveRingBuffer}, so that activity recognition results can be handed off to a
+ * {@link RingBufferDatabaseWriter} without allocating or blocking.  Rows are written using the {@link Motion} columns.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionEventRecord {
+
+    public static final int FIELD_GOOGLE_ACTIVITY_ID = 0;
+    public static final int FIELD_CONFIDENCE = 1;
+    public static final int FIELD_RECORDED_AT = 2;
+    public static final int FIELD_MILLIS_SINCE_BOOT = 3;
+
+    public static final int RECORD_WIDTH = 4;
+
+    public static final PrimitiveRingBuffer.RecordWriter<Motion> MOTION_WRITER = new PrimitiveRingBuffer.RecordWriter<Motion>() {
+        @Override public void write(Motion source, long[] data, int offset) {
+            data[offset + FIELD_GOOGLE_ACTIVITY_ID] = source.getType().getGoogleActivityId();
+            data[offset + FIELD_CONFIDENCE] = source.getConfidence();
+            data[offset + FIELD_RECORDED_AT] = source.getTimestamp();
+            data[offset + FIELD_MILLIS_SINCE_BOOT] = source.getMillisSinceBoot();
+        }
+    };
+
+    /**
+     * Writes a detected activity with the time of the result it belongs to, so that one writer can be reused for every result
+     */
+    protected static class ResultWriter implements PrimitiveRingBuffer.RecordWriter<DetectedActivity> {
+        protected long mRecordedAt;
+        protected long mMillisSinceBoot;
+
+        @Override public void write(DetectedActivity source, long[] data, int offset) {
+            data[offset + FIELD_GOOGLE_ACTIVITY_ID] = source.getType();
+            data[offset + FIELD_CONFIDENCE] = source.getConfidence();
+            data[offset + FIELD_RECORDED_AT] = mRecordedAt;
+            data[offset + FIELD_MILLIS_SINCE_BOOT] = mMillisSinceBoot;
+        }
+    }
+
+    /** One writer per publishing thread, so that concurrent publishers do not overwrite each other's result times */
+    protected static final ThreadLocal<ResultWriter> RESULT_WRITERS = new ThreadLocal<ResultWriter>() {
+        @Override protected ResultWriter initialValue() {
+            return new ResultWriter();
+        }
+    };
+
+    /**
+     * Publish every probable activity of a recognition result as a separate record sharing the result's time
+     * @param buffer The buffer to publish into
+     * @param result The result to publish
+     * @return The number of activities that were published (i.e., not dropped)
+     */
+    public static int publish(PrimitiveRingBuffer buffer, ActivityRecognitionResult result) {
+        if (buffer == null || result == null) {
+            return 0;
+        }
+        List<DetectedActivity> activities = result.getProbableActivities();
+        if (activities == null) {
+            return 0;
+        }
+        ResultWriter writer = RESULT_WRITERS.get();
+        writer.mRecordedAt = result.getTime();
+        writer.mMillisSinceBoot = result.getElapsedRealtimeMillis();
+        int published = 0;
+        for (int i = 0; i < activities.size(); i++) {
+            if (buffer.publish(activities.get(i), writer)) {
+                published++;
+            }
+        }
+        return published;
+    }
+
+    /**
+     * Creates a binder that inserts records into the provided table
+     * @param table The table using the {@link Motion} columns
+     * @return The binder
+     */
+    public static RingBufferDatabaseWriter.RecordBinder getBinder(final String table) {
+        return new RingBufferDatabaseWriter.RecordBinder() {
+            @Override public String getInsertStatement() {
+                return "INSERT INTO "+table+" ("
+                        +Motion.COLUMN_ACTIVITY_TYPE+", "
+                        +Motion.COLUMN_CONFIDENCE+", "
+                        +Motion.COLUMN_RECORDED_AT+", "
+                        +Motion.COLUMN_MILLIS_SINCE_BOOT+") VALUES (?, ?, ?, ?)";
+            }
+
+            @Override public void bind(SQLiteStatement statement, long[] data, int offset) {
+                statement.bindString(1, MotionType.fromGoogleId((int)data[offset + FIELD_GOOGLE_ACTIVITY_ID]).toString());
+                statement.bindLong(2, data[offset + FIELD_CONFIDENCE]);
+                statement.bindLong(3, data[offset + FIELD_RECORDED_AT]);
+                statement.bindLong(4, data[offset + FIELD_MILLIS_SINCE_BOOT]);
+            }
+        };
+    }
+}
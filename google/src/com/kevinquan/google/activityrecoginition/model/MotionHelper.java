@@ -15,6 +15,9 @@
  */
 package com.kevinquan.google.activityrecoginition.model;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -29,7 +32,11 @@ import android.database.Cursor;
 import android.util.Log;
 
 import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.android.utils.DatabaseInstrumentation;
+import com.kevinquan.android.utils.JSONTokenizer;
 import com.kevinquan.android.utils.JSONUtils;
+import com.kevinquan.android.utils.NDJSONReader;
+import com.kevinquan.android.utils.NDJSONWriter;
 
 /**
  * Helpers for working with the Activity Recognition motion model
@@ -48,10 +55,12 @@ public class MotionHelper {
             Log.d(TAG, "No results were provided to parse motion snapshots from");
             return new ArrayList<MotionSnapshot>();
         }
+        long start = DatabaseInstrumentation.start();
         Hashtable<Long,MotionSnapshot> snapshots = new Hashtable<Long, MotionSnapshot>();
+        CursorUtils.RowReader row = Motion.newRowReader(result);
         
         do {
-            Motion thisMotion = new Motion(result);
+            Motion thisMotion = new Motion(row);
             if (thisMotion.getTimestamp() == 0) {
                 Log.w(TAG, "Current motion seems corrupt: "+thisMotion);
                 continue;
@@ -65,6 +74,7 @@ public class MotionHelper {
                 }
             }
         } while (result.moveToNext());
+        DatabaseInstrumentation.record("parse", "MotionSnapshot", start, result.getCount());
         
         List<MotionSnapshot> results = new ArrayList<MotionSnapshot>();
         results.addAll(snapshots.values());
@@ -107,4 +117,85 @@ public class MotionHelper {
         }
         return snapshots;
     }
+    
+    /**
+     * Read snapshots written by {@link #asJson(List)} from a stream.  Unlike {@link #fromJson(String)}, the document is
+     * never held in memory as a string or object tree, and field names and motion types are matched without creating
+     * strings, so large imports create little garbage beyond the snapshots themselves.  Entries which are not objects are
+     * skipped.
+     * @param reader The source of the JSON.  It is not closed.
+     * @return The snapshots, or an empty list if the JSON could not be parsed
+     */
+    public static List<MotionSnapshot> fromJson(Reader reader) {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        if (reader == null) {
+            return snapshots;
+        }
+        JSONTokenizer tokenizer = new JSONTokenizer(reader);
+        try {
+            if (tokenizer.next() != JSONTokenizer.Token.BeginObject) {
+                Log.e(TAG, "JSON to hydrate list of motion snapshots is not an object.");
+                return snapshots;
+            }
+            while (tokenizer.next() == JSONTokenizer.Token.Name) {
+                if (!tokenizer.textEquals(JSON_FIELD_SNAPSHOTS) || tokenizer.next() != JSONTokenizer.Token.BeginArray) {
+                    if (tokenizer.getToken() == JSONTokenizer.Token.Name) {
+                        tokenizer.next();
+                    }
+                    tokenizer.skipValue();
+                    continue;
+                }
+                MotionSnapshot snapshot;
+                while ((snapshot = MotionSnapshot.read(tokenizer)) != null || tokenizer.getToken() != JSONTokenizer.Token.EndArray) {
+                    if (snapshot != null) {
+                        snapshots.add(snapshot);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            Log.e(TAG, "Could not parse JSON to hydrate list of motion snapshots.", ioe);
+            snapshots.clear();
+        }
+        return snapshots;
+    }
+    
+    /**
+     * Write snapshots as newline delimited JSON, one snapshot per line, so that later snapshots can be appended
+     * @param snapshots The snapshots to write
+     * @param writer The destination.  It is flushed but not closed.
+     * @return True if all snapshots were written
+     */
+    public static boolean asNdjson(List<MotionSnapshot> snapshots, Writer writer) {
+        if (snapshots == null || writer == null) {
+            Log.w(TAG, "No snapshots or writer were provided to convert.");
+            return false;
+        }
+        try {
+            NDJSONWriter<MotionSnapshot> output = new NDJSONWriter<MotionSnapshot>(writer, MotionSnapshot.NDJSON_CODEC);
+            output.writeAll(snapshots);
+            output.flush();
+            return true;
+        } catch (IOException ioe) {
+            Log.e(TAG, "Could not write motion snapshots as NDJSON.", ioe);
+            return false;
+        }
+    }
+    
+    /**
+     * Read snapshots written by {@link #asNdjson(List, Writer)}.  Malformed lines are skipped.
+     * @param reader The source.  It is not closed.
+     * @return The snapshots which could be read
+     */
+    public static List<MotionSnapshot> fromNdjson(Reader reader) {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        if (reader == null) {
+            return snapshots;
+        }
+        try {
+            new NDJSONReader<MotionSnapshot>(reader, MotionSnapshot.NDJSON_CODEC).readAll(snapshots);
+        } catch (IOException ioe) {
+            Log.e(TAG, "Could not read motion snapshots from NDJSON.", ioe);
+        }
+        return snapshots;
+    }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+
+/**
+ * An index of motion segments, answering which motion was most probable at a point in time and which segments overlap a
+ * range of time.  Segments are stored in parallel sorted arrays and located using binary search.
+ *
+ * Each snapshot's most probable motion (or {@link MotionType#Unknown} if there is a tie) lasts until the next snapshot, but
+ * no longer than the maximum gap.  Consecutive segments with the same motion are merged.  Segments never overlap, so both
+ * the start and end arrays are sorted.
+ *
+ * The index can be keyed by either clock stored with a motion, so that events timed by the wall clock or by the time since
+ * boot can both be annotated.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionIntervalIndex {
+
+    public enum TimeBase {
+        RecordedAt(Motion.COLUMN_RECORDED_AT),
+        MillisSinceBoot(Motion.COLUMN_MILLIS_SINCE_BOOT),
+        ;
+
+        private String mColumn;
+
+        private TimeBase(String column) {
+            mColumn = column;
+        }
+
+        /**
+         * @return The motion column that stores this time
+         */
+        public String getColumn() {
+            return mColumn;
+        }
+    }
+
+    public static final int NOT_FOUND = -1;
+
+    protected static final int INITIAL_CAPACITY = 16;
+
+    protected TimeBase mTimeBase;
+    protected long[] mStarts;
+    protected long[] mEnds;
+    protected MotionType[] mTypes;
+    protected int[] mConfidences;
+    protected int mSize;
+
+    // Time weighted confidence of the segment being built
+    protected long mPendingConfidenceDuration;
+
+    protected MotionIntervalIndex(TimeBase timeBase, int capacity) {
+        mTimeBase = timeBase == null ? TimeBase.RecordedAt : timeBase;
+        capacity = Math.max(1, capacity);
+        mStarts = new long[capacity];
+        mEnds = new long[capacity];
+        mTypes = new MotionType[capacity];
+        mConfidences = new int[capacity];
+    }
+
+    /**
+     * Build an index from snapshots
+     * @param snapshots The snapshots, sorted ascending by the time base
+     * @param timeBase The clock to index by
+     * @param maxGapMillis The longest a snapshot's motion lasts if no snapshot follows it
+     * @return The index
+     */
+    @NonNull
+    public static MotionIntervalIndex fromSnapshots(List<MotionSnapshot> snapshots, TimeBase timeBase, long maxGapMillis) {
+        MotionIntervalIndex index = new MotionIntervalIndex(timeBase, snapshots == null ? 0 : snapshots.size());
+        if (snapshots == null) {
+            return index;
+        }
+        MotionSnapshot previous = null;
+        long previousTime = 0;
+        for (MotionSnapshot snapshot : snapshots) {
+            if (snapshot.size() == 0) {
+                continue;
+            }
+            long time = index.getTime(snapshot);
+            if (time == Long.MAX_VALUE) {
+                continue;
+            }
+            if (previous != null) {
+                index.addSnapshot(previousTime, time, previous.getMostProbableMotion(), maxGapMillis);
+            }
+            previous = snapshot;
+            previousTime = time;
+        }
+        if (previous != null) {
+            index.addSnapshot(previousTime, Long.MAX_VALUE, previous.getMostProbableMotion(), maxGapMillis);
+        }
+        index.finishSegment();
+        return index;
+    }
+
+    /**
+     * Build an index directly from raw motion rows, without creating snapshots
+     * @param rows Rows using the {@link Motion} columns, sorted ascending by the time base's column
+     * @param timeBase The clock to index by
+     * @param maxGapMillis The longest a snapshot's motion lasts if no snapshot follows it
+     * @return The index
+     */
+    @NonNull
+    public static MotionIntervalIndex fromCursor(Cursor rows, TimeBase timeBase, long maxGapMillis) {
+        MotionIntervalIndex index = new MotionIntervalIndex(timeBase, INITIAL_CAPACITY);
+        if (!CursorUtils.hasResults(rows)) {
+            return index;
+        }
+        int typeIndex = rows.getColumnIndex(Motion.COLUMN_ACTIVITY_TYPE);
+        int confidenceIndex = rows.getColumnIndex(Motion.COLUMN_CONFIDENCE);
+        int timeIndex = rows.getColumnIndex(index.mTimeBase.getColumn());
+        if (typeIndex == -1 || confidenceIndex == -1 || timeIndex == -1) {
+            return index;
+        }
+        long snapshotTime = Long.MIN_VALUE;
+        MotionType bestType = null;
+        int bestConfidence = -1;
+        boolean hasTie = false;
+        do {
+            long time = rows.getLong(timeIndex);
+            if (time <= 0 || time == Long.MAX_VALUE) {
+                continue;
+            }
+            if (time != snapshotTime) {
+                if (snapshotTime != Long.MIN_VALUE) {
+                    index.addSegment(snapshotTime, time, hasTie ? MotionType.Unknown : bestType, hasTie ? 0 : bestConfidence, maxGapMillis);
+                }
+                snapshotTime = time;
+                bestType = null;
+                bestConfidence = -1;
+                hasTie = false;
+            }
+            int confidence = rows.getInt(confidenceIndex);
+            if (confidence > bestConfidence) {
+                bestType = MotionType.fromValue(rows.getString(typeIndex));
+                bestConfidence = confidence;
+                hasTie = false;
+            } else if (confidence == bestConfidence) {
+                hasTie = true;
+            }
+        } while (rows.moveToNext());
+        if (snapshotTime != Long.MIN_VALUE) {
+            index.addSegment(snapshotTime, Long.MAX_VALUE, hasTie ? MotionType.Unknown : bestType, hasTie ? 0 : bestConfidence, maxGapMillis);
+        }
+        index.finishSegment();
+        return index;
+    }
+
+    public TimeBase getTimeBase() {
+        return mTimeBase;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getStart(int segment) {
+        return mStarts[segment];
+    }
+
+    /**
+     * @return The end of the segment (exclusive)
+     */
+    public long getEnd(int segment) {
+        return mEnds[segment];
+    }
+
+    public MotionType getType(int segment) {
+        return mTypes[segment];
+    }
+
+    /**
+     * @return The time weighted confidence of the segment
+     */
+    public int getConfidence(int segment) {
+        return mConfidences[segment];
+    }
+
+    /**
+     * Find the segment covering a point in time
+     * @param time The time to look up
+     * @return The index of the segment or {@link #NOT_FOUND}
+     */
+    public int indexAt(long time) {
+        // Find the last segment that starts at or before the time
+        int position = Arrays.binarySearch(mStarts, 0, mSize, time);
+        int segment = position >= 0 ? position : -position - 2;
+        if (segment < 0 || mEnds[segment] <= time) {
+            return NOT_FOUND;
+        }
+        return segment;
+    }
+
+    /**
+     * @param time The time to look up
+     * @return The most probable motion at the time, or null if no segment covers it
+     */
+    @Nullable
+    public MotionType getTypeAt(long time) {
+        int segment = indexAt(time);
+        return segment == NOT_FOUND ? null : mTypes[segment];
+    }
+
+    /**
+     * Find the first segment that overlaps a range.  Segments from this index up to {@link #endOfOverlap(long)} overlap the range.
+     * @param from The start of the range (inclusive)
+     * @return The index of the first segment ending after the start of the range
+     */
+    public int startOfOverlap(long from) {
+        // Find the first segment that ends after from
+        int position = Arrays.binarySearch(mEnds, 0, mSize, from);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    /**
+     * @param to The end of the range (exclusive)
+     * @return The index past the last segment starting before the end of the range
+     */
+    public int endOfOverlap(long to) {
+        // Find the first segment that starts at or after to
+        int position = Arrays.binarySearch(mStarts, 0, mSize, to);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**
+     * Look up the segment for many points in time.  Sorted times are resolved in a single linear pass, otherwise each time is
+     * looked up with a binary search.
+     * @param times The times to look up
+     * @param count The number of times to look up
+     * @param segments Receives the segment index for each time, or {@link #NOT_FOUND}
+     */
+    public void annotate(long[] times, int count, int[] segments) {
+        int segment = 0;
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long time = times[i];
+            if (time < previous) {
+                segments[i] = indexAt(time);
+                continue;
+            }
+            previous = time;
+            while (segment < mSize && mEnds[segment] <= time) {
+                segment++;
+            }
+            segments[i] = segment < mSize && mStarts[segment] <= time ? segment : NOT_FOUND;
+        }
+    }
+
+    protected long getTime(MotionSnapshot snapshot) {
+        if (mTimeBase == TimeBase.RecordedAt) {
+            return snapshot.getTimestamp();
+        }
+        return snapshot.mMotions.get(0).getMillisSinceBoot();
+    }
+
+    protected void addSnapshot(long start, long nextStart, Motion probable, long maxGapMillis) {
+        addSegment(start, nextStart, probable == null ? MotionType.Unknown : probable.getType(), probable == null ? 0 : probable.getConfidence(), maxGapMillis);
+    }
+
+    protected void addSegment(long start, long nextStart, MotionType type, int confidence, long maxGapMillis) {
+        long end = start > Long.MAX_VALUE - maxGapMillis ? nextStart : Math.min(nextStart, start + maxGapMillis);
+        if (end <= start) {
+            return;
+        }
+        if (type == null) {
+            type = MotionType.Unknown;
+        }
+        if (mSize > 0 && mTypes[mSize - 1] == type && mEnds[mSize - 1] == start) {
+            // Extend the current segment
+            mEnds[mSize - 1] = end;
+            mPendingConfidenceDuration += (end - start) * confidence;
+            return;
+        }
+        finishSegment();
+        if (mSize == mStarts.length) {
+            int capacity = mSize * 2;
+            mStarts = Arrays.copyOf(mStarts, capacity);
+            mEnds = Arrays.copyOf(mEnds, capacity);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mConfidences = Arrays.copyOf(mConfidences, capacity);
+        }
+        mStarts[mSize] = start;
+        mEnds[mSize] = end;
+        mTypes[mSize] = type;
+        mPendingConfidenceDuration = (end - start) * confidence;
+        mSize++;
+    }
+
+    protected void finishSegment() {
+        if (mSize > 0) {
+            long duration = mEnds[mSize - 1] - mStarts[mSize - 1];
+            mConfidences[mSize - 1] = duration > 0 ? (int)(mPendingConfidenceDuration / duration) : 0;
+        }
+        mPendingConfidenceDuration = 0;
+    }
+
+    /**
+     * Wrap segments that are already sorted and merged, such as segments loaded from storage.  The arrays are used directly.
+     * @return The index
+     */
+    @NonNull
+    public static MotionIntervalIndex fromSegments(TimeBase timeBase, long[] starts, long[] ends, MotionType[] types, int[] confidences, int size) {
+        MotionIntervalIndex index = new MotionIntervalIndex(timeBase, 1);
+        index.mStarts = starts;
+        index.mEnds = ends;
+        index.mTypes = types;
+        index.mConfidences = confidences;
+        index.mSize = size;
+        return index;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition.model;
+
+import java.util.List;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.kevinquan.android.location.SimpleRecordedLocation;
+
+/**
+ * Joins a time ordered list of motion snapshots with a time ordered list of recorded locations.
+ *
+ * Both lists must be sorted ascending by time (i.e., {@link MotionSnapshot#getTimestamp()} and
+ * {@link SimpleRecordedLocation#getRecordedAt()}), which is what {@link MotionHelper#parseMotionSnapshots} returns when
+ * not sorting descending and what {@link SimpleRecordedLocation.PositionTimestampComparator} produces by default.  Each list
+ * is walked once, so a join is linear in the size of both lists.  Results are reported through listeners using list indices
+ * so that no objects are allocated per pair.  Lists should support fast random access (e.g., {@link java.util.ArrayList}).
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionLocationJoiner {
+
+    /**
+     * Tolerance value that places no limit on the distance in time between a snapshot and a location
+     */
+    public static final long UNBOUNDED_TOLERANCE = Long.MAX_VALUE;
+
+    /**
+     * Receives the motion snapshot that best describes each location
+     */
+    public interface LocationAnnotationListener {
+        /**
+         * @param locationIndex The index of the location in the list of locations
+         * @param location The location being annotated
+         * @param snapshot The snapshot closest in time to the location, or null if none was within the tolerance
+         */
+        void onLocationAnnotated(int locationIndex, SimpleRecordedLocation location, @Nullable MotionSnapshot snapshot);
+    }
+
+    /**
+     * Receives the range of locations that were recorded during each motion snapshot
+     */
+    public interface MotionSegmentListener {
+        /**
+         * @param snapshotIndex The index of the snapshot in the list of snapshots
+         * @param snapshot The snapshot that starts the segment
+         * @param fromLocationIndex The index of the first location in the segment (inclusive)
+         * @param toLocationIndex The index past the last location in the segment (exclusive).  Equal to fromLocationIndex if there are no locations.
+         */
+        void onMotionSegment(int snapshotIndex, MotionSnapshot snapshot, int fromLocationIndex, int toLocationIndex);
+    }
+
+    /**
+     * Finds the motion snapshot closest in time to each location.  If two snapshots are equally close, the earlier one is used.
+     * @param snapshots The snapshots, sorted ascending by timestamp
+     * @param locations The locations, sorted ascending by recorded time
+     * @param toleranceMillis The maximum distance in time between a location and its snapshot
+     * @param listener The listener that will receive every location along with its snapshot
+     * @return The number of locations that were matched to a snapshot
+     */
+    public static int annotateLocations(List<MotionSnapshot> snapshots, List<SimpleRecordedLocation> locations, long toleranceMillis, LocationAnnotationListener listener) {
+        if (locations == null || listener == null) {
+            Log.w(TAG, "No locations or listener were provided to annotate.");
+            return 0;
+        }
+        if (toleranceMillis < 0) {
+            Log.w(TAG, "Negative tolerance provided, no locations will be matched: "+toleranceMillis);
+        }
+        int snapshotCount = snapshots == null ? 0 : snapshots.size();
+        int locationCount = locations.size();
+        int matched = 0;
+        // Index of the first snapshot that occurs after the current location
+        int next = 0;
+        for (int i = 0; i < locationCount; i++) {
+            SimpleRecordedLocation location = locations.get(i);
+            long recordedAt = location.getRecordedAt();
+            while (next < snapshotCount && snapshots.get(next).getTimestamp() <= recordedAt) {
+                next++;
+            }
+            MotionSnapshot closest = null;
+            long closestDistance = Long.MAX_VALUE;
+            if (next > 0) {
+                MotionSnapshot before = snapshots.get(next-1);
+                closest = before;
+                closestDistance = recordedAt - before.getTimestamp();
+            }
+            if (next < snapshotCount) {
+                MotionSnapshot after = snapshots.get(next);
+                long distance = after.getTimestamp() - recordedAt;
+                if (distance < closestDistance) {
+                    closest = after;
+                    closestDistance = distance;
+                }
+            }
+            if (closest != null && closestDistance >= 0 && closestDistance <= toleranceMillis) {
+                matched++;
+            } else {
+                closest = null;
+            }
+            listener.onLocationAnnotated(i, location, closest);
+        }
+        return matched;
+    }
+
+    /**
+     * Finds the locations that were recorded while each motion snapshot was current.  A snapshot is current from its timestamp
+     * until the next snapshot's timestamp, but for no longer than the tolerance.  Every snapshot is reported, even if no locations
+     * fall in its segment.
+     * @param snapshots The snapshots, sorted ascending by timestamp
+     * @param locations The locations, sorted ascending by recorded time
+     * @param toleranceMillis The maximum amount of time a snapshot remains current, or {@link #UNBOUNDED_TOLERANCE}
+     * @param listener The listener that will receive every snapshot along with its range of locations
+     * @return The number of locations that were placed in a segment
+     */
+    public static int segmentLocations(List<MotionSnapshot> snapshots, List<SimpleRecordedLocation> locations, long toleranceMillis, MotionSegmentListener listener) {
+        if (snapshots == null || listener == null) {
+            Log.w(TAG, "No snapshots or listener were provided to segment.");
+            return 0;
+        }
+        if (toleranceMillis < 0) {
+            Log.w(TAG, "Negative tolerance provided, no locations will be matched: "+toleranceMillis);
+        }
+        int snapshotCount = snapshots.size();
+        int locationCount = locations == null ? 0 : locations.size();
+        int matched = 0;
+        int current = 0;
+        for (int i = 0; i < snapshotCount; i++) {
+            MotionSnapshot snapshot = snapshots.get(i);
+            long start = snapshot.getTimestamp();
+            long end = i+1 < snapshotCount ? snapshots.get(i+1).getTimestamp() : Long.MAX_VALUE;
+            if (toleranceMillis < 0) {
+                end = start;
+            } else if (start <= Long.MAX_VALUE - toleranceMillis && start + toleranceMillis < end) {
+                // Add one as the tolerance is inclusive while the segment end is exclusive
+                end = start + toleranceMillis + 1;
+            }
+            while (current < locationCount && locations.get(current).getRecordedAt() < start) {
+                current++;
+            }
+            int from = current;
+            while (current < locationCount && locations.get(current).getRecordedAt() < end) {
+                current++;
+            }
+            matched += current - from;
+            listener.onMotionSegment(i, snapshot, from, current);
+        }
+        return matched;
+    }
+
+    private static final String TAG = MotionLocationJoiner.class.getSimpleName();
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition.model;
+
+import java.util.Calendar;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import com.kevinquan.android.utils.CursorUtils;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+
+/**
+ * Models the aggregated time spent in a single motion type during a single time bucket.
+ *
+ * Time spent in snapshots whose most probable motion was tied is aggregated in a rollup of its own, which is reported as
+ * {@link MotionType#Unknown} and distinguished from motion actually detected as unknown by {@link #isTied()}.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionRollup {
+
+    public static final String COLUMN_GRANULARITY = "granularity";
+    public static final String COLUMN_BUCKET_START = "bucketStart";
+    public static final String COLUMN_ACTIVITY_TYPE = Motion.COLUMN_ACTIVITY_TYPE;
+    public static final String COLUMN_DURATION = "duration";
+    public static final String COLUMN_CONFIDENCE_DURATION = "confidenceDuration";
+    public static final String COLUMN_SAMPLES = "samples";
+
+    /** The activity type stored for rollups of snapshots with no single most probable motion */
+    public static final String TIED_ACTIVITY_TYPE = "Tied";
+
+    /**
+     * The size of the time bucket that a rollup aggregates.  Buckets are aligned to the local calendar.
+     */
+    public enum Granularity {
+        Hour(1, Calendar.HOUR_OF_DAY),
+        Day(2, Calendar.DAY_OF_YEAR),
+        Week(3, Calendar.WEEK_OF_YEAR),
+        ;
+
+        private int mDbId;
+        private int mCalendarField;
+
+        private Granularity(int dbId, int calendarField) {
+            mDbId = dbId;
+            mCalendarField = calendarField;
+        }
+
+        public int getDbId() {
+            return mDbId;
+        }
+
+        /**
+         * Find the start of the bucket containing the provided time
+         * @param scratch A calendar that will be modified to perform the calculation
+         * @param time The time to find the bucket for
+         * @return The start of the bucket
+         */
+        public long getBucketStart(Calendar scratch, long time) {
+            scratch.setTimeInMillis(time);
+            scratch.set(Calendar.MILLISECOND, 0);
+            scratch.set(Calendar.SECOND, 0);
+            scratch.set(Calendar.MINUTE, 0);
+            if (this != Hour) {
+                scratch.set(Calendar.HOUR_OF_DAY, 0);
+            }
+            if (this == Week) {
+                int daysIntoWeek = (scratch.get(Calendar.DAY_OF_WEEK) - scratch.getFirstDayOfWeek() + 7) % 7;
+                scratch.add(Calendar.DAY_OF_YEAR, -daysIntoWeek);
+            }
+            return scratch.getTimeInMillis();
+        }
+
+        /**
+         * Find the start of the bucket following the bucket that starts at the provided time
+         * @param scratch A calendar that will be modified to perform the calculation
+         * @param bucketStart The start of the current bucket
+         * @return The start of the next bucket
+         */
+        public long getNextBucketStart(Calendar scratch, long bucketStart) {
+            scratch.setTimeInMillis(bucketStart);
+            scratch.add(mCalendarField, 1);
+            return scratch.getTimeInMillis();
+        }
+
+        @NonNull
+        public static Granularity fromDbId(int dbId) {
+            switch (dbId) {
+                case 2: return Day;
+                case 3: return Week;
+                default: return Hour;
+            }
+        }
+    }
+
+    protected Granularity mGranularity;
+    protected long mBucketStart;
+    protected MotionType mType;
+    protected boolean mTied;
+    protected long mDuration;
+    protected long mConfidenceDuration;
+    protected int mSamples;
+
+    public MotionRollup(Cursor row) {
+        mGranularity = Granularity.fromDbId(CursorUtils.safeGetInt(row, COLUMN_GRANULARITY, Granularity.Hour.getDbId()));
+        mBucketStart = CursorUtils.safeGetLong(row, COLUMN_BUCKET_START, 0);
+        String type = CursorUtils.safeGetString(row, COLUMN_ACTIVITY_TYPE);
+        mTied = TIED_ACTIVITY_TYPE.equals(type);
+        mType = mTied ? MotionType.Unknown : MotionType.fromValue(type);
+        mDuration = CursorUtils.safeGetLong(row, COLUMN_DURATION, 0);
+        mConfidenceDuration = CursorUtils.safeGetLong(row, COLUMN_CONFIDENCE_DURATION, 0);
+        mSamples = CursorUtils.safeGetInt(row, COLUMN_SAMPLES, 0);
+    }
+
+    public Granularity getGranularity() {
+        return mGranularity;
+    }
+
+    public long getBucketStart() {
+        return mBucketStart;
+    }
+
+    public MotionType getType() {
+        return mType;
+    }
+
+    /**
+     * @return Whether this rollup aggregates snapshots where several motions shared the highest confidence
+     */
+    public boolean isTied() {
+        return mTied;
+    }
+
+    /**
+     * @return The total time in milliseconds spent in this motion type during the bucket
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * @return The average confidence (out of 100) of the motion, weighted by time
+     */
+    public int getAverageConfidence() {
+        if (mDuration <= 0) {
+            return 0;
+        }
+        return (int)(mConfidenceDuration / mDuration);
+    }
+
+    /**
+     * @return The number of motion intervals that contributed to this rollup
+     */
+    public int getSamples() {
+        return mSamples;
+    }
+
+    @Override
+    public String toString() {
+        return mGranularity+"@"+mBucketStart+" "+(mTied ? TIED_ACTIVITY_TYPE : mType)+": "+mDuration+"ms at "+getAverageConfidence()+"/100 ("+mSamples+" samples)";
+    }
+}
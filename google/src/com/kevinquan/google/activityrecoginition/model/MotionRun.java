@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import android.support.annotation.Nullable;
+
+import com.kevinquan.android.utils.JSONUtils;
+
+/**
+ * Models a run of consecutive motion snapshots that were collapsed into a single interval by {@link MotionTimelineCodec}.
+ *
+ * The motions of the first snapshot in the run represent the whole run.  Runs encoded losslessly also keep the time of every
+ * snapshot (as deltas from the previous snapshot) along with any drift between the wall clock and the time since boot.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionRun {
+
+    protected static final String JSON_FIELD_START = "start";
+    protected static final String JSON_FIELD_END = "end";
+    protected static final String JSON_FIELD_COUNT = "count";
+    protected static final String JSON_FIELD_MOTIONS = "motions";
+    protected static final String JSON_FIELD_TIMESTAMP_DELTAS = "timestampDeltas";
+    protected static final String JSON_FIELD_BOOT_DELTAS = "bootDeltas";
+
+    protected long mStart;
+    protected long mEnd;
+    protected int mCount;
+    protected List<Motion> mMotions;
+    protected long[] mTimestampDeltas;
+    protected long[] mBootDeltas;
+
+    protected MotionRun(long start, long end, int count, List<Motion> motions, long[] timestampDeltas, long[] bootDeltas) {
+        mStart = start;
+        mEnd = end;
+        mCount = count;
+        mMotions = motions;
+        mTimestampDeltas = timestampDeltas;
+        mBootDeltas = bootDeltas;
+    }
+
+    public MotionRun(JSONObject object) {
+        mStart = JSONUtils.safeGetLong(object, JSON_FIELD_START, 0);
+        mEnd = JSONUtils.safeGetLong(object, JSON_FIELD_END, mStart);
+        mCount = JSONUtils.safeGetInt(object, JSON_FIELD_COUNT, 1);
+        mMotions = new ArrayList<Motion>();
+        JSONArray motions = JSONUtils.safeGetArray(object, JSON_FIELD_MOTIONS);
+        if (motions != null) {
+            for (int i = 0; i < motions.length(); i++) {
+                mMotions.add(new Motion(JSONUtils.safeGetJSONObjectFromArray(motions, i), mStart));
+            }
+        }
+        mTimestampDeltas = asLongArray(JSONUtils.safeGetArray(object, JSON_FIELD_TIMESTAMP_DELTAS));
+        mBootDeltas = asLongArray(JSONUtils.safeGetArray(object, JSON_FIELD_BOOT_DELTAS));
+    }
+
+    /**
+     * @return The timestamp of the first snapshot in the run
+     */
+    public long getStart() {
+        return mStart;
+    }
+
+    /**
+     * @return The timestamp of the last snapshot in the run
+     */
+    public long getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * @return The number of snapshots collapsed into this run
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The motions representing the run, timed at the start of the run
+     */
+    public List<Motion> getMotions() {
+        return Collections.unmodifiableList(mMotions);
+    }
+
+    /**
+     * @return Whether the time of every snapshot in the run was kept
+     */
+    public boolean isLossless() {
+        return mCount == 1 || mTimestampDeltas != null;
+    }
+
+    public JSONObject asJson() {
+        JSONObject output = new JSONObject();
+        JSONUtils.safePutLong(output, JSON_FIELD_START, mStart);
+        if (mEnd != mStart) {
+            JSONUtils.safePutLong(output, JSON_FIELD_END, mEnd);
+        }
+        if (mCount != 1) {
+            JSONUtils.safePutInt(output, JSON_FIELD_COUNT, mCount);
+        }
+        JSONArray motions = new JSONArray();
+        for (Motion motion : mMotions) {
+            motions.put(motion.asJson(false));
+        }
+        JSONUtils.safePutArray(output, JSON_FIELD_MOTIONS, motions);
+        if (mTimestampDeltas != null) {
+            JSONUtils.safePutArray(output, JSON_FIELD_TIMESTAMP_DELTAS, asJsonArray(mTimestampDeltas));
+        }
+        if (mBootDeltas != null) {
+            JSONUtils.safePutArray(output, JSON_FIELD_BOOT_DELTAS, asJsonArray(mBootDeltas));
+        }
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        return mCount+" snapshots from "+mStart+" to "+mEnd+": "+mMotions;
+    }
+
+    protected static JSONArray asJsonArray(long[] values) {
+        JSONArray array = new JSONArray();
+        for (long value : values) {
+            array.put(value);
+        }
+        return array;
+    }
+
+    @Nullable
+    protected static long[] asLongArray(JSONArray array) {
+        if (array == null) {
+            return null;
+        }
+        long[] values = new long[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.optLong(i);
+        }
+        return values;
+    }
+}
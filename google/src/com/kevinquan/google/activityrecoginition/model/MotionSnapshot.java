@@ -15,7 +15,9 @@
  */
 package com.kevinquan.google.activityrecoginition.model;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.json.JSONArray;
@@ -23,7 +25,15 @@ import org.json.JSONObject;
 
 import android.util.Log;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.kevinquan.android.codec.AfterDecode;
+import com.kevinquan.android.codec.CodecField;
+import com.kevinquan.android.codec.GenerateCodec;
+import com.kevinquan.android.utils.JSONKeyTable;
+import com.kevinquan.android.utils.JSONTokenizer;
 import com.kevinquan.android.utils.JSONUtils;
+import com.kevinquan.android.utils.NDJSONCodec;
 import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
 
 /**
@@ -31,16 +41,37 @@ import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
  * @author Kevin Quan (kevin.quan@gmail.com)
  *
  */
+@GenerateCodec
 public class MotionSnapshot {
 
     private static final String TAG = MotionSnapshot.class.getSimpleName();
+
+    /** Reads and writes snapshots as newline delimited JSON, one snapshot per line */
+    public static final NDJSONCodec<MotionSnapshot> NDJSON_CODEC = new NDJSONCodec<MotionSnapshot>() {
+        @Override public void write(JsonWriter writer, MotionSnapshot value) throws IOException { MotionSnapshotCodec.write(writer, value); }
+        @Override public MotionSnapshot read(JsonReader reader) throws IOException { return MotionSnapshotCodec.read(reader); }
+    };
     
     protected static final String JSON_FIELD_TIMESTAMP = "timestamp";
     protected static final String JSON_FIELD_MOTIONS = "motions";
+    
+    // Field names looked up by read(JSONTokenizer), identified by their position in the table
+    protected static final JSONKeyTable JSON_KEYS = new JSONKeyTable(JSON_FIELD_TIMESTAMP, JSON_FIELD_MOTIONS);
+    protected static final int JSON_KEY_TIMESTAMP = 0;
+    protected static final int JSON_KEY_MOTIONS = 1;
 
+    @CodecField(json = JSON_FIELD_MOTIONS)
     protected List<Motion> mMotions;
+    @CodecField(json = JSON_FIELD_TIMESTAMP)
     protected long mTimestamp;
     
+    /**
+     * Used by {@link MotionSnapshotCodec} when decoding
+     */
+    protected MotionSnapshot() {
+        mMotions = new ArrayList<Motion>();
+    }
+    
     public MotionSnapshot(Motion firstMotion) {
         mTimestamp = firstMotion.getTimestamp();
         mMotions = new ArrayList<Motion>();
@@ -59,6 +90,65 @@ public class MotionSnapshot {
         }
     }
     
+    /**
+     * Read a snapshot from a tokenizer, accepting the same JSON as {@link #MotionSnapshot(JSONObject)}
+     * @param tokenizer The tokenizer, positioned just before the snapshot
+     * @return The snapshot, or null if the value was not an object
+     */
+    public static MotionSnapshot read(JSONTokenizer tokenizer) throws IOException {
+        if (tokenizer.next() != JSONTokenizer.Token.BeginObject) {
+            tokenizer.skipValue();
+            return null;
+        }
+        MotionSnapshot snapshot = new MotionSnapshot();
+        List<Motion> motions = null;
+        while (tokenizer.next() == JSONTokenizer.Token.Name) {
+            switch (JSON_KEYS.indexOf(tokenizer)) {
+                case JSON_KEY_TIMESTAMP:
+                    snapshot.mTimestamp = tokenizer.nextLong(0);
+                    break;
+                case JSON_KEY_MOTIONS:
+                    if (tokenizer.next() != JSONTokenizer.Token.BeginArray) {
+                        tokenizer.skipValue();
+                        break;
+                    }
+                    motions = new ArrayList<Motion>();
+                    // The snapshot timestamp may come after the motions, so motions without one are given it below
+                    Motion motion;
+                    while ((motion = Motion.read(tokenizer, 0)) != null || tokenizer.getToken() != JSONTokenizer.Token.EndArray) {
+                        if (motion != null) {
+                            motions.add(motion);
+                        }
+                    }
+                    break;
+                default:
+                    tokenizer.next();
+                    tokenizer.skipValue();
+            }
+        }
+        if (motions != null) {
+            for (Motion motion : motions) {
+                if (motion.mTimestamp <= 0) {
+                    motion.mTimestamp = snapshot.mTimestamp;
+                }
+                snapshot.addMotion(motion);
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Motions stored within a snapshot may omit their timestamp, in which case they share the snapshot's timestamp
+     */
+    @AfterDecode
+    protected void inheritTimestamp() {
+        for (Motion motion : mMotions) {
+            if (motion.mTimestamp <= 0) {
+                motion.mTimestamp = mTimestamp;
+            }
+        }
+    }
+    
     public long getTimestamp() {
         return mTimestamp;
     }
@@ -108,6 +198,10 @@ public class MotionSnapshot {
         return maxConfidenceMotion;
     }
     
+    public List<Motion> getMotions() {
+        return Collections.unmodifiableList(mMotions);
+    }
+    
     public int size() {
         return mMotions.size();
     }
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.activityrecoginition.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.kevinquan.android.utils.JSONUtils;
+
+/**
+ * Run length encoding of motion histories.  Consecutive snapshots that describe the same activity are collapsed into a
+ * single {@link MotionRun}.
+ *
+ * In {@link Mode#Lossless} mode, snapshots are only collapsed if they contain the same motions with the same confidences,
+ * and the time of every snapshot is kept so that decoding reproduces the original snapshots.  In {@link Mode#Lossy} mode,
+ * snapshots are collapsed if they have the same most probable motion and every confidence is within a tolerance of the
+ * first snapshot of the run.  Only the start and end of a lossy run are kept.
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionTimelineCodec {
+
+    private static final String TAG = MotionTimelineCodec.class.getSimpleName();
+
+    protected static final String JSON_FIELD_RUNS = "runs";
+
+    public enum Mode {
+        Lossless,
+        Lossy,
+    }
+
+    /**
+     * Losslessly encode the snapshots
+     * @param snapshots The snapshots, sorted ascending by timestamp
+     * @return The runs
+     */
+    @NonNull
+    public static List<MotionRun> encode(List<MotionSnapshot> snapshots) {
+        return encode(snapshots, Mode.Lossless, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Encode the snapshots into runs
+     * @param snapshots The snapshots, sorted ascending by timestamp
+     * @param mode Whether to keep every snapshot's time and confidences
+     * @param confidenceTolerance The largest difference in confidence allowed within a lossy run
+     * @param maxGapMillis The longest time allowed between consecutive snapshots within a lossy run
+     * @return The runs
+     */
+    @NonNull
+    public static List<MotionRun> encode(List<MotionSnapshot> snapshots, Mode mode, int confidenceTolerance, long maxGapMillis) {
+        List<MotionRun> runs = new ArrayList<MotionRun>();
+        if (snapshots == null || snapshots.size() == 0) {
+            return runs;
+        }
+        boolean lossless = mode != Mode.Lossy;
+        int size = snapshots.size();
+        long[] timestampDeltas = new long[size];
+        long[] bootDeltas = new long[size];
+        int start = 0;
+        while (start < size) {
+            MotionSnapshot first = snapshots.get(start);
+            if (first.size() == 0) {
+                Log.w(TAG, "Skipping snapshot without motions at "+first.getTimestamp());
+                start++;
+                continue;
+            }
+            int end = start + 1;
+            boolean hasBootDelta = false;
+            while (end < size) {
+                MotionSnapshot candidate = snapshots.get(end);
+                MotionSnapshot previous = snapshots.get(end - 1);
+                int index = end - start - 1;
+                if (lossless) {
+                    if (!isRepeated(first, candidate)) {
+                        break;
+                    }
+                    timestampDeltas[index] = candidate.getTimestamp() - previous.getTimestamp();
+                    bootDeltas[index] = getBootDelta(first, candidate);
+                    hasBootDelta |= bootDeltas[index] != 0;
+                } else if (candidate.getTimestamp() - previous.getTimestamp() > maxGapMillis
+                        || !isSimilar(first, candidate, confidenceTolerance)) {
+                    break;
+                }
+                end++;
+            }
+            int count = end - start;
+            long[] runTimestampDeltas = null;
+            long[] runBootDeltas = null;
+            if (lossless && count > 1) {
+                runTimestampDeltas = Arrays.copyOf(timestampDeltas, count - 1);
+                runBootDeltas = hasBootDelta ? Arrays.copyOf(bootDeltas, count - 1) : null;
+            }
+            runs.add(new MotionRun(first.getTimestamp(), snapshots.get(end - 1).getTimestamp(), count,
+                    new ArrayList<Motion>(first.getMotions()), runTimestampDeltas, runBootDeltas));
+            start = end;
+        }
+        return runs;
+    }
+
+    /**
+     * Expand runs back into snapshots.  Lossless runs produce every original snapshot, lossy runs produce a snapshot at
+     * the start and at the end of the run.
+     * @param runs The runs to expand
+     * @return The snapshots, in the order of the runs
+     */
+    @NonNull
+    public static List<MotionSnapshot> decode(List<MotionRun> runs) {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        if (runs == null) {
+            return snapshots;
+        }
+        for (MotionRun run : runs) {
+            if (run.mMotions.size() == 0) {
+                continue;
+            }
+            if (run.mTimestampDeltas == null) {
+                snapshots.add(asSnapshot(run, run.mStart, 0));
+                if (run.mCount > 1) {
+                    snapshots.add(asSnapshot(run, run.mEnd, 0));
+                }
+                continue;
+            }
+            long timestamp = run.mStart;
+            snapshots.add(asSnapshot(run, timestamp, 0));
+            for (int i = 0; i < run.mTimestampDeltas.length; i++) {
+                timestamp += run.mTimestampDeltas[i];
+                long bootDelta = run.mBootDeltas != null && i < run.mBootDeltas.length ? run.mBootDeltas[i] : 0;
+                snapshots.add(asSnapshot(run, timestamp, bootDelta));
+            }
+        }
+        return snapshots;
+    }
+
+    public static JSONObject asJson(List<MotionRun> runs) {
+        JSONObject output = new JSONObject();
+        JSONArray runsArray = new JSONArray();
+        if (runs != null) {
+            for (MotionRun run : runs) {
+                runsArray.put(run.asJson());
+            }
+        }
+        JSONUtils.safePutArray(output, JSON_FIELD_RUNS, runsArray);
+        return output;
+    }
+
+    @NonNull
+    public static List<MotionRun> fromJson(String json) {
+        List<MotionRun> runs = new ArrayList<MotionRun>();
+        JSONObject input = null;
+        try {
+            input = new JSONObject(json);
+        } catch (JSONException je) {
+            Log.e(TAG, "Could not parse JSON to hydrate list of motion runs.", je);
+            return runs;
+        }
+        JSONArray runsArray = JSONUtils.safeGetArray(input, JSON_FIELD_RUNS);
+        if (runsArray != null) {
+            for (int i = 0; i < runsArray.length(); i++) {
+                runs.add(new MotionRun(JSONUtils.safeGetJSONObjectFromArray(runsArray, i)));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Checks whether the candidate has exactly the same motions as the first snapshot, with every motion's time since boot
+     * shifted by the same amount (or unknown in both).
+     */
+    protected static boolean isRepeated(MotionSnapshot first, MotionSnapshot candidate) {
+        if (candidate.size() != first.size()) {
+            return false;
+        }
+        long shift = 0;
+        boolean hasShift = false;
+        for (Motion motion : first.mMotions) {
+            Motion other = candidate.getMotion(motion.getType());
+            if (other == null || other.getConfidence() != motion.getConfidence()) {
+                return false;
+            }
+            if ((motion.getMillisSinceBoot() == Long.MAX_VALUE) != (other.getMillisSinceBoot() == Long.MAX_VALUE)) {
+                // Decoding cannot restore a time since boot that is only known for some of the run
+                return false;
+            }
+            long otherShift = other.getMillisSinceBoot() - motion.getMillisSinceBoot();
+            if (hasShift && otherShift != shift) {
+                return false;
+            }
+            shift = otherShift;
+            hasShift = true;
+        }
+        return true;
+    }
+
+    protected static long getBootDelta(MotionSnapshot first, MotionSnapshot candidate) {
+        Motion motion = first.mMotions.get(0);
+        Motion other = candidate.getMotion(motion.getType());
+        return (other.getMillisSinceBoot() - motion.getMillisSinceBoot()) - (candidate.getTimestamp() - first.getTimestamp());
+    }
+
+    /**
+     * Checks whether the candidate has the same most probable motion as the first snapshot and whether every confidence is
+     * within the tolerance.  Motions missing from one of the snapshots are treated as having no confidence.
+     */
+    protected static boolean isSimilar(MotionSnapshot first, MotionSnapshot candidate, int tolerance) {
+        Motion firstProbable = first.getMostProbableMotion();
+        Motion candidateProbable = candidate.getMostProbableMotion();
+        if (firstProbable == null ? candidateProbable != null : candidateProbable == null || firstProbable.getType() != candidateProbable.getType()) {
+            return false;
+        }
+        for (Motion motion : first.mMotions) {
+            Motion other = candidate.getMotion(motion.getType());
+            if (Math.abs(motion.getConfidence() - (other == null ? 0 : other.getConfidence())) > tolerance) {
+                return false;
+            }
+        }
+        for (Motion other : candidate.mMotions) {
+            if (first.getMotion(other.getType()) == null && other.getConfidence() > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static MotionSnapshot asSnapshot(MotionRun run, long timestamp, long bootDelta) {
+        long elapsed = timestamp - run.mStart;
+        MotionSnapshot snapshot = null;
+        for (Motion motion : run.mMotions) {
+            long millisSinceBoot = motion.getMillisSinceBoot();
+            if (millisSinceBoot != Long.MAX_VALUE) {
+                // Long.MAX_VALUE indicates the time since boot was never known
+                millisSinceBoot += elapsed + bootDelta;
+            }
+            Motion copy = new Motion(motion.getType(), motion.getConfidence(), timestamp, millisSinceBoot);
+            if (snapshot == null) {
+                snapshot = new MotionSnapshot(copy);
+            } else {
+                snapshot.addMotion(copy);
+            }
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.test.activityrecoginition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.MatrixCursor;
+
+import com.kevinquan.google.activityrecoginition.model.Motion;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+import com.kevinquan.google.activityrecoginition.model.MotionIntervalIndex;
+import com.kevinquan.google.activityrecoginition.model.MotionIntervalIndex.TimeBase;
+import com.kevinquan.google.activityrecoginition.model.MotionSnapshot;
+
+/**
+ * This class checks that a {@link MotionIntervalIndex} merges consecutive snapshots of the same motion, ends segments at the
+ * maximum gap, builds the same segments from snapshots and from raw rows, and answers point, range and batch lookups the
+ * same way as scanning every segment.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionIntervalIndexTestCase extends TestCase {
+
+    protected static final long BOOT_OFFSET = -500;
+
+    /**
+     * Build a snapshot from (type, confidence) pairs, with the time since boot offset from the timestamp
+     */
+    protected static MotionSnapshot snapshot(long timestamp, Object... motions) {
+        MotionSnapshot snapshot = null;
+        for (int i = 0; i < motions.length; i += 2) {
+            Motion motion = new Motion((MotionType)motions[i], (Integer)motions[i + 1], timestamp, timestamp + BOOT_OFFSET);
+            if (snapshot == null) {
+                snapshot = new MotionSnapshot(motion);
+            } else {
+                snapshot.addMotion(motion);
+            }
+        }
+        return snapshot;
+    }
+
+    protected static MatrixCursor asRows(List<MotionSnapshot> snapshots) {
+        MatrixCursor rows = new MatrixCursor(new String[] {Motion.COLUMN_ACTIVITY_TYPE, Motion.COLUMN_CONFIDENCE,
+                Motion.COLUMN_RECORDED_AT, Motion.COLUMN_MILLIS_SINCE_BOOT});
+        for (MotionSnapshot snapshot : snapshots) {
+            for (Motion motion : snapshot.getMotions()) {
+                rows.addRow(new Object[] {motion.getType().toString(), motion.getConfidence(), motion.getTimestamp(), motion.getMillisSinceBoot()});
+            }
+        }
+        return rows;
+    }
+
+    protected static List<MotionSnapshot> sampleSnapshots() {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        snapshots.add(snapshot(1000, MotionType.Still, 80, MotionType.Tilting, 20));
+        snapshots.add(snapshot(1100, MotionType.Still, 60));
+        snapshots.add(snapshot(1300, MotionType.Walking, 90, MotionType.Running, 10));
+        snapshots.add(snapshot(2000, MotionType.Vehicle, 45, MotionType.Bicycling, 45));
+        return snapshots;
+    }
+
+    protected static void assertSegment(MotionIntervalIndex index, int segment, long start, long end, MotionType type, int confidence) {
+        Assert.assertEquals("Start of segment "+segment, start, index.getStart(segment));
+        Assert.assertEquals("End of segment "+segment, end, index.getEnd(segment));
+        Assert.assertEquals("Type of segment "+segment, type, index.getType(segment));
+        Assert.assertEquals("Confidence of segment "+segment, confidence, index.getConfidence(segment));
+    }
+
+    protected static void assertSameSegments(MotionIntervalIndex expected, MotionIntervalIndex actual) {
+        Assert.assertEquals("Segment counts differ.", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSegment(actual, i, expected.getStart(i), expected.getEnd(i), expected.getType(i), expected.getConfidence(i));
+        }
+    }
+
+    /**
+     * Find the segment covering a time by checking every segment
+     */
+    protected static int scan(MotionIntervalIndex index, long time) {
+        for (int i = 0; i < index.size(); i++) {
+            if (index.getStart(i) <= time && time < index.getEnd(i)) {
+                return i;
+            }
+        }
+        return MotionIntervalIndex.NOT_FOUND;
+    }
+
+    public void test_segmentsAreMergedAndGapsClosed() {
+        MotionIntervalIndex index = MotionIntervalIndex.fromSnapshots(sampleSnapshots(), TimeBase.RecordedAt, 250);
+        Assert.assertEquals(3, index.size());
+        // Weighted by time: 100ms at 80 and 200ms at 60
+        assertSegment(index, 0, 1000, 1300, MotionType.Still, 66);
+        assertSegment(index, 1, 1300, 1550, MotionType.Walking, 90);
+        assertSegment(index, 2, 2000, 2250, MotionType.Unknown, 0);
+    }
+
+    public void test_pointLookups() {
+        MotionIntervalIndex index = MotionIntervalIndex.fromSnapshots(sampleSnapshots(), TimeBase.RecordedAt, 250);
+        Assert.assertNull(index.getTypeAt(999));
+        Assert.assertEquals(MotionType.Still, index.getTypeAt(1000));
+        Assert.assertEquals(MotionType.Still, index.getTypeAt(1299));
+        Assert.assertEquals(MotionType.Walking, index.getTypeAt(1300));
+        Assert.assertEquals(MotionType.Walking, index.getTypeAt(1549));
+        Assert.assertNull("Time in a gap was covered.", index.getTypeAt(1550));
+        Assert.assertNull(index.getTypeAt(1999));
+        Assert.assertEquals(MotionType.Unknown, index.getTypeAt(2000));
+        Assert.assertNull(index.getTypeAt(2250));
+        Assert.assertEquals(MotionIntervalIndex.NOT_FOUND, index.indexAt(Long.MIN_VALUE));
+    }
+
+    public void test_rangeLookups() {
+        MotionIntervalIndex index = MotionIntervalIndex.fromSnapshots(sampleSnapshots(), TimeBase.RecordedAt, 250);
+        Assert.assertEquals(0, index.startOfOverlap(1299));
+        Assert.assertEquals(1, index.startOfOverlap(1300));
+        Assert.assertEquals(1, index.endOfOverlap(1300));
+        Assert.assertEquals(2, index.endOfOverlap(1301));
+        Assert.assertEquals(1, index.startOfOverlap(1500));
+        Assert.assertEquals(3, index.endOfOverlap(2100));
+        // A range falling within a gap overlaps nothing
+        Assert.assertEquals(index.startOfOverlap(1600), index.endOfOverlap(1900));
+    }
+
+    public void test_timeSinceBoot() {
+        MotionIntervalIndex byBoot = MotionIntervalIndex.fromSnapshots(sampleSnapshots(), TimeBase.MillisSinceBoot, 250);
+        Assert.assertEquals(TimeBase.MillisSinceBoot, byBoot.getTimeBase());
+        assertSegment(byBoot, 0, 1000 + BOOT_OFFSET, 1300 + BOOT_OFFSET, MotionType.Still, 66);
+        Assert.assertEquals(MotionType.Walking, byBoot.getTypeAt(1300 + BOOT_OFFSET));
+    }
+
+    public void test_rowsMatchSnapshots() {
+        Random random = new Random(30);
+        MotionType[] types = MotionType.values();
+        for (int round = 0; round < 20; round++) {
+            List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+            long time = 1000;
+            for (int i = random.nextInt(50); i > 0; i--) {
+                time += 1 + random.nextInt(200);
+                snapshots.add(snapshot(time, types[random.nextInt(3)], random.nextInt(101), types[3 + random.nextInt(3)], random.nextInt(101)));
+            }
+            long maxGap = 50 + random.nextInt(150);
+            for (TimeBase timeBase : TimeBase.values()) {
+                MotionIntervalIndex expected = MotionIntervalIndex.fromSnapshots(snapshots, timeBase, maxGap);
+                assertSameSegments(expected, MotionIntervalIndex.fromCursor(asRows(snapshots), timeBase, maxGap));
+            }
+        }
+    }
+
+    public void test_lookupsMatchScanningSegments() {
+        Random random = new Random(300);
+        MotionType[] types = MotionType.values();
+        for (int round = 0; round < 20; round++) {
+            List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+            long time = 1000;
+            for (int i = random.nextInt(40); i > 0; i--) {
+                time += 1 + random.nextInt(100);
+                snapshots.add(snapshot(time, types[random.nextInt(types.length)], random.nextInt(101)));
+            }
+            MotionIntervalIndex index = MotionIntervalIndex.fromSnapshots(snapshots, TimeBase.RecordedAt, 60);
+            for (int i = 1; i < index.size(); i++) {
+                Assert.assertTrue("Segments overlap or are unsorted.", index.getEnd(i - 1) <= index.getStart(i));
+            }
+
+            long[] times = new long[100];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = 900 + random.nextInt((int)(time - 800));
+            }
+            for (boolean sorted : new boolean[] {false, true}) {
+                if (sorted) {
+                    Arrays.sort(times);
+                }
+                int[] segments = new int[times.length];
+                index.annotate(times, times.length, segments);
+                for (int i = 0; i < times.length; i++) {
+                    int expected = scan(index, times[i]);
+                    Assert.assertEquals("Point lookup of "+times[i], expected, index.indexAt(times[i]));
+                    Assert.assertEquals("Batch lookup of "+times[i], expected, segments[i]);
+                }
+            }
+
+            long from = 900 + random.nextInt((int)(time - 800));
+            long to = from + random.nextInt(300);
+            int start = index.startOfOverlap(from);
+            int end = index.endOfOverlap(to);
+            for (int i = 0; i < index.size(); i++) {
+                boolean overlaps = index.getStart(i) < to && index.getEnd(i) > from;
+                Assert.assertEquals("Overlap of segment "+i+" with ["+from+", "+to+")", overlaps, i >= start && i < end);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.test.activityrecoginition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.google.android.gms.location.DetectedActivity;
+import com.kevinquan.android.location.SimpleRecordedLocation;
+import com.kevinquan.google.activityrecoginition.model.Motion;
+import com.kevinquan.google.activityrecoginition.model.MotionLocationJoiner;
+import com.kevinquan.google.activityrecoginition.model.MotionSnapshot;
+
+/**
+ * This class checks that {@link MotionLocationJoiner} matches each location with the closest snapshot within the tolerance,
+ * preferring the earlier snapshot on a tie, and places each location in the segment of the snapshot current when it was
+ * recorded.  The merge-join is also compared with checking every pair on random timelines.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionLocationJoinerTestCase extends TestCase {
+
+    protected static List<MotionSnapshot> snapshots(long... times) {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        for (long time : times) {
+            snapshots.add(new MotionSnapshot(new Motion(new DetectedActivity(DetectedActivity.STILL, 100), time, time)));
+        }
+        return snapshots;
+    }
+
+    protected static List<SimpleRecordedLocation> locations(long... times) throws Exception {
+        List<SimpleRecordedLocation> locations = new ArrayList<SimpleRecordedLocation>();
+        for (long time : times) {
+            JSONObject json = new JSONObject();
+            json.put(SimpleRecordedLocation.JSON_FIELD_RECORDED_AT, time);
+            locations.add(new SimpleRecordedLocation(json));
+        }
+        return locations;
+    }
+
+    /**
+     * Annotate the locations, returning the time of the snapshot matched to each one or -1 if none was
+     */
+    protected static long[] annotate(List<MotionSnapshot> snapshots, List<SimpleRecordedLocation> locations, long tolerance, int expectedMatches) {
+        final long[] matched = new long[locations.size()];
+        final int[] calls = new int[1];
+        int count = MotionLocationJoiner.annotateLocations(snapshots, locations, tolerance, new MotionLocationJoiner.LocationAnnotationListener() {
+            @Override public void onLocationAnnotated(int locationIndex, SimpleRecordedLocation location, MotionSnapshot snapshot) {
+                Assert.assertEquals("Locations were not reported in order.", calls[0]++, locationIndex);
+                matched[locationIndex] = snapshot == null ? -1 : snapshot.getTimestamp();
+            }
+        });
+        Assert.assertEquals("Not every location was reported.", locations.size(), calls[0]);
+        Assert.assertEquals(expectedMatches, count);
+        return matched;
+    }
+
+    /**
+     * Segment the locations, returning the (from, to) location indices of each snapshot's segment
+     */
+    protected static int[] segment(List<MotionSnapshot> snapshots, List<SimpleRecordedLocation> locations, long tolerance, int expectedMatches) {
+        final int[] ranges = new int[snapshots.size() * 2];
+        final int[] calls = new int[1];
+        int count = MotionLocationJoiner.segmentLocations(snapshots, locations, tolerance, new MotionLocationJoiner.MotionSegmentListener() {
+            @Override public void onMotionSegment(int snapshotIndex, MotionSnapshot snapshot, int fromLocationIndex, int toLocationIndex) {
+                Assert.assertEquals("Snapshots were not reported in order.", calls[0]++, snapshotIndex);
+                ranges[snapshotIndex * 2] = fromLocationIndex;
+                ranges[snapshotIndex * 2 + 1] = toLocationIndex;
+            }
+        });
+        Assert.assertEquals("Not every snapshot was reported.", snapshots.size(), calls[0]);
+        Assert.assertEquals(expectedMatches, count);
+        return ranges;
+    }
+
+    protected static void assertTimes(long[] expected, long[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals("Wrong match for location "+i, expected[i], actual[i]);
+        }
+    }
+
+    public void test_annotateWithTolerance() throws Exception {
+        List<MotionSnapshot> snapshots = snapshots(100, 200, 400);
+        List<SimpleRecordedLocation> locations = locations(50, 100, 150, 160, 300, 1000);
+        assertTimes(new long[] {100, 100, 100, 200, -1, -1}, annotate(snapshots, locations, 60, 4));
+        assertTimes(new long[] {100, 100, 100, 200, 200, 400}, annotate(snapshots, locations, MotionLocationJoiner.UNBOUNDED_TOLERANCE, 6));
+        assertTimes(new long[] {-1, 100, -1, -1, -1, -1}, annotate(snapshots, locations, 0, 1));
+        assertTimes(new long[] {-1, -1, -1, -1, -1, -1}, annotate(snapshots, locations, -1, 0));
+    }
+
+    public void test_annotateWithoutSnapshots() throws Exception {
+        assertTimes(new long[] {-1, -1}, annotate(null, locations(1, 2), MotionLocationJoiner.UNBOUNDED_TOLERANCE, 0));
+        assertTimes(new long[] {-1, -1}, annotate(snapshots(), locations(1, 2), MotionLocationJoiner.UNBOUNDED_TOLERANCE, 0));
+    }
+
+    public void test_segmentWithTolerance() throws Exception {
+        List<MotionSnapshot> snapshots = snapshots(100, 200, 400);
+        List<SimpleRecordedLocation> locations = locations(50, 100, 150, 199, 200, 250, 390, 400, 500);
+        int[] unbounded = segment(snapshots, locations, MotionLocationJoiner.UNBOUNDED_TOLERANCE, 8);
+        Assert.assertTrue(Arrays.equals(new int[] {1, 4, 4, 7, 7, 9}, unbounded));
+        int[] bounded = segment(snapshots, locations, 50, 5);
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 4, 6, 7, 8}, bounded));
+        int[] empty = segment(snapshots, locations(10, 20), MotionLocationJoiner.UNBOUNDED_TOLERANCE, 0);
+        Assert.assertTrue("Segments without locations should be empty.", Arrays.equals(new int[] {2, 2, 2, 2, 2, 2}, empty));
+    }
+
+    public void test_mergeJoinMatchesEveryPair() throws Exception {
+        Random random = new Random(26);
+        for (int round = 0; round < 20; round++) {
+            long[] snapshotTimes = new long[random.nextInt(30)];
+            long time = 0;
+            for (int i = 0; i < snapshotTimes.length; i++) {
+                time += 1 + random.nextInt(100);
+                snapshotTimes[i] = time;
+            }
+            long[] locationTimes = new long[random.nextInt(60)];
+            time = 0;
+            for (int i = 0; i < locationTimes.length; i++) {
+                time += random.nextInt(60);
+                locationTimes[i] = time;
+            }
+            long tolerance = random.nextInt(80);
+
+            long[] expected = new long[locationTimes.length];
+            int matches = 0;
+            for (int i = 0; i < locationTimes.length; i++) {
+                expected[i] = -1;
+                long closest = Long.MAX_VALUE;
+                for (long snapshotTime : snapshotTimes) {
+                    long distance = Math.abs(snapshotTime - locationTimes[i]);
+                    if (distance < closest && distance <= tolerance) {
+                        closest = distance;
+                        expected[i] = snapshotTime;
+                    }
+                }
+                matches += expected[i] < 0 ? 0 : 1;
+            }
+            assertTimes(expected, annotate(snapshots(snapshotTimes), locations(locationTimes), tolerance, matches));
+        }
+    }
+}
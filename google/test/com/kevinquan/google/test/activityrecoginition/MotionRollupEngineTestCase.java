@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.test.activityrecoginition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kevinquan.google.activityrecoginition.MotionRollupEngine;
+import com.kevinquan.google.activityrecoginition.model.Motion;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+import com.kevinquan.google.activityrecoginition.model.MotionRollup;
+import com.kevinquan.google.activityrecoginition.model.MotionRollup.Granularity;
+
+/**
+ * This class checks that a {@link MotionRollupEngine} attributes each snapshot's motion until the next snapshot, splits
+ * intervals across bucket boundaries, and recomputes rollups when a late row arrives so that they match rolling up the
+ * same rows from scratch.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionRollupEngineTestCase extends TestCase {
+
+    protected static final String MOTION_TABLE = "motions";
+    protected static final String ROLLUP_TABLE = "motionRollups";
+    protected static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    protected static final long MINUTE = 60 * 1000;
+    protected static final long HOUR = 60 * MINUTE;
+    protected static final long DAY = 24 * HOUR;
+    /** 2014-01-01 00:00 UTC */
+    protected static final long T0 = 1388534400000L;
+
+    protected SQLiteDatabase mDatabase;
+    protected MotionRollupEngine mEngine;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE "+MOTION_TABLE+" ("+Motion.COLUMN_ACTIVITY_TYPE+" TEXT, "+Motion.COLUMN_CONFIDENCE+" INTEGER, "
+                +Motion.COLUMN_RECORDED_AT+" INTEGER, "+Motion.COLUMN_MILLIS_SINCE_BOOT+" INTEGER)");
+        mEngine = newEngine(ROLLUP_TABLE, DAY);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    protected static MotionRollupEngine newEngine(String rollupTable, long maxGapMillis) {
+        return new MotionRollupEngine(MOTION_TABLE, rollupTable, maxGapMillis, UTC, Granularity.Hour, Granularity.Day);
+    }
+
+    protected void insert(MotionType type, int confidence, long recordedAt) {
+        ContentValues values = new ContentValues();
+        values.put(Motion.COLUMN_ACTIVITY_TYPE, type.toString());
+        values.put(Motion.COLUMN_CONFIDENCE, confidence);
+        values.put(Motion.COLUMN_RECORDED_AT, recordedAt);
+        values.put(Motion.COLUMN_MILLIS_SINCE_BOOT, recordedAt - T0);
+        mDatabase.insertOrThrow(MOTION_TABLE, null, values);
+    }
+
+    protected List<String> rollups(MotionRollupEngine engine, Granularity granularity) {
+        List<String> rollups = new ArrayList<String>();
+        for (MotionRollup rollup : engine.getRollups(mDatabase, granularity, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            rollups.add(rollup.toString());
+        }
+        return rollups;
+    }
+
+    protected void assertRollup(Granularity granularity, long bucketStart, MotionType type, long duration, int confidence, int samples) {
+        for (MotionRollup rollup : mEngine.getRollups(mDatabase, granularity, bucketStart, bucketStart + 1)) {
+            if (rollup.getType() == type && !rollup.isTied()) {
+                Assert.assertEquals("Duration of "+rollup, duration, rollup.getDuration());
+                Assert.assertEquals("Confidence of "+rollup, confidence, rollup.getAverageConfidence());
+                Assert.assertEquals("Samples of "+rollup, samples, rollup.getSamples());
+                return;
+            }
+        }
+        Assert.fail("No "+granularity+" rollup of "+type+" at "+bucketStart);
+    }
+
+    /**
+     * Roll up the motion table from scratch and check it matches the incremental rollups
+     */
+    protected void assertMatchesFreshRollup() {
+        MotionRollupEngine fresh = newEngine("freshRollups", DAY);
+        fresh.run(mDatabase);
+        for (Granularity granularity : new Granularity[] {Granularity.Hour, Granularity.Day}) {
+            Assert.assertEquals(granularity+" rollups differ from a fresh rollup.", rollups(fresh, granularity), rollups(mEngine, granularity));
+        }
+    }
+
+    public void test_lastSnapshotWaitsForTheNext() {
+        insert(MotionType.Still, 80, T0 + 10 * MINUTE);
+        insert(MotionType.Walking, 60, T0 + 30 * MINUTE);
+        Assert.assertEquals(2, mEngine.run(mDatabase));
+        assertRollup(Granularity.Hour, T0, MotionType.Still, 20 * MINUTE, 80, 1);
+        Assert.assertEquals("The last snapshot was rolled up before its end was known.", 1, rollups(mEngine, Granularity.Hour).size());
+
+        insert(MotionType.Still, 70, T0 + 40 * MINUTE);
+        Assert.assertEquals("Rows before the watermark were read again.", 2, mEngine.run(mDatabase));
+        assertRollup(Granularity.Hour, T0, MotionType.Walking, 10 * MINUTE, 60, 1);
+        assertRollup(Granularity.Hour, T0, MotionType.Still, 20 * MINUTE, 80, 1);
+        assertMatchesFreshRollup();
+    }
+
+    public void test_intervalsAreSplitAcrossBuckets() {
+        insert(MotionType.Vehicle, 90, T0 + 50 * MINUTE);
+        insert(MotionType.Still, 90, T0 + 2 * HOUR + 30 * MINUTE);
+        mEngine.run(mDatabase);
+        assertRollup(Granularity.Hour, T0, MotionType.Vehicle, 10 * MINUTE, 90, 1);
+        assertRollup(Granularity.Hour, T0 + HOUR, MotionType.Vehicle, HOUR, 90, 1);
+        assertRollup(Granularity.Hour, T0 + 2 * HOUR, MotionType.Vehicle, 30 * MINUTE, 90, 1);
+        assertRollup(Granularity.Day, T0, MotionType.Vehicle, 100 * MINUTE, 90, 1);
+    }
+
+    public void test_intervalsEndAtTheMaximumGap() {
+        mEngine = newEngine(ROLLUP_TABLE, 15 * MINUTE);
+        insert(MotionType.Walking, 50, T0);
+        insert(MotionType.Still, 50, T0 + HOUR);
+        mEngine.run(mDatabase);
+        assertRollup(Granularity.Hour, T0, MotionType.Walking, 15 * MINUTE, 50, 1);
+    }
+
+    public void test_tiedSnapshotsAreRolledUpSeparately() {
+        insert(MotionType.Walking, 40, T0);
+        insert(MotionType.Running, 40, T0);
+        insert(MotionType.Still, 20, T0);
+        insert(MotionType.Unknown, 70, T0 + 10 * MINUTE);
+        insert(MotionType.Still, 90, T0 + 25 * MINUTE);
+        mEngine.run(mDatabase);
+        assertRollup(Granularity.Hour, T0, MotionType.Unknown, 15 * MINUTE, 70, 1);
+        List<MotionRollup> rollups = mEngine.getRollups(mDatabase, Granularity.Hour, T0, T0 + 1);
+        Assert.assertEquals("Tied snapshots were credited to a motion type.", 2, rollups.size());
+        MotionRollup tied = null;
+        for (MotionRollup rollup : rollups) {
+            if (rollup.isTied()) {
+                tied = rollup;
+            }
+        }
+        Assert.assertNotNull("Tied snapshots were not rolled up.", tied);
+        Assert.assertEquals(MotionType.Unknown, tied.getType());
+        Assert.assertEquals(10 * MINUTE, tied.getDuration());
+        Assert.assertEquals(40, tied.getAverageConfidence());
+        Assert.assertEquals(1, tied.getSamples());
+        assertMatchesFreshRollup();
+    }
+
+    public void test_lateRowsAreRecomputed() {
+        insert(MotionType.Still, 80, T0 - 5 * MINUTE);
+        insert(MotionType.Still, 80, T0 + 10 * MINUTE);
+        insert(MotionType.Walking, 60, T0 + 30 * MINUTE);
+        insert(MotionType.Still, 80, T0 + 50 * MINUTE);
+        mEngine.run(mDatabase);
+        assertRollup(Granularity.Hour, T0, MotionType.Still, 30 * MINUTE, 80, 2);
+
+        // Arrives after the run, recorded between rows already rolled up
+        insert(MotionType.Vehicle, 90, T0 + 20 * MINUTE);
+        mEngine.run(mDatabase);
+        assertRollup(Granularity.Hour, T0, MotionType.Still, 20 * MINUTE, 80, 2);
+        assertRollup(Granularity.Hour, T0, MotionType.Vehicle, 10 * MINUTE, 90, 1);
+        assertRollup(Granularity.Hour, T0, MotionType.Walking, 20 * MINUTE, 60, 1);
+        assertRollup(Granularity.Hour, T0 - HOUR, MotionType.Still, 5 * MINUTE, 80, 1);
+        assertMatchesFreshRollup();
+
+        // A late row in an earlier day recomputes from that day
+        insert(MotionType.Bicycling, 70, T0 - DAY);
+        insert(MotionType.Still, 80, T0 + 70 * MINUTE);
+        mEngine.run(mDatabase);
+        assertMatchesFreshRollup();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.test.activityrecoginition;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kevinquan.google.activityrecoginition.MotionSegmentStore;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+import com.kevinquan.google.activityrecoginition.model.MotionIntervalIndex;
+import com.kevinquan.google.activityrecoginition.model.MotionIntervalIndex.TimeBase;
+
+/**
+ * This class checks that a {@link MotionSegmentStore} replaces exactly the range of time covered by a written index,
+ * clipping stored segments which only partly overlap it, and answers point and range lookups from the stored segments.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionSegmentStoreTestCase extends TestCase {
+
+    protected static final String TABLE = "motionSegments";
+
+    protected SQLiteDatabase mDatabase;
+    protected MotionSegmentStore mStore;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mStore = new MotionSegmentStore(TABLE, TimeBase.RecordedAt);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    /**
+     * Build an index from (start, end, type) triples
+     */
+    protected static MotionIntervalIndex newIndex(Object... segments) {
+        int size = segments.length / 3;
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        MotionType[] types = new MotionType[size];
+        int[] confidences = new int[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = ((Number)segments[i * 3]).longValue();
+            ends[i] = ((Number)segments[i * 3 + 1]).longValue();
+            types[i] = (MotionType)segments[i * 3 + 2];
+            confidences[i] = 50 + i;
+        }
+        return MotionIntervalIndex.fromSegments(TimeBase.RecordedAt, starts, ends, types, confidences, size);
+    }
+
+    /**
+     * Check the stored segments against (start, end, type) triples
+     */
+    protected void assertStored(Object... segments) {
+        MotionIntervalIndex stored = mStore.query(mDatabase, Long.MIN_VALUE + 1, Long.MAX_VALUE);
+        Assert.assertEquals(segments.length / 3, stored.size());
+        for (int i = 0; i < stored.size(); i++) {
+            Assert.assertEquals(((Number)segments[i * 3]).longValue(), stored.getStart(i));
+            Assert.assertEquals(((Number)segments[i * 3 + 1]).longValue(), stored.getEnd(i));
+            Assert.assertEquals(segments[i * 3 + 2], stored.getType(i));
+        }
+    }
+
+    public void test_writeAndQuery() {
+        mStore.write(mDatabase, newIndex(0, 100, MotionType.Still, 100, 250, MotionType.Walking, 300, 400, MotionType.Vehicle));
+        assertStored(0, 100, MotionType.Still, 100, 250, MotionType.Walking, 300, 400, MotionType.Vehicle);
+
+        Assert.assertEquals(MotionType.Still, mStore.getTypeAt(mDatabase, 0));
+        Assert.assertEquals(MotionType.Walking, mStore.getTypeAt(mDatabase, 100));
+        Assert.assertEquals(MotionType.Walking, mStore.getTypeAt(mDatabase, 249));
+        Assert.assertNull(mStore.getTypeAt(mDatabase, 275));
+        Assert.assertNull(mStore.getTypeAt(mDatabase, 400));
+
+        MotionIntervalIndex range = mStore.query(mDatabase, 150, 350);
+        Assert.assertEquals(2, range.size());
+        Assert.assertEquals(100, range.getStart(0));
+        Assert.assertEquals(300, range.getStart(1));
+        Assert.assertEquals(52, range.getConfidence(1));
+    }
+
+    public void test_writeInsideStoredSegment() {
+        mStore.write(mDatabase, newIndex(0, 100, MotionType.Still));
+        mStore.write(mDatabase, newIndex(50, 80, MotionType.Walking));
+        assertStored(0, 50, MotionType.Still, 50, 80, MotionType.Walking, 80, 100, MotionType.Still);
+        Assert.assertEquals(MotionType.Still, mStore.getTypeAt(mDatabase, 90));
+    }
+
+    public void test_writeOverlappingEdges() {
+        mStore.write(mDatabase, newIndex(0, 100, MotionType.Still, 100, 200, MotionType.Walking, 200, 300, MotionType.Vehicle));
+        // Clips the end of the first segment, replaces the second and clips the start of the third
+        mStore.write(mDatabase, newIndex(60, 120, MotionType.Running, 120, 260, MotionType.Bicycling));
+        assertStored(0, 60, MotionType.Still, 60, 120, MotionType.Running, 120, 260, MotionType.Bicycling,
+                260, 300, MotionType.Vehicle);
+    }
+
+    public void test_writeCoveringStoredSegments() {
+        mStore.write(mDatabase, newIndex(10, 20, MotionType.Still, 30, 40, MotionType.Walking));
+        mStore.write(mDatabase, newIndex(0, 50, MotionType.Vehicle));
+        assertStored(0, 50, MotionType.Vehicle);
+    }
+
+    public void test_writeAdjacentKeepsNeighbours() {
+        mStore.write(mDatabase, newIndex(0, 100, MotionType.Still));
+        mStore.write(mDatabase, newIndex(100, 200, MotionType.Walking));
+        assertStored(0, 100, MotionType.Still, 100, 200, MotionType.Walking);
+    }
+
+    public void test_timeBaseMismatch() {
+        MotionIntervalIndex sinceBoot = MotionIntervalIndex.fromSegments(TimeBase.MillisSinceBoot, new long[] {0}, new long[] {1},
+                new MotionType[] {MotionType.Still}, new int[] {100}, 1);
+        try {
+            mStore.write(mDatabase, sinceBoot);
+            Assert.fail("Index keyed by another clock should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
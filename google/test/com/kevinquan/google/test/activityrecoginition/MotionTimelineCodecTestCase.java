@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.google.test.activityrecoginition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.kevinquan.google.activityrecoginition.model.Motion;
+import com.kevinquan.google.activityrecoginition.model.Motion.MotionType;
+import com.kevinquan.google.activityrecoginition.model.MotionRun;
+import com.kevinquan.google.activityrecoginition.model.MotionSnapshot;
+import com.kevinquan.google.activityrecoginition.model.MotionTimelineCodec;
+import com.kevinquan.google.activityrecoginition.model.MotionTimelineCodec.Mode;
+
+/**
+ * This class checks that {@link MotionTimelineCodec} decodes lossless runs, directly and through JSON, into exactly the
+ * snapshots that were encoded, and that lossy runs collapse similar snapshots while keeping the start and end of each run.
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+public class MotionTimelineCodecTestCase extends TestCase {
+
+    protected static final long SECOND = 1000;
+
+    /**
+     * Build a snapshot from (type, confidence) pairs
+     */
+    protected static MotionSnapshot snapshot(long timestamp, long millisSinceBoot, Object... motions) {
+        MotionSnapshot snapshot = null;
+        for (int i = 0; i < motions.length; i += 2) {
+            Motion motion = new Motion((MotionType)motions[i], (Integer)motions[i + 1], timestamp, millisSinceBoot);
+            if (snapshot == null) {
+                snapshot = new MotionSnapshot(motion);
+            } else {
+                snapshot.addMotion(motion);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Describes a snapshot including the time since boot of each motion, which {@link Motion#equals} ignores
+     */
+    protected static String describe(MotionSnapshot snapshot) {
+        List<String> motions = new ArrayList<String>();
+        for (Motion motion : snapshot.getMotions()) {
+            motions.add(motion.toString());
+        }
+        Collections.sort(motions);
+        return snapshot.getTimestamp()+" "+motions;
+    }
+
+    protected static void assertSameSnapshots(List<MotionSnapshot> expected, List<MotionSnapshot> actual) {
+        Assert.assertEquals("Snapshot counts differ.", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals("Snapshot "+i+" differs.", describe(expected.get(i)), describe(actual.get(i)));
+        }
+    }
+
+    protected static List<MotionSnapshot> randomTimeline(Random random, int size) {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        MotionType[] types = MotionType.values();
+        long timestamp = 1400000000000L;
+        long bootOffset = 5000;
+        Object[] motions = null;
+        for (int i = 0; i < size; i++) {
+            timestamp += SECOND + random.nextInt(30000);
+            if (random.nextInt(20) == 0) {
+                // Rebooted
+                bootOffset = -timestamp + random.nextInt(1000);
+            }
+            if (motions == null || random.nextInt(4) == 0) {
+                int count = 1 + random.nextInt(3);
+                motions = new Object[count * 2];
+                for (int m = 0; m < count; m++) {
+                    motions[m * 2] = types[(i + m) % types.length];
+                    motions[m * 2 + 1] = random.nextInt(101);
+                }
+            }
+            long millisSinceBoot = random.nextInt(50) == 0 ? Long.MAX_VALUE : timestamp + bootOffset;
+            snapshots.add(snapshot(timestamp, millisSinceBoot, motions));
+        }
+        return snapshots;
+    }
+
+    public void test_losslessRoundTrip() {
+        Random random = new Random(29);
+        for (int round = 0; round < 20; round++) {
+            List<MotionSnapshot> snapshots = randomTimeline(random, 1 + random.nextInt(80));
+            List<MotionRun> runs = MotionTimelineCodec.encode(snapshots);
+            int count = 0;
+            for (MotionRun run : runs) {
+                Assert.assertTrue("Lossless run did not keep every time.", run.isLossless());
+                count += run.getCount();
+            }
+            Assert.assertEquals("Runs do not cover every snapshot.", snapshots.size(), count);
+            assertSameSnapshots(snapshots, MotionTimelineCodec.decode(runs));
+            String json = MotionTimelineCodec.asJson(runs).toString();
+            assertSameSnapshots(snapshots, MotionTimelineCodec.decode(MotionTimelineCodec.fromJson(json)));
+        }
+    }
+
+    public void test_repeatedSnapshotsAreCollapsed() {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        for (int i = 0; i < 10; i++) {
+            snapshots.add(snapshot(i * 10 * SECOND, 1000 + i * 10 * SECOND, MotionType.Still, 90, MotionType.Tilting, 10));
+        }
+        snapshots.add(snapshot(100 * SECOND, 1000 + 100 * SECOND, MotionType.Still, 80, MotionType.Tilting, 20));
+        List<MotionRun> runs = MotionTimelineCodec.encode(snapshots);
+        Assert.assertEquals(2, runs.size());
+        Assert.assertEquals(10, runs.get(0).getCount());
+        Assert.assertEquals(0, runs.get(0).getStart());
+        Assert.assertEquals(90 * SECOND, runs.get(0).getEnd());
+        Assert.assertEquals(1, runs.get(1).getCount());
+        Assert.assertFalse("Boot deltas were kept for a run without any.", MotionTimelineCodec.asJson(runs).toString().contains("bootDeltas"));
+        assertSameSnapshots(snapshots, MotionTimelineCodec.decode(runs));
+    }
+
+    public void test_lossyRunsKeepTheirEnds() {
+        List<MotionSnapshot> snapshots = new ArrayList<MotionSnapshot>();
+        snapshots.add(snapshot(0, 0, MotionType.Walking, 70, MotionType.Still, 20));
+        snapshots.add(snapshot(10 * SECOND, 10 * SECOND, MotionType.Walking, 74, MotionType.Still, 18));
+        snapshots.add(snapshot(20 * SECOND, 20 * SECOND, MotionType.Walking, 66, MotionType.Still, 23, MotionType.Tilting, 5));
+        // Outside the confidence tolerance of the first snapshot of the run
+        snapshots.add(snapshot(30 * SECOND, 30 * SECOND, MotionType.Walking, 80, MotionType.Still, 15));
+        // Same motions, but after too long a gap
+        snapshots.add(snapshot(200 * SECOND, 200 * SECOND, MotionType.Walking, 80, MotionType.Still, 15));
+        snapshots.add(snapshot(210 * SECOND, 210 * SECOND, MotionType.Still, 60, MotionType.Walking, 40));
+
+        List<MotionRun> runs = MotionTimelineCodec.encode(snapshots, Mode.Lossy, 5, 60 * SECOND);
+        Assert.assertEquals(4, runs.size());
+        Assert.assertEquals(3, runs.get(0).getCount());
+        Assert.assertFalse(runs.get(0).isLossless());
+        Assert.assertEquals(20 * SECOND, runs.get(0).getEnd());
+        Assert.assertEquals(1, runs.get(1).getCount());
+        Assert.assertEquals(1, runs.get(2).getCount());
+        Assert.assertEquals(MotionType.Still, runs.get(3).getMotions().get(0).getType());
+
+        List<MotionSnapshot> decoded = MotionTimelineCodec.decode(runs);
+        Assert.assertEquals("Lossy run did not decode to its start and end.", 5, decoded.size());
+        Assert.assertEquals(describe(snapshots.get(0)), describe(decoded.get(0)));
+        Assert.assertEquals(describe(snapshot(20 * SECOND, 20 * SECOND, MotionType.Walking, 70, MotionType.Still, 20)), describe(decoded.get(1)));
+        for (int i = 2; i < 5; i++) {
+            Assert.assertEquals(describe(snapshots.get(i + 1)), describe(decoded.get(i)));
+        }
+    }
+
+    public void test_emptyTimeline() {
+        Assert.assertTrue(MotionTimelineCodec.encode(null).isEmpty());
+        Assert.assertTrue(MotionTimelineCodec.decode(null).isEmpty());
+        Assert.assertTrue(MotionTimelineCodec.fromJson("not json").isEmpty());
+    }
+}
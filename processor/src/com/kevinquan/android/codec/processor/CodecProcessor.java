@@ -0,0 +1,309 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.codec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a codec class for every class annotated with <code>com.kevinquan.android.codec.GenerateCodec</code>.  The
+ * annotations are matched by name so that this processor does not depend on the Android library that declares them.
+ *
+ * For a model <code>Foo</code>, <code>FooCodec</code> is generated in the same package with:
+ * <ul>
+ * <li><code>write(JsonWriter, Foo)</code> and <code>read(JsonReader)</code> for streamed JSON</li>
+ * <li><code>writeToParcel(Foo, Parcel)</code> and <code>readFromParcel(Parcel)</code></li>
+ * <li><code>getContentValues(Foo)</code> and a <code>CursorReader</code> that resolves column indices once per cursor, if
+ * any field has a column</li>
+ * </ul>
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+@SupportedAnnotationTypes(CodecProcessor.GENERATE_CODEC)
+public class CodecProcessor extends AbstractProcessor {
+
+    static final String GENERATE_CODEC = "com.kevinquan.android.codec.GenerateCodec";
+    static final String CODEC_FIELD = "com.kevinquan.android.codec.CodecField";
+    static final String AFTER_DECODE = "com.kevinquan.android.codec.AfterDecode";
+    static final String CODEC_SUFFIX = "Codec";
+
+    enum Kind {
+        Boolean,
+        Int,
+        Long,
+        Float,
+        Double,
+        String,
+        Enum,
+        List,
+    }
+
+    static class Field {
+        String name;
+        Kind kind;
+        String json;
+        String column;
+        // For enums, the enum type, its stored kind and conversion methods.  For lists, the element type.
+        String typeName;
+        Kind valueKind;
+        String toValue;
+        String fromValue;
+    }
+
+    static class Model {
+        String packageName;
+        String simpleName;
+        List<Field> fields = new ArrayList<Field>();
+        String afterDecode;
+        boolean hasJson;
+        boolean hasColumns;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement generateCodec = processingEnv.getElementUtils().getTypeElement(GENERATE_CODEC);
+        if (generateCodec == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(generateCodec)) {
+            Model model = parse(element);
+            if (model == null) {
+                continue;
+            }
+            try {
+                Writer writer = processingEnv.getFiler().createSourceFile(model.packageName+"."+model.simpleName+CODEC_SUFFIX, element).openWriter();
+                try {
+                    writer.write(new CodecWriter(model).generate());
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException ioe) {
+                error(element, "Could not write codec: "+ioe.getMessage());
+            }
+        }
+        return true;
+    }
+
+    protected Model parse(Element element) {
+        if (element.getKind() != ElementKind.CLASS) {
+            error(element, "Codecs can only be generated for classes");
+            return null;
+        }
+        TypeElement type = (TypeElement)element;
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(element, "Codecs can only be generated for top level concrete classes");
+            return null;
+        }
+        Model model = new Model();
+        model.packageName = ((PackageElement)processingEnv.getElementUtils().getPackageOf(type)).getQualifiedName().toString();
+        model.simpleName = type.getSimpleName().toString();
+        boolean hasConstructor = false;
+        boolean valid = true;
+        Set<String> jsonNames = new HashSet<String>();
+        Set<String> columns = new HashSet<String>();
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.CONSTRUCTOR) {
+                ExecutableElement constructor = (ExecutableElement)member;
+                if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                    hasConstructor = true;
+                }
+            } else if (member.getKind() == ElementKind.METHOD && getMirror(member, AFTER_DECODE) != null) {
+                ExecutableElement method = (ExecutableElement)member;
+                if (!method.getParameters().isEmpty() || method.getModifiers().contains(Modifier.PRIVATE)
+                        || method.getModifiers().contains(Modifier.STATIC) || model.afterDecode != null) {
+                    error(member, "Only one non-private instance method without arguments can be called after decoding");
+                    valid = false;
+                }
+                model.afterDecode = method.getSimpleName().toString();
+            } else if (member.getKind() == ElementKind.FIELD) {
+                AnnotationMirror mirror = getMirror(member, CODEC_FIELD);
+                if (mirror == null) {
+                    continue;
+                }
+                Field field = parseField((VariableElement)member, mirror);
+                if (field == null) {
+                    valid = false;
+                    continue;
+                }
+                if ((field.json.length() > 0 && !jsonNames.add(field.json)) || (field.column.length() > 0 && !columns.add(field.column))) {
+                    error(member, "JSON field names and columns must be unique");
+                    valid = false;
+                }
+                model.hasJson |= field.json.length() > 0;
+                model.hasColumns |= field.column.length() > 0;
+                model.fields.add(field);
+            }
+        }
+        if (!hasConstructor) {
+            error(element, "Models need a non-private constructor without arguments");
+            valid = false;
+        }
+        return valid ? model : null;
+    }
+
+    protected Field parseField(VariableElement element, AnnotationMirror mirror) {
+        Set<Modifier> modifiers = element.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)) {
+            error(element, "Codec fields must be non-private, non-static and non-final");
+            return null;
+        }
+        Field field = new Field();
+        field.name = element.getSimpleName().toString();
+        field.json = getString(mirror, "json");
+        field.column = getString(mirror, "column");
+        field.toValue = getString(mirror, "toValue");
+        field.fromValue = getString(mirror, "fromValue");
+        TypeMirror type = element.asType();
+        field.kind = getSimpleKind(type);
+        if (field.kind != null) {
+            return field;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            error(element, "Unsupported codec field type "+type);
+            return null;
+        }
+        TypeElement typeElement = (TypeElement)((DeclaredType)type).asElement();
+        if (typeElement.getKind() == ElementKind.ENUM) {
+            field.kind = Kind.Enum;
+            field.typeName = typeElement.getQualifiedName().toString();
+            return parseEnum(element, typeElement, field) ? field : null;
+        }
+        if (typeElement.getQualifiedName().contentEquals("java.util.List")) {
+            List<? extends TypeMirror> arguments = ((DeclaredType)type).getTypeArguments();
+            if (arguments.size() == 1 && arguments.get(0).getKind() == TypeKind.DECLARED) {
+                Element item = ((DeclaredType)arguments.get(0)).asElement();
+                if (getMirror(item, GENERATE_CODEC) != null) {
+                    if (field.column.length() > 0) {
+                        error(element, "Lists cannot be stored in columns");
+                        return null;
+                    }
+                    field.kind = Kind.List;
+                    field.typeName = ((TypeElement)item).getQualifiedName().toString();
+                    return field;
+                }
+            }
+            error(element, "Lists must contain a model annotated with @GenerateCodec");
+            return null;
+        }
+        error(element, "Unsupported codec field type "+type);
+        return null;
+    }
+
+    protected boolean parseEnum(VariableElement element, TypeElement enumType, Field field) {
+        Kind toKind = null;
+        boolean hasFrom = false;
+        // toString is inherited, so look it up among all members rather than the declared ones
+        for (Element member : processingEnv.getElementUtils().getAllMembers(enumType)) {
+            if (member.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement)member;
+            String name = method.getSimpleName().toString();
+            boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+            if (name.equals(field.toValue) && !isStatic && method.getParameters().isEmpty()) {
+                toKind = getSimpleKind(method.getReturnType());
+            }
+        }
+        if (toKind != Kind.String && toKind != Kind.Int && toKind != Kind.Long) {
+            error(element, "Enum method "+field.toValue+"() must return a String, int or long");
+            return false;
+        }
+        field.valueKind = toKind;
+        for (Element member : enumType.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement)member;
+            if (method.getSimpleName().contentEquals(field.fromValue) && method.getModifiers().contains(Modifier.STATIC)
+                    && method.getParameters().size() == 1 && getSimpleKind(method.getParameters().get(0).asType()) == toKind
+                    && processingEnv.getTypeUtils().isSameType(method.getReturnType(), enumType.asType())) {
+                hasFrom = true;
+            }
+        }
+        if (!hasFrom) {
+            error(element, "Enum needs a static method "+field.fromValue+"("+toKind+") returning the enum");
+            return false;
+        }
+        return true;
+    }
+
+    protected Kind getSimpleKind(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return Kind.Boolean;
+            case INT: return Kind.Int;
+            case LONG: return Kind.Long;
+            case FLOAT: return Kind.Float;
+            case DOUBLE: return Kind.Double;
+            case DECLARED:
+                return ((TypeElement)((DeclaredType)type).asElement()).getQualifiedName().contentEquals("java.lang.String") ? Kind.String : null;
+            default:
+                return null;
+        }
+    }
+
+    protected AnnotationMirror getMirror(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    protected String getString(AnnotationMirror mirror, String attribute) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(attribute)) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+        return "";
+    }
+
+    protected void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2014 Kevin Quan (kevin.quan@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kevinquan.android.codec.processor;
+
+import com.kevinquan.android.codec.processor.CodecProcessor.Field;
+import com.kevinquan.android.codec.processor.CodecProcessor.Kind;
+import com.kevinquan.android.codec.processor.CodecProcessor.Model;
+
+/**
+ * Writes the source of a codec for a parsed model
+ *
+ * @author Kevin Quan (kevin.quan@gmail.com)
+ *
+ */
+class CodecWriter {
+
+    protected final Model mModel;
+    protected final StringBuilder mOutput;
+    protected final String mCodecName;
+    protected int mIndent;
+
+    CodecWriter(Model model) {
+        mModel = model;
+        mOutput = new StringBuilder();
+        mCodecName = model.simpleName+CodecProcessor.CODEC_SUFFIX;
+    }
+
+    String generate() {
+        String model = mModel.simpleName;
+        line("// Generated by "+CodecProcessor.class.getSimpleName()+" from "+model+".  Do not edit.");
+        line("package "+mModel.packageName+";");
+        line("");
+        line("import java.io.IOException;");
+        line("import java.util.ArrayList;");
+        line("import java.util.List;");
+        line("");
+        line("import android.content.ContentValues;");
+        line("import android.database.Cursor;");
+        line("import android.os.Parcel;");
+        line("");
+        line("import com.google.gson.stream.JsonReader;");
+        line("import com.google.gson.stream.JsonToken;");
+        line("import com.google.gson.stream.JsonWriter;");
+        line("import com.kevinquan.android.codec.CodecSupport;");
+        line("");
+        line("@SuppressWarnings(\"unused\")");
+        open("public final class "+mCodecName);
+        line("");
+        line("private "+mCodecName+"() {}");
+        line("");
+        if (mModel.hasJson) {
+            writeJsonWriter();
+            line("");
+            writeJsonReader();
+            line("");
+        }
+        writeParcelWriter();
+        line("");
+        writeParcelReader();
+        if (mModel.hasColumns) {
+            line("");
+            writeContentValues();
+            line("");
+            writeCursorReader();
+        }
+        close();
+        return mOutput.toString();
+    }
+
+    protected void writeJsonWriter() {
+        open("public static void write(JsonWriter writer, "+mModel.simpleName+" value) throws IOException");
+        open("if (value == null)");
+        line("writer.nullValue();");
+        line("return;");
+        close();
+        line("writer.beginObject();");
+        for (Field field : mModel.fields) {
+            if (field.json.length() == 0) {
+                continue;
+            }
+            String value = "value."+field.name;
+            line("writer.name("+quote(field.json)+");");
+            switch (field.kind) {
+                case Boolean:
+                case Int:
+                case Long:
+                    line("writer.value("+value+");");
+                    break;
+                case Double:
+                    line("CodecSupport.writeDouble(writer, "+value+");");
+                    break;
+                case Float:
+                    line("CodecSupport.writeFloat(writer, "+value+");");
+                    break;
+                case String:
+                    line("writer.value("+value+");");
+                    break;
+                case Enum:
+                    open("if ("+value+" == null)");
+                    line("writer.nullValue();");
+                    reopen("else");
+                    line("writer.value("+value+"."+field.toValue+"());");
+                    close();
+                    break;
+                case List:
+                    open("if ("+value+" == null)");
+                    line("writer.nullValue();");
+                    reopen("else");
+                    line("writer.beginArray();");
+                    open("for ("+field.typeName+" item : "+value+")");
+                    line(field.typeName+CodecProcessor.CODEC_SUFFIX+".write(writer, item);");
+                    close();
+                    line("writer.endArray();");
+                    close();
+                    break;
+            }
+        }
+        line("writer.endObject();");
+        close();
+    }
+
+    protected void writeJsonReader() {
+        String model = mModel.simpleName;
+        open("public static "+model+" read(JsonReader reader) throws IOException");
+        open("if (CodecSupport.skipNull(reader))");
+        line("return null;");
+        close();
+        line(model+" value = new "+model+"();");
+        line("reader.beginObject();");
+        open("while (reader.hasNext())");
+        line("String name = reader.nextName();");
+        open("if (CodecSupport.skipNull(reader))");
+        line("// Nulls keep the default value");
+        line("continue;");
+        close();
+        boolean first = true;
+        for (Field field : mModel.fields) {
+            if (field.json.length() == 0) {
+                continue;
+            }
+            String value = "value."+field.name;
+            String condition = "if ("+quote(field.json)+".equals(name))";
+            if (first) {
+                open(condition);
+                first = false;
+            } else {
+                reopen("else "+condition);
+            }
+            switch (field.kind) {
+                case Boolean:
+                case Int:
+                case Long:
+                case Float:
+                case Double:
+                case String:
+                    line(value+" = CodecSupport.read"+field.kind+"(reader, "+value+");");
+                    break;
+                case Enum:
+                    if (field.valueKind == Kind.String) {
+                        line("String stored = CodecSupport.readString(reader, null);");
+                        open("if (stored != null)");
+                        line(value+" = "+field.typeName+"."+field.fromValue+"(stored);");
+                    } else {
+                        line("long stored = CodecSupport.readLong(reader, Long.MIN_VALUE);");
+                        open("if (stored != Long.MIN_VALUE)");
+                        line(value+" = "+field.typeName+"."+field.fromValue+"("+(field.valueKind == Kind.Int ? "(int)" : "")+"stored);");
+                    }
+                    close();
+                    break;
+                case List:
+                    open("if (reader.peek() != JsonToken.BEGIN_ARRAY)");
+                    line("reader.skipValue();");
+                    line("continue;");
+                    close();
+                    line("List<"+field.typeName+"> items = new ArrayList<"+field.typeName+">();");
+                    line("reader.beginArray();");
+                    open("while (reader.hasNext())");
+                    line(field.typeName+" item = "+field.typeName+CodecProcessor.CODEC_SUFFIX+".read(reader);");
+                    open("if (item != null)");
+                    line("items.add(item);");
+                    close();
+                    close();
+                    line("reader.endArray();");
+                    line(value+" = items;");
+                    break;
+            }
+        }
+        if (first) {
+            line("reader.skipValue();");
+        } else {
+            reopen("else");
+            line("reader.skipValue();");
+            close();
+        }
+        close();
+        line("reader.endObject();");
+        writeAfterDecode();
+        line("return value;");
+        close();
+    }
+
+    protected void writeParcelWriter() {
+        open("public static void writeToParcel("+mModel.simpleName+" value, Parcel dest)");
+        for (Field field : mModel.fields) {
+            String value = "value."+field.name;
+            switch (field.kind) {
+                case Boolean:
+                    line("dest.writeInt("+value+" ? 1 : 0);");
+                    break;
+                case Enum:
+                    if (field.valueKind == Kind.String) {
+                        line("dest.writeString("+value+" == null ? null : "+value+"."+field.toValue+"());");
+                        break;
+                    }
+                    line("dest.writeInt("+value+" == null ? 0 : 1);");
+                    open("if ("+value+" != null)");
+                    line("dest.write"+field.valueKind+"("+value+"."+field.toValue+"());");
+                    close();
+                    break;
+                case List:
+                    line("dest.writeInt("+value+" == null ? -1 : "+value+".size());");
+                    open("if ("+value+" != null)");
+                    open("for ("+field.typeName+" item : "+value+")");
+                    line(field.typeName+CodecProcessor.CODEC_SUFFIX+".writeToParcel(item, dest);");
+                    close();
+                    close();
+                    break;
+                default:
+                    line("dest.write"+field.kind+"("+value+");");
+            }
+        }
+        close();
+    }
+
+    protected void writeParcelReader() {
+        String model = mModel.simpleName;
+        open("public static "+model+" readFromParcel(Parcel in)");
+        line(model+" value = new "+model+"();");
+        for (Field field : mModel.fields) {
+            String value = "value."+field.name;
+            switch (field.kind) {
+                case Boolean:
+                    line(value+" = in.readInt() != 0;");
+                    break;
+                case Enum:
+                    open("");
+                    if (field.valueKind == Kind.String) {
+                        line("String stored = in.readString();");
+                        line(value+" = stored == null ? null : "+field.typeName+"."+field.fromValue+"(stored);");
+                    } else {
+                        line("boolean present = in.readInt() != 0;");
+                        line(value+" = present ? "+field.typeName+"."+field.fromValue+"(in.read"+field.valueKind+"()) : null;");
+                    }
+                    close();
+                    break;
+                case List:
+                    open("");
+                    line("int size = in.readInt();");
+                    open("if (size >= 0)");
+                    line("List<"+field.typeName+"> items = new ArrayList<"+field.typeName+">(size);");
+                    open("for (int i = 0; i < size; i++)");
+                    line("items.add("+field.typeName+CodecProcessor.CODEC_SUFFIX+".readFromParcel(in));");
+                    close();
+                    line(value+" = items;");
+                    close();
+                    close();
+                    break;
+                default:
+                    line(value+" = in.read"+field.kind+"();");
+            }
+        }
+        writeAfterDecode();
+        line("return value;");
+        close();
+    }
+
+    protected void writeContentValues() {
+        open("public static ContentValues getContentValues("+mModel.simpleName+" value)");
+        line("ContentValues values = new ContentValues();");
+        for (Field field : mModel.fields) {
+            if (field.column.length() == 0) {
+                continue;
+            }
+            String value = "value."+field.name;
+            if (field.kind == Kind.Enum) {
+                open("if ("+value+" == null)");
+                line("values.putNull("+quote(field.column)+");");
+                reopen("else");
+                line("values.put("+quote(field.column)+", "+value+"."+field.toValue+"());");
+                close();
+            } else {
+                line("values.put("+quote(field.column)+", "+value+");");
+            }
+        }
+        line("return values;");
+        close();
+    }
+
+    protected void writeCursorReader() {
+        String model = mModel.simpleName;
+        line("/**");
+        line(" * Reads models from the rows of a cursor.  Column indices are resolved once when the reader is created.  Columns");
+        line(" * that are missing or null keep the default value.");
+        line(" */");
+        open("public static final class CursorReader");
+        line("");
+        line("private final Cursor mCursor;");
+        for (Field field : mModel.fields) {
+            if (field.column.length() > 0) {
+                line("private final int "+indexName(field)+";");
+            }
+        }
+        line("");
+        open("public CursorReader(Cursor cursor)");
+        line("mCursor = cursor;");
+        for (Field field : mModel.fields) {
+            if (field.column.length() > 0) {
+                line(indexName(field)+" = cursor.getColumnIndex("+quote(field.column)+");");
+            }
+        }
+        close();
+        line("");
+        line("/**");
+        line(" * @return The model for the current row");
+        line(" */");
+        open("public "+model+" read()");
+        line(model+" value = new "+model+"();");
+        for (Field field : mModel.fields) {
+            if (field.column.length() == 0) {
+                continue;
+            }
+            String index = indexName(field);
+            String value = "value."+field.name;
+            open("if ("+index+" != -1 && !mCursor.isNull("+index+"))");
+            switch (field.kind) {
+                case Boolean:
+                    line(value+" = mCursor.getInt("+index+") != 0;");
+                    break;
+                case Enum:
+                    line(value+" = "+field.typeName+"."+field.fromValue+"(mCursor.get"+field.valueKind+"("+index+"));");
+                    break;
+                default:
+                    line(value+" = mCursor.get"+field.kind+"("+index+");");
+            }
+            close();
+        }
+        writeAfterDecode();
+        line("return value;");
+        close();
+        close();
+    }
+
+    protected void writeAfterDecode() {
+        if (mModel.afterDecode != null) {
+            line("value."+mModel.afterDecode+"();");
+        }
+    }
+
+    protected String indexName(Field field) {
+        String name = field.name;
+        if (name.length() > 1 && name.charAt(0) == 'm' && Character.isUpperCase(name.charAt(1))) {
+            name = name.substring(1);
+        }
+        return "m"+Character.toUpperCase(name.charAt(0))+name.substring(1)+"Index";
+    }
+
+    protected static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\');
+            }
+            quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+
+    protected void open(String statement) {
+        line(statement.length() == 0 ? "{" : statement+" {");
+        mIndent++;
+    }
+
+    protected void reopen(String statement) {
+        mIndent--;
+        line("} "+statement+" {");
+        mIndent++;
+    }
+
+    protected void close() {
+        mIndent--;
+        line("}");
+    }
+
+    protected void line(String text) {
+        if (text.length() > 0) {
+            for (int i = 0; i < mIndent; i++) {
+                mOutput.append("    ");
+            }
+            mOutput.append(text);
+        }
+        mOutput.append('\n');
+    }
+}